@@ -72,7 +72,16 @@
      * each modification
      */
     private List<MetaContact> childContactsOrderedCopy
-                                            = new LinkedList<MetaContact>();
+                                            = new ArrayList<MetaContact>();
+
+    /**
+     * The position of each child contact in
+     * {@link #childContactsOrderedCopy}, replaced together with the copy so
+     * that <tt>indexOf</tt> does not have to scan the list. The contact list
+     * UI asks for the index of every contact whenever it sorts a group.
+     */
+    private Map<MetaContact, Integer> childContactsIndex
+                                            = new IdentityHashMap<>();
 
     /**
      * We use this copy for returning iterators and searching over the list
@@ -301,23 +310,10 @@ public MetaContact getMetaContact(String metaContactID)
      */
     public int indexOf(MetaContact metaContact)
     {
-        int i = 0;
-
-        Iterator<MetaContact> childrenIter = getChildContacts();
-
-        while (childrenIter.hasNext())
-        {
-            MetaContact current = childrenIter.next();
-
-            if (current == metaContact)
-            {
-                return i;
-            }
-            i++;
-        }
+        Integer index = childContactsIndex.get(metaContact);
 
-        //if we got here then metaContact is not in this list
-        return -1;
+        //if there is no index then metaContact is not in this list
+        return (index == null) ? -1 : index;
     }
 
     /**
@@ -725,10 +721,8 @@ int lightAddMetaContact(MetaContactImpl metaContact)
         synchronized(childContacts)
         {
             this.childContacts.add(metaContact);
-            //no need to synch it's not a disaster if s.o. else reads the old copy.
-            childContactsOrderedCopy
-                = new LinkedList<MetaContact>(childContacts);
-            return childContactsOrderedCopy.indexOf(metaContact);
+            updateChildContactsCopy();
+            return indexOf(metaContact);
         }
     }
 
@@ -749,12 +743,27 @@ void lightRemoveMetaContact(MetaContactImpl metaContact)
         synchronized(childContacts)
         {
             this.childContacts.remove(metaContact);
-            //no need to synch it's not a disaster if s.o. else reads the old copy.
-            childContactsOrderedCopy
-                            = new LinkedList<MetaContact>(childContacts);
+            updateChildContactsCopy();
         }
     }
 
+    /**
+     * Regenerates the ordered copy of the child contacts and their index.
+     * Must be called while holding the lock of <tt>childContacts</tt>.
+     */
+    private void updateChildContactsCopy()
+    {
+        List<MetaContact> copy = new ArrayList<MetaContact>(childContacts);
+        Map<MetaContact, Integer> index = new IdentityHashMap<>(copy.size());
+
+        for (int i = 0; i < copy.size(); i++)
+            index.put(copy.get(i), i);
+
+        //no need to synch it's not a disaster if s.o. else reads the old copy.
+        childContactsOrderedCopy = copy;
+        childContactsIndex = index;
+    }
+
 
     /**
      * Removes the specified <tt>metaContact</tt> from the local list of
@@ -23,6 +23,7 @@
 import net.java.sip.communicator.service.notification.*;
 import net.java.sip.communicator.service.protocol.*;
 
+import net.java.sip.communicator.util.*;
 import net.java.sip.communicator.util.osgi.*;
 import org.apache.commons.lang3.StringUtils;
 import org.jitsi.service.configuration.*;
@@ -240,6 +241,9 @@ public void reloadDnsResolverConfig()
             if(!loadDNSProxyForward(configurationService))
                 Lookup.refreshDefault();
         }
+
+        // answers obtained on the previous network may no longer be valid
+        NetworkUtils.clearDefaultDNSCache();
     }
 
     /**
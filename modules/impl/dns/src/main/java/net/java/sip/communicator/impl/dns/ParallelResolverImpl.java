@@ -23,6 +23,7 @@
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import net.java.sip.communicator.service.dns.*;
 import net.java.sip.communicator.util.*;
@@ -38,8 +39,11 @@
  * handle cases where DNS servers may return empty responses to some records.
  * <p>
  * We achieve this by entering a redundant mode whenever we detect an abnormal
- * delay (longer than <tt>DNS_PATIENCE</tt>)  while waiting for a DNS resonse,
- * or when that response is not considered satisfying.
+ * delay while waiting for a DNS resonse, or when that response is not
+ * considered satisfying. The delay we tolerate is derived from a smoothed
+ * estimate of the round trip time of the primary resolver (in the manner of
+ * the TCP retransmission timer of RFC 6298), bounded by
+ * <tt>MIN_DNS_PATIENCE</tt> and the configured <tt>DNS_PATIENCE</tt>.
  * <p>
  * Once we enter redundant mode, we start duplicating all queries and sending
  * them to both our primary and backup resolvers (in case we have any). We then
@@ -60,49 +64,70 @@
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ParallelResolverImpl.class);
 
     /**
-     * Indicates whether we are currently in a mode where all DNS queries are
-     * sent to both the primary and the backup DNS servers.
+     * The maximum number of threads that send queries to the primary
+     * resolver. Queries beyond that wait for a free thread.
+     */
+    static final int MAX_QUERY_THREADS = 16;
+
+    /**
+     * The maximum number of threads that send queries to the backup
+     * resolvers. They are separate from the primary threads so that a silent
+     * primary resolver cannot hold back the backup queries.
      */
-    private volatile static boolean redundantMode = false;
+    static final int MAX_BACKUP_QUERY_THREADS = 4;
 
     /**
-     * The currently configured number of milliseconds that we need to wait
-     * before entering redundant mode.
+     * The minimum number of milliseconds that we wait for the primary
+     * resolver before entering redundant mode, however fast it has been.
      */
-    private static long currentDnsPatience = DNS_PATIENCE;
+    static final long MIN_DNS_PATIENCE = 100;
+
+    /**
+     * The currently configured maximum number of milliseconds that we need to
+     * wait before entering redundant mode.
+     */
+    private volatile long currentDnsPatience = DNS_PATIENCE;
 
     /**
      * The currently configured number of times that the primary DNS would have
      * to provide a faster response than the backup resolver before we consider
      * it safe enough to exit redundant mode.
      */
-    public static int currentDnsRedemption = DNS_REDEMPTION;
+    private volatile int currentDnsRedemption = DNS_REDEMPTION;
 
     /**
      * The number of fast responses that we need to get from the primary
      * resolver before we exit redundant mode. <tt>0</tt> indicates that we are
-     * no longer in redundant mode
+     * not in redundant mode, i.e. a mode where all DNS queries are sent to
+     * both the primary and the backup DNS servers.
+     */
+    private final AtomicInteger redemptionStatus = new AtomicInteger();
+
+    /**
+     * The round trip time estimate of the primary resolver.
      */
-    private static int redemptionStatus = 0;
+    private final LatencyEstimate primaryLatency = new LatencyEstimate();
 
     /**
-     * A lock that we use while determining whether we've completed redemption
-     * and can exit redundant mode.
+     * The round trip time estimate of the backup resolvers.
      */
-    private final static Object redemptionLock = new Object();
+    private final LatencyEstimate backupLatency = new LatencyEstimate();
 
     /**
      * The default resolver that we use if everything works properly.
      */
-    private Resolver defaultResolver;
+    private volatile Resolver defaultResolver;
 
     /**
-     * An extended resolver that would be encapsulating all backup resolvers.
+     * A resolver that would be encapsulating all backup resolvers.
      */
-    private ExtendedResolver backupResolver;
+    private volatile Resolver backupResolver;
 
-    /** Thread pool that processes the backup queries. */
-    private final ExecutorService backupQueriesPool;
+    /** Thread pool that sends the primary queries. */
+    private final ThreadPoolExecutor queryPool;
+
+    /** Thread pool that sends the backup queries. */
+    private final ThreadPoolExecutor backupQueryPool;
 
     private final ConfigurationService configService;
 
@@ -112,12 +137,65 @@
     ParallelResolverImpl(ConfigurationService configService)
     {
         this.configService = configService;
-        backupQueriesPool = Executors.newCachedThreadPool();
+        queryPool = createQueryPool("DNS query", MAX_QUERY_THREADS);
+        backupQueryPool = createQueryPool("DNS backup query",
+            MAX_BACKUP_QUERY_THREADS);
         configService.addPropertyChangeListener(this);
         initProperties();
         reset();
     }
 
+    /**
+     * Creates a new instance of this class with the specified resolvers and
+     * settings, without using the configuration or becoming the default
+     * resolver.
+     *
+     * @param defaultResolver the primary resolver
+     * @param backupResolver the backup resolver
+     * @param patience the maximum number of milliseconds to wait for the
+     * primary resolver before entering redundant mode
+     * @param redemption the number of times that the primary resolver has to
+     * respond first before we exit redundant mode
+     */
+    ParallelResolverImpl(Resolver defaultResolver, Resolver backupResolver,
+        long patience, int redemption)
+    {
+        this.configService = null;
+        this.defaultResolver = defaultResolver;
+        this.backupResolver = backupResolver;
+        this.currentDnsPatience = patience;
+        this.currentDnsRedemption = redemption;
+        queryPool = createQueryPool("DNS query", MAX_QUERY_THREADS);
+        backupQueryPool = createQueryPool("DNS backup query",
+            MAX_BACKUP_QUERY_THREADS);
+    }
+
+    /**
+     * Creates a bounded thread pool that sends queries.
+     *
+     * @param name the name prefix of the threads
+     * @param threads the maximum number of threads
+     * @return the thread pool
+     */
+    private static ThreadPoolExecutor createQueryPool(String name,
+        int threads)
+    {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> {
+                Thread t = new Thread(r,
+                    name + " " + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private void initProperties()
     {
         String rslvrAddrStr
@@ -185,14 +263,16 @@ private void setBackupServers(InetSocketAddress[] backupServers)
     {
         try
         {
-            backupResolver = new ExtendedResolver(new SimpleResolver[0]);
+            ExtendedResolver resolver
+                = new ExtendedResolver(new SimpleResolver[0]);
             for(InetSocketAddress backupServer : backupServers)
             {
                 SimpleResolver sr = new SimpleResolver();
 
                 sr.setAddress(backupServer);
-                backupResolver.addResolver(sr);
+                resolver.addResolver(sr);
             }
+            backupResolver = resolver;
         }
         catch (UnknownHostException e)
         {
@@ -220,25 +300,22 @@ public Message send(Message query)
 
         //if we are not in redundant mode we should wait a bit and see how this
         //goes. if we get a reply we could return bravely.
-        if(!redundantMode)
+        if(!isRedundantMode())
         {
-            if(resolution.waitForResponse(currentDnsPatience))
+            long patience = primaryLatency.getPatience(currentDnsPatience);
+            if(resolution.waitForPrimary(patience))
             {
                 //we are done.
                 return resolution.returnResponseOrThrowUp();
             }
-            else
+            else if(redemptionStatus.getAndSet(currentDnsRedemption) == 0)
             {
-                synchronized(redemptionLock)
-                {
-                    redundantMode = true;
-                    redemptionStatus = currentDnsRedemption;
-                    logger.info("Primary DNS seems laggy: "
-                        + "no response for " + query.getQuestion().getName()
-                        + "/" + Type.string(query.getQuestion().getType())
-                        + " after " + currentDnsPatience + "ms. "
-                        + "Enabling redundant mode.");
-                }
+                logger.info("Primary DNS seems laggy: "
+                    + "no response for " + query.getQuestion().getName()
+                    + "/" + Type.string(query.getQuestion().getType())
+                    + " after " + patience + "ms (primary RTT "
+                    + primaryLatency + ", backup RTT " + backupLatency
+                    + "). Enabling redundant mode.");
             }
         }
 
@@ -247,32 +324,56 @@ public Message send(Message query)
         resolution.waitForResponse(0);
 
         //check if it is time to end redundant mode.
-        synchronized(redemptionLock)
+        if(!resolution.primaryResolverRespondedFirst)
         {
-            if(!resolution.primaryResolverRespondedFirst)
-            {
-                //primary DNS is still feeling shaky. we reinit redemption
-                //status in case we were about to cut the server some slack
-                redemptionStatus = currentDnsRedemption;
-            }
-            else
-            {
-                //primary server replied first. we let him redeem some dignity
-                redemptionStatus --;
-
-                //yup, it's now time to end DNS redundant mode;
-                if(redemptionStatus <= 0)
-                {
-                    redundantMode = false;
-                    logger.info("Primary DNS seems back in biz. "
-                                    + "Disabling redundant mode.");
-                }
-            }
+            //primary DNS is still feeling shaky. we reinit redemption
+            //status in case we were about to cut the server some slack
+            redemptionStatus.set(currentDnsRedemption);
+        }
+        else if(redemptionStatus.getAndUpdate(s -> Math.max(0, s - 1)) == 1)
+        {
+            //primary server replied first and has now redeemed enough
+            //dignity: it's time to end DNS redundant mode
+            logger.info("Primary DNS seems back in biz. "
+                            + "Disabling redundant mode.");
         }
 
         return resolution.returnResponseOrThrowUp();
     }
 
+    /**
+     * Determines whether we are currently in a mode where all DNS queries are
+     * sent to both the primary and the backup DNS servers.
+     *
+     * @return <tt>true</tt> if we are in redundant mode
+     */
+    boolean isRedundantMode()
+    {
+        return redemptionStatus.get() > 0;
+    }
+
+    /**
+     * Returns the number of milliseconds that we currently wait for the
+     * primary resolver before entering redundant mode.
+     *
+     * @return the current patience in milliseconds
+     */
+    long getPatience()
+    {
+        return primaryLatency.getPatience(currentDnsPatience);
+    }
+
+    /**
+     * Returns the largest number of threads that have simultaneously been
+     * sending queries to the primary resolver.
+     *
+     * @return the largest number of query threads
+     */
+    int getLargestQueryThreadCount()
+    {
+        return queryPool.getLargestPoolSize();
+    }
+
     /**
      * Sets the port to communicate on with the default servers.
      *
@@ -439,6 +540,23 @@ private class ParallelResolution implements Runnable
          */
         private volatile boolean primaryResolverRespondedFirst = true;
 
+        /**
+         * The time in nanoseconds at which the query was sent to the primary
+         * resolver, or <tt>0</tt> if it has not been sent yet.
+         */
+        private volatile long primaryStarted = 0;
+
+        /**
+         * The time in nanoseconds at which the query was queued for the
+         * primary resolver.
+         */
+        private volatile long primaryQueued = 0;
+
+        /**
+         * Indicates that the primary resolver has responded or failed.
+         */
+        private volatile boolean primaryFinished = false;
+
         /**
          * Creates a {@link ParallelResolution} for the specified <tt>query</tt>
          *
@@ -456,7 +574,8 @@ public ParallelResolution(final Message query)
          */
         public void sendFirstQuery()
         {
-            ParallelResolverImpl.this.backupQueriesPool.execute(this);
+            primaryQueued = System.nanoTime();
+            queryPool.execute(this);
         }
 
         /**
@@ -467,9 +586,12 @@ public void run()
         {
             Message localResponse = null;
 
+            long start = System.nanoTime();
+            primaryStarted = start;
             try
             {
                 localResponse = defaultResolver.send(query);
+                primaryLatency.addSample(System.nanoTime() - start);
             }
             catch (SocketTimeoutException exc)
             {
@@ -496,6 +618,7 @@ public void run()
                     done = true;
                 }
 
+                primaryFinished = true;
                 notify();
             }
         }
@@ -508,7 +631,7 @@ public void sendBackupQueries()
             //yes. a second thread in the thread ... it's ugly but it works
             //and i do want to keep code simple to read ... this whole parallel
             //resolving is complicated enough as it is.
-            backupQueriesPool.execute(() ->
+            backupQueryPool.execute(() ->
             {
                 if (done)
                 {
@@ -522,7 +645,9 @@ public void sendBackupQueries()
                         + query.getQuestion().getName() + "/"
                         + Type.string(query.getQuestion().getType())
                         + " to backup resolvers");
+                    long start = System.nanoTime();
                     localResponse = backupResolver.send(query);
+                    backupLatency.addSample(System.nanoTime() - start);
                 }
                 catch (Throwable exc)
                 {
@@ -557,6 +682,48 @@ public void sendBackupQueries()
             });
         }
 
+        /**
+         * Waits for a satisfactory response from the primary resolver until
+         * it responds or fails, or until <tt>patience</tt> milliseconds have
+         * passed since the query was sent to it. The time that the query
+         * waits for a free thread only counts if no thread becomes free
+         * within <tt>patience</tt> milliseconds, e.g. because all of them
+         * wait for a silent primary resolver.
+         *
+         * @param patience the number of milliseconds to wait for the primary
+         * resolver.
+         *
+         * @return <tt>true</tt> if we received a satisfactory response and
+         * <tt>false</tt> otherwise.
+         */
+        public boolean waitForPrimary(long patience)
+        {
+            synchronized(this)
+            {
+                while(!done && !primaryFinished)
+                {
+                    long started = primaryStarted;
+                    long remaining = patience - TimeUnit.NANOSECONDS.toMillis(
+                        System.nanoTime()
+                            - (started == 0 ? primaryQueued : started));
+                    if(remaining <= 0)
+                        break;
+
+                    try
+                    {
+                        wait(remaining);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        //we don't care
+                        break;
+                    }
+                }
+
+                return done;
+            }
+        }
+
         /**
          * Waits for a response or an error to occur during <tt>waitFor</tt>
          * milliseconds.If neither happens, we return false.
@@ -642,6 +809,79 @@ else if (exception instanceof Error)
         }
     }
 
+    /**
+     * A smoothed estimate of the round trip time of a resolver and of its
+     * variation, from which we derive how long to wait for the resolver.
+     */
+    static class LatencyEstimate
+    {
+        /**
+         * The weight of a new sample in the smoothed round trip time.
+         */
+        private static final double RTT_GAIN = 0.125;
+
+        /**
+         * The weight of a new sample in the round trip time variation.
+         */
+        private static final double VARIATION_GAIN = 0.25;
+
+        /**
+         * The smoothed round trip time in milliseconds, or a negative value if
+         * there are no samples yet.
+         */
+        private double rtt = -1;
+
+        /**
+         * The smoothed variation of the round trip time in milliseconds.
+         */
+        private double variation;
+
+        /**
+         * Adds a round trip time sample.
+         *
+         * @param nanos the round trip time in nanoseconds
+         */
+        synchronized void addSample(long nanos)
+        {
+            double sample = nanos / 1000000d;
+            if (rtt < 0)
+            {
+                rtt = sample;
+                variation = sample / 2;
+            }
+            else
+            {
+                variation = (1 - VARIATION_GAIN) * variation
+                    + VARIATION_GAIN * Math.abs(rtt - sample);
+                rtt = (1 - RTT_GAIN) * rtt + RTT_GAIN * sample;
+            }
+        }
+
+        /**
+         * Returns the number of milliseconds to wait for a response: the
+         * smoothed round trip time plus four times its variation, bounded by
+         * <tt>MIN_DNS_PATIENCE</tt> and <tt>max</tt>.
+         *
+         * @param max the maximum number of milliseconds to wait, which is
+         * also used while there are no samples
+         * @return the number of milliseconds to wait
+         */
+        synchronized long getPatience(long max)
+        {
+            if (rtt < 0)
+                return max;
+
+            long patience = (long) Math.ceil(rtt + 4 * variation);
+            return Math.min(max, Math.max(MIN_DNS_PATIENCE, patience));
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return rtt < 0 ? "unknown" : Math.round(rtt) + "ms";
+        }
+    }
+
     private final Set<String> configNames = new HashSet<String>(5)
     {{
         add(DnsUtilActivator.PNAME_BACKUP_RESOLVER_ENABLED);
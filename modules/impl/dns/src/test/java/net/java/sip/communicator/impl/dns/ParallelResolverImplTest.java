@@ -0,0 +1,324 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.dns;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+/**
+ * Tests the <tt>ParallelResolverImpl</tt> with fake slow and fast resolvers.
+ */
+public class ParallelResolverImplTest
+{
+    /**
+     * The maximum patience used in the tests.
+     */
+    private static final long PATIENCE = 1000;
+
+    private final FakeResolver primary = new FakeResolver(1);
+
+    private final FakeResolver backup = new FakeResolver(2);
+
+    private final ParallelResolverImpl resolver
+        = new ParallelResolverImpl(primary, backup, PATIENCE, 3);
+
+    @After
+    public void tearDown()
+    {
+        primary.release();
+        backup.release();
+    }
+
+    private static Message query(String name)
+        throws TextParseException
+    {
+        return Message.newQuery(Record.newRecord(
+            Name.fromString(name), Type.A, DClass.IN));
+    }
+
+    private static byte answeredBy(Message response)
+    {
+        return ((ARecord) response.getSection(Section.ANSWER).get(0))
+            .getAddress().getAddress()[3];
+    }
+
+    @Test
+    public void testFastPrimaryIsUsedAlone() throws Exception
+    {
+        primary.delay = 5;
+        for (int i = 0; i < 20; i++)
+        {
+            assertEquals(1,
+                answeredBy(resolver.send(query("host" + i + ".test."))));
+        }
+        assertEquals(0, backup.queries.get());
+        assertFalse(resolver.isRedundantMode());
+    }
+
+    @Test
+    public void testPatienceFollowsPrimaryLatency() throws Exception
+    {
+        assertEquals(PATIENCE, resolver.getPatience());
+        primary.delay = 20;
+        for (int i = 0; i < 20; i++)
+            resolver.send(query("host" + i + ".test."));
+        long patience = resolver.getPatience();
+        assertTrue("patience " + patience, patience < PATIENCE / 2);
+        assertTrue("patience " + patience,
+            patience >= ParallelResolverImpl.MIN_DNS_PATIENCE);
+    }
+
+    @Test
+    public void testSilentPrimaryFallsBackAfterAdaptivePatience()
+        throws Exception
+    {
+        primary.delay = 5;
+        for (int i = 0; i < 20; i++)
+            resolver.send(query("host" + i + ".test."));
+
+        // the primary stops answering: the backup is asked after the
+        // learned patience rather than the configured maximum
+        primary.delay = -1;
+        long start = System.nanoTime();
+        Message response = resolver.send(query("silent.test."));
+        long elapsed
+            = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(2, answeredBy(response));
+        assertTrue("elapsed " + elapsed, elapsed < PATIENCE / 2);
+        assertTrue(resolver.isRedundantMode());
+
+        // in redundant mode the backup is asked right away
+        start = System.nanoTime();
+        assertEquals(2, answeredBy(resolver.send(query("next.test."))));
+        elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("elapsed " + elapsed,
+            elapsed < ParallelResolverImpl.MIN_DNS_PATIENCE);
+    }
+
+    @Test
+    public void testUnsatisfactoryResponseFallsBackImmediately()
+        throws Exception
+    {
+        primary.nxdomain = true;
+        long start = System.nanoTime();
+        assertEquals(2, answeredBy(resolver.send(query("missing.test."))));
+        long elapsed
+            = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("elapsed " + elapsed, elapsed < PATIENCE / 2);
+        assertTrue(resolver.isRedundantMode());
+    }
+
+    @Test
+    public void testPrimaryRedeemsItself() throws Exception
+    {
+        primary.nxdomain = true;
+        resolver.send(query("missing.test."));
+        assertTrue(resolver.isRedundantMode());
+
+        primary.nxdomain = false;
+        backup.delay = 200;
+        for (int i = 0; i < 2; i++)
+        {
+            assertEquals(1, answeredBy(resolver.send(query("a.test."))));
+            assertTrue(resolver.isRedundantMode());
+        }
+        assertEquals(1, answeredBy(resolver.send(query("a.test."))));
+        assertFalse(resolver.isRedundantMode());
+    }
+
+    @Test
+    public void testQueryThreadsAreBounded() throws Exception
+    {
+        primary.delay = 50;
+        int lookups = ParallelResolverImpl.MAX_QUERY_THREADS * 4;
+        ExecutorService callers = Executors.newFixedThreadPool(lookups);
+        try
+        {
+            List<Future<Message>> responses = new ArrayList<>();
+            for (int i = 0; i < lookups; i++)
+            {
+                Message query = query("burst" + i + ".test.");
+                responses.add(callers.submit(() -> resolver.send(query)));
+            }
+            for (Future<Message> response : responses)
+                assertEquals(1, answeredBy(response.get(10, TimeUnit.SECONDS)));
+        }
+        finally
+        {
+            callers.shutdownNow();
+        }
+        assertTrue(resolver.getLargestQueryThreadCount()
+            <= ParallelResolverImpl.MAX_QUERY_THREADS);
+        assertTrue(primary.maxConcurrent.get()
+            <= ParallelResolverImpl.MAX_QUERY_THREADS);
+        assertEquals(lookups, primary.queries.get());
+        assertFalse(resolver.isRedundantMode());
+    }
+
+    /**
+     * More lookups than there are primary query threads, all against a
+     * silent primary: the lookups whose primary query never gets a thread
+     * are still answered by the backup once the patience has run out.
+     */
+    @Test
+    public void testBackupAnswersWhenPrimaryThreadsAreBlocked()
+        throws Exception
+    {
+        primary.delay = -1;
+        int lookups = ParallelResolverImpl.MAX_QUERY_THREADS * 2;
+        ExecutorService callers = Executors.newFixedThreadPool(lookups);
+        try
+        {
+            List<Future<Message>> responses = new ArrayList<>();
+            for (int i = 0; i < lookups; i++)
+            {
+                Message query = query("blocked" + i + ".test.");
+                responses.add(callers.submit(() -> resolver.send(query)));
+            }
+            for (Future<Message> response : responses)
+            {
+                assertEquals(2, answeredBy(
+                    response.get(2 * PATIENCE, TimeUnit.MILLISECONDS)));
+            }
+        }
+        finally
+        {
+            callers.shutdownNow();
+        }
+        assertEquals(ParallelResolverImpl.MAX_QUERY_THREADS,
+            primary.maxConcurrent.get());
+        assertEquals(lookups, backup.queries.get());
+        assertTrue(resolver.isRedundantMode());
+    }
+
+    /**
+     * Answers every query with an A record whose last byte identifies the
+     * resolver, after a delay.
+     */
+    private static class FakeResolver
+        implements Resolver
+    {
+        private final int id;
+
+        /**
+         * The delay in milliseconds or -1 to never answer.
+         */
+        private volatile long delay = 0;
+
+        private volatile boolean nxdomain = false;
+
+        private final AtomicInteger queries = new AtomicInteger();
+
+        private final AtomicInteger concurrent = new AtomicInteger();
+
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private FakeResolver(int id)
+        {
+            this.id = id;
+        }
+
+        private void release()
+        {
+            released.countDown();
+        }
+
+        @Override
+        public Message send(Message query)
+            throws IOException
+        {
+            queries.incrementAndGet();
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(),
+                Math::max);
+            try
+            {
+                if (delay < 0)
+                    released.await();
+                else if (delay > 0)
+                    Thread.sleep(delay);
+            }
+            catch (InterruptedException e)
+            {
+                throw new InterruptedIOException();
+            }
+            finally
+            {
+                concurrent.decrementAndGet();
+            }
+
+            Message response = new Message(query.getHeader().getID());
+            response.getHeader().setFlag(Flags.QR);
+            Record question = query.getQuestion();
+            response.addRecord(question, Section.QUESTION);
+            if (nxdomain)
+            {
+                response.getHeader().setRcode(Rcode.NXDOMAIN);
+            }
+            else
+            {
+                response.addRecord(new ARecord(question.getName(), DClass.IN,
+                    60, InetAddress.getByAddress(new byte[] { 10, 0, 0,
+                        (byte) id })), Section.ANSWER);
+            }
+            return response;
+        }
+
+        @Override
+        public void setPort(int port)
+        {
+        }
+
+        @Override
+        public void setTCP(boolean flag)
+        {
+        }
+
+        @Override
+        public void setIgnoreTruncation(boolean flag)
+        {
+        }
+
+        @Override
+        public void setEDNS(int version, int payloadSize, int flags,
+            List<EDNSOption> options)
+        {
+        }
+
+        @Override
+        public void setTSIGKey(TSIG key)
+        {
+        }
+
+        @Override
+        public void setTimeout(Duration timeout)
+        {
+        }
+    }
+}
@@ -36,7 +36,6 @@
 import net.java.sip.communicator.impl.gui.*;
 import net.java.sip.communicator.impl.gui.main.chat.history.*;
 import net.java.sip.communicator.impl.gui.main.chat.menus.*;
-import net.java.sip.communicator.impl.gui.main.chat.replacers.*;
 import net.java.sip.communicator.impl.gui.utils.*;
 import net.java.sip.communicator.plugin.desktoputil.*;
 import net.java.sip.communicator.plugin.desktoputil.SwingWorker;
@@ -49,7 +48,6 @@
 import net.java.sip.communicator.util.*;
 import net.java.sip.communicator.util.skin.*;
 
-import org.apache.commons.lang3.*;
 import org.apache.commons.text.StringEscapeUtils;
 import org.jitsi.service.configuration.*;
 import org.jitsi.service.fileaccess.*;
@@ -79,26 +77,6 @@
      */
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ChatConversationPanel.class);
 
-    /**
-     * The regular expression (in the form of compiled <tt>Pattern</tt>) which
-     * matches URLs for the purposed of turning them into links.
-     *
-     * TODO Current pattern misses tailing '/' (slash) that is sometimes
-     * included in URL's. (Danny)
-     *
-     * TODO Current implementation misses # after ? has been encountered in URL.
-     * (Danny)
-     */
-    private static final Pattern URL_PATTERN
-        = Pattern.compile(
-            "("
-            + "(\\bwww\\.[^\\s<>\"]+\\.[^\\s<>\"]+/*[?#]*(\\w+[&=;?]\\w+)*\\b)" // wwwURL
-            + "|"
-            + "(\\bjitsi\\:[^\\s<>\"]+\\.[^\\s<>\"]*\\b)" // internalURL
-            + "|"
-            + "(\\b\\w+://[^\\s<>\"]+/*[?#]*(\\w+[&=;?]\\w+)*\\b)" // protocolURL
-            + ")");
-
     /**
      * A regular expression that matches a <div> tag and its contents.
      * The opening tag is group 1, and the tag contents is group 2 when
@@ -142,6 +120,9 @@
      *
      * <p>The first group matches any piece of text outside of the &lt; and &gt;
      * brackets that define the start and end of HTML tags.</p>
+     *
+     * <p>Messages are split according to this grammar by
+     * {@link ChatMessageRenderer} without running the expression.</p>
      */
     static final Pattern TEXT_TO_REPLACE_PATTERN = Pattern.compile(
         "([^<]*+)(?:<(?:[^>\"]*(?:\"[^\"]*+\"?)*)*+>?)?",
@@ -1082,97 +1063,9 @@ private String formatMessageAsHTML(final String original,
             return "";
         }
 
-        // prepare source message
-        String source;
-        if (ChatHtmlUtils.HTML_CONTENT_TYPE.equals(contentType))
-        {
-            source = original;
-        }
-        else
-        {
-            source = StringEscapeUtils.escapeHtml4(original);
-        }
-
-        return processReplacers(source,
-            new NewlineReplacer(),
-            new URLReplacer(URL_PATTERN),
-            new KeywordReplacer(keyword),
-            new BrTagReplacer(),
-            new ImgTagReplacer());
-    }
-
-    /**
-     * Process provided replacers one by one sequentially. The output of the
-     * first replacer is then fed as input into the second replacer, and so on.
-     * <p>
-     * {@link Replacer}s that expect HTML content (
-     * {@link Replacer#expectsPlainText()}) will typically receive the complete
-     * message as an argument. {@linkplain Replacer}s that expect plain text
-     * content will typically receive small pieces that are found in between
-     * HTML tags. The pieces of plain text content cannot be predicted as
-     * results change when they are processed by other replacers.
-     * </p>
-     *
-     * @param content the original content to process
-     * @param replacers the replacers to call
-     * @return returns the final result message content after it has been
-     *         processed by all replacers
-     */
-    private String processReplacers(final String content,
-        final Replacer... replacers)
-    {
-        StringBuilder source = new StringBuilder(content);
-        for (final Replacer replacer : replacers)
-        {
-            final StringBuilder target = new StringBuilder();
-            if (replacer.expectsPlainText())
-            {
-                int startPos = 0;
-                final Matcher plainTextInHtmlMatcher =
-                    TEXT_TO_REPLACE_PATTERN.matcher(source);
-                while (plainTextInHtmlMatcher.find())
-                {
-                    final String plainTextAsHtml =
-                        plainTextInHtmlMatcher.group(1);
-                    final int startMatchPosition =
-                        plainTextInHtmlMatcher.start(1);
-                    final int endMatchPosition = plainTextInHtmlMatcher.end(1);
-                    target.append(source
-                        .substring(startPos, startMatchPosition));
-                    final String plaintext =
-                        StringEscapeUtils.unescapeHtml4(plainTextAsHtml);
-
-                    // Invoke replacer.
-                    try
-                    {
-                        replacer.replace(target, plaintext);
-                    }
-                    catch (RuntimeException e)
-                    {
-                        logger.error("An error occurred in replacer: "
-                            + replacer.getClass().getName(), e);
-                    }
-
-                    startPos = endMatchPosition;
-                }
-                target.append(source.substring(startPos));
-            }
-            else
-            {
-                // Invoke replacer.
-                try
-                {
-                    replacer.replace(target, source.toString());
-                }
-                catch (RuntimeException e)
-                {
-                    logger.error("An error occurred in replacer: "
-                        + replacer.getClass().getName(), e);
-                }
-            }
-            source = target;
-        }
-        return source.toString();
+        return new ChatMessageRenderer(keyword).render(
+            original,
+            ChatHtmlUtils.HTML_CONTENT_TYPE.equals(contentType));
     }
 
     /**
@@ -1590,7 +1483,6 @@ public void loadSkin()
      */
     public String processMeCommand(ChatMessage chatMessage)
     {
-        String contentType = chatMessage.getContentType();
         String message = chatMessage.getMessage();
         if (message.length() <= 4 || !message.startsWith("/me "))
         {
@@ -1607,25 +1499,6 @@ public String processMeCommand(ChatMessage chatMessage)
                 + " " + message.substring(4))
                 + endHeaderTag;
 
-        Map<String, ReplacementService> listSources =
-            GuiActivator.getReplacementSources();
-        for (ReplacementService source : listSources.values())
-        {
-            boolean isSmiley = source instanceof SmiliesReplacementService;
-            if (!isSmiley)
-            {
-                continue;
-            }
-            String sourcePattern = source.getPattern();
-            Pattern p =
-                Pattern.compile(sourcePattern, Pattern.CASE_INSENSITIVE
-                    | Pattern.DOTALL);
-            Matcher m = p.matcher(chatString);
-            chatString =
-                m.replaceAll(ChatHtmlUtils.HTML_CONTENT_TYPE
-                    .equalsIgnoreCase(contentType) ? "$0" : StringEscapeUtils
-                    .escapeHtml4("$0"));
-        }
         return chatString;
     }
 
@@ -2129,16 +2002,18 @@ public Object construct() throws Exception
                 closingTag = divMatcher.group(3);
             }
 
-            StringBuilder msgBuff;
+            // The message is split once. The replacement services take turns
+            // on the pieces of plain text, without escaping and unescaping
+            // the message in between.
+            ChatMessageRenderer.Segments segments
+                = ChatMessageRenderer.Segments.parse(msgStore);
             for (Map.Entry<String, ReplacementService> entry : GuiActivator
                 .getReplacementSources().entrySet())
             {
-                msgBuff = new StringBuilder();
-                processReplacementService(entry.getValue(), msgStore, msgBuff);
-                msgStore = msgBuff.toString();
+                segments = processReplacementService(entry.getValue(), segments);
             }
 
-            return openingTag + msgStore + closingTag;
+            return openingTag + segments.toHtml() + closingTag;
         }
 
         /**
@@ -2146,67 +2021,70 @@ public Object construct() throws Exception
          *
          * @param service the service.
          * @param msg the message.
-         * @param buff current accumulated buffer.
+         * @return the processed message.
          */
-        private void processReplacementService(final ReplacementService service,
-            final String msg, final StringBuilder buff)
-        {
-            String sourcePattern = service.getPattern();
-            Pattern pattern =
-                Pattern.compile(sourcePattern, Pattern.CASE_INSENSITIVE
-                    | Pattern.DOTALL);
-
-            int startPos = 0;
-
-            Matcher plainTextInHtmlMatcher =
-                TEXT_TO_REPLACE_PATTERN.matcher(msg);
-            while (plainTextInHtmlMatcher.find())
+        private ChatMessageRenderer.Segments processReplacementService(
+            final ReplacementService service,
+            final ChatMessageRenderer.Segments msg)
+        {
+            // Smileys are found by the matcher of the pack, other sources by
+            // their pattern.
+            SmileyMatcher smileyMatcher = null;
+            Pattern pattern = null;
+            if (service instanceof SmiliesReplacementService)
             {
-                String plainTextAsHtml = plainTextInHtmlMatcher.group(1);
-                int startMatchPosition = plainTextInHtmlMatcher.start(1);
-                int endMatchPosition = plainTextInHtmlMatcher.end(1);
+                smileyMatcher = ((SmiliesReplacementService) service)
+                    .getSmileyMatcher();
+            }
+            else
+            {
+                pattern = ChatMessageRenderer.getReplacementPattern(
+                    service.getPattern());
+            }
+            ChatMessageRenderer.Segments buff
+                = new ChatMessageRenderer.Segments();
 
-                // don't process nothing
-                // or don't process already processed links content
-                if (StringUtils.isNotEmpty(plainTextAsHtml))
+            for (int i = 0; i < msg.size(); i++)
+            {
+                if (!msg.isText(i))
                 {
-                    // always add from the end of previous match, to current one
-                    // or from the start to the first match
-                    buff.append(msg, startPos, startMatchPosition);
-
-                    final String plaintext =
-                        StringEscapeUtils.unescapeHtml4(plainTextAsHtml);
+                    buff.appendHtml(msg.get(i));
+                    continue;
+                }
 
-                    // Test whether this piece of content (exactly) matches a
-                    // URL pattern. We should find at most a full URL text if it
-                    // exists, since links have already been processed, so any
-                    // URL is already wrapped in A-tags.
-                    final boolean isURL =
-                        URL_PATTERN.matcher(plaintext).matches();
+                final String plaintext = msg.get(i);
 
-                    processText(plaintext, buff, pattern, service, isURL);
+                // Test whether this piece of content (exactly) matches a
+                // URL pattern. We should find at most a full URL text if it
+                // exists, since links have already been processed, so any
+                // URL is already wrapped in A-tags.
+                final boolean isURL =
+                    ChatMessageRenderer.URL_PATTERN.matcher(plaintext)
+                        .matches();
 
-                    startPos = endMatchPosition;
-                }
+                processText(plaintext, buff, pattern, smileyMatcher, service,
+                    isURL);
             }
-
-            // add end from startPos to end
-            buff.append(msg.substring(startPos));
+            return buff;
         }
 
         /**
          * Process plain text content.
          *
          * @param plainText the nodes text.
-         * @param msgBuff the currently accumulated buffer.
+         * @param msgBuff the currently accumulated message.
          * @param pattern the pattern for current replacement service, created
-         *            earlier so we don't create it for every text we check.
+         *            earlier so we don't create it for every text we check,
+         *            or <tt>null</tt> if <tt>smileyMatcher</tt> is used
+         * @param smileyMatcher the matcher of the smileys pack if the
+         *            replacement service is the smiley service
          * @param rService the replacement service.
          * @param isURL whether this content matches the URL pattern
          */
         private void processText(final String plainText,
-                                 final StringBuilder msgBuff,
+                                 final ChatMessageRenderer.Segments msgBuff,
                                  final Pattern pattern,
+                                 final SmileyMatcher smileyMatcher,
                                  final ReplacementService rService,
                                  final boolean isURL)
         {
@@ -2220,7 +2098,16 @@ private void processText(final String plainText,
                 return;
             }
 
-            Matcher m = pattern.matcher(plainText);
+            Matcher m = null;
+            Iterator<SmileyMatcher.Match> smileys = null;
+            if (smileyMatcher != null)
+            {
+                smileys = smileyMatcher.findAll(plainText).iterator();
+            }
+            else
+            {
+                m = pattern.matcher(plainText);
+            }
 
             ConfigurationService cfg = GuiActivator.getConfigurationService();
             boolean isSmiley
@@ -2233,15 +2120,27 @@ private void processText(final String plainText,
                     rService.getSourceName()), true);
 
             int startPos = 0;
-            while (m.find())
+            while (smileys != null ? smileys.hasNext() : m.find())
             {
-                msgBuff.append(StringEscapeUtils.escapeHtml4(plainText
-                    .substring(startPos, m.start())));
-                startPos = m.end();
+                int start;
+                int end;
+                if (smileys != null)
+                {
+                    SmileyMatcher.Match match = smileys.next();
+                    start = match.getStart();
+                    end = match.getEnd();
+                }
+                else
+                {
+                    start = m.start();
+                    end = m.end();
+                }
+                msgBuff.appendText(plainText.substring(startPos, start));
+                startPos = end;
 
-                String group = m.group();
+                String group = plainText.substring(start, end);
                 String temp = rService.getReplacement(group);
-                String group0 = m.group(0);
+                String group0 = group;
 
                 if (!temp.equals(group0) || isDirectImage)
                 {
@@ -2251,30 +2150,28 @@ private void processText(final String plainText,
                                 getPropertyName("SMILEY"),
                             true) && !isURL)
                         {
-                            msgBuff.append("<IMG SRC=\"");
-                            msgBuff.append(temp);
-                            msgBuff.append("\" BORDER=\"0\" ALT=\"");
-                            msgBuff.append(group0);
-                            msgBuff.append("\"></IMG>");
+                            msgBuff.appendHtml("<IMG SRC=\""
+                                + temp
+                                + "\" BORDER=\"0\" ALT=\""
+                                + group0
+                                + "\"></IMG>");
                         }
                         else
                         {
-                            msgBuff
-                                .append(StringEscapeUtils.escapeHtml4(group));
+                            msgBuff.appendText(group);
                         }
                     }
                     else if (isProposalEnabled)
                     {
-                        msgBuff.append(StringEscapeUtils.escapeHtml4(group));
-                        msgBuff.append("</A> <A href=\"jitsi://"
+                        msgBuff.appendText(group);
+                        msgBuff.appendHtml("</A> <A href=\"jitsi://"
                             + previewDialog.getClass().getName()
                             + "/SHOWPREVIEW?" + messageID
                             + "#"
                             + linkCounter
-                            + "\">"
-                            + StringEscapeUtils.escapeHtml4(GuiActivator
-                                .getResources().getI18NString(
-                                    "service.gui.SHOW_PREVIEW")));
+                            + "\">");
+                        msgBuff.appendText(GuiActivator.getResources()
+                            .getI18NString("service.gui.SHOW_PREVIEW"));
 
                         previewDialog.getMsgIDandPositionToLink()
                             .put(messageID + "#" + linkCounter++, group);
@@ -2290,44 +2187,42 @@ else if (isEnabled && isEnabledForSource)
                             if (service.isDirectImage(group)
                                 && service.getImageSize(group) != -1)
                             {
-                                msgBuff.append(
+                                msgBuff.appendHtml(
                                     "<IMG HEIGHT=\"90\" "
-                                        + "WIDTH=\"120\" SRC=\"");
-                                msgBuff.append(temp);
-                                msgBuff.append("\" BORDER=\"0\" ALT=\"");
-                                msgBuff.append(group0);
-                                msgBuff.append("\"></IMG>");
+                                        + "WIDTH=\"120\" SRC=\""
+                                        + temp
+                                        + "\" BORDER=\"0\" ALT=\""
+                                        + group0
+                                        + "\"></IMG>");
                             }
                             else
                             {
-                                msgBuff.append(StringEscapeUtils
-                                    .escapeHtml4(group));
+                                msgBuff.appendText(group);
                             }
                         }
                         else
                         {
-                            msgBuff.append(
+                            msgBuff.appendHtml(
                                 "<IMG HEIGHT=\"90\" "
-                                    + "WIDTH=\"120\" SRC=\"");
-                            msgBuff.append(temp);
-                            msgBuff.append("\" BORDER=\"0\" ALT=\"");
-                            msgBuff.append(group0);
-                            msgBuff.append("\"></IMG>");
+                                    + "WIDTH=\"120\" SRC=\""
+                                    + temp
+                                    + "\" BORDER=\"0\" ALT=\""
+                                    + group0
+                                    + "\"></IMG>");
                         }
                     }
                     else
                     {
-                        msgBuff.append(StringEscapeUtils.escapeHtml4(group));
+                        msgBuff.appendText(group);
                     }
                 }
                 else
                 {
-                    msgBuff.append(StringEscapeUtils.escapeHtml4(group));
+                    msgBuff.appendText(group);
                 }
             }
 
-            msgBuff.append(StringEscapeUtils.escapeHtml4(plainText
-                .substring(startPos)));
+            msgBuff.appendText(plainText.substring(startPos));
         }
     }
 }
@@ -0,0 +1,503 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Renders the body of a chat message as HTML in a single pass.
+ *
+ * The message is scanned once and split into HTML tags and the text in
+ * between. Each piece of text is unescaped once, its links and the
+ * highlighted keyword are classified, and the result is escaped once while it
+ * is written to the output. Newlines become line breaks and XHTML style
+ * &lt;br/&gt; and &lt;img/&gt; tags are converted to tags the chat pane
+ * supports.
+ */
+final class ChatMessageRenderer
+{
+    /**
+     * The regular expression (in the form of compiled <tt>Pattern</tt>) which
+     * matches URLs for the purposed of turning them into links.
+     *
+     * TODO Current pattern misses tailing '/' (slash) that is sometimes
+     * included in URL's. (Danny)
+     *
+     * TODO Current implementation misses # after ? has been encountered in URL.
+     * (Danny)
+     */
+    static final Pattern URL_PATTERN
+        = Pattern.compile(
+            "("
+            + "(\\bwww\\.[^\\s<>\"]+\\.[^\\s<>\"]+/*[?#]*(\\w+[&=;?]\\w+)*\\b)" // wwwURL
+            + "|"
+            + "(\\bjitsi\\:[^\\s<>\"]+\\.[^\\s<>\"]*\\b)" // internalURL
+            + "|"
+            + "(\\b\\w+://[^\\s<>\"]+/*[?#]*(\\w+[&=;?]\\w+)*\\b)" // protocolURL
+            + ")");
+
+    /**
+     * Index of the optional prefix group in the keyword pattern.
+     */
+    private static final int INDEX_OPTIONAL_PREFIX_GROUP = 1;
+
+    /**
+     * Index of the keyword match group in the keyword pattern.
+     */
+    private static final int INDEX_KEYWORD_MATCH_GROUP = 2;
+
+    /**
+     * Index of the optional suffix group in the keyword pattern.
+     */
+    private static final int INDEX_OPTIONAL_SUFFIX_GROUP = 3;
+
+    /**
+     * The compiled patterns of the replacement services by their source.
+     */
+    private static final Map<String, Pattern> replacementPatterns
+        = new ConcurrentHashMap<String, Pattern>();
+
+    /**
+     * The pattern of the keyword to highlight or <tt>null</tt> if no keyword
+     * is highlighted.
+     */
+    private final Pattern keywordPattern;
+
+    /**
+     * Initializes a new <tt>ChatMessageRenderer</tt>.
+     *
+     * @param keyword the keyword to highlight or <tt>null</tt>
+     */
+    ChatMessageRenderer(String keyword)
+    {
+        keywordPattern
+            = (keyword == null || keyword.isEmpty())
+                ? null
+                : Pattern.compile(
+                    "(^|\\W)(" + Pattern.quote(keyword) + ")(\\W|$)",
+                    Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Renders the body of a message.
+     *
+     * @param message the body of the message
+     * @param html <tt>true</tt> if the message is HTML, <tt>false</tt> if it
+     * is plain text
+     * @return the message as HTML
+     */
+    String render(String message, boolean html)
+    {
+        StringBuilder target = new StringBuilder(message.length() + 16);
+
+        if (!html)
+        {
+            appendText(target, message, false);
+            return target.toString();
+        }
+
+        int length = message.length();
+        int start = 0;
+
+        while (start < length)
+        {
+            int tag = message.indexOf('<', start);
+
+            if (tag < 0)
+                tag = length;
+            if (tag > start)
+                appendText(target, message.substring(start, tag), true);
+            if (tag == length)
+                break;
+
+            start = tagEnd(message, tag);
+            appendTag(target, message, tag, start);
+        }
+        return target.toString();
+    }
+
+    /**
+     * Appends a piece of text, turning newlines into line breaks. The links
+     * and the keyword of each line are rendered separately. A line starts
+     * with the newline which precedes it.
+     *
+     * @param target the output
+     * @param text the piece of text
+     * @param escaped <tt>true</tt> if the text is escaped HTML,
+     * <tt>false</tt> if it is plain text
+     */
+    private void appendText(StringBuilder target, String text, boolean escaped)
+    {
+        int start = 0;
+        int newline = text.indexOf('\n');
+
+        while (newline >= 0)
+        {
+            if (newline > start)
+                appendLine(target, text.substring(start, newline), escaped);
+            target.append("<BR>");
+            start = newline;
+            newline = text.indexOf('\n', newline + 1);
+        }
+        appendLine(
+            target,
+            (start == 0) ? text : text.substring(start),
+            escaped);
+    }
+
+    /**
+     * Appends a line of text, turning URLs into links and highlighting the
+     * keyword.
+     *
+     * @param target the output
+     * @param line the line
+     * @param escaped <tt>true</tt> if the line is escaped HTML,
+     * <tt>false</tt> if it is plain text
+     */
+    private void appendLine(StringBuilder target, String line, boolean escaped)
+    {
+        if (escaped)
+            line = StringEscapeUtils.unescapeHtml4(line);
+
+        Matcher m = URL_PATTERN.matcher(line);
+        int prevEnd = 0;
+
+        while (m.find())
+        {
+            appendHighlighted(target, line.substring(prevEnd, m.start()));
+            prevEnd = m.end();
+
+            String url = m.group().trim();
+
+            target.append("<A href=\"");
+            if (url.startsWith("www"))
+                target.append("http://");
+            target.append(url);
+            target.append("\">");
+            appendHighlighted(target, url);
+            target.append("</A>");
+        }
+        appendHighlighted(
+            target,
+            (prevEnd == 0) ? line : line.substring(prevEnd));
+    }
+
+    /**
+     * Appends escaped plain text, highlighting the keyword in bold.
+     *
+     * @param target the output
+     * @param text the plain text
+     */
+    private void appendHighlighted(StringBuilder target, String text)
+    {
+        if (keywordPattern == null)
+        {
+            appendEscaped(target, text);
+            return;
+        }
+
+        Matcher m = keywordPattern.matcher(text);
+        int prevEnd = 0;
+
+        while (m.find())
+        {
+            appendEscaped(
+                target,
+                text.substring(
+                    prevEnd,
+                    m.start()
+                        + m.group(INDEX_OPTIONAL_PREFIX_GROUP).length()));
+            prevEnd = m.end() - m.group(INDEX_OPTIONAL_SUFFIX_GROUP).length();
+            target.append("<b>");
+            appendEscaped(target, m.group(INDEX_KEYWORD_MATCH_GROUP).trim());
+            target.append("</b>");
+        }
+        appendEscaped(target, text.substring(prevEnd));
+    }
+
+    /**
+     * Appends an HTML tag. The slash of self-closing &lt;br/&gt; tags is
+     * dropped and self-closing &lt;img/&gt; tags are closed with a separate
+     * closing tag, since the chat pane does not support XHTML syntax.
+     *
+     * @param target the output
+     * @param html the HTML containing the tag
+     * @param start the start of the tag
+     * @param end the end of the tag
+     */
+    private static void appendTag(
+            StringBuilder target,
+            String html,
+            int start,
+            int end)
+    {
+        int name = start + 1;
+
+        while (name < end && Character.isWhitespace(html.charAt(name)))
+            name++;
+
+        boolean br = html.regionMatches(true, name, "br", 0, 2);
+        boolean img = !br && html.regionMatches(true, name, "img", 0, 3);
+        int slash = -1;
+
+        if ((br || img) && html.charAt(end - 1) == '>')
+        {
+            int i = end - 2;
+
+            while (i > name && Character.isWhitespace(html.charAt(i)))
+                i--;
+            if (i > name && html.charAt(i) == '/')
+                slash = i;
+        }
+
+        if (slash < 0)
+        {
+            target.append(html, start, end);
+        }
+        else
+        {
+            target.append(html, start, slash);
+            target.append(html, slash + 1, end);
+            if (img)
+                target.append("</img>");
+        }
+    }
+
+    /**
+     * Finds the end of an HTML tag. The tag ends with the first &gt; which is
+     * not between quotes, or with the end of the HTML if the tag is
+     * incomplete. This is the grammar of
+     * {@link ChatConversationPanel#TEXT_TO_REPLACE_PATTERN}.
+     *
+     * @param html the HTML
+     * @param start the index of the &lt; which starts the tag
+     * @return the index after the end of the tag
+     */
+    static int tagEnd(String html, int start)
+    {
+        int length = html.length();
+        int i = start + 1;
+
+        while (i < length)
+        {
+            char c = html.charAt(i++);
+
+            if (c == '>')
+                break;
+            if (c == '"')
+            {
+                int quote = html.indexOf('"', i);
+
+                i = (quote < 0) ? length : quote + 1;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Appends plain text escaped as HTML.
+     *
+     * @param target the output
+     * @param text the plain text
+     */
+    static void appendEscaped(StringBuilder target, String text)
+    {
+        for (int i = 0, length = text.length(); i < length; i++)
+        {
+            char c = text.charAt(i);
+
+            if (c >= 0x80 || c == '&' || c == '<' || c == '>' || c == '"')
+            {
+                target.append(StringEscapeUtils.escapeHtml4(text));
+                return;
+            }
+        }
+        target.append(text);
+    }
+
+    /**
+     * Gets the compiled pattern of a replacement service.
+     *
+     * @param source the pattern of the replacement service
+     * @return the compiled pattern
+     */
+    static Pattern getReplacementPattern(String source)
+    {
+        Pattern pattern = replacementPatterns.get(source);
+
+        if (pattern == null)
+        {
+            pattern
+                = Pattern.compile(
+                    source,
+                    Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+            replacementPatterns.put(source, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * An HTML message split into tags and pieces of plain text. Adjacent
+     * pieces of plain text are merged.
+     */
+    static final class Segments
+    {
+        /**
+         * The tags and the unescaped pieces of plain text.
+         */
+        private final List<String> values = new ArrayList<String>();
+
+        /**
+         * Whether the segments are plain text.
+         */
+        private final BitSet text = new BitSet();
+
+        /**
+         * Plain text not yet added to {@link #values}.
+         */
+        private final StringBuilder pendingText = new StringBuilder();
+
+        /**
+         * Splits an HTML message. The pieces of plain text are unescaped.
+         *
+         * @param html the HTML message
+         * @return the segments of the message
+         */
+        static Segments parse(String html)
+        {
+            Segments segments = new Segments();
+            int length = html.length();
+            int start = 0;
+
+            while (start < length)
+            {
+                int tag = html.indexOf('<', start);
+
+                if (tag < 0)
+                    tag = length;
+                if (tag > start)
+                {
+                    segments.appendText(
+                        StringEscapeUtils.unescapeHtml4(
+                            html.substring(start, tag)));
+                }
+                if (tag == length)
+                    break;
+
+                start = tagEnd(html, tag);
+                segments.appendHtml(html.substring(tag, start));
+            }
+            return segments;
+        }
+
+        /**
+         * Appends plain text.
+         *
+         * @param value the plain text
+         */
+        void appendText(String value)
+        {
+            pendingText.append(value);
+        }
+
+        /**
+         * Appends HTML.
+         *
+         * @param value the HTML
+         */
+        void appendHtml(String value)
+        {
+            flush();
+            values.add(value);
+        }
+
+        /**
+         * Gets the number of segments.
+         *
+         * @return the number of segments
+         */
+        int size()
+        {
+            flush();
+            return values.size();
+        }
+
+        /**
+         * Gets a segment.
+         *
+         * @param index the index of the segment
+         * @return the unescaped plain text or the HTML of the segment
+         */
+        String get(int index)
+        {
+            flush();
+            return values.get(index);
+        }
+
+        /**
+         * Determines whether a segment is plain text.
+         *
+         * @param index the index of the segment
+         * @return <tt>true</tt> if the segment is plain text, <tt>false</tt> if
+         * it is HTML
+         */
+        boolean isText(int index)
+        {
+            flush();
+            return text.get(index);
+        }
+
+        /**
+         * Writes the segments as HTML.
+         *
+         * @return the HTML
+         */
+        String toHtml()
+        {
+            flush();
+
+            StringBuilder html = new StringBuilder();
+
+            for (int i = 0; i < values.size(); i++)
+            {
+                if (text.get(i))
+                    appendEscaped(html, values.get(i));
+                else
+                    html.append(values.get(i));
+            }
+            return html.toString();
+        }
+
+        /**
+         * Adds the pending plain text to the segments.
+         */
+        private void flush()
+        {
+            if (pendingText.length() > 0)
+            {
+                text.set(values.size());
+                values.add(pendingText.toString());
+                pendingText.setLength(0);
+            }
+        }
+    }
+}
@@ -2299,6 +2299,17 @@ public void addChatContact(ChatContact<?> chatContact)
             chatContactListPanel.addContact(chatContact);
     }
 
+    /**
+     * Adds the given <tt>chatContacts</tt> to the list of chat contacts
+     * participating in the corresponding to this chat panel chat.
+     * @param chatContacts the contacts to add
+     */
+    public void addChatContacts(List<ChatContact<?>> chatContacts)
+    {
+        if (chatContactListPanel != null)
+            chatContactListPanel.addContacts(chatContacts);
+    }
+
     /**
      * Removes the given <tt>chatContact</tt> from the list of chat contacts
      * participating in the corresponding to this chat panel chat.
@@ -23,6 +23,7 @@
 
 import net.java.sip.communicator.impl.gui.main.chat.*;
 import net.java.sip.communicator.service.muc.*;
+import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
 
 /**
@@ -35,7 +36,8 @@
  */
 public class ChatContactListModel
     extends AbstractListModel<ChatContact<?>>
-    implements ChatRoomMemberPropertyChangeListener
+    implements ChatRoomMemberPropertyChangeListener,
+               ChatRoomMemberRoleListener
 {
 
     /**
@@ -45,6 +47,13 @@
     private final List<ChatContact<?>> chatContacts
         = new ArrayList<ChatContact<?>>();
 
+    /**
+     * The <tt>ChatContact</tt>s in {@link #chatContacts} for constant time
+     * duplicate checks.
+     */
+    private final Set<ChatContact<?>> chatContactSet
+        = new HashSet<ChatContact<?>>();
+
     /**
      * Current chat session.
      */
@@ -108,8 +117,11 @@ public ChatContactListModel(ChatSession chatSession)
 
         if(descriptor instanceof ChatRoomWrapper)
         {
-            ((ChatRoomWrapper) descriptor)
-                .getChatRoom().addMemberPropertyChangeListener(this);
+            ChatRoom chatRoom = ((ChatRoomWrapper) descriptor).getChatRoom();
+
+            chatRoom.addMemberPropertyChangeListener(this);
+            // roles are part of the sorting
+            chatRoom.addMemberRoleListener(this);
         }
     }
 
@@ -119,6 +131,14 @@ public ChatContactListModel(ChatSession chatSession)
      */
     public void chatRoomPropertyChanged(ChatRoomMemberPropertyChangeEvent ev)
     {
+        // a new nickname may move the member within the list
+        if (ChatRoomMemberPropertyChangeEvent.MEMBER_NICKNAME.equals(
+                ev.getPropertyName()))
+        {
+            sortElements();
+            return;
+        }
+
         // Translate into
         // ListDataListener.contentsChanged.
         int chatContactCount = chatContacts.size();
@@ -140,6 +160,39 @@ public void chatRoomPropertyChanged(ChatRoomMemberPropertyChangeEvent ev)
         }
     }
 
+    /**
+     * Listens for role changes of chat room members, which move them within
+     * the list.
+     *
+     * @param evt the event
+     */
+    public void memberRoleChanged(ChatRoomMemberRoleChangeEvent evt)
+    {
+        sortElements();
+    }
+
+    /**
+     * Sorts the <tt>ChatContact</tt>s again after the name or the role of one
+     * of them has changed. {@link #addElement(ChatContact)} and
+     * {@link #addElements(List)} rely on the list being sorted.
+     */
+    private void sortElements()
+    {
+        int size;
+
+        synchronized(chatContacts)
+        {
+            size = chatContacts.size();
+            if (size == 0)
+                return;
+
+            // only the changed member is out of place, which the stable merge
+            // sort fixes in about linear time
+            Collections.sort(chatContacts, sorter);
+        }
+        fireContentsChanged(this, 0, size - 1);
+    }
+
     /**
      * Adds a specific <tt>ChatContact</tt> to this <tt>AbstractListModel</tt>
      * implementation and preserves the sorting it applies.
@@ -152,32 +205,91 @@ public void addElement(ChatContact<?> chatContact)
         if (chatContact == null)
             throw new IllegalArgumentException("chatContact");
 
-        int index = -1;
+        int index;
 
         synchronized(chatContacts)
         {
-            int chatContactCount = chatContacts.size();
+            // We don't want duplicates.
+            if (!chatContactSet.add(chatContact))
+                return;
 
-            for (int i = 0; i < chatContactCount; i++)
+            index = Collections.binarySearch(chatContacts, chatContact, sorter);
+            if (index < 0)
+                index = -index - 1;
+            else
             {
-                ChatContact<?> containedChatContact = chatContacts.get(i);
+                // Insert after the contacts which sort equally.
+                while ((index < chatContacts.size())
+                        && (sorter.compare(chatContacts.get(index), chatContact)
+                                <= 0))
+                    index++;
+            }
 
+            chatContacts.add(index, chatContact);
+        }
+        fireIntervalAdded(this, index, index);
+    }
+
+    /**
+     * Adds a list of <tt>ChatContact</tt>s to this <tt>AbstractListModel</tt>
+     * implementation at once, preserving the sorting it applies. The new
+     * contacts are sorted among themselves and then merged with the existing
+     * ones, so that adding the members of a large chat room costs a single
+     * pass and a single update of the list.
+     *
+     * @param newChatContacts the <tt>ChatContact</tt>s to be added to this
+     * <tt>AbstractListModel</tt>
+     */
+    public void addElements(List<ChatContact<?>> newChatContacts)
+    {
+        int oldSize;
+        int newSize;
+
+        synchronized(chatContacts)
+        {
+            List<ChatContact<?>> added
+                = new ArrayList<ChatContact<?>>(newChatContacts.size());
+
+            for (ChatContact<?> chatContact : newChatContacts)
+            {
                 // We don't want duplicates.
-                if (chatContact.equals(containedChatContact))
-                    return;
-                if ((index == -1)
-                        && (sorter.compare(containedChatContact, chatContact) > 0))
+                if ((chatContact != null) && chatContactSet.add(chatContact))
+                    added.add(chatContact);
+            }
+            if (added.isEmpty())
+                return;
+
+            Collections.sort(added, sorter);
+
+            oldSize = chatContacts.size();
+            if (oldSize == 0)
+                chatContacts.addAll(added);
+            else
+            {
+                List<ChatContact<?>> merged
+                    = new ArrayList<ChatContact<?>>(oldSize + added.size());
+                int i = 0;
+                int j = 0;
+
+                while ((i < oldSize) && (j < added.size()))
                 {
-                    index = i;
-                    // Continue in order to prevent duplicates.
+                    if (sorter.compare(chatContacts.get(i), added.get(j)) <= 0)
+                        merged.add(chatContacts.get(i++));
+                    else
+                        merged.add(added.get(j++));
                 }
-            }
-            if (index == -1)
-                index = chatContactCount;
+                merged.addAll(chatContacts.subList(i, oldSize));
+                merged.addAll(added.subList(j, added.size()));
 
-            chatContacts.add(index, chatContact);
+                chatContacts.clear();
+                chatContacts.addAll(merged);
+            }
+            newSize = chatContacts.size();
         }
-        fireIntervalAdded(this, index, index);
+
+        fireIntervalAdded(this, oldSize, newSize - 1);
+        if (oldSize > 0)
+            fireContentsChanged(this, 0, oldSize - 1);
     }
 
     /* Implements ListModel#getElementAt(int). */
@@ -209,6 +321,9 @@ public void removeElement(ChatContact<?> chatContact)
     {
         synchronized(chatContacts)
         {
+            if (!chatContactSet.remove(chatContact))
+                return;
+
             int index = chatContacts.indexOf(chatContact);
 
             if ((index >= 0) && chatContacts.remove(chatContact))
@@ -228,6 +343,7 @@ public void removeAllElements()
         {
             int contactsSize = chatContacts.size();
             chatContacts.clear();
+            chatContactSet.clear();
 
             fireIntervalRemoved(this, 0, contactsSize - 1);
         }
@@ -242,8 +358,10 @@ public void dispose()
 
         if(descriptor instanceof ChatRoomWrapper)
         {
-            ((ChatRoomWrapper) descriptor)
-                .getChatRoom().removeMemberPropertyChangeListener(this);
+            ChatRoom chatRoom = ((ChatRoomWrapper) descriptor).getChatRoom();
+
+            chatRoom.removeMemberPropertyChangeListener(this);
+            chatRoom.removeMemberRoleListener(this);
         }
     }
 }
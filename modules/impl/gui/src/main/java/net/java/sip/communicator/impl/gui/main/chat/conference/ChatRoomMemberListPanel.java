@@ -19,6 +19,8 @@
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.*;
+import java.util.List;
 
 import javax.swing.*;
 
@@ -163,6 +165,17 @@ public void addContact(ChatContact<?> chatContact)
         memberListModel.addElement(chatContact);
     }
 
+    /**
+     * Adds a list of <tt>ChatContact</tt>s to the list of contacts contained
+     * in the chat with a single update of the list.
+     *
+     * @param chatContacts the <tt>ChatContact</tt>s to add
+     */
+    public void addContacts(List<ChatContact<?>> chatContacts)
+    {
+        memberListModel.addElements(chatContacts);
+    }
+
     /**
      * Removes the given <tt>ChatContact</tt> from the list of chat contacts.
      *
@@ -40,7 +40,7 @@
  */
 public class ConferenceChatSession
     extends ChatSession
-    implements  ChatRoomMemberPresenceListener,
+    implements  ChatRoomMembersLoadedListener,
                 ChatRoomPropertyChangeListener,
                 ChatRoomConferencePublishedListener
 {
@@ -588,6 +588,64 @@ public void loadChatRoom(ChatRoom chatRoom)
         sessionRenderer.setChatSubject(chatRoom.getSubject());
     }
 
+    /**
+     * Implements the <tt>ChatRoomMembersLoadedListener.membersLoaded</tt>
+     * method. Adds all the members which were in the chat room when it was
+     * joined with a single update of the member list.
+     *
+     * @param evt the <tt>ChatRoomMembersLoadedEvent</tt> listing the members
+     */
+    public void membersLoaded(final ChatRoomMembersLoadedEvent evt)
+    {
+        if(!SwingUtilities.isEventDispatchThread())
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    membersLoaded(evt);
+                }
+            });
+            return;
+        }
+
+        if(!evt.getChatRoom().equals(chatRoomWrapper.getChatRoom()))
+            return;
+
+        List<ChatContact<?>> added = new ArrayList<ChatContact<?>>();
+
+        synchronized (chatParticipants)
+        {
+            Set<ChatContact<?>> present
+                = new HashSet<ChatContact<?>>(chatParticipants);
+
+            for (ChatRoomMember member : evt.getChatRoomMembers())
+            {
+                ConferenceChatContact chatContact
+                    = new ConferenceChatContact(member);
+
+                if (present.add(chatContact))
+                {
+                    chatParticipants.add(chatContact);
+                    added.add(chatContact);
+                }
+            }
+        }
+
+        sessionRenderer.addChatContacts(added);
+
+        ChatRoom room = chatRoomWrapper.getChatRoom();
+        if (room != null)
+        {
+            for (ChatContact<?> chatContact : added)
+            {
+                room.updatePrivateContactPresenceStatus(
+                    ((ChatRoomMember) chatContact.getDescriptor()).getName());
+            }
+        }
+    }
+
     /**
      * Implements the <tt>ChatPanel.getChatStatusIcon</tt> method.
      *
@@ -223,6 +223,17 @@
      */
     private Image msgReceivedImage;
 
+    /**
+     * The icon shown instead of the status of contacts with unread messages.
+     */
+    private ImageIcon msgReceivedIcon;
+
+    /**
+     * The indicator shown next to the name of contacts online on mobile
+     * devices only.
+     */
+    private ImageIcon mobileIndicatorIcon;
+
     /**
      * The label containing the status icon.
      */
@@ -523,12 +534,15 @@ public Component getTreeCellRendererComponent(JTree tree, Object value,
 
             nameLabel.setText(displayName);
 
-            if(statusIcon != null
-                && contactList.isContactActive(contact)
-                && statusIcon instanceof ImageIcon)
-                ((ImageIcon) statusIcon).setImage(msgReceivedImage);
+            // the status icon, display details and mobile indicator are
+            // computed when the contact changes, not on every paint
+            ContactNode.RenderData renderData
+                = ((ContactNode) value).getRenderData();
+
+            if(contactList.isContactActive(contact))
+                statusIcon = msgReceivedIcon;
             else
-                statusIcon = contact.getStatusIcon();
+                statusIcon = renderData.statusIcon;
 
             statusLabel.setIcon(statusIcon);
 
@@ -557,17 +571,12 @@ public Component getTreeCellRendererComponent(JTree tree, Object value,
 
             // Initializes status message components if the given meta contact
             // contains a status message.
-            initDisplayDetails(contact.getDisplayDetails());
+            initDisplayDetails(renderData.displayDetails);
 
             // Checks and set mobile indicator
-            if (contact.getDescriptor() instanceof MetaContact
-                && isMobile((MetaContact)contact.getDescriptor()))
+            if (renderData.isMobile)
             {
-                nameLabel.setIcon(
-                        new ImageIcon(
-                                ImageLoader.getImage(
-                                        ImageLoader
-                                            .CONTACT_LIST_MOBILE_INDICATOR)));
+                nameLabel.setIcon(mobileIndicatorIcon);
                 nameLabel.setHorizontalTextPosition(SwingConstants.LEFT);
             }
 
@@ -714,35 +723,6 @@ else if (value instanceof GroupNode)
         return this;
     }
 
-    /**
-     * Checks whether metaContact has mobile indicator.
-     * Needs all of the contacts to have it to indicate it.
-     * @param metaContact the metacontact to check for mobile indicator
-     * @return whether to indicate contact as mobile one.
-     */
-    private boolean isMobile(MetaContact metaContact)
-    {
-        boolean hasConnectedStatus = false;
-        Iterator<Contact> iter = metaContact.getContacts();
-        while(iter.hasNext())
-        {
-            Contact contact = iter.next();
-
-            boolean isConnected = contact.getPresenceStatus().isOnline();
-
-            if(isConnected)
-                hasConnectedStatus = true;
-
-            if(isConnected && !contact.isMobile())
-                return false;
-        }
-
-        if(!hasConnectedStatus)
-            return false;
-        else
-            return metaContact.getContactCount() > 0 ? true : false;
-    }
-
     /**
      * Paints a customized background.
      *
@@ -1637,6 +1617,9 @@ public void loadSkin()
 
         msgReceivedImage
             = ImageLoader.getImage(ImageLoader.MESSAGE_RECEIVED_ICON);
+        msgReceivedIcon = new ImageIcon(msgReceivedImage);
+        mobileIndicatorIcon = new ImageIcon(
+            ImageLoader.getImage(ImageLoader.CONTACT_LIST_MOBILE_INDICATOR));
 
         int groupForegroundProperty = GuiActivator.getResources()
             .getColor("service.gui.CONTACT_LIST_GROUP_FOREGROUND");
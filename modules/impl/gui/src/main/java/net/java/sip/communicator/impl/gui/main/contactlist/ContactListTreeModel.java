@@ -140,6 +140,11 @@ public JTree getParentTree()
     @Override
     public void nodeChanged(final TreeNode node)
     {
+        // Computes what the renderer needs on the notifying thread so that
+        // painting the node does not have to.
+        if (node instanceof ContactNode)
+            ((ContactNode) node).refreshRenderData();
+
         SwingUtilities.invokeLater(new Runnable()
         {
             public void run()
@@ -17,7 +17,13 @@
  */
 package net.java.sip.communicator.impl.gui.main.contactlist;
 
+import java.util.*;
+
+import javax.swing.*;
+
+import net.java.sip.communicator.service.contactlist.*;
 import net.java.sip.communicator.service.gui.*;
+import net.java.sip.communicator.service.protocol.*;
 
 /**
  * The <tt>ContactNode</tt> is a <tt>ContactListNode</tt> corresponding to a
@@ -38,6 +44,12 @@
      */
     private boolean isActive;
 
+    /**
+     * What the renderer shows for this contact, computed when the contact
+     * changes rather than on every paint.
+     */
+    private volatile RenderData renderData;
+
     /**
      * Creates a <tt>ContactNode</tt> by specifying the corresponding
      * <tt>contact</tt>.
@@ -88,4 +100,96 @@ public void setActive(boolean isActive)
     {
         this.isActive = isActive;
     }
+
+    /**
+     * Returns what the renderer shows for this contact, computing it if it
+     * has not been computed yet.
+     *
+     * @return the <tt>RenderData</tt> of this contact node
+     */
+    public RenderData getRenderData()
+    {
+        RenderData renderData = this.renderData;
+
+        return (renderData != null) ? renderData : refreshRenderData();
+    }
+
+    /**
+     * Recomputes what the renderer shows for this contact. Called when the
+     * contact has changed, from the thread reporting the change, so that the
+     * event dispatch thread only has to paint.
+     *
+     * @return the new <tt>RenderData</tt> of this contact node
+     */
+    public RenderData refreshRenderData()
+    {
+        RenderData renderData = new RenderData(getContactDescriptor());
+
+        this.renderData = renderData;
+        return renderData;
+    }
+
+    /**
+     * The status icon, the display details and the mobile indicator of a
+     * contact.
+     */
+    public static class RenderData
+    {
+        /**
+         * The status icon of the contact.
+         */
+        public final ImageIcon statusIcon;
+
+        /**
+         * The display details of the contact.
+         */
+        public final String displayDetails;
+
+        /**
+         * Whether the contact is only online on mobile devices.
+         */
+        public final boolean isMobile;
+
+        /**
+         * Computes the render data of a specific contact.
+         *
+         * @param contact the contact
+         */
+        private RenderData(UIContactImpl contact)
+        {
+            statusIcon = contact.getStatusIcon();
+            displayDetails = contact.getDisplayDetails();
+            isMobile = (contact.getDescriptor() instanceof MetaContact)
+                && isMobile((MetaContact) contact.getDescriptor());
+        }
+
+        /**
+         * Checks whether metaContact has mobile indicator.
+         * Needs all of the contacts to have it to indicate it.
+         * @param metaContact the metacontact to check for mobile indicator
+         * @return whether to show mobile indicator.
+         */
+        private static boolean isMobile(MetaContact metaContact)
+        {
+            boolean hasConnectedStatus = false;
+            Iterator<Contact> iter = metaContact.getContacts();
+            while(iter.hasNext())
+            {
+                Contact contact = iter.next();
+
+                boolean isConnected = contact.getPresenceStatus().isOnline();
+
+                if(isConnected)
+                    hasConnectedStatus = true;
+
+                if(isConnected && !contact.isMobile())
+                    return false;
+            }
+
+            if(!hasConnectedStatus)
+                return false;
+            else
+                return metaContact.getContactCount() > 0 ? true : false;
+        }
+    }
 }
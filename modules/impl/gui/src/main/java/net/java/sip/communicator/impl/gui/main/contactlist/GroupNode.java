@@ -367,9 +367,13 @@ public void run()
                     TreePath selectionPath = getLeadSelectionPath();
                     int oldSelectionIndex = getLeadSelectionRow();
 
-                    children.sort(nodeComparator);
+                    int[] changedRange = sortChildren();
 
-                    fireNodesChanged();
+                    // nothing has moved
+                    if (changedRange == null)
+                        return;
+
+                    fireNodesChanged(changedRange[0], changedRange[1]);
 
                     treeModel.getParentTree().setSelectionPath(selectionPath);
 
@@ -379,6 +383,68 @@ public void run()
         }
     }
 
+    /**
+     * Sorts the children of this node by source index. The source index of
+     * every child is obtained only once and packed together with the current
+     * position of the child into a primitive array which is then sorted, and
+     * the children are only rearranged where their order has actually
+     * changed.
+     *
+     * @return the first and the last position of the children which have
+     * moved or <tt>null</tt> if the order has not changed
+     */
+    int[] sortChildren()
+    {
+        int childCount = getChildCount();
+
+        if (childCount < 2)
+            return null;
+
+        // The high half of each entry is the sort key, with unknown indexes
+        // mapped after all known ones, and the low half is the current
+        // position, which keeps children with equal keys in their order.
+        // The key of unknown indexes sets the sign bit, so the entries are
+        // offset by Long.MIN_VALUE for the signed sort to order them as
+        // unsigned values; the position is not affected.
+        long[] entries = new long[childCount];
+
+        for (int i = 0; i < childCount; i++)
+        {
+            int sourceIndex
+                = ((ContactListNode) children.get(i)).getSourceIndex();
+            long key = (sourceIndex < 0) ? (1L << 31) : sourceIndex;
+
+            entries[i] = ((key << 32) | i) + Long.MIN_VALUE;
+        }
+
+        Arrays.sort(entries);
+
+        int first = -1;
+        int last = -1;
+
+        for (int i = 0; i < childCount; i++)
+        {
+            if ((int) entries[i] != i)
+            {
+                if (first == -1)
+                    first = i;
+                last = i;
+            }
+        }
+
+        if (first == -1)
+            return null;
+
+        TreeNode[] moved = new TreeNode[last - first + 1];
+
+        for (int i = first; i <= last; i++)
+            moved[i - first] = children.get((int) entries[i]);
+        for (int i = first; i <= last; i++)
+            children.set(i, moved[i - first]);
+
+        return new int[] { first, last };
+    }
+
     /**
      * Returns <tt>true</tt> if the group is collapsed or <tt>false</tt>
      * otherwise.
@@ -451,15 +517,18 @@ private void fireNodeRemoved(ContactListNode node, int index)
     }
 
     /**
-     * Notifies all interested listeners that all nodes have changed.
+     * Notifies all interested listeners that the nodes within a range of
+     * positions have changed.
+     *
+     * @param first the position of the first changed node
+     * @param last the position of the last changed node
      */
-    private void fireNodesChanged()
+    private void fireNodesChanged(int first, int last)
     {
-        int childCount = getChildCount();
-        int[] changedIndexes = new int[childCount];
+        int[] changedIndexes = new int[last - first + 1];
 
-        for (int i = 0; i < childCount; i++)
-            changedIndexes[i] = i;
+        for (int i = 0; i < changedIndexes.length; i++)
+            changedIndexes[i] = first + i;
 
         treeModel.nodesChanged(this, changedIndexes);
     }
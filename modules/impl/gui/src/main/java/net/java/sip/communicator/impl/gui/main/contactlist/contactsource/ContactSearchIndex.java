@@ -0,0 +1,423 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.contactlist.contactsource;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * An in-memory search index over the display names and addresses of the
+ * <tt>MetaContact</tt>s in the contact list. Every indexed string is split in
+ * trigrams so that a search only has to check the contacts which contain all
+ * trigrams of the filter string. The result of the last search is kept, so
+ * that when the user keeps typing, the next search only refines it.
+ * <p>
+ * The index is built on first use from the <tt>MetaContactListService</tt> and
+ * is then kept up to date by the <tt>MetaContactListSource</tt> which calls
+ * {@link #update(MetaContact)} and {@link #remove(MetaContact)} from its
+ * listener methods.
+ */
+public class ContactSearchIndex
+{
+    /**
+     * The minimum number of digits a string should contain for it to be
+     * additionally indexed as a phone number.
+     */
+    private static final int MIN_PHONE_NUMBER_DIGITS = 3;
+
+    /**
+     * The case folded search strings of each indexed contact.
+     */
+    private final Map<MetaContact, String[]> entries = new HashMap<>();
+
+    /**
+     * The contacts whose search strings contain a trigram, by trigram.
+     */
+    private final Map<Long, Set<MetaContact>> trigrams = new HashMap<>();
+
+    /**
+     * Indicates whether the index has been built from the contact list.
+     */
+    private boolean built = false;
+
+    /**
+     * Incremented on every modification of the index, so that the result of
+     * the last search is not refined after the index has changed.
+     */
+    private long version = 0;
+
+    /**
+     * The term of the last search.
+     */
+    private String lastTerm;
+
+    /**
+     * The version of the index at the time of the last search.
+     */
+    private long lastVersion;
+
+    /**
+     * The result of the last search.
+     */
+    private List<MetaContact> lastResult;
+
+    /**
+     * Returns the contacts which have a display name or an address containing
+     * <tt>filterString</tt>, ignoring case. If <tt>isPhoneNumber</tt> is set,
+     * separators are ignored, so that e.g. "555 12" also finds "+1-555-1234".
+     *
+     * @param root the root group of the contact list, used to build the index
+     * the first time it is searched
+     * @param filterString the string to search for
+     * @param isPhoneNumber <tt>true</tt> if <tt>filterString</tt> is a phone
+     * number
+     * @return a new list of the matching contacts, in no particular order
+     */
+    public synchronized List<MetaContact> find(
+            MetaContactGroup root,
+            String filterString,
+            boolean isPhoneNumber)
+    {
+        if (!built)
+        {
+            build(root);
+            built = true;
+        }
+
+        String term = fold(filterString);
+
+        // Phone numbers are matched on their digits only, unless they contain
+        // letters (e.g. "+1-800-FLOWERS") which would be lost that way.
+        if (isPhoneNumber)
+        {
+            String digits = digitsOf(filterString);
+
+            if (digits.length() > 0 && !containsLetter(filterString))
+                term = digits;
+        }
+
+        Collection<MetaContact> candidates;
+
+        if (lastResult != null
+                && lastVersion == version
+                && term.contains(lastTerm))
+        {
+            // The user has continued typing, only the contacts which matched
+            // so far can match now.
+            candidates = lastResult;
+        }
+        else if (term.length() >= 3)
+        {
+            candidates = null;
+            for (int i = 0; i + 3 <= term.length(); i++)
+            {
+                Set<MetaContact> posting = trigrams.get(trigram(term, i));
+
+                if (posting == null)
+                {
+                    candidates = Collections.emptySet();
+                    break;
+                }
+                if (candidates == null || posting.size() < candidates.size())
+                    candidates = posting;
+            }
+        }
+        else
+            candidates = entries.keySet();
+
+        List<MetaContact> result = new ArrayList<>();
+
+        for (MetaContact metaContact : candidates)
+        {
+            String[] strings = entries.get(metaContact);
+
+            if (strings != null && contains(strings, term))
+                result.add(metaContact);
+        }
+
+        lastTerm = term;
+        lastVersion = version;
+        lastResult = result;
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * (Re)indexes a contact after it has been added or after its display name
+     * or its protocol contacts have changed.
+     *
+     * @param metaContact the contact to index
+     */
+    public synchronized void update(MetaContact metaContact)
+    {
+        if (!built)
+            return;
+
+        unindex(metaContact);
+        if (metaContact.getParentMetaContactGroup() != null)
+            index(metaContact);
+        version++;
+    }
+
+    /**
+     * Removes a contact from the index.
+     *
+     * @param metaContact the contact to remove
+     */
+    public synchronized void remove(MetaContact metaContact)
+    {
+        if (!built)
+            return;
+
+        unindex(metaContact);
+        version++;
+    }
+
+    /**
+     * Removes the contacts of a group which has been removed from the contact
+     * list.
+     *
+     * @param metaGroup the removed group
+     */
+    public synchronized void remove(MetaContactGroup metaGroup)
+    {
+        if (!built)
+            return;
+
+        Iterator<MetaContact> contacts = entries.keySet().iterator();
+
+        while (contacts.hasNext())
+        {
+            MetaContact metaContact = contacts.next();
+            MetaContactGroup parent = metaContact.getParentMetaContactGroup();
+            // already removed from the contact list
+            boolean removed = (parent == null);
+
+            // or in the removed group or one of its subgroups
+            for (; !removed && parent != null;
+                    parent = parent.getParentMetaContactGroup())
+                removed = (parent == metaGroup);
+
+            if (removed)
+            {
+                String[] strings = entries.get(metaContact);
+
+                contacts.remove();
+                removeTrigrams(metaContact, strings);
+            }
+        }
+        version++;
+    }
+
+    /**
+     * Indexes all contacts in a group and its subgroups.
+     *
+     * @param group the group
+     */
+    private void build(MetaContactGroup group)
+    {
+        Iterator<MetaContact> contacts = group.getChildContacts();
+
+        while (contacts.hasNext())
+            index(contacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+
+        while (subgroups.hasNext())
+            build(subgroups.next());
+    }
+
+    /**
+     * Adds a contact to the index.
+     *
+     * @param metaContact the contact
+     */
+    private void index(MetaContact metaContact)
+    {
+        List<String> strings = new ArrayList<>();
+
+        addSearchString(strings, metaContact.getDisplayName());
+
+        Iterator<Contact> contacts = metaContact.getContacts();
+
+        while (contacts.hasNext())
+        {
+            Contact contact = contacts.next();
+
+            addSearchString(strings, contact.getDisplayName());
+            addSearchString(strings, contact.getAddress());
+        }
+
+        String[] folded = strings.toArray(new String[strings.size()]);
+
+        entries.put(metaContact, folded);
+        for (String string : folded)
+        {
+            for (int i = 0; i + 3 <= string.length(); i++)
+            {
+                trigrams.computeIfAbsent(trigram(string, i),
+                        k -> new HashSet<>())
+                    .add(metaContact);
+            }
+        }
+    }
+
+    /**
+     * Removes a contact from the index.
+     *
+     * @param metaContact the contact
+     */
+    private void unindex(MetaContact metaContact)
+    {
+        String[] strings = entries.remove(metaContact);
+
+        if (strings != null)
+            removeTrigrams(metaContact, strings);
+    }
+
+    /**
+     * Removes a contact from the trigram postings of its search strings.
+     *
+     * @param metaContact the contact
+     * @param strings the search strings of <tt>metaContact</tt>
+     */
+    private void removeTrigrams(MetaContact metaContact, String[] strings)
+    {
+        for (String string : strings)
+        {
+            for (int i = 0; i + 3 <= string.length(); i++)
+            {
+                Long key = trigram(string, i);
+                Set<MetaContact> posting = trigrams.get(key);
+
+                if (posting != null
+                        && posting.remove(metaContact)
+                        && posting.isEmpty())
+                    trigrams.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Adds the case folded form of a string and, if it looks like a phone
+     * number, its digits to a list of search strings.
+     *
+     * @param strings the list to add to
+     * @param string the string to add, may be <tt>null</tt>
+     */
+    private static void addSearchString(List<String> strings, String string)
+    {
+        if (string == null || string.length() == 0)
+            return;
+
+        strings.add(fold(string));
+
+        String digits = digitsOf(string);
+
+        if (digits.length() >= MIN_PHONE_NUMBER_DIGITS
+                && digits.length() != string.length())
+            strings.add(digits);
+    }
+
+    /**
+     * Determines whether one of a set of search strings contains a term.
+     *
+     * @param strings the search strings
+     * @param term the term
+     * @return <tt>true</tt> if one of <tt>strings</tt> contains <tt>term</tt>
+     */
+    private static boolean contains(String[] strings, String term)
+    {
+        for (String string : strings)
+        {
+            if (string.contains(term))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Case folds a string the way a <tt>Pattern</tt> with the
+     * <tt>CASE_INSENSITIVE</tt> and <tt>UNICODE_CASE</tt> flags compares
+     * characters. Unlike <tt>String.toLowerCase</tt>, this never changes the
+     * length of the string.
+     *
+     * @param string the string to fold
+     * @return the folded string
+     */
+    static String fold(String string)
+    {
+        char[] chars = string.toCharArray();
+
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        return new String(chars);
+    }
+
+    /**
+     * Determines whether a string contains a letter.
+     *
+     * @param string the string
+     * @return <tt>true</tt> if <tt>string</tt> contains a letter
+     */
+    private static boolean containsLetter(String string)
+    {
+        for (int i = 0; i < string.length(); i++)
+        {
+            if (Character.isLetter(string.charAt(i)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the digits of a string.
+     *
+     * @param string the string
+     * @return the digits in <tt>string</tt>
+     */
+    private static String digitsOf(String string)
+    {
+        StringBuilder digits = new StringBuilder(string.length());
+
+        for (int i = 0; i < string.length(); i++)
+        {
+            char c = string.charAt(i);
+
+            if (c >= '0' && c <= '9')
+                digits.append(c);
+        }
+        return digits.toString();
+    }
+
+    /**
+     * Packs the three characters of a string at a specific index in a
+     * <tt>long</tt>.
+     *
+     * @param string the string
+     * @param index the index of the first character
+     * @return the trigram at <tt>index</tt>
+     */
+    private static long trigram(String string, int index)
+    {
+        return ((long) string.charAt(index) << 32)
+            | ((long) string.charAt(index + 1) << 16)
+            | string.charAt(index + 2);
+    }
+}
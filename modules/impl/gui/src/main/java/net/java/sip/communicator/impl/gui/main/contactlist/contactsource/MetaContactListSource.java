@@ -21,7 +21,6 @@
 import java.awt.event.*;
 import java.util.*;
 import java.util.List;
-import java.util.regex.*;
 
 import javax.swing.*;
 
@@ -94,6 +93,11 @@
      */
     private int index = 0;
 
+    /**
+     * The index used to search the contact list.
+     */
+    private final ContactSearchIndex searchIndex = new ContactSearchIndex();
+
     /**
      * The logger.
      */
@@ -198,24 +202,31 @@ public static boolean isRootGroup(MetaContactGroup group)
     }
 
     /**
-     * Starts the query.
+     * Starts a query for the contacts which display name or address contains
+     * a specific string. The contacts are looked up in the search index
+     * rather than by walking the contact list.
      *
-     * @param filterPattern the pattern to filter through
      * @param query the query to be started
+     * @param filterString the string to search for
+     * @param isPhoneNumber <tt>true</tt> if <tt>filterString</tt> is a phone
+     * number and separators should be ignored
      */
     public void startQuery(final MetaContactQuery query,
-        final Pattern filterPattern)
+                           final String filterString,
+                           final boolean isPhoneNumber)
     {
         new Thread()
         {
             @Override
             public void run()
             {
-                int resultCount = 0;
-                queryMetaContactSource( filterPattern,
+                List<MetaContact> matches
+                    = searchIndex.find(
                         GuiActivator.getContactListService().getRoot(),
-                        query,
-                        resultCount);
+                        filterString,
+                        isPhoneNumber);
+
+                queryMetaContactSource(matches, query);
 
                 if (!query.isCanceled())
                     query.fireQueryEvent(
@@ -228,146 +239,73 @@ public void run()
     }
 
     /**
-     * Filters the children in the given <tt>MetaContactGroup</tt> to match the
-     * given <tt>filterPattern</tt> and stores the result in the given
-     * <tt>treeModel</tt>.
-     * @param filterPattern the pattern to filter through
-     * @param parentGroup the <tt>MetaContactGroup</tt> to filter
+     * Adds the given <tt>MetaContact</tt>s which matched a query to the
+     * contact list. The first {@link #INITIAL_CONTACT_COUNT} are added
+     * directly, the others are reported through the <tt>query</tt>.
+     *
+     * @param matches the <tt>MetaContact</tt>s matching the query
      * @param query the object that tracks the query
-     * @param resultCount the initial result count we would insert directly to
-     * the contact list without firing events
      */
-    public void queryMetaContactSource(Pattern filterPattern,
-                                        MetaContactGroup parentGroup,
-                                        MetaContactQuery query,
-                                        int resultCount)
+    private void queryMetaContactSource(List<MetaContact> matches,
+                                        MetaContactQuery query)
     {
-        Iterator<MetaContact> childContacts = parentGroup.getChildContacts();
+        int resultCount = 0;
 
-        while (childContacts.hasNext() && !query.isCanceled())
+        for (MetaContact metaContact : matches)
         {
-            MetaContact metaContact = childContacts.next();
+            if (query.isCanceled())
+                return;
 
-            if (isMatching(filterPattern, metaContact))
-            {
-                resultCount++;
+            MetaContactGroup parentGroup
+                = metaContact.getParentMetaContactGroup();
+
+            // removed in the meantime
+            if (parentGroup == null)
+                continue;
 
-                if (resultCount <= INITIAL_CONTACT_COUNT)
+            resultCount++;
+
+            if (resultCount <= INITIAL_CONTACT_COUNT)
+            {
+                UIGroup uiGroup = null;
+                if (!MetaContactListSource.isRootGroup(parentGroup))
                 {
-                    UIGroup uiGroup = null;
-                    if (!MetaContactListSource.isRootGroup(parentGroup))
+                    synchronized (parentGroup)
                     {
-                        synchronized (parentGroup)
-                        {
+                        uiGroup = MetaContactListSource
+                            .getUIGroup(parentGroup);
+                        if (uiGroup == null)
                             uiGroup = MetaContactListSource
-                                .getUIGroup(parentGroup);
-                            if (uiGroup == null)
-                                uiGroup = MetaContactListSource
-                                    .createUIGroup(parentGroup);
-                        }
+                                .createUIGroup(parentGroup);
                     }
+                }
+
+                synchronized (metaContact)
+                {
+                    UIContact newUIContact
+                        = MetaContactListSource.getUIContact(metaContact);
 
-                    UIContact newUIContact;
-                    synchronized (metaContact)
+                    if (newUIContact == null)
                     {
                         newUIContact
-                            = MetaContactListSource.getUIContact(metaContact);
-
-                        if (newUIContact == null)
-                        {
-                            newUIContact
-                                = MetaContactListSource
-                                    .createUIContact(metaContact);
-                        }
-
-                        GuiActivator.getContactList().addContact(
-                            newUIContact,
-                            uiGroup,
-                            true,
-                            true);
+                            = MetaContactListSource
+                                .createUIContact(metaContact);
                     }
 
-                    query.setInitialResultCount(resultCount);
-                }
-                else
-                {
-                    query.fireQueryEvent(metaContact);
+                    GuiActivator.getContactList().addContact(
+                        newUIContact,
+                        uiGroup,
+                        true,
+                        true);
                 }
-            }
-        }
-
-        // If in the meantime the query is canceled we return here.
-        if(query.isCanceled())
-            return;
-
-        Iterator<MetaContactGroup> subgroups = parentGroup.getSubgroups();
-        while (subgroups.hasNext() && !query.isCanceled())
-        {
-            MetaContactGroup subgroup = subgroups.next();
-
-            queryMetaContactSource(filterPattern, subgroup, query, resultCount);
-        }
-    }
-
-    /**
-     * Checks if the given <tt>metaContact</tt> is matching the given
-     * <tt>filterPattern</tt>.
-     * A <tt>MetaContact</tt> would be matching the filter if one of the
-     * following is true:<br>
-     * - its display name contains the filter string
-     * - at least one of its child protocol contacts has a display name or an
-     * address that contains the filter string.
-     * @param filterPattern the filter pattern to check for matches
-     * @param metaContact the <tt>MetaContact</tt> to check
-     * @return <tt>true</tt> to indicate that the given <tt>metaContact</tt> is
-     * matching the current filter, otherwise returns <tt>false</tt>
-     */
-    private boolean isMatching(Pattern filterPattern, MetaContact metaContact)
-    {
-        Matcher matcher = filterPattern.matcher(metaContact.getDisplayName());
 
-        if(matcher.find())
-            return true;
-
-        Iterator<Contact> contacts = metaContact.getContacts();
-        while (contacts.hasNext())
-        {
-            Contact contact = contacts.next();
-
-            matcher = filterPattern.matcher(contact.getDisplayName());
-
-            if (matcher.find())
-                return true;
-
-            matcher = filterPattern.matcher(contact.getAddress());
-
-            if (matcher.find())
-                return true;
-        }
-        return false;
-    }
-
-    /**
-     * Checks if the given <tt>metaGroup</tt> is matching the current filter. A
-     * group is matching the current filter only if it contains at least one
-     * child <tt>MetaContact</tt>, which is matching the current filter.
-     * @param filterPattern the filter pattern to check for matches
-     * @param metaGroup the <tt>MetaContactGroup</tt> to check
-     * @return <tt>true</tt> to indicate that the given <tt>metaGroup</tt> is
-     * matching the current filter, otherwise returns <tt>false</tt>
-     */
-    public boolean isMatching(Pattern filterPattern, MetaContactGroup metaGroup)
-    {
-        Iterator<MetaContact> contacts = metaGroup.getChildContacts();
-
-        while (contacts.hasNext())
-        {
-            MetaContact metaContact = contacts.next();
-
-            if (isMatching(filterPattern, metaContact))
-                return true;
+                query.setInitialResultCount(resultCount);
+            }
+            else
+            {
+                query.fireQueryEvent(metaContact);
+            }
         }
-        return false;
     }
 
     public void contactPresenceStatusChanged(
@@ -512,6 +450,8 @@ public void metaContactAdded(final MetaContactEvent evt)
     private void metaContactAdded(final MetaContact metaContact,
                                  final MetaContactGroup parentGroup)
     {
+        searchIndex.update(metaContact);
+
         UIContactImpl uiContact;
 
         synchronized (metaContact)
@@ -637,6 +577,8 @@ public void metaContactGroupRemoved(final MetaContactGroupEvent evt)
     {
         MetaContactGroup metaGroup = evt.getSourceMetaContactGroup();
 
+        searchIndex.remove(metaGroup);
+
         UIGroup uiGroup;
         synchronized (metaGroup)
         {
@@ -766,6 +708,8 @@ public void metaContactRemoved(final MetaContactEvent evt)
     {
         MetaContact metaContact = evt.getSourceMetaContact();
 
+        searchIndex.remove(metaContact);
+
         UIContact uiContact;
         synchronized (metaContact)
         {
@@ -786,6 +730,8 @@ public void metaContactRenamed(final MetaContactRenamedEvent evt)
     {
         MetaContact metaContact = evt.getSourceMetaContact();
 
+        searchIndex.update(metaContact);
+
         UIContactImpl uiContact;
         synchronized (metaContact)
         {
@@ -841,6 +787,8 @@ public void protoContactAdded(ProtoContactEvent evt)
     {
         final MetaContact metaContact = evt.getNewParent();
 
+        searchIndex.update(metaContact);
+
         UIContact parentUIContact;
         boolean parentUIContactCreated = false;
         synchronized (metaContact)
@@ -898,6 +846,8 @@ public void protoContactModified(ProtoContactEvent evt)
     {
         MetaContact metaContact = evt.getNewParent();
 
+        searchIndex.update(metaContact);
+
         UIContactImpl uiContact;
         synchronized (metaContact)
         {
@@ -926,6 +876,9 @@ public void protoContactMoved(ProtoContactEvent evt)
         final MetaContact oldParent = evt.getOldParent();
         final MetaContact newParent = evt.getNewParent();
 
+        searchIndex.update(oldParent);
+        searchIndex.update(newParent);
+
         UIContact oldUIContact;
         synchronized (oldParent)
         {
@@ -998,6 +951,8 @@ public void protoContactRemoved(ProtoContactEvent evt)
     {
         final MetaContact oldParent = evt.getOldParent();
 
+        searchIndex.update(oldParent);
+
         UIContactImpl oldUIContact;
         synchronized (oldParent)
         {
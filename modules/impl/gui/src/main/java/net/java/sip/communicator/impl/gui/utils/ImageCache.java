@@ -0,0 +1,434 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.utils;
+
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A cache of decoded images which is bounded by the bytes of their pixels.
+ *
+ * Lookups do not lock. Images are decoded outside of any lock, and threads
+ * asking for an image which is being decoded wait for that decoding instead
+ * of decoding it again. When the images exceed the budget, the least recently
+ * used ones are evicted. Pinned images are never evicted and do not count
+ * towards the budget.
+ */
+public class ImageCache
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>ImageCache</tt> class and its
+     * instances for logging output.
+     */
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ImageCache.class);
+
+    /**
+     * The maximum number of bytes of the pixels of the images which are not
+     * pinned.
+     */
+    private final long maxBytes;
+
+    /**
+     * The cached images by key.
+     */
+    private final Map<String, Entry> entries =
+        new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * The decodings in progress by key.
+     */
+    private final Map<String, CompletableFuture<BufferedImage>> loading =
+        new ConcurrentHashMap<String, CompletableFuture<BufferedImage>>();
+
+    /**
+     * The keys of the pinned images.
+     */
+    private final Set<String> pinned = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The bytes of the pixels of the cached images which are not pinned.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * The clock of the accesses, for the order of eviction.
+     */
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Increased by {@link #clear()}, such that images decoded before are not
+     * cached.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The number of lookups which found the image in the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of lookups which did not find the image in the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The number of decoded images.
+     */
+    private final AtomicLong loads = new AtomicLong();
+
+    /**
+     * The number of evicted images.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Guards the eviction, such that only one thread evicts at a time.
+     */
+    private final Object evictionSyncRoot = new Object();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes the maximum number of bytes of the pixels of the images
+     *            which are not pinned
+     */
+    public ImageCache(long maxBytes)
+    {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets an image from the cache, decoding it if it is not cached.
+     *
+     * @param key the key of the image
+     * @param loader decodes the image if it is not cached
+     * @return the image or <tt>null</tt> if it could not be decoded
+     */
+    public BufferedImage get(String key, Loader loader)
+    {
+        Entry entry = entries.get(key);
+
+        if (entry != null)
+        {
+            hits.incrementAndGet();
+            entry.lastAccess = clock.incrementAndGet();
+            return entry.image;
+        }
+        misses.incrementAndGet();
+
+        CompletableFuture<BufferedImage> future
+            = new CompletableFuture<BufferedImage>();
+        CompletableFuture<BufferedImage> inFlight
+            = loading.putIfAbsent(key, future);
+
+        if (inFlight != null)
+        {
+            try
+            {
+                return inFlight.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            catch (ExecutionException e)
+            {
+                return null;
+            }
+        }
+
+        BufferedImage image = null;
+
+        try
+        {
+            // Another thread may have cached the image just before.
+            entry = entries.get(key);
+            if (entry != null)
+            {
+                image = entry.image;
+            }
+            else
+            {
+                long generation = this.generation.get();
+
+                loads.incrementAndGet();
+                image = loader.load(key);
+                if (image != null)
+                    put(key, image, generation);
+            }
+        }
+        catch (Exception e)
+        {
+            logger.error("Failed to load image: " + key, e);
+        }
+        finally
+        {
+            loading.remove(key, future);
+            future.complete(image);
+        }
+        return image;
+    }
+
+    /**
+     * Caches a decoded image and evicts images if the budget is exceeded.
+     *
+     * @param key the key of the image
+     * @param image the image
+     * @param generation the generation of the cache when the image was
+     *            decoded
+     */
+    private void put(String key, BufferedImage image, long generation)
+    {
+        Entry entry = new Entry(image, clock.incrementAndGet());
+
+        synchronized (evictionSyncRoot)
+        {
+            if (generation != this.generation.get())
+                return;
+            entries.put(key, entry);
+            if (!pinned.contains(key))
+                bytes.addAndGet(entry.bytes);
+            evict();
+        }
+    }
+
+    /**
+     * Evicts the least recently used images which are not pinned until the
+     * budget is met.
+     */
+    private void evict()
+    {
+        if (bytes.get() <= maxBytes)
+            return;
+
+        List<Map.Entry<String, Entry>> candidates
+            = new ArrayList<Map.Entry<String, Entry>>();
+
+        for (Map.Entry<String, Entry> e : entries.entrySet())
+            if (!pinned.contains(e.getKey()))
+                candidates.add(e);
+        candidates.sort(
+            Comparator.comparingLong(e -> e.getValue().lastAccess));
+
+        for (Map.Entry<String, Entry> e : candidates)
+        {
+            if (bytes.get() <= maxBytes)
+                break;
+            if (entries.remove(e.getKey(), e.getValue()))
+            {
+                bytes.addAndGet(-e.getValue().bytes);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Pins an image, such that it is not evicted once it is cached.
+     *
+     * @param key the key of the image
+     */
+    public void pin(String key)
+    {
+        synchronized (evictionSyncRoot)
+        {
+            if (pinned.add(key))
+            {
+                Entry entry = entries.get(key);
+
+                if (entry != null)
+                    bytes.addAndGet(-entry.bytes);
+            }
+        }
+    }
+
+    /**
+     * Unpins an image, such that it may be evicted again.
+     *
+     * @param key the key of the image
+     */
+    public void unpin(String key)
+    {
+        synchronized (evictionSyncRoot)
+        {
+            if (pinned.remove(key))
+            {
+                Entry entry = entries.get(key);
+
+                if (entry != null)
+                {
+                    bytes.addAndGet(entry.bytes);
+                    evict();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all images from the cache. The pinned keys are kept, such that
+     * the images are pinned again once they are reloaded.
+     */
+    public void clear()
+    {
+        synchronized (evictionSyncRoot)
+        {
+            generation.incrementAndGet();
+            entries.clear();
+            bytes.set(0);
+        }
+    }
+
+    /**
+     * Gets the number of bytes of the pixels of the cached images which are
+     * not pinned.
+     *
+     * @return the number of bytes counted against the budget
+     */
+    public long getSize()
+    {
+        return bytes.get();
+    }
+
+    /**
+     * Gets the number of cached images, pinned or not.
+     *
+     * @return the number of cached images
+     */
+    public int getCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of lookups which found the image in the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups which did not find the image in the cache,
+     * including the ones which waited for another thread decoding it.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of decoded images.
+     *
+     * @return the number of loads
+     */
+    public long getLoadCount()
+    {
+        return loads.get();
+    }
+
+    /**
+     * Gets the number of images evicted because the budget was exceeded.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ImageCache[images=" + getCount() + ", bytes=" + getSize()
+            + "/" + maxBytes + ", hits=" + getHitCount() + ", misses="
+            + getMissCount() + ", loads=" + getLoadCount() + ", evictions="
+            + getEvictionCount() + "]";
+    }
+
+    /**
+     * Gets the number of bytes of the pixels of an image.
+     *
+     * @param image the image
+     * @return the number of bytes of the pixels of <tt>image</tt>
+     */
+    static long sizeOf(BufferedImage image)
+    {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+
+        return (long) buffer.getSize() * buffer.getNumBanks()
+            * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Decodes the images of a cache.
+     */
+    public interface Loader
+    {
+        /**
+         * Decodes an image.
+         *
+         * @param key the key of the image
+         * @return the image or <tt>null</tt> if it could not be decoded
+         * @throws Exception if the image could not be decoded
+         */
+        BufferedImage load(String key)
+            throws Exception;
+    }
+
+    /**
+     * A cached image.
+     */
+    private static class Entry
+    {
+        /**
+         * The image.
+         */
+        final BufferedImage image;
+
+        /**
+         * The number of bytes of the pixels of the image.
+         */
+        final long bytes;
+
+        /**
+         * The time of the last access on the clock of the cache.
+         */
+        volatile long lastAccess;
+
+        /**
+         * Creates a cached image.
+         *
+         * @param image the image
+         * @param lastAccess the time of the access
+         */
+        Entry(BufferedImage image, long lastAccess)
+        {
+            this.image = image;
+            this.bytes = sizeOf(image);
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -1684,6 +1684,15 @@ private static ImageLoaderServiceImpl getImageLoaderService()
                 ServiceUtils.getService(
                     GuiActivator.bundleContext,
                     ImageLoaderService.class);
+
+            // The look and feel images are painted all the time.
+            for (ImageID imageID : new ImageID[] {
+                    BUTTON, BUTTON_ROLLOVER, TOGGLE_BUTTON_PRESSED,
+                    SPLITPANE_HORIZONTAL, SPLITPANE_VERTICAL,
+                    SCROLLBAR_THUMB_VERTICAL, SCROLLBAR_THUMB_HORIZONTAL,
+                    SCROLLBAR_THUMB_HANDLE_HORIZONTAL,
+                    SCROLLBAR_THUMB_HANDLE_VERTICAL })
+                imageLoaderService.pin(imageID);
         }
 
         return imageLoaderService;
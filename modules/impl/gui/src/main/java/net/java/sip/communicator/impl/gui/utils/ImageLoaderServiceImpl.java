@@ -25,7 +25,6 @@
 import javax.imageio.*;
 import java.awt.image.*;
 import java.net.*;
-import java.util.*;
 
 /**
  * Service responsible for loading images and possibly cache them.
@@ -42,10 +41,55 @@
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ImageLoaderServiceImpl.class);
 
     /**
-     * Stores all already loaded images.
+     * The name of the property which specifies the maximum number of bytes
+     * of the pixels of the cached images, not counting the pinned ones.
      */
-    private static final Map<ImageID, BufferedImage> loadedImages =
-        new Hashtable<ImageID, BufferedImage>();
+    public static final String CACHE_SIZE_PROPERTY
+        = "net.java.sip.communicator.impl.gui.utils.IMAGE_CACHE_SIZE";
+
+    /**
+     * The default maximum number of bytes of the pixels of the cached images.
+     */
+    public static final long DEFAULT_CACHE_SIZE = 32L * 1024 * 1024;
+
+    /**
+     * Stores the already loaded images.
+     */
+    private final ImageCache loadedImages;
+
+    /**
+     * Decodes the images from the resources.
+     */
+    private final ImageCache.Loader loader = new ImageCache.Loader()
+    {
+        public BufferedImage load(String id)
+            throws Exception
+        {
+            URL path = GuiActivator.getResources().getImageURL(id);
+
+            return (path == null) ? null : ImageIO.read(path);
+        }
+    };
+
+    /**
+     * Creates the service with the cache size from the configuration.
+     */
+    public ImageLoaderServiceImpl()
+    {
+        this(GuiActivator.getConfigurationService()
+                .getLong(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE));
+    }
+
+    /**
+     * Creates the service.
+     *
+     * @param cacheSize the maximum number of bytes of the pixels of the
+     *            cached images, not counting the pinned ones
+     */
+    ImageLoaderServiceImpl(long cacheSize)
+    {
+        loadedImages = new ImageCache(cacheSize);
+    }
 
     /**
      * Loads an image from a given image identifier.
@@ -55,32 +99,39 @@
      */
     public BufferedImage getImage(ImageID imageID)
     {
-        BufferedImage image = null;
+        return loadedImages.get(imageID.getId(), loader);
+    }
 
-        if (loadedImages.containsKey(imageID))
-        {
-            image = loadedImages.get(imageID);
-        }
-        else
-        {
-            URL path = GuiActivator.getResources().getImageURL(imageID.getId());
-
-            if (path != null)
-            {
-                try
-                {
-                    image = ImageIO.read(path);
-
-                    loadedImages.put(imageID, image);
-                }
-                catch (Exception ex)
-                {
-                    logger.error("Failed to load image: " + path, ex);
-                }
-            }
-        }
+    /**
+     * Pins an image, such that it stays cached once it is loaded. Meant for
+     * the icons which are painted all the time.
+     *
+     * @param imageID The identifier of the image.
+     */
+    public void pin(ImageID imageID)
+    {
+        loadedImages.pin(imageID.getId());
+    }
 
-        return image;
+    /**
+     * Unpins an image, such that it may be evicted from the cache again.
+     *
+     * @param imageID The identifier of the image.
+     */
+    public void unpin(ImageID imageID)
+    {
+        loadedImages.unpin(imageID.getId());
+    }
+
+    /**
+     * Returns the cache of the loaded images, for its hit, miss and eviction
+     * counters.
+     *
+     * @return the cache of the loaded images
+     */
+    public ImageCache getCache()
+    {
+        return loadedImages;
     }
 
     /**
@@ -105,6 +156,8 @@ public byte[] getImageBytes(ImageID imageID)
      */
     public void clearCache()
     {
+        if (logger.isDebugEnabled())
+            logger.debug("Clearing " + loadedImages);
         loadedImages.clear();
     }
 }
@@ -0,0 +1,287 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import java.util.*;
+import java.util.regex.*;
+
+import junit.framework.*;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Tests for the single pass rendering of chat messages.
+ */
+public class ChatMessageRendererTest
+    extends TestCase
+{
+    /**
+     * The system property which enables the benchmark of long messages, run
+     * with <tt>mvn test -Dbenchmark=true -Dtest=ChatMessageRendererTest</tt>.
+     */
+    private static final String BENCHMARK_PROP = "benchmark";
+
+    public void testPlainText()
+    {
+        assertEquals("hello &amp; <b>nick</b>&lt;3",
+            render("hello & nick<3", false, "nick"));
+        assertEquals("first<BR>\nsecond<BR>\n",
+            render("first\nsecond\n", false, null));
+        assertEquals("see <A href=\"http://www.jitsi.org\">www.jitsi.org</A>",
+            render("see www.jitsi.org", false, null));
+        assertEquals("caf&eacute;", render("café", false, ""));
+    }
+
+    public void testHtml()
+    {
+        assertEquals("a<br>b<img src=\"x.png\"></img>",
+            render("a<br/>b<img src=\"x.png\"/>", true, null));
+        assertEquals("<b>bold &amp; <b>nick</b></b>",
+            render("<b>bold &amp; nick</b>", true, "nick"));
+        assertEquals("<span title=\"a > b\">&lt;</span>",
+            render("<span title=\"a > b\">&lt;</span>", true, null));
+        assertEquals("<IMG SRC=\"a.png\" ></img><BR /",
+            render("<IMG SRC=\"a.png\" /><BR /", true, null));
+        assertEquals("caf&eacute; '&nbsp;'",
+            render("caf&eacute; &#39;&nbsp;'", true, null));
+        assertEquals(
+            "<b>see <A href=\"http://www.jitsi.org\">www.jitsi.org</A></b>",
+            render("<b>see www.jitsi.org</b>", true, null));
+    }
+
+    public void testBrDoesNotTakeSlashOfNextTag()
+    {
+        assertEquals("<br>a<img src=\"x.png\"></img>",
+            render("<br>a<img src=\"x.png\"/>", true, null));
+    }
+
+    public void testLinks()
+    {
+        assertEquals("go to <A href=\"http://example.com/a?b=c&d=e\">"
+                + "http://example.com/a?b=c&amp;d=e</A> now",
+            render("go to http://example.com/a?b=c&d=e now", false, null));
+        assertEquals("(<A href=\"http://x.org/y\">http://x.org/y</A>)",
+            render("(http://x.org/y)", false, null));
+        assertEquals("<A href=\"jitsi:call.me\">jitsi:call.me</A>",
+            render("jitsi:call.me", false, null));
+        assertEquals("<A href=\"http://www.jitsi.org\">www.jitsi.org</A>"
+                + "<BR>\n<A href=\"ftp://files.example.org/x\">"
+                + "ftp://files.example.org/x</A>",
+            render("www.jitsi.org\nftp://files.example.org/x", false, null));
+        assertEquals("<A href=\"http://nick.org\">http://<b>nick</b>.org</A>",
+            render("http://nick.org", false, "nick"));
+    }
+
+    public void testNoKeyword()
+    {
+        assertEquals("this is a piece of text",
+            render("this is a piece of text", false, null));
+        assertEquals("this is a piece of text",
+            render("this is a piece of text", false, ""));
+    }
+
+    public void testKeyword()
+    {
+        assertEquals("<b>word</b>", render("word", false, "word"));
+        assertEquals("<b>Word</b>", render("Word", false, "word"));
+        assertEquals("wor", render("wor", false, "word"));
+        assertEquals("some <b>word</b> in a sentence",
+            render("some word in a sentence", false, "word"));
+        assertEquals("<b>word</b> first in a sentence",
+            render("word first in a sentence", false, "word"));
+        assertEquals("last in a sentence <b>word</b>",
+            render("last in a sentence word", false, "word"));
+        assertEquals("1 <b>word</b> 2 <b>word</b> 3 <b>word</b> 4",
+            render("1 word 2 word 3 word 4", false, "word"));
+    }
+
+    public void testKeywordOnlyAsWholeWord()
+    {
+        assertEquals("A sentence containing keywords.",
+            render("A sentence containing keywords.", false, "word"));
+        assertEquals("I am the wordsmith.",
+            render("I am the wordsmith.", false, "word"));
+        assertEquals("Don't find the <b>word</b> in keyword.",
+            render("Don't find the word in keyword.", false, "word"));
+    }
+
+    public void testKeywordAllowsPunctuation()
+    {
+        assertEquals("Find the hidden <b>word</b>, <b>word</b>. (<b>word</b>)"
+                + " between parentheses.",
+            render("Find the hidden word, word. (word) between parentheses.",
+                false, "word"));
+        assertEquals("<b>fo</b>: Whenever someone writes &quot;for&quot; or"
+                + " any other word that starts with &quot;<b>fo</b>&quot; it"
+                + " recognizes it as my nickname ...",
+            render("fo: Whenever someone writes \"for\" or any other word"
+                + " that starts with \"fo\" it recognizes it as my nickname"
+                + " ...", false, "fo"));
+    }
+
+    /**
+     * The messages are split into the same pieces of plain text as by
+     * {@link ChatConversationPanel#TEXT_TO_REPLACE_PATTERN}.
+     */
+    public void testSegmentsFollowTextToReplacePattern()
+    {
+        final String[] inputs = {
+            "just a piece of text", "<another piece of text",
+            "<another attribute=\"<\"> of text",
+            "piece of text<tag>'nother piece</tag>stuff at the end",
+            "some<img src=\"blablabla.jpg\" />foobar",
+            ">some text between cut-off tags<",
+            "fake &lt;br/&gt; tag", "fake <br/&gt; tag",
+            "<a name=\"Click here ><\" href=\"www.google.com\">"
+                + "For a treat</a> or something ...",
+            "and here is <a \"some weird syntax\"> to test",
+            "incomplete <img href=\"www.goo     >  <a href=\">test",
+            "bla\">See if this<img src=\"test1\">test2</img>",
+            "&lt;this-is-not-a-tag>", "" };
+        for (String input : inputs)
+        {
+            final List<String> expected = new ArrayList<String>();
+            final Matcher m =
+                ChatConversationPanel.TEXT_TO_REPLACE_PATTERN.matcher(input);
+            while (m.find())
+            {
+                if (!m.group(1).isEmpty())
+                {
+                    expected.add(StringEscapeUtils.unescapeHtml4(m.group(1)));
+                }
+            }
+
+            final ChatMessageRenderer.Segments segments =
+                ChatMessageRenderer.Segments.parse(input);
+            final List<String> actual = new ArrayList<String>();
+            for (int i = 0; i < segments.size(); i++)
+            {
+                if (segments.isText(i))
+                {
+                    actual.add(segments.get(i));
+                }
+            }
+            assertEquals(input, expected, actual);
+        }
+    }
+
+    public void testSegmentsMergeText()
+    {
+        final ChatMessageRenderer.Segments segments =
+            new ChatMessageRenderer.Segments();
+        segments.appendText("a < ");
+        segments.appendText("b");
+        segments.appendHtml("<IMG SRC=\"x\"></IMG>");
+        segments.appendText("é");
+        assertEquals(3, segments.size());
+        assertEquals("a < b", segments.get(0));
+        assertFalse(segments.isText(1));
+        assertEquals("a &lt; b<IMG SRC=\"x\"></IMG>&eacute;",
+            segments.toHtml());
+    }
+
+    public void testLongMessage()
+    {
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 700; i++)
+        {
+            expected.append("<b>nick</b>: see <A href=\"http://www.jitsi.org\">"
+                + "www.jitsi.org</A> &amp; &lt;ok&gt;<BR>\n");
+        }
+        assertEquals(expected.toString(), render(longMessage(), false, "nick"));
+    }
+
+    public void testPastedLog()
+    {
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+        {
+            final String url = "http://example.com/item?id=" + i;
+            expected.append("2024-05-01 12:00:").append(i % 60)
+                .append(" INFO [main] <b>nick</b> fetched <A href=\"")
+                .append(url).append("\">").append(url).append("</A> in ")
+                .append(i % 17).append(" ms &lt;ok&gt;<BR>\n");
+        }
+        assertEquals(expected.toString(), render(pastedLog(), false, "nick"));
+    }
+
+    /**
+     * Microbenchmark of long messages and pasted logs. The timings are
+     * printed. Skipped unless the <tt>benchmark</tt> system property is set.
+     */
+    public void testLongMessagesBenchmark()
+    {
+        if (!Boolean.getBoolean(BENCHMARK_PROP))
+        {
+            return;
+        }
+        benchmark("long message", longMessage());
+        benchmark("pasted log", pastedLog());
+    }
+
+    private static void benchmark(final String name, final String message)
+    {
+        final int rounds = 200;
+        for (int i = 0; i < rounds; i++)
+        {
+            render(message, false, "nick");
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+        {
+            render(message, false, "nick");
+        }
+        final long time = System.nanoTime() - start;
+        System.out.println("Rendering " + name + " of " + message.length()
+            + " chars: " + time / rounds / 1000 + " us");
+    }
+
+    /**
+     * Gets a plain text message of about 20,000 chars.
+     */
+    private static String longMessage()
+    {
+        final StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 700; i++)
+        {
+            message.append("nick: see www.jitsi.org & <ok>\n");
+        }
+        return message.toString();
+    }
+
+    /**
+     * Gets a pasted log of 500 lines.
+     */
+    private static String pastedLog()
+    {
+        final StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+        {
+            log.append("2024-05-01 12:00:").append(i % 60)
+                .append(" INFO [main] nick fetched http://example.com/item?id=")
+                .append(i).append(" in ").append(i % 17).append(" ms <ok>\n");
+        }
+        return log.toString();
+    }
+
+    private static String render(final String message, final boolean html,
+        final String keyword)
+    {
+        return new ChatMessageRenderer(keyword).render(message, html);
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.chat.conference;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import javax.swing.*;
+import javax.swing.event.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.gui.main.chat.*;
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
+
+public class ChatContactListModelTest
+    extends TestCase
+{
+    private final ChatRoom room = (ChatRoom) Proxy.newProxyInstance(
+        getClass().getClassLoader(),
+        new Class<?>[] { ChatRoom.class },
+        new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("equals"))
+                    return proxy == args[0];
+                if (method.getName().equals("hashCode"))
+                    return System.identityHashCode(proxy);
+                return null;
+            }
+        });
+
+    private ChatContactListModel model;
+
+    @Override
+    protected void setUp()
+    {
+        model = new ChatContactListModel(new TestChatSession());
+    }
+
+    public void testAddElementsKeepsSorting()
+    {
+        model.addElement(contact("dave", ChatRoomMemberRole.MEMBER));
+        model.addElement(contact("bob", ChatRoomMemberRole.MEMBER));
+        model.addElements(Arrays.<ChatContact<?>>asList(
+            contact("carol", ChatRoomMemberRole.MEMBER),
+            contact("erin", ChatRoomMemberRole.MODERATOR),
+            contact("alice", ChatRoomMemberRole.MEMBER)));
+
+        assertNames("erin", "alice", "bob", "carol", "dave");
+    }
+
+    public void testDuplicatesAreIgnored()
+    {
+        ChatContact<?> alice = contact("alice", ChatRoomMemberRole.MEMBER);
+
+        model.addElement(alice);
+        model.addElement(alice);
+        model.addElements(Arrays.<ChatContact<?>>asList(
+            alice, contact("bob", ChatRoomMemberRole.MEMBER)));
+
+        assertNames("alice", "bob");
+    }
+
+    public void testRenamedMemberIsMoved()
+    {
+        ConferenceChatContact alice
+            = contact("alice", ChatRoomMemberRole.MEMBER);
+
+        model.addElement(alice);
+        model.addElement(contact("carol", ChatRoomMemberRole.MEMBER));
+        model.addElement(contact("erin", ChatRoomMemberRole.MEMBER));
+
+        rename(alice.getDescriptor(), "zoe");
+
+        // inserts rely on the order being restored
+        model.addElement(contact("dave", ChatRoomMemberRole.MEMBER));
+        model.addElements(Arrays.<ChatContact<?>>asList(
+            contact("bob", ChatRoomMemberRole.MEMBER),
+            contact("frank", ChatRoomMemberRole.MEMBER)));
+
+        assertNames("bob", "carol", "dave", "erin", "frank", "zoe");
+    }
+
+    public void testMemberWithNewRoleIsMoved()
+    {
+        ConferenceChatContact erin
+            = contact("erin", ChatRoomMemberRole.MEMBER);
+
+        model.addElement(contact("alice", ChatRoomMemberRole.MEMBER));
+        model.addElement(contact("carol", ChatRoomMemberRole.MEMBER));
+        model.addElement(erin);
+
+        ChatRoomMember member = erin.getDescriptor();
+        member.setRole(ChatRoomMemberRole.MODERATOR);
+        model.memberRoleChanged(new ChatRoomMemberRoleChangeEvent(
+            room, member,
+            ChatRoomMemberRole.MEMBER, ChatRoomMemberRole.MODERATOR));
+
+        model.addElement(contact("bob", ChatRoomMemberRole.MEMBER));
+
+        assertNames("erin", "alice", "bob", "carol");
+    }
+
+    public void testResortingNotifiesListeners()
+    {
+        ConferenceChatContact alice
+            = contact("alice", ChatRoomMemberRole.MEMBER);
+
+        model.addElement(alice);
+        model.addElement(contact("bob", ChatRoomMemberRole.MEMBER));
+
+        final List<ListDataEvent> changes = new ArrayList<ListDataEvent>();
+        model.addListDataListener(new ListDataListener()
+        {
+            public void intervalAdded(ListDataEvent e) {}
+
+            public void intervalRemoved(ListDataEvent e) {}
+
+            public void contentsChanged(ListDataEvent e)
+            {
+                changes.add(e);
+            }
+        });
+
+        rename(alice.getDescriptor(), "carol");
+
+        assertEquals(1, changes.size());
+        assertEquals(0, changes.get(0).getIndex0());
+        assertEquals(1, changes.get(0).getIndex1());
+        assertNames("bob", "carol");
+    }
+
+    private void rename(ChatRoomMember member, String name)
+    {
+        String oldName = member.getName();
+
+        ((TestMember) Proxy.getInvocationHandler(member)).name = name;
+        model.chatRoomPropertyChanged(new ChatRoomMemberPropertyChangeEvent(
+            member, room,
+            ChatRoomMemberPropertyChangeEvent.MEMBER_NICKNAME,
+            oldName, name));
+    }
+
+    private void assertNames(String... names)
+    {
+        List<String> actual = new ArrayList<String>();
+
+        for (int i = 0; i < model.getSize(); i++)
+            actual.add(model.getElementAt(i).getName());
+        assertEquals(Arrays.asList(names), actual);
+    }
+
+    private static ConferenceChatContact contact(
+        String name, ChatRoomMemberRole role)
+    {
+        TestMember member = new TestMember();
+
+        member.name = name;
+        member.role = role;
+        return new ConferenceChatContact(
+            (ChatRoomMember) Proxy.newProxyInstance(
+                ChatContactListModelTest.class.getClassLoader(),
+                new Class<?>[] { ChatRoomMember.class },
+                member));
+    }
+
+    /**
+     * A <tt>ChatRoomMember</tt> with a name and a role which can be changed.
+     */
+    private static class TestMember
+        implements InvocationHandler
+    {
+        String name;
+
+        ChatRoomMemberRole role;
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            switch (method.getName())
+            {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "getName":
+            case "getContactAddress":
+                return name;
+            case "getRole":
+                return role;
+            case "setRole":
+                role = (ChatRoomMemberRole) args[0];
+                return null;
+            default:
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A <tt>ChatSession</tt> which is not backed by a chat room.
+     */
+    private static class TestChatSession
+        extends ChatSession
+    {
+        public Object getDescriptor()
+        {
+            return "test";
+        }
+
+        public boolean isDescriptorPersistent()
+        {
+            return false;
+        }
+
+        public ChatTransport getCurrentChatTransport()
+        {
+            return null;
+        }
+
+        public ChatSessionRenderer getChatSessionRenderer()
+        {
+            return null;
+        }
+
+        public void setCurrentChatTransport(ChatTransport chatTransport)
+        {
+        }
+
+        public String getChatName()
+        {
+            return "test";
+        }
+
+        public Collection<Object> getHistory(int count)
+        {
+            return null;
+        }
+
+        public Collection<Object> getHistoryBeforeDate(Date date, int count)
+        {
+            return null;
+        }
+
+        public Collection<Object> getHistoryAfterDate(Date date, int count)
+        {
+            return null;
+        }
+
+        public Date getHistoryStartDate()
+        {
+            return null;
+        }
+
+        public Date getHistoryEndDate()
+        {
+            return null;
+        }
+
+        public String getDefaultSmsNumber()
+        {
+            return null;
+        }
+
+        public void setDefaultSmsNumber(String smsPhoneNumber)
+        {
+        }
+
+        public void dispose()
+        {
+        }
+
+        public ImageIcon getChatStatusIcon()
+        {
+            return null;
+        }
+
+        public byte[] getChatAvatar()
+        {
+            return null;
+        }
+
+        public boolean isContactListSupported()
+        {
+            return true;
+        }
+    }
+}
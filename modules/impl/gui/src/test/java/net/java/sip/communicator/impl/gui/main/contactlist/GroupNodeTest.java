@@ -17,6 +17,9 @@
  */
 package net.java.sip.communicator.impl.gui.main.contactlist;
 
+import java.awt.*;
+import java.util.*;
+
 import junit.framework.*;
 import net.java.sip.communicator.impl.gui.main.contactlist.GroupNode.NodeComparator;
 import net.java.sip.communicator.service.gui.*;
@@ -97,4 +100,143 @@ public int getSourceIndex()
         assertEquals(comparator.compare(unknown1, unknown2),
             -1 * comparator.compare(unknown2, unknown1));
     }
+
+    public void testSortChildrenMovesOnlyChangedRange()
+    {
+        GroupNode group = createGroupNode(0, 1, 5, 3, 4, 2, 6, 7);
+
+        int[] moved = group.sortChildren();
+
+        assertNotNull(moved);
+        assertEquals(2, moved[0]);
+        assertEquals(5, moved[1]);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7),
+            getSourceIndexes(group));
+    }
+
+    public void testSortChildrenKeepsSortedOrder()
+    {
+        GroupNode group = createGroupNode(0, 1, 2, 3);
+
+        assertNull(group.sortChildren());
+        assertEquals(Arrays.asList(0, 1, 2, 3), getSourceIndexes(group));
+    }
+
+    public void testSortChildrenPutsUnknownsLastInTheirOrder()
+    {
+        GroupNode group = createGroupNode(-1, 3, 1, -1, 2);
+        ContactListNode firstUnknown = (ContactListNode) group.getChildAt(0);
+        ContactListNode secondUnknown = (ContactListNode) group.getChildAt(3);
+
+        int[] moved = group.sortChildren();
+
+        assertNotNull(moved);
+        assertEquals(0, moved[0]);
+        assertEquals(4, moved[1]);
+        assertEquals(Arrays.asList(1, 2, 3, -1, -1), getSourceIndexes(group));
+        assertSame(firstUnknown, group.getChildAt(3));
+        assertSame(secondUnknown, group.getChildAt(4));
+    }
+
+    private static GroupNode createGroupNode(int... sourceIndexes)
+    {
+        GroupNode group = new GroupNode(null, new TestGroup());
+
+        for (final int sourceIndex : sourceIndexes)
+        {
+            group.add(new ContactListNode()
+            {
+                @Override
+                public int getSourceIndex()
+                {
+                    return sourceIndex;
+                }
+            });
+        }
+        return group;
+    }
+
+    private static java.util.List<Integer> getSourceIndexes(GroupNode group)
+    {
+        java.util.List<Integer> indexes = new ArrayList<Integer>();
+
+        for (int i = 0; i < group.getChildCount(); i++)
+        {
+            indexes.add(
+                ((ContactListNode) group.getChildAt(i)).getSourceIndex());
+        }
+        return indexes;
+    }
+
+    private static class TestGroup
+        extends UIGroupImpl
+    {
+        private GroupNode groupNode;
+
+        @Override
+        public GroupNode getGroupNode()
+        {
+            return groupNode;
+        }
+
+        @Override
+        public void setGroupNode(GroupNode groupNode)
+        {
+            this.groupNode = groupNode;
+        }
+
+        @Override
+        public Object getDescriptor()
+        {
+            return this;
+        }
+
+        @Override
+        public String getDisplayName()
+        {
+            return "test";
+        }
+
+        @Override
+        public int getSourceIndex()
+        {
+            return 0;
+        }
+
+        @Override
+        public UIGroup getParentGroup()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean isGroupCollapsed()
+        {
+            return false;
+        }
+
+        @Override
+        public int countOnlineChildContacts()
+        {
+            return 0;
+        }
+
+        @Override
+        public int countChildContacts()
+        {
+            return 0;
+        }
+
+        @Override
+        public String getId()
+        {
+            return "test";
+        }
+
+        @Override
+        public Component getRightButtonMenu()
+        {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.contactlist.contactsource;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+public class ContactSearchIndexTest
+    extends TestCase
+{
+    private final List<MetaContact> rootContacts = new ArrayList<>();
+
+    private final MetaContactGroup root = group(null, rootContacts);
+
+    private final Map<MetaContact, String> names = new HashMap<>();
+
+    private final Map<MetaContact, MetaContactGroup> parents = new HashMap<>();
+
+    private final ContactSearchIndex index = new ContactSearchIndex();
+
+    public void testFindsSubstringsIgnoringCase()
+    {
+        MetaContact alice = contact("Alice Smith", "alice@example.org");
+        MetaContact bob = contact("Bob Jones", "bob@example.org");
+
+        assertEquals(Arrays.asList(alice), index.find(root, "SMI", false));
+        assertEquals(Arrays.asList(bob), index.find(root, "b", false));
+        assertEquals(2, index.find(root, "example", false).size());
+        assertTrue(index.find(root, "carol", false).isEmpty());
+    }
+
+    public void testRefinesPreviousResult()
+    {
+        MetaContact alice = contact("Alice Smith", "alice@example.org");
+        contact("Alan Smithee", "alan@example.org");
+
+        assertEquals(2, index.find(root, "al", false).size());
+        assertEquals(2, index.find(root, "smith", false).size());
+        assertEquals(Arrays.asList(alice),
+            index.find(root, "alice smith", false));
+    }
+
+    public void testMatchesPhoneNumbersOnDigits()
+    {
+        MetaContact office = contact("Office", "+1-555-1234");
+
+        assertEquals(Arrays.asList(office), index.find(root, "555 12", true));
+        assertTrue(index.find(root, "555 12", false).isEmpty());
+    }
+
+    public void testUpdateAndRemove()
+    {
+        MetaContact alice = contact("Alice", "alice@example.org");
+
+        assertEquals(Arrays.asList(alice), index.find(root, "alice", false));
+
+        names.put(alice, "Carol");
+        index.update(alice);
+        assertEquals(Arrays.asList(alice), index.find(root, "carol", false));
+
+        index.remove(alice);
+        assertTrue(index.find(root, "carol", false).isEmpty());
+
+        MetaContact bob = contact("Bob", "bob@example.org");
+        index.update(bob);
+        assertEquals(Arrays.asList(bob), index.find(root, "bob", false));
+    }
+
+    private MetaContact contact(String displayName, String address)
+    {
+        final Contact contact = stub(Contact.class, (method, args) ->
+        {
+            switch (method.getName())
+            {
+            case "getDisplayName":
+                return displayName;
+            case "getAddress":
+                return address;
+            default:
+                return null;
+            }
+        });
+        MetaContact[] metaContact = new MetaContact[1];
+
+        metaContact[0] = stub(MetaContact.class, (method, args) ->
+        {
+            switch (method.getName())
+            {
+            case "getDisplayName":
+                return names.get(metaContact[0]);
+            case "getContacts":
+                return Collections.singletonList(contact).iterator();
+            case "getParentMetaContactGroup":
+                return parents.get(metaContact[0]);
+            default:
+                return null;
+            }
+        });
+        names.put(metaContact[0], displayName);
+        parents.put(metaContact[0], root);
+        rootContacts.add(metaContact[0]);
+        return metaContact[0];
+    }
+
+    private static MetaContactGroup group(
+        MetaContactGroup parent,
+        List<MetaContact> contacts)
+    {
+        return stub(MetaContactGroup.class, (method, args) ->
+        {
+            switch (method.getName())
+            {
+            case "getChildContacts":
+                return new ArrayList<>(contacts).iterator();
+            case "getSubgroups":
+                return Collections.emptyIterator();
+            case "getParentMetaContactGroup":
+                return parent;
+            default:
+                return null;
+            }
+        });
+    }
+
+    private interface Answer
+    {
+        Object answer(Method method, Object[] args);
+    }
+
+    private static <T> T stub(Class<T> type, Answer answer)
+    {
+        return type.cast(Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] { type },
+            (proxy, method, args) ->
+            {
+                switch (method.getName())
+                {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName();
+                default:
+                    return answer.answer(method, args);
+                }
+            }));
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.utils;
+
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import junit.framework.*;
+
+public class ImageCacheTest
+    extends TestCase
+{
+    /**
+     * Bytes of the pixels of a 10x10 ARGB image.
+     */
+    private static final int IMAGE_BYTES = 400;
+
+    /**
+     * The keys of the decoded images, in order.
+     */
+    private final List<String> loaded =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    private final ImageCache.Loader loader = key -> {
+        loaded.add(key);
+        return new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+    };
+
+    public void testSizeOf()
+    {
+        assertEquals(IMAGE_BYTES, ImageCache.sizeOf(
+            new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB)));
+        assertEquals(300, ImageCache.sizeOf(
+            new BufferedImage(10, 10, BufferedImage.TYPE_3BYTE_BGR)));
+        assertEquals(200, ImageCache.sizeOf(
+            new BufferedImage(10, 10, BufferedImage.TYPE_USHORT_GRAY)));
+    }
+
+    public void testHitsAndMisses()
+    {
+        final ImageCache cache = new ImageCache(10 * IMAGE_BYTES);
+        final BufferedImage image = cache.get("a", loader);
+        assertSame(image, cache.get("a", loader));
+        cache.get("b", loader);
+        assertEquals(Arrays.asList("a", "b"), loaded);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getLoadCount());
+        assertEquals(2 * IMAGE_BYTES, cache.getSize());
+    }
+
+    public void testEvictionUnderBudget()
+    {
+        final ImageCache cache = new ImageCache(3 * IMAGE_BYTES);
+        cache.get("a", loader);
+        cache.get("b", loader);
+        cache.get("c", loader);
+        // a is now more recently used than b.
+        cache.get("a", loader);
+        cache.get("d", loader);
+        assertEquals(3, cache.getCount());
+        assertEquals(3 * IMAGE_BYTES, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+
+        loaded.clear();
+        cache.get("a", loader);
+        cache.get("c", loader);
+        cache.get("d", loader);
+        assertTrue(loaded.isEmpty());
+        cache.get("b", loader);
+        assertEquals(Arrays.asList("b"), loaded);
+        assertEquals(2, cache.getEvictionCount());
+
+        for (int i = 0; i < 100; i++)
+        {
+            cache.get("image" + i, loader);
+            assertTrue(cache.getSize() <= 3 * IMAGE_BYTES);
+        }
+    }
+
+    public void testImageLargerThanBudget()
+    {
+        final ImageCache cache = new ImageCache(IMAGE_BYTES / 2);
+        assertNotNull(cache.get("a", loader));
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testPinnedImagesAreNotEvicted()
+    {
+        final ImageCache cache = new ImageCache(2 * IMAGE_BYTES);
+        cache.pin("icon");
+        final BufferedImage icon = cache.get("icon", loader);
+        assertEquals(0, cache.getSize());
+        for (int i = 0; i < 10; i++)
+        {
+            cache.get("image" + i, loader);
+        }
+        assertEquals(3, cache.getCount());
+        assertSame(icon, cache.get("icon", loader));
+
+        cache.pin("image9");
+        assertEquals(IMAGE_BYTES, cache.getSize());
+        cache.unpin("icon");
+        assertEquals(2 * IMAGE_BYTES, cache.getSize());
+        cache.get("other", loader);
+        assertEquals(2 * IMAGE_BYTES, cache.getSize());
+        // image8 was used less recently than icon, image9 is pinned.
+        loaded.clear();
+        cache.get("icon", loader);
+        cache.get("image9", loader);
+        cache.get("other", loader);
+        assertTrue(loaded.isEmpty());
+        cache.get("image8", loader);
+        assertEquals(Arrays.asList("image8"), loaded);
+    }
+
+    public void testClearKeepsPins()
+    {
+        final ImageCache cache = new ImageCache(IMAGE_BYTES);
+        cache.pin("icon");
+        cache.get("icon", loader);
+        cache.get("a", loader);
+        cache.clear();
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+        cache.get("icon", loader);
+        cache.get("a", loader);
+        cache.get("b", loader);
+        assertEquals(2, cache.getCount());
+        assertEquals(IMAGE_BYTES, cache.getSize());
+    }
+
+    public void testFailedLoadsAreNotCached()
+    {
+        final ImageCache cache = new ImageCache(10 * IMAGE_BYTES);
+        final AtomicInteger calls = new AtomicInteger();
+        final ImageCache.Loader failing = key -> {
+            if (calls.incrementAndGet() == 1)
+            {
+                throw new java.io.IOException("corrupt");
+            }
+            return null;
+        };
+        assertNull(cache.get("a", failing));
+        assertNull(cache.get("a", failing));
+        assertEquals(2, calls.get());
+        assertEquals(0, cache.getCount());
+        assertNotNull(cache.get("a", loader));
+    }
+
+    /**
+     * Threads asking for an image which is being decoded wait for it instead
+     * of decoding it again.
+     */
+    public void testConcurrentLoadsAreDeduplicated()
+        throws Exception
+    {
+        final ImageCache cache = new ImageCache(10 * IMAGE_BYTES);
+        final CountDownLatch decoding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final ImageCache.Loader slow = key -> {
+            loads.incrementAndGet();
+            decoding.countDown();
+            release.await();
+            return new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            final List<Future<BufferedImage>> results =
+                new ArrayList<Future<BufferedImage>>();
+            results.add(executor.submit(() -> cache.get("a", slow)));
+            assertTrue(decoding.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 7; i++)
+            {
+                results.add(executor.submit(() -> cache.get("a", slow)));
+            }
+            // Other images are not held up by the decoding.
+            assertNotNull(cache.get("b", loader));
+            release.countDown();
+            final BufferedImage image = results.get(0).get(5, TimeUnit.SECONDS);
+            assertNotNull(image);
+            for (Future<BufferedImage> result : results)
+            {
+                assertSame(image, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+            assertSame(image, cache.get("a", slow));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * An image decoded while the cache is cleared, for example when the skin
+     * changes, is not cached.
+     */
+    public void testClearDuringLoad()
+        throws Exception
+    {
+        final ImageCache cache = new ImageCache(10 * IMAGE_BYTES);
+        final ImageCache.Loader clearing = key -> {
+            cache.clear();
+            return new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        };
+        assertNotNull(cache.get("a", clearing));
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+    }
+}
@@ -23,6 +23,7 @@
 import net.java.sip.communicator.service.contactsource.*;
 import net.java.sip.communicator.service.muc.*;
 import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
 
 /**
  * The <tt>ServerChatRoomQuery</tt> is a query over the
@@ -34,6 +35,11 @@
     extends AsyncContactQuery<ContactSourceService>
     implements ChatRoomProviderWrapperListener
 {
+    /**
+     * The logger.
+     */
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ServerChatRoomQuery.class);
+
     /**
      * The query string.
      */
@@ -123,13 +129,59 @@ private void providerAdded(final ChatRoomProviderWrapper provider,
         final boolean addQueryResult)
     {
         final ProtocolProviderService pps = provider.getProtocolProvider();
+        final OperationSetChatRoomListing listing = pps == null ? null
+            : pps.getOperationSet(OperationSetChatRoomListing.class);
+        if (listing != null)
+        {
+            // Show the chat rooms while the server is still listing them.
+            try
+            {
+                listing.getExistingChatRooms(queryString,
+                    new ChatRoomListListener()
+                    {
+                        public void chatRoomsListed(List<String> chatRoomNames)
+                        {
+                            if (getStatus() != QUERY_CANCELED)
+                                addChatRooms(pps, chatRoomNames,
+                                    addQueryResult);
+                        }
+                    });
+            }
+            catch (OperationFailedException e)
+            {
+                if (logger.isTraceEnabled())
+                    logger.trace("Failed to list chat rooms for server: "
+                        + pps.getAccountID().getService(), e);
+            }
+            catch (RuntimeException e)
+            {
+                if (logger.isTraceEnabled())
+                    logger.trace("Failed to list chat rooms for server: "
+                        + pps.getAccountID().getService(), e);
+            }
+            return;
+        }
+
         List<String> chatRoomNames =
             MUCActivator.getMUCService().getExistingChatRooms(provider);
         if (chatRoomNames == null)
         {
             return;
         }
+        addChatRooms(pps, chatRoomNames, addQueryResult);
+    }
 
+    /**
+     * Adds the chat rooms with the given names to the query results.
+     *
+     * @param pps the protocol provider associated with the chat rooms.
+     * @param chatRoomNames the names of the chat rooms.
+     * @param addQueryResult indicates whether we should add the chat rooms to
+     * the query results or fire events without adding them to the results.
+     */
+    private void addChatRooms(final ProtocolProviderService pps,
+        final List<String> chatRoomNames, final boolean addQueryResult)
+    {
         // Already create all the BaseChatRoomSourceContact instances since all
         // the data is already available.
         final Set<BaseChatRoomSourceContact> chatRooms =
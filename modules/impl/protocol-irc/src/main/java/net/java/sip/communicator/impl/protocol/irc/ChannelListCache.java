@@ -0,0 +1,180 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Cache of the channel lists of IRC servers.
+ *
+ * There is one cached list per server, shared by all connections to that
+ * server. A list expires after a fixed time to live. Expired lists are removed
+ * by a single scheduler thread that is shared by all caches, such that no
+ * references to an outdated (and possibly large) list stay around.
+ */
+final class ChannelListCache
+{
+    /**
+     * Logger.
+     */
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ChannelListCache.class);
+
+    /**
+     * Default time to live in ms of a cached channel list.
+     */
+    static final long DEFAULT_TTL = 60000L;
+
+    /**
+     * The cache that is shared by all connections.
+     */
+    static final ChannelListCache SHARED = new ChannelListCache(DEFAULT_TTL);
+
+    /**
+     * Scheduler for the removal of expired lists, shared by all caches.
+     */
+    private static final ScheduledThreadPoolExecutor EXPIRY;
+
+    static
+    {
+        EXPIRY = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "IRC channel list cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        EXPIRY.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Time to live in ms of a cached list.
+     */
+    private final long ttl;
+
+    /**
+     * Cached lists by normalized server name.
+     */
+    private final Map<String, Entry> entries =
+        new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Constructor.
+     *
+     * @param ttl time to live in ms of a cached list
+     */
+    ChannelListCache(final long ttl)
+    {
+        if (ttl <= 0)
+        {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.ttl = ttl;
+    }
+
+    /**
+     * Get the cached channel list of a server.
+     *
+     * @param server the server
+     * @return returns the unmodifiable list of channels, or <tt>null</tt> if
+     *         no list is cached or the cached list has expired
+     */
+    List<String> get(final String server)
+    {
+        final String key = key(server);
+        final Entry entry = this.entries.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiration > 0)
+        {
+            this.entries.remove(key, entry);
+            return null;
+        }
+        return entry.channels;
+    }
+
+    /**
+     * Cache the channel list of a server, replacing any previous list.
+     *
+     * @param server the server
+     * @param channels the complete list of channels
+     */
+    void put(final String server, final List<String> channels)
+    {
+        final String key = key(server);
+        final Entry entry = new Entry(
+            Collections.unmodifiableList(new ArrayList<String>(channels)),
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.ttl));
+        entry.cleanUp = EXPIRY.schedule(() -> {
+            if (ChannelListCache.this.entries.remove(key, entry))
+            {
+                logger.debug("Channel list cache of " + key
+                    + " has expired.");
+            }
+        }, this.ttl, TimeUnit.MILLISECONDS);
+        final Entry previous = this.entries.put(key, entry);
+        if (previous != null)
+        {
+            previous.cleanUp.cancel(false);
+        }
+    }
+
+    /**
+     * Normalize a server name. Host names are case-insensitive.
+     *
+     * @param server the server
+     * @return returns the key of the server
+     */
+    private static String key(final String server)
+    {
+        return server.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Cached channel list.
+     */
+    private static final class Entry
+    {
+        /**
+         * The unmodifiable channel list.
+         */
+        private final List<String> channels;
+
+        /**
+         * Time in ns (according to System.nanoTime) of expiration.
+         */
+        private final long expiration;
+
+        /**
+         * The scheduled removal of the entry.
+         */
+        private volatile ScheduledFuture<?> cleanUp;
+
+        /**
+         * Constructor.
+         *
+         * @param channels the unmodifiable channel list
+         * @param expiration the time of expiration
+         */
+        private Entry(final List<String> channels, final long expiration)
+        {
+            this.channels = channels;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -118,6 +118,28 @@
      */
     private final boolean awayNotify;
 
+    /**
+     * Presence task period.
+     */
+    private static final long PRESENCE_TASK_PERIOD = 60000L;
+
+    /**
+     * Time after a change of a channel's member list during which its members'
+     * presence is not queried.
+     */
+    private static final long PRESENCE_TASK_QUIET_TIME = 10000L;
+
+    /**
+     * Router of channel numerics to the listener of their chat room.
+     */
+    private final ChannelNumericRouter numericRouter =
+        new ChannelNumericRouter();
+
+    /**
+     * Scheduler of the periodic presence queries of the chat rooms.
+     */
+    private final ChannelPresenceScheduler presenceScheduler;
+
     /**
      * Constructor.
      *
@@ -151,6 +173,8 @@ public ChannelManager(final IRCApi irc, final IIRCState connectionState,
             throw new IllegalArgumentException("client config cannot be null");
         }
         this.config = config;
+        this.presenceScheduler = new ChannelPresenceScheduler(this.irc,
+            PRESENCE_TASK_PERIOD, PRESENCE_TASK_QUIET_TIME, new Random());
         this.irc.addListener(new ManagerListener());
 
         // parse ISUPPORT parameters
@@ -738,6 +762,12 @@ public ManagerListener()
         @Override
         public void onServerNumericMessage(final ServerNumericMessage msg)
         {
+            // Channel numerics are handled by the chat room listener of their
+            // channel only.
+            if (ChannelManager.this.numericRouter.route(msg))
+            {
+                return;
+            }
             switch (msg.getNumericCode())
             {
             case RPL_LISTEND:
@@ -802,6 +832,45 @@ public void onServerNumericMessage(final ServerNumericMessage msg)
                 break;
             }
         }
+
+        /**
+         * Stop the presence queries in case the local user quits.
+         *
+         * @param msg the quit message
+         */
+        @Override
+        public void onUserQuit(final QuitMessage msg)
+        {
+            if (localUser(msg.getSource().getNick()))
+            {
+                ChannelManager.this.presenceScheduler.stop();
+            }
+            super.onUserQuit(msg);
+        }
+
+        /**
+         * Stop the presence queries in case of error.
+         *
+         * @param msg the error message
+         */
+        @Override
+        public void onError(final ErrorMessage msg)
+        {
+            ChannelManager.this.presenceScheduler.stop();
+            super.onError(msg);
+        }
+
+        /**
+         * Stop the presence queries in case of client-side error.
+         *
+         * @param msg the client-side error message
+         */
+        @Override
+        public void onClientError(final ClientErrorMessage msg)
+        {
+            ChannelManager.this.presenceScheduler.stop();
+            super.onClientError(msg);
+        }
     }
 
     /**
@@ -815,58 +884,18 @@ public void onServerNumericMessage(final ServerNumericMessage msg)
      */
     private final class ChatRoomListener
         extends AbstractIrcMessageListener
+        implements ChannelNumericRouter.Target
     {
         /**
          * Indicator for those members whose AWAY message is set.
          */
         private static final String GONE = "G";
 
-        /**
-         * IRC error code for case when user cannot send a message to the
-         * channel, for example when this channel is moderated and user does not
-         * have VOICE (+v).
-         */
-        private static final int IRC_ERR_CANNOTSENDTOCHAN = 404;
-
-        /**
-         * IRC error code for case where user is not joined to that channel.
-         */
-        private static final int IRC_ERR_NOTONCHANNEL = 442;
-
-        /**
-         * IRC reply code for WHO reply entry for an individual user.
-         */
-        private static final int IRC_RPL_WHOREPLY = 352;
-
-        /**
-         * IRC reply code for end of WHO reply list.
-         */
-        private static final int IRC_RPL_ENDOFWHO = 315;
-
-        /**
-         * Presence task period.
-         */
-        private static final long TASK_PERIOD = 60000L;
-
-        /**
-         * Presence task initial delay.
-         *
-         * The first WHO-request is fired during ChatRoomListener constructions,
-         * as we need at least 1 such request, even if away-notify capability is
-         * active.
-         */
-        private static final long TASK_INITIAL_DELAY = TASK_PERIOD;
-
         /**
          * Chat room for which this listener is working.
          */
         private final ChatRoomIrcImpl chatroom;
 
-        /**
-         * Presence task timer.
-         */
-        private final Timer presenceTaskTimer = new Timer();
-
         /**
          * Constructor. Instantiate listener for the provided chat room.
          *
@@ -887,9 +916,16 @@ private ChatRoomListener(final ChatRoomIrcImpl chatroom,
                 throw new IllegalArgumentException("chatroom cannot be null");
             }
             this.chatroom = chatroom;
+            ChannelManager.this.numericRouter.register(
+                chatroom.getIdentifier(), this);
             if (activatePresenceWatcher && !awayNotifyCapability)
             {
-                createPeriodicPresenceWatcher();
+                // The first WHO-request is fired below, as we need at least 1
+                // such request, even if away-notify capability is active.
+                ChannelManager.this.presenceScheduler.add(
+                    chatroom.getIdentifier());
+                logger.debug("Scheduled periodic task for querying member "
+                    + "presence for channel " + chatroom.getIdentifier());
             }
             else
             {
@@ -900,24 +936,6 @@ private ChatRoomListener(final ChatRoomIrcImpl chatroom,
             this.irc.rawMessage("WHO " + chatroom.getIdentifier());
         }
 
-        /**
-         * Create periodic task for updating channel presence statuses.
-         */
-        private void createPeriodicPresenceWatcher() {
-            final TimerTask task = new TimerTask()
-            {
-                @Override
-                public void run()
-                {
-                    irc.rawMessage("WHO " + chatroom.getIdentifier());
-                }
-            };
-            this.presenceTaskTimer.schedule(task, TASK_INITIAL_DELAY,
-                TASK_PERIOD);
-            logger.debug("Scheduled periodic task for querying member presence "
-                + "for channel " + this.chatroom.getIdentifier());
-        }
-
         /**
          * Event in case of topic change.
          *
@@ -960,6 +978,7 @@ public void onChannelJoin(final ChanJoinMessage msg)
             {
                 return;
             }
+            memberListChanged();
             final String user = msg.getSource().getNick();
             final String ident = msg.getSource().getIdent();
             final String host = msg.getSource().getHostname();
@@ -991,6 +1010,7 @@ public void onChannelPart(final ChanPartMessage msg)
                 return;
             }
 
+            memberListChanged();
             final String userNick = msg.getSource().getNick();
             final ChatRoomMember member =
                 this.chatroom.getChatRoomMember(userNick);
@@ -1014,73 +1034,66 @@ public void onChannelPart(final ChanPartMessage msg)
         }
 
         /**
-         * Some of the generic message are relevant to us, so keep an eye on
-         * general numeric messages.
+         * Some of the generic message are relevant to us. Channel numerics
+         * for this chat room are routed here by the channel manager.
          *
-         * @param msg IRC server numeric message
+         * @param code the numeric code
+         * @param raw the text of the numeric, starting with the channel name
          */
-        public void onServerNumericMessage(final ServerNumericMessage msg)
+        @Override
+        public void onChannelNumeric(final int code, final String raw)
         {
-            final Integer code = msg.getNumericCode();
-            if (code == null)
-            {
-                return;
-            }
-            final String raw = msg.getText();
             switch (code)
             {
-            case IRC_ERR_NOTONCHANNEL:
-                final String channel = raw.substring(0, raw.indexOf(" "));
-                if (isThisChatRoom(channel))
-                {
-                    logger
-                        .warn("Just discovered that we are no longer joined to "
-                            + "channel "
-                            + channel
-                            + ". Leaving quietly. (This is most likely due to a"
-                            + " bug in the implementation.)");
-                    // If for some reason we missed the message that we aren't
-                    // joined (anymore) to this particular chat room, correct
-                    // our problem ASAP.
-                    leaveChatRoom();
-                }
+            case ChannelNumericRouter.ERR_NOTONCHANNEL:
+                logger.warn("Just discovered that we are no longer joined to "
+                    + "channel "
+                    + this.chatroom.getIdentifier()
+                    + ". Leaving quietly. (This is most likely due to a"
+                    + " bug in the implementation.)");
+                // If for some reason we missed the message that we aren't
+                // joined (anymore) to this particular chat room, correct
+                // our problem ASAP.
+                leaveChatRoom();
                 break;
 
-            case IRC_ERR_CANNOTSENDTOCHAN:
-                final String cannotSendChannel =
-                    raw.substring(0, raw.indexOf(" "));
-                if (isThisChatRoom(cannotSendChannel))
-                {
-                    final MessageIrcImpl message =
-                        new MessageIrcImpl("", "text/plain", "UTF-8", null);
-                    this.chatroom.fireMessageDeliveryFailedEvent(
-                        ChatRoomMessageDeliveryFailedEvent.FORBIDDEN,
-                        "This channel is moderated.", new Date(), message);
-                }
+            case ChannelNumericRouter.ERR_CANNOTSENDTOCHAN:
+                final MessageIrcImpl message =
+                    new MessageIrcImpl("", "text/plain", "UTF-8", null);
+                this.chatroom.fireMessageDeliveryFailedEvent(
+                    ChatRoomMessageDeliveryFailedEvent.FORBIDDEN,
+                    "This channel is moderated.", new Date(), message);
                 break;
 
-            case IRC_RPL_WHOREPLY:
-                final String[] messageComponents = msg.getText().split(" ");
-                if (messageComponents.length < 6
-                    || !isThisChatRoom(messageComponents[0]))
+            case ChannelNumericRouter.RPL_WHOREPLY:
+                // Only the nick and the flags are needed: the 5th and 6th
+                // component after the channel name.
+                final String[] components =
+                    ChannelNumericRouter.fields(raw, 4, 2);
+                if (components == null)
                 {
                     // We need at least 6 components in order to process this
                     // message correctly, so stop processing if this is not the
-                    // case. Or if this reply was not targeted at this channel.
+                    // case.
                     return;
                 }
-                final String nick = messageComponents[4];
+                final String nick = components[0];
                 final ChatRoomMemberIrcImpl member =
                     (ChatRoomMemberIrcImpl) this.chatroom
                         .getChatRoomMember(nick);
                 if (member != null)
                 {
                     final IrcStatusEnum status =
-                        determineStatus(messageComponents[5]);
+                        determineStatus(components[1]);
                     updateMemberPresence(member, status);
                 }
                 break;
 
+            case ChannelNumericRouter.RPL_ENDOFWHO:
+                ChannelManager.this.presenceScheduler.whoCompleted(
+                    this.chatroom.getIdentifier());
+                break;
+
             default:
                 break;
             }
@@ -1121,6 +1134,7 @@ public void onChannelKick(final ChannelKick msg)
                 return;
             }
 
+            memberListChanged();
             final String kickedUser = msg.getKickedNickname();
             final ChatRoomMember kickedMember =
                 this.chatroom.getChatRoomMember(kickedUser);
@@ -1136,7 +1150,7 @@ public void onChannelKick(final ChannelKick msg)
             {
                 logger.debug(
                     "Local user is kicked. Removing chat room listener.");
-                this.irc.deleteListener(this);
+                stopListening();
                 ChannelManager.this.joined
                     .remove(this.chatroom.getIdentifier());
                 ChannelManager.this.provider.getMUC()
@@ -1157,7 +1171,7 @@ public void onUserQuit(final QuitMessage msg)
             final String user = msg.getSource().getNick();
             if (localUser(user))
             {
-                this.presenceTaskTimer.cancel();
+                stopListening();
             }
             else
             {
@@ -1165,6 +1179,7 @@ public void onUserQuit(final QuitMessage msg)
                     this.chatroom.getChatRoomMember(user);
                 if (member != null)
                 {
+                    memberListChanged();
                     this.chatroom.fireMemberPresenceEvent(member, null,
                         ChatRoomMemberPresenceChangeEvent.MEMBER_QUIT,
                         msg.getQuitMsg());
@@ -1180,7 +1195,7 @@ public void onUserQuit(final QuitMessage msg)
         @Override
         public void onError(final ErrorMessage msg)
         {
-            this.presenceTaskTimer.cancel();
+            stopListening();
             super.onError(msg);
         }
 
@@ -1191,7 +1206,7 @@ public void onError(final ErrorMessage msg)
         @Override
         public void onClientError(final ClientErrorMessage msg)
         {
-            this.presenceTaskTimer.cancel();
+            stopListening();
             super.onClientError(msg);
         }
 
@@ -1348,8 +1363,7 @@ private void updateMemberPresence(ChatRoomMemberIrcImpl member,
          */
         private void leaveChatRoom()
         {
-            this.presenceTaskTimer.cancel();
-            this.irc.deleteListener(this);
+            stopListening();
             ChannelManager.this.joined.remove(this.chatroom.getIdentifier());
             logger.debug("Leaving chat room " + this.chatroom.getIdentifier()
                 + ". Chat room listener removed.");
@@ -1358,6 +1372,28 @@ private void leaveChatRoom()
                 LocalUserChatRoomPresenceChangeEvent.LOCAL_USER_LEFT, null);
         }
 
+        /**
+         * Stop listening for events of this chat room and stop its presence
+         * queries.
+         */
+        private void stopListening()
+        {
+            final String identifier = this.chatroom.getIdentifier();
+            ChannelManager.this.presenceScheduler.remove(identifier);
+            ChannelManager.this.numericRouter.unregister(identifier, this);
+            this.irc.deleteListener(this);
+        }
+
+        /**
+         * Signal that the member list of this chat room changed, such that its
+         * next presence query can be skipped.
+         */
+        private void memberListChanged()
+        {
+            ChannelManager.this.presenceScheduler.memberListChanged(
+                this.chatroom.getIdentifier());
+        }
+
         /**
          * Process mode changes.
          *
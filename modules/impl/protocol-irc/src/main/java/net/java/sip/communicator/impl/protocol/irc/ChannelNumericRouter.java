@@ -0,0 +1,183 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.ircclouds.irc.api.domain.messages.*;
+
+/**
+ * Router for server numerics that concern a single channel.
+ *
+ * The channel of a numeric is determined once per connection and the numeric
+ * is delivered to the listener of that channel only, instead of every joined
+ * channel inspecting every numeric.
+ */
+final class ChannelNumericRouter
+{
+    /**
+     * IRC error code for case when user cannot send a message to the channel,
+     * for example when this channel is moderated and user does not have VOICE
+     * (+v).
+     */
+    static final int ERR_CANNOTSENDTOCHAN = 404;
+
+    /**
+     * IRC error code for case where user is not joined to that channel.
+     */
+    static final int ERR_NOTONCHANNEL = 442;
+
+    /**
+     * IRC reply code for WHO reply entry for an individual user.
+     */
+    static final int RPL_WHOREPLY = 352;
+
+    /**
+     * IRC reply code for end of WHO reply list.
+     */
+    static final int RPL_ENDOFWHO = 315;
+
+    /**
+     * Targets by normalized channel name.
+     */
+    private final Map<String, Target> targets =
+        new ConcurrentHashMap<String, Target>();
+
+    /**
+     * Register the target of a channel.
+     *
+     * @param channel the channel name
+     * @param target the target for numerics of the channel
+     */
+    void register(final String channel, final Target target)
+    {
+        this.targets.put(key(channel), target);
+    }
+
+    /**
+     * Unregister the target of a channel. Nothing happens if another target
+     * has been registered for the channel in the mean time.
+     *
+     * @param channel the channel name
+     * @param target the target to unregister
+     */
+    void unregister(final String channel, final Target target)
+    {
+        this.targets.remove(key(channel), target);
+    }
+
+    /**
+     * Route a server numeric to the target of its channel.
+     *
+     * @param msg the server numeric
+     * @return returns <tt>true</tt> if the numeric is a channel numeric,
+     *         whether or not a target was registered for its channel
+     */
+    boolean route(final ServerNumericMessage msg)
+    {
+        final Integer code = msg.getNumericCode();
+        if (code == null)
+        {
+            return false;
+        }
+        switch (code)
+        {
+        case ERR_CANNOTSENDTOCHAN:
+        case ERR_NOTONCHANNEL:
+        case RPL_WHOREPLY:
+        case RPL_ENDOFWHO:
+            break;
+        default:
+            return false;
+        }
+        final String text = msg.getText();
+        if (text == null)
+        {
+            return true;
+        }
+        final int end = text.indexOf(' ');
+        final String channel = end < 0 ? text : text.substring(0, end);
+        final Target target = this.targets.get(key(channel));
+        if (target != null)
+        {
+            target.onChannelNumeric(code, text);
+        }
+        return true;
+    }
+
+    /**
+     * Get consecutive space-separated fields of a numeric's text without
+     * splitting the remainder of the text.
+     *
+     * @param text the text
+     * @param first the index of the first field
+     * @param count the number of fields
+     * @return returns the fields or <tt>null</tt> if the text does not have
+     *         enough fields
+     */
+    static String[] fields(final String text, final int first,
+        final int count)
+    {
+        final String[] fields = new String[count];
+        int start = 0;
+        for (int i = 0; i < first + count; i++)
+        {
+            if (start > text.length())
+            {
+                return null;
+            }
+            int end = text.indexOf(' ', start);
+            if (end < 0)
+            {
+                end = text.length();
+            }
+            if (i >= first)
+            {
+                fields[i - first] = text.substring(start, end);
+            }
+            start = end + 1;
+        }
+        return fields;
+    }
+
+    /**
+     * Normalize a channel name. Channel names are case-insensitive.
+     *
+     * @param channel the channel name
+     * @return returns the key of the channel
+     */
+    private static String key(final String channel)
+    {
+        return channel.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Target for the numerics of a channel.
+     */
+    interface Target
+    {
+        /**
+         * A numeric concerning the channel was received.
+         *
+         * @param code the numeric code
+         * @param text the text of the numeric, starting with the channel name
+         */
+        void onChannelNumeric(int code, String text);
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+import java.util.*;
+
+import com.ircclouds.irc.api.*;
+
+/**
+ * Scheduler for the periodic WHO requests that refresh the presence of channel
+ * members.
+ *
+ * Instead of every channel querying at the same fixed rate, the channels of a
+ * connection take turns: one WHO request is sent at a time, spread over the
+ * period with some jitter, such that every channel is queried about once per
+ * period. A channel is skipped in its turn if its member list changed
+ * recently or if its previous WHO request has not been answered yet.
+ */
+final class ChannelPresenceScheduler
+{
+    /**
+     * Logger.
+     */
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ChannelPresenceScheduler.class);
+
+    /**
+     * Maximum deviation of the interval between two turns, as a fraction of
+     * the interval.
+     */
+    private static final double JITTER = 0.2;
+
+    /**
+     * IRCApi instance.
+     */
+    private final IRCApi irc;
+
+    /**
+     * The period in ms in which every channel is queried once.
+     */
+    private final long period;
+
+    /**
+     * The time in ms after a change of the member list during which the
+     * channel is not queried.
+     */
+    private final long quietTime;
+
+    /**
+     * Source of jitter.
+     */
+    private final Random random;
+
+    /**
+     * The state of the scheduled channels by channel name, in the order of
+     * their turns. The channel whose turn is next comes first.
+     */
+    private final LinkedHashMap<String, ChannelState> channels =
+        new LinkedHashMap<String, ChannelState>();
+
+    /**
+     * The timer for the turns, or <tt>null</tt> if no channels are scheduled.
+     */
+    private Timer timer = null;
+
+    /**
+     * Constructor.
+     *
+     * @param irc IRCApi instance
+     * @param period the period in ms in which every channel is queried once
+     * @param quietTime the time in ms after a change of the member list during
+     *            which a channel is not queried
+     * @param random source of jitter
+     */
+    ChannelPresenceScheduler(final IRCApi irc, final long period,
+        final long quietTime, final Random random)
+    {
+        if (irc == null)
+        {
+            throw new IllegalArgumentException("irc instance cannot be null");
+        }
+        if (period <= 0)
+        {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        this.irc = irc;
+        this.period = period;
+        this.quietTime = quietTime;
+        this.random = random;
+    }
+
+    /**
+     * Schedule periodic WHO requests for a channel. The channel gets its first
+     * turn after the channels already scheduled, since a WHO request is sent
+     * when joining.
+     *
+     * @param channel the channel name
+     */
+    synchronized void add(final String channel)
+    {
+        final ChannelState state = new ChannelState();
+        state.requested = System.currentTimeMillis();
+        this.channels.remove(channel);
+        this.channels.put(channel, state);
+        if (this.timer == null)
+        {
+            this.timer = new Timer("IRC channel presence", true);
+            scheduleNextTurn();
+        }
+    }
+
+    /**
+     * Stop WHO requests for a channel.
+     *
+     * @param channel the channel name
+     */
+    synchronized void remove(final String channel)
+    {
+        this.channels.remove(channel);
+        if (this.channels.isEmpty())
+        {
+            stop();
+        }
+    }
+
+    /**
+     * Stop all WHO requests.
+     */
+    synchronized void stop()
+    {
+        this.channels.clear();
+        if (this.timer != null)
+        {
+            this.timer.cancel();
+            this.timer = null;
+        }
+    }
+
+    /**
+     * Signal that the member list of a channel changed.
+     *
+     * @param channel the channel name
+     */
+    synchronized void memberListChanged(final String channel)
+    {
+        final ChannelState state = this.channels.get(channel);
+        if (state != null)
+        {
+            state.changed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Signal that the WHO request of a channel has been answered.
+     *
+     * @param channel the channel name
+     */
+    synchronized void whoCompleted(final String channel)
+    {
+        final ChannelState state = this.channels.get(channel);
+        if (state != null)
+        {
+            state.requested = 0;
+        }
+    }
+
+    /**
+     * Give the next channel its turn.
+     *
+     * @param timer the timer of the turn
+     */
+    private synchronized void turn(final Timer timer)
+    {
+        if (timer != this.timer || this.channels.isEmpty())
+        {
+            return;
+        }
+        nextTurn();
+        scheduleNextTurn();
+    }
+
+    /**
+     * Send the WHO request of the channel whose turn is next, unless it is
+     * skipped, and move it to the end of the turns.
+     */
+    synchronized void nextTurn()
+    {
+        if (this.channels.isEmpty())
+        {
+            return;
+        }
+        final Iterator<Map.Entry<String, ChannelState>> it =
+            this.channels.entrySet().iterator();
+        final Map.Entry<String, ChannelState> next = it.next();
+        it.remove();
+        this.channels.put(next.getKey(), next.getValue());
+        final String channel = next.getKey();
+        final ChannelState state = next.getValue();
+        final long now = System.currentTimeMillis();
+        if (now - state.changed < this.quietTime)
+        {
+            logger.trace("Member list of channel " + channel
+                + " changed recently. Skipping WHO request.");
+        }
+        else if (state.requested != 0 && now - state.requested < this.period)
+        {
+            logger.trace("Previous WHO request for channel " + channel
+                + " was not answered yet. Skipping WHO request.");
+        }
+        else
+        {
+            state.requested = now;
+            try
+            {
+                this.irc.rawMessage("WHO " + channel);
+            }
+            catch (RuntimeException e)
+            {
+                logger.debug("Failed to request WHO for channel " + channel,
+                    e);
+            }
+        }
+    }
+
+    /**
+     * Schedule the next turn.
+     */
+    private void scheduleNextTurn()
+    {
+        final double interval = (double) this.period / this.channels.size();
+        final double jitter =
+            (this.random.nextDouble() * 2 - 1) * JITTER * interval;
+        final long delay = Math.max(1, Math.round(interval + jitter));
+        final Timer current = this.timer;
+        current.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                turn(current);
+            }
+        }, delay);
+    }
+
+    /**
+     * Presence query state of a channel.
+     */
+    private static final class ChannelState
+    {
+        /**
+         * Time in ms of the last change of the member list.
+         */
+        private long changed = 0;
+
+        /**
+         * Time in ms of the unanswered WHO request, or 0 if there is none.
+         */
+        private long requested = 0;
+    }
+}
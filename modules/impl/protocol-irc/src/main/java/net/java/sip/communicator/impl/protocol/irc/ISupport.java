@@ -58,7 +58,11 @@
     /**
      * Maximum number of entries in the WATCH list supported by this server.
      */
-    WATCH;
+    WATCH,
+    /**
+     * Search extensions of the LIST command supported by this server.
+     */
+    ELIST;
 
     /**
      * Pattern for parsing ChanLimit ISUPPORT parameter.
@@ -26,6 +26,7 @@
 
 import javax.net.ssl.*;
 
+import net.java.sip.communicator.impl.protocol.irc.collection.*;
 import net.java.sip.communicator.service.certificate.*;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
@@ -139,7 +140,9 @@ public void connect(final String host, final int port,
 
                 this.params.setServer(server);
 
-                final IRCApi irc = new IRCApiImpl(true);
+                // Commands are sent by the outbound command queue of the
+                // connection, such that callers never block on each other.
+                final IRCApi irc = new QueuedIRCApi(new IRCApiImpl(true));
 
                 if (logger.isTraceEnabled())
                 {
@@ -149,8 +152,7 @@ public void connect(final String host, final int port,
                     irc.addListener(new DebugListener());
                 }
 
-                // Synchronized IRCApi instance passed on to the connection
-                // instance.
+                // Queued IRCApi instance passed on to the connection instance.
                 this.session.set(new IrcConnection(this.context, config, irc,
                     this.params, password, this));
 
@@ -564,10 +566,10 @@ public void connectionInterrupted(final IrcConnection connection)
         final ProtocolProviderServiceIrcImpl provider;
 
         /**
-         * The nick watch list as a SYNCHRONIZED sorted set.
+         * The nick watch list as a SYNCHRONIZED observable set.
          */
-        final SortedSet<String> nickWatchList = Collections
-            .synchronizedSortedSet(new TreeSet<String>());
+        final ObservableSet<String> nickWatchList =
+            new ObservableSet<String>();
 
         /**
          * Private constructor to ensure use only by IrcStack itself.
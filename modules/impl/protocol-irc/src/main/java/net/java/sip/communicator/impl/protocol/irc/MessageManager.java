@@ -17,6 +17,9 @@
  */
 package net.java.sip.communicator.impl.protocol.irc;
 
+import java.util.*;
+import java.util.concurrent.*;
+
 import net.java.sip.communicator.impl.protocol.irc.exception.*;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
@@ -240,7 +243,8 @@ private void command(final String source, final String message)
     }
 
     /**
-     * Send an IRC message.
+     * Send an IRC message. If the message cannot be sent, a message delivery
+     * failed event is fired on the chat room.
      *
      * @param chatroom The chat room to send the message to.
      * @param message The message to send.
@@ -267,20 +271,25 @@ public void message(final ChatRoomIrcImpl chatroom, final String message)
                 "Message is too large for this IRC server.",
                 OperationFailedException.ILLEGAL_ARGUMENT);
         }
-        try
-        {
-            this.irc.message(target, message);
-            logger.trace("Message delivered to server successfully.");
-        }
-        catch (RuntimeException e)
-        {
+        send(target, message).whenComplete((result, e) -> {
+            if (e == null)
+            {
+                return;
+            }
             logger.trace("Failed to deliver message: " + e.getMessage(), e);
-            throw e;
-        }
+            chatroom.fireMessageDeliveryFailedEvent(
+                ChatRoomMessageDeliveryFailedEvent.NETWORK_FAILURE,
+                e.getMessage(), new Date(), new MessageIrcImpl(message,
+                    OperationSetBasicInstantMessaging.DEFAULT_MIME_TYPE,
+                    OperationSetBasicInstantMessaging.DEFAULT_MIME_ENCODING,
+                    null));
+        });
+        logger.trace("Message queued for delivery to server.");
     }
 
     /**
-     * Send an IRC message.
+     * Send an IRC message. If the message cannot be sent, a message delivery
+     * failed event is fired for the contact.
      *
      * @param contact The contact to send the message to.
      * @param message The message to send.
@@ -310,16 +319,48 @@ public void message(final Contact contact, final Message message)
                 "Message is too large for this IRC server.",
                 OperationFailedException.ILLEGAL_ARGUMENT);
         }
+        send(target, message.getContent()).whenComplete((result, e) -> {
+            if (e == null)
+            {
+                return;
+            }
+            logger.trace("Failed to deliver message: " + e.getMessage(), e);
+            MessageManager.this.provider.getBasicInstantMessaging()
+                .fireMessageDeliveryFailed(message, contact,
+                    MessageDeliveryFailedEvent.NETWORK_FAILURE);
+        });
+        logger.trace("Message queued for delivery to server.");
+    }
+
+    /**
+     * Queue a message for delivery. Sending happens asynchronously when the
+     * IRCApi instance is queued, so failures are only reported through the
+     * returned future.
+     *
+     * @param target the target of the message
+     * @param message the message
+     * @return returns a future that completes once the message is sent, or
+     *         completes exceptionally if it could not be sent
+     */
+    private CompletableFuture<Void> send(final String target,
+        final String message)
+    {
+        if (this.irc instanceof QueuedIRCApi)
+        {
+            return ((QueuedIRCApi) this.irc).submit(QueuedIRCApi.Lane.USER,
+                irc -> irc.message(target, message));
+        }
+        final CompletableFuture<Void> sent = new CompletableFuture<Void>();
         try
         {
-            this.irc.message(target, message.getContent());
-            logger.trace("Message delivered to server successfully.");
+            this.irc.message(target, message);
+            sent.complete(null);
         }
         catch (RuntimeException e)
         {
-            logger.trace("Failed to deliver message: " + e.getMessage(), e);
-            throw e;
+            sent.completeExceptionally(e);
         }
+        return sent;
     }
 
     /**
@@ -36,6 +36,7 @@
  */
 public class OperationSetMultiUserChatIrcImpl
     extends AbstractOperationSetMultiUserChat
+    implements OperationSetChatRoomListing
 {
     /**
      * A call back to the IRC provider that created us.
@@ -91,6 +92,33 @@ public List<String> getExistingChatRooms() throws OperationFailedException
         return connection.getServerChannelLister().getList();
     }
 
+    /**
+     * Returns the names of the chat rooms currently available on the server
+     * that contain <tt>filter</tt>, while delivering them to
+     * <tt>listener</tt> as they arrive.
+     *
+     * @param filter the text the chat room names must contain, ignoring case,
+     * or <tt>null</tt> for all chat rooms
+     * @param listener the listener that receives the names while they arrive,
+     * or <tt>null</tt>
+     * @return the names of the matching chat rooms
+     *
+     * @throws OperationFailedException if we failed retrieving this list from
+     * the server.
+     */
+    public List<String> getExistingChatRooms(final String filter,
+        final ChatRoomListListener listener)
+        throws OperationFailedException
+    {
+        final IrcConnection connection =
+            this.ircProvider.getIrcStack().getConnection();
+        if (connection == null)
+        {
+            throw new IllegalStateException("Connection is not available.");
+        }
+        return connection.getServerChannelLister().getList(filter, listener);
+    }
+
     /**
      * Returns a list of the chat rooms that we have joined and are currently
      * active in.
@@ -129,13 +129,12 @@
      * @param operationSet OperationSetPersistentPresence irc implementation for
      *            handling presence changes.
      * @param config Client configuration
-     * @param persistentNickWatchList persistent nick watch list to use (The
-     *            sortedset implementation must be synchronized!)
+     * @param persistentNickWatchList persistent nick watch list to use
      */
     public PresenceManager(final IRCApi irc, final IIRCState connectionState,
         final OperationSetPersistentPresenceIrcImpl operationSet,
         final ClientConfig config,
-        final SortedSet<String> persistentNickWatchList)
+        final ObservableSet<String> persistentNickWatchList)
     {
         if (connectionState == null)
         {
@@ -153,13 +152,12 @@ public PresenceManager(final IRCApi irc, final IIRCState connectionState,
             throw new IllegalArgumentException("irc cannot be null");
         }
         this.irc = irc;
-        final SortedSet<String> nickWatchList;
+        final ObservableSet<String> nickWatchList;
         if (persistentNickWatchList == null)
         {
             // watch list will be non-persistent, since we create an instance at
             // initialization time
-            nickWatchList =
-                Collections.synchronizedSortedSet(new TreeSet<String>());
+            nickWatchList = new ObservableSet<String>();
         }
         else
         {
@@ -179,8 +177,8 @@ public PresenceManager(final IRCApi irc, final IIRCState connectionState,
             // Now it is possible for the basic poller to determine whether
             // or not to poll for a certain nick, such that we do not poll
             // nicks that are already monitored.
-            final SortedSet<String> monitoredNicks =
-                Collections.synchronizedSortedSet(new TreeSet<String>());
+            final ObservableSet<String> monitoredNicks =
+                new ObservableSet<String>();
             this.watcher =
                 new MonitorPresenceWatcher(this.irc, this.connectionState,
                     nickWatchList, monitoredNicks, this.operationSet,
@@ -207,8 +205,8 @@ else if (this.isupportWatch != null)
             // Now it is possible for the basic poller to determine whether
             // or not to poll for a certain nick, such that we do not poll
             // nicks that are already monitored.
-            final SortedSet<String> monitoredNicks =
-                Collections.synchronizedSortedSet(new TreeSet<String>());
+            final ObservableSet<String> monitoredNicks =
+                new ObservableSet<String>();
             this.watcher =
                 new WatchPresenceWatcher(this.irc, this.connectionState,
                     nickWatchList, monitoredNicks, this.operationSet,
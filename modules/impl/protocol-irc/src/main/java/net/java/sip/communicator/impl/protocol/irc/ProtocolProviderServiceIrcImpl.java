@@ -131,6 +131,9 @@ protected void initialize(final String userID, final AccountID accountID)
             addSupportedOperationSet(
                 OperationSetMultiUserChat.class,
                 multiUserChat);
+            addSupportedOperationSet(
+                OperationSetChatRoomListing.class,
+                multiUserChat);
 
             // Initialize basic instant messaging
             this.instantMessaging =
@@ -0,0 +1,877 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.ircclouds.irc.api.*;
+import com.ircclouds.irc.api.ctcp.*;
+import com.ircclouds.irc.api.domain.*;
+import com.ircclouds.irc.api.filters.*;
+import com.ircclouds.irc.api.listeners.*;
+import com.ircclouds.irc.api.state.*;
+import javax.net.ssl.*;
+
+/**
+ * Outbound command queue for IRCApi.
+ *
+ * Commands are not sent by the calling thread. They are queued and sent, one
+ * at a time, by a single writer thread of the connection, such that a slow
+ * send does not block other callers. Commands are queued in priority lanes:
+ * keep-alive commands first, then user commands, then bulk queries (WHO,
+ * ISON, LIST, ...). Within a lane, commands are sent in the order they were
+ * queued.
+ *
+ * To stay below the flood limits of IRC servers, user and bulk commands are
+ * paced by a token bucket: a burst of commands is sent immediately, after
+ * which commands are sent at a fixed rate. Keep-alive commands are never held
+ * back.
+ *
+ * Connecting, disconnecting, DCC and listener management are not queued.
+ * Disconnecting cancels the commands that have not been sent yet.
+ */
+public class QueuedIRCApi
+    implements IRCApi
+{
+    /**
+     * Logger.
+     */
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(QueuedIRCApi.class);
+
+    /**
+     * The number of commands that can be sent at once.
+     */
+    static final int DEFAULT_BURST = 10;
+
+    /**
+     * The interval in ms in which one more command may be sent once the burst
+     * is used up.
+     */
+    static final long DEFAULT_INTERVAL = 1500;
+
+    /**
+     * Raw commands that are keep-alive commands.
+     */
+    private static final Set<String> KEEPALIVE_COMMANDS =
+        new HashSet<String>(Arrays.asList("PING", "PONG"));
+
+    /**
+     * Raw commands that are bulk queries.
+     */
+    private static final Set<String> BULK_COMMANDS =
+        new HashSet<String>(Arrays.asList("WHO", "WHOIS", "WHOWAS", "ISON",
+            "LIST", "NAMES", "MONITOR", "WATCH"));
+
+    /**
+     * Priority lanes of the queue, highest priority first.
+     */
+    public enum Lane
+    {
+        /**
+         * Keep-alive commands, which are not paced.
+         */
+        KEEPALIVE,
+
+        /**
+         * Commands issued by the user, such as messages and joins.
+         */
+        USER,
+
+        /**
+         * Bulk queries, such as presence polling and channel listing.
+         */
+        BULK
+    }
+
+    /**
+     * A command to be sent by the writer thread.
+     */
+    public interface Command
+    {
+        /**
+         * Send the command.
+         *
+         * @param irc the IRCApi instance to send it with
+         */
+        void execute(IRCApi irc);
+    }
+
+    /**
+     * The time source of the token bucket.
+     */
+    interface Clock
+    {
+        /**
+         * The system clock.
+         */
+        Clock SYSTEM = new Clock()
+        {
+            @Override
+            public long nanoTime()
+            {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void await(final Object lock, final long nanos)
+                throws InterruptedException
+            {
+                TimeUnit.NANOSECONDS.timedWait(lock, nanos);
+            }
+        };
+
+        /**
+         * Get the current time.
+         *
+         * @return returns the current time in ns
+         */
+        long nanoTime();
+
+        /**
+         * Wait on a lock that is held by the calling thread for at most the
+         * specified time. The wait ends early if the lock is notified.
+         *
+         * @param lock the lock to wait on
+         * @param nanos the maximum time to wait in ns
+         * @throws InterruptedException if the thread is interrupted
+         */
+        void await(Object lock, long nanos) throws InterruptedException;
+    }
+
+    /**
+     * The IRCApi instance that sends the commands.
+     */
+    private final IRCApi irc;
+
+    /**
+     * The maximum number of tokens in the bucket.
+     */
+    private final int burst;
+
+    /**
+     * The interval in ns in which one token is added to the bucket.
+     */
+    private final long intervalNanos;
+
+    /**
+     * The time source of the token bucket.
+     */
+    private final Clock clock;
+
+    /**
+     * The executor providing the single writer thread.
+     */
+    private final ThreadPoolExecutor writer;
+
+    /**
+     * The queued commands by lane. Guarded by itself.
+     */
+    private final EnumMap<Lane, ArrayDeque<Pending>> lanes =
+        new EnumMap<Lane, ArrayDeque<Pending>>(Lane.class);
+
+    /**
+     * Whether the writer is draining the queue.
+     */
+    private boolean draining = false;
+
+    /**
+     * Whether the queue is closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * The tokens in the bucket.
+     */
+    private double tokens;
+
+    /**
+     * The time in ns at which the tokens were last updated.
+     */
+    private long refilled;
+
+    /**
+     * Constructor using the default flood control.
+     *
+     * @param irc IRCApi instance
+     */
+    public QueuedIRCApi(final IRCApi irc)
+    {
+        this(irc, DEFAULT_BURST, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param irc IRCApi instance
+     * @param burst the number of commands that can be sent at once
+     * @param interval the interval in ms in which one more command may be
+     *            sent once the burst is used up
+     */
+    public QueuedIRCApi(final IRCApi irc, final int burst,
+        final long interval)
+    {
+        this(irc, burst, interval, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param irc IRCApi instance
+     * @param burst the number of commands that can be sent at once
+     * @param interval the interval in ms in which one more command may be
+     *            sent once the burst is used up
+     * @param clock the time source of the token bucket
+     */
+    QueuedIRCApi(final IRCApi irc, final int burst, final long interval,
+        final Clock clock)
+    {
+        if (irc == null)
+        {
+            throw new IllegalArgumentException("irc instance cannot be null");
+        }
+        if (burst < 1)
+        {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+        if (interval < 0)
+        {
+            throw new IllegalArgumentException("interval cannot be negative");
+        }
+        if (clock == null)
+        {
+            throw new IllegalArgumentException("clock cannot be null");
+        }
+        this.irc = irc;
+        this.clock = clock;
+        this.burst = burst;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+        this.tokens = burst;
+        this.refilled = clock.nanoTime();
+        for (Lane lane : Lane.values())
+        {
+            this.lanes.put(lane, new ArrayDeque<Pending>());
+        }
+        this.writer = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), r -> {
+                Thread t = new Thread(r, "IRC outbound command queue");
+                t.setDaemon(true);
+                return t;
+            });
+        this.writer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue a command.
+     *
+     * @param lane the lane of the command
+     * @param command the command
+     * @return returns a future that completes once the command is sent, or
+     *         completes exceptionally if sending failed or the queue is closed
+     */
+    public CompletableFuture<Void> submit(final Lane lane,
+        final Command command)
+    {
+        try
+        {
+            return offer(lane, command);
+        }
+        catch (IllegalStateException e)
+        {
+            final CompletableFuture<Void> failed =
+                new CompletableFuture<Void>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Queue a raw message in the lane matching its command.
+     *
+     * @param message the raw message
+     * @return returns a future that completes once the message is sent
+     */
+    public CompletableFuture<Void> submitRawMessage(final String message)
+    {
+        return submit(lane(message), irc -> irc.rawMessage(message));
+    }
+
+    /**
+     * Determine the lane of a raw message by its command.
+     *
+     * @param message the raw message
+     * @return returns the lane
+     */
+    static Lane lane(final String message)
+    {
+        int end = message.indexOf(' ');
+        if (end < 0)
+        {
+            end = message.length();
+        }
+        final String command =
+            message.substring(0, end).toUpperCase(Locale.ROOT);
+        if (KEEPALIVE_COMMANDS.contains(command))
+        {
+            return Lane.KEEPALIVE;
+        }
+        if (BULK_COMMANDS.contains(command))
+        {
+            return Lane.BULK;
+        }
+        return Lane.USER;
+    }
+
+    /**
+     * Close the queue and cancel the commands that have not been sent yet.
+     */
+    public void close()
+    {
+        final List<Pending> cancelled = new ArrayList<Pending>();
+        synchronized (this.lanes)
+        {
+            this.closed = true;
+            for (ArrayDeque<Pending> queue : this.lanes.values())
+            {
+                cancelled.addAll(queue);
+                queue.clear();
+            }
+            this.lanes.notifyAll();
+        }
+        for (Pending pending : cancelled)
+        {
+            pending.future.cancel(false);
+        }
+        if (!cancelled.isEmpty())
+        {
+            logger.debug("Cancelled " + cancelled.size()
+                + " IRC commands that were not sent yet.");
+        }
+        this.writer.shutdown();
+    }
+
+    /**
+     * Queue a command.
+     *
+     * @param lane the lane of the command
+     * @param command the command
+     * @return returns the future of the command
+     * @throws IllegalStateException if the queue is closed
+     */
+    private CompletableFuture<Void> offer(final Lane lane,
+        final Command command)
+    {
+        final Pending pending = new Pending(command);
+        synchronized (this.lanes)
+        {
+            if (this.closed)
+            {
+                throw new IllegalStateException(
+                    "Not connected to an IRC server.");
+            }
+            this.lanes.get(lane).add(pending);
+            if (this.draining)
+            {
+                // The writer may be waiting for a token while a command of
+                // a higher lane came in.
+                this.lanes.notifyAll();
+            }
+            else
+            {
+                this.draining = true;
+                this.writer.execute(this::drain);
+            }
+        }
+        return pending.future;
+    }
+
+    /**
+     * Queue a command whose completion is not observed by the caller. Failures
+     * are logged.
+     *
+     * @param lane the lane of the command
+     * @param command the command
+     */
+    private void enqueue(final Lane lane, final Command command)
+    {
+        offer(lane, command).whenComplete((result, e) -> {
+            if (e != null && !(e instanceof CancellationException))
+            {
+                logger.warn("Failed to send IRC command.", e);
+            }
+        });
+    }
+
+    /**
+     * Queue a command with a callback of the IRC client library. If the
+     * command cannot be sent, or the queue is already closed, the callback is
+     * informed of the failure, since the library will not call it.
+     *
+     * @param lane the lane of the command
+     * @param command the command
+     * @param callback the callback of the command
+     */
+    private <T> void enqueue(final Lane lane, final Command command,
+        final Callback<T> callback)
+    {
+        submit(lane, command).whenComplete((result, e) -> {
+            if (e != null)
+            {
+                callback.onFailure(
+                    e instanceof Exception ? (Exception) e : new Exception(e));
+            }
+        });
+    }
+
+    /**
+     * Send the queued commands by lane priority until the queue is empty.
+     */
+    private void drain()
+    {
+        while (true)
+        {
+            final Pending next;
+            synchronized (this.lanes)
+            {
+                next = poll();
+                if (next == null)
+                {
+                    this.draining = false;
+                    return;
+                }
+            }
+            try
+            {
+                next.command.execute(this.irc);
+                next.future.complete(null);
+            }
+            catch (RuntimeException e)
+            {
+                next.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Take the next command to send, waiting for a token if necessary. Must be
+     * called with the lanes locked.
+     *
+     * @return returns the next command or null if there is none
+     */
+    private Pending poll()
+    {
+        while (!this.closed)
+        {
+            final ArrayDeque<Pending> keepalive =
+                this.lanes.get(Lane.KEEPALIVE);
+            if (!keepalive.isEmpty())
+            {
+                return keepalive.poll();
+            }
+            ArrayDeque<Pending> queue = this.lanes.get(Lane.USER);
+            if (queue.isEmpty())
+            {
+                queue = this.lanes.get(Lane.BULK);
+                if (queue.isEmpty())
+                {
+                    return null;
+                }
+            }
+            final long wait = takeToken();
+            if (wait == 0)
+            {
+                return queue.poll();
+            }
+            try
+            {
+                this.clock.await(this.lanes, wait);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take a token from the bucket. Must be called with the lanes locked.
+     *
+     * @return returns 0 if a token was taken, or the time in ns until a token
+     *         is available
+     */
+    private long takeToken()
+    {
+        final long now = this.clock.nanoTime();
+        if (this.intervalNanos == 0)
+        {
+            this.tokens = this.burst;
+        }
+        else
+        {
+            this.tokens = Math.min(this.burst, this.tokens
+                + (double) (now - this.refilled) / this.intervalNanos);
+        }
+        this.refilled = now;
+        if (this.tokens >= 1)
+        {
+            this.tokens -= 1;
+            return 0;
+        }
+        return Math.max(1,
+            (long) Math.ceil((1 - this.tokens) * this.intervalNanos));
+    }
+
+    @Override
+    public void connect(final IServerParameters aServerParameters,
+        final Callback<IIRCState> aCallback)
+    {
+        this.irc.connect(aServerParameters, aCallback);
+    }
+
+    @Override
+    public void connect(final IServerParameters aServerParameters,
+        final Callback<IIRCState> aCallback,
+        final CapabilityNegotiator negotiator)
+    {
+        this.irc.connect(aServerParameters, aCallback, negotiator);
+    }
+
+    @Override
+    public void secureConnection(SSLContext context, String hostname, int port)
+        throws SSLException
+    {
+        this.irc.secureConnection(context, hostname, port);
+    }
+
+    @Override
+    public void disconnect()
+    {
+        close();
+        this.irc.disconnect();
+    }
+
+    @Override
+    public void disconnect(final String aQuitMessage)
+    {
+        close();
+        this.irc.disconnect(aQuitMessage);
+    }
+
+    @Override
+    public void joinChannel(final String aChannelName)
+    {
+        enqueue(Lane.USER, irc -> irc.joinChannel(aChannelName));
+    }
+
+    @Override
+    public void joinChannel(final String aChannelName,
+        final Callback<IRCChannel> aCallback)
+    {
+        enqueue(Lane.USER,
+            irc -> irc.joinChannel(aChannelName, aCallback),
+            aCallback);
+    }
+
+    @Override
+    public void joinChannel(final String aChannelName, final String aKey)
+    {
+        enqueue(Lane.USER, irc -> irc.joinChannel(aChannelName, aKey));
+    }
+
+    @Override
+    public void joinChannel(final String aChannelName, final String aKey,
+        final Callback<IRCChannel> aCallback)
+    {
+        enqueue(Lane.USER,
+            irc -> irc.joinChannel(aChannelName, aKey, aCallback), aCallback);
+    }
+
+    @Override
+    public void leaveChannel(final String aChannelName)
+    {
+        enqueue(Lane.USER, irc -> irc.leaveChannel(aChannelName));
+    }
+
+    @Override
+    public void leaveChannel(final String aChannelName,
+        final Callback<String> aCallback)
+    {
+        enqueue(Lane.USER,
+            irc -> irc.leaveChannel(aChannelName, aCallback),
+            aCallback);
+    }
+
+    @Override
+    public void leaveChannel(final String aChannelName,
+        final String aPartMessage)
+    {
+        enqueue(Lane.USER,
+            irc -> irc.leaveChannel(aChannelName, aPartMessage));
+    }
+
+    @Override
+    public void leaveChannel(final String aChannelName,
+        final String aPartMessage, final Callback<String> aCallback)
+    {
+        enqueue(Lane.USER,
+            irc -> irc.leaveChannel(aChannelName, aPartMessage, aCallback),
+            aCallback);
+    }
+
+    @Override
+    public void changeNick(final String aNewNick)
+    {
+        enqueue(Lane.USER, irc -> irc.changeNick(aNewNick));
+    }
+
+    @Override
+    public void changeNick(final String aNewNick,
+        final Callback<String> aCallback)
+    {
+        enqueue(Lane.USER,
+            irc -> irc.changeNick(aNewNick, aCallback),
+            aCallback);
+    }
+
+    @Override
+    public void message(final String aTarget, final String aMessage)
+    {
+        enqueue(Lane.USER, irc -> irc.message(aTarget, aMessage));
+    }
+
+    @Override
+    public void message(final String aTarget, final String aMessage,
+        final Callback<String> aCallback)
+    {
+        enqueue(Lane.USER,
+            irc -> irc.message(aTarget, aMessage, aCallback),
+            aCallback);
+    }
+
+    @Override
+    public void act(final String aTarget, final String aMessage)
+    {
+        enqueue(Lane.USER, irc -> irc.act(aTarget, aMessage));
+    }
+
+    @Override
+    public void act(final String aTarget, final String aMessage,
+        final Callback<String> aCallback)
+    {
+        enqueue(Lane.USER,
+            irc -> irc.act(aTarget, aMessage, aCallback),
+            aCallback);
+    }
+
+    @Override
+    public void notice(final String aTarget, final String aMessage)
+    {
+        enqueue(Lane.USER, irc -> irc.notice(aTarget, aMessage));
+    }
+
+    @Override
+    public void notice(final String aTarget, final String aMessage,
+        final Callback<String> aCallback)
+    {
+        enqueue(Lane.USER,
+            irc -> irc.notice(aTarget, aMessage, aCallback),
+            aCallback);
+    }
+
+    @Override
+    public void kick(final String aChannel, final String aNick)
+    {
+        enqueue(Lane.USER, irc -> irc.kick(aChannel, aNick));
+    }
+
+    @Override
+    public void kick(final String aChannel, final String aNick,
+        final String aKickMessage)
+    {
+        enqueue(Lane.USER, irc -> irc.kick(aChannel, aNick, aKickMessage));
+    }
+
+    @Override
+    public void kick(final String aChannel, final String aNick,
+        final Callback<String> aCallback)
+    {
+        enqueue(Lane.USER,
+            irc -> irc.kick(aChannel, aNick, aCallback),
+            aCallback);
+    }
+
+    @Override
+    public void kick(final String aChannel, final String aNick,
+        final String aKickMessage, final Callback<String> aCallback)
+    {
+        enqueue(Lane.USER,
+            irc -> irc.kick(aChannel, aNick, aKickMessage, aCallback),
+            aCallback);
+    }
+
+    @Override
+    public void changeTopic(final String aChannel, final String aTopic)
+    {
+        enqueue(Lane.USER, irc -> irc.changeTopic(aChannel, aTopic));
+    }
+
+    @Override
+    public void changeMode(final String aModeString)
+    {
+        enqueue(Lane.USER, irc -> irc.changeMode(aModeString));
+    }
+
+    @Override
+    public void rawMessage(final String aMessage)
+    {
+        enqueue(lane(aMessage), irc -> irc.rawMessage(aMessage));
+    }
+
+    @Override
+    public void dccSend(final String aNick, final File aFile,
+        final DCCSendCallback aCallback)
+    {
+        this.irc.dccSend(aNick, aFile, aCallback);
+    }
+
+    @Override
+    public void dccSend(final String aNick, final File aFile,
+        final Integer aTimeout, final DCCSendCallback aCallback)
+    {
+        this.irc.dccSend(aNick, aFile, aTimeout, aCallback);
+    }
+
+    @Override
+    public void dccSend(final String aNick, final Integer aListeningPort,
+        final File aFile, final DCCSendCallback aCallback)
+    {
+        this.irc.dccSend(aNick, aListeningPort, aFile, aCallback);
+    }
+
+    @Override
+    public void dccSend(final String aNick, final File aFile,
+        final Integer aListeningPort, final Integer aTimeout,
+        final DCCSendCallback aCallback)
+    {
+        this.irc.dccSend(aNick, aFile, aListeningPort, aTimeout, aCallback);
+    }
+
+    @Override
+    public void dccAccept(final String aNick, final File aFile,
+        final Integer aPort, final Integer aResumePosition,
+        final DCCSendCallback aCallback)
+    {
+        this.irc.dccAccept(aNick, aFile, aPort, aResumePosition, aCallback);
+    }
+
+    @Override
+    public void dccAccept(final String aNick, final File aFile,
+        final Integer aPort, final Integer aResumePosition,
+        final Integer aTimeout, final DCCSendCallback aCallback)
+    {
+        this.irc.dccAccept(aNick, aFile, aPort, aResumePosition, aTimeout,
+            aCallback);
+    }
+
+    @Override
+    public void dccReceive(final File aFile, final Integer aSize,
+        final SocketAddress aAddress, final DCCReceiveCallback aCallback)
+    {
+        this.irc.dccReceive(aFile, aSize, aAddress, aCallback);
+    }
+
+    @Override
+    public void dccReceive(final File aFile, final Integer aSize,
+        final SocketAddress aAddress, final DCCReceiveCallback aCallback,
+        final Proxy aProxy)
+    {
+        this.irc.dccReceive(aFile, aSize, aAddress, aCallback, aProxy);
+    }
+
+    @Override
+    public void dccResume(final File aFile, final Integer aResumePosition,
+        final Integer aSize, final SocketAddress aAddress,
+        final DCCReceiveCallback aCallback)
+    {
+        this.irc.dccResume(aFile, aResumePosition, aSize, aAddress, aCallback);
+    }
+
+    @Override
+    public void dccResume(final File aFile, final Integer aResumePosition,
+        final Integer aSize, final SocketAddress aAddress,
+        final DCCReceiveCallback aCallback, final Proxy aProxy)
+    {
+        this.irc.dccResume(aFile, aResumePosition, aSize, aAddress, aCallback,
+            aProxy);
+    }
+
+    @Override
+    public DCCManager getDCCManager()
+    {
+        return this.irc.getDCCManager();
+    }
+
+    @Override
+    public void addListener(final IMessageListener aListener)
+    {
+        this.irc.addListener(aListener);
+    }
+
+    @Override
+    public void deleteListener(final IMessageListener aListener)
+    {
+        this.irc.deleteListener(aListener);
+    }
+
+    @Override
+    public void setMessageFilter(final IMessageFilter aFilter)
+    {
+        this.irc.setMessageFilter(aFilter);
+    }
+
+    /**
+     * A queued command and its future.
+     */
+    private static final class Pending
+    {
+        /**
+         * The command.
+         */
+        private final Command command;
+
+        /**
+         * The future that completes once the command is sent.
+         */
+        private final CompletableFuture<Void> future =
+            new CompletableFuture<Void>();
+
+        /**
+         * Constructor.
+         *
+         * @param command the command
+         */
+        private Pending(final Command command)
+        {
+            this.command = command;
+        }
+    }
+}
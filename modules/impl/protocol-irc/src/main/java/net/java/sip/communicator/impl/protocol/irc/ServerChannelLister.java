@@ -18,14 +18,24 @@
 package net.java.sip.communicator.impl.protocol.irc;
 
 import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.protocol.event.*;
 
 import com.ircclouds.irc.api.*;
 import com.ircclouds.irc.api.domain.messages.*;
 import com.ircclouds.irc.api.state.*;
 
 /**
- * Server channel lister for retrieving initial list and managing channel cache
- * for its period as well as cleaning up cache after the cache has expired.
+ * Server channel lister for retrieving the list of channels of an IRC server.
+ *
+ * Channels are delivered to the requester while the LIST replies arrive. A
+ * request that filters on a channel name is sent as a mask to the server if it
+ * advertises the ELIST=M extension. Complete lists are cached per server in a
+ * {@link ChannelListCache}. Only one LIST request is outstanding at a time:
+ * concurrent requests that can be answered by the outstanding request share
+ * its replies and other requests wait for it to finish. Listeners are
+ * called without holding the lock of the lister.
  *
  * @author Danny van Heumen
  */
@@ -37,21 +47,14 @@
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ServerChannelLister.class);
 
     /**
-     * Clean-up delay. The clean up task clears any remaining chat room list
-     * cache. Since there's no pointing in timing it exactly, delay the clean up
-     * until after expiration.
-     */
-    private static final long CACHE_CLEAN_UP_DELAY = 1000L;
-
-    /**
-     * Ratio of milliseconds to nanoseconds for conversions.
+     * Number of channels that are delivered to a listener at once.
      */
-    private static final long RATIO_MILLISECONDS_TO_NANOSECONDS = 1000000L;
+    static final int BATCH_SIZE = 100;
 
     /**
-     * Expiration time for chat room list cache.
+     * ELIST token for the mask search extension.
      */
-    private static final long CHAT_ROOM_LIST_CACHE_EXPIRATION = 60000000000L;
+    private static final char ELIST_MASK = 'M';
 
     /**
      * IRCApi instance.
@@ -66,13 +69,14 @@
     private final IIRCState connectionState;
 
     /**
-     * The cached channel list.
-     *
-     * Contained inside a simple container object in order to lock the container
-     * while accessing the contents.
+     * The cache of complete channel lists.
      */
-    private final Container<List<String>> channellist =
-        new Container<List<String>>(null);
+    private final ChannelListCache cache;
+
+    /**
+     * The outstanding LIST request, or <tt>null</tt> if there is none.
+     */
+    private Fetch current = null;
 
     /**
      * Constructor.
@@ -82,6 +86,19 @@
      */
     public ServerChannelLister(final IRCApi irc,
         final IIRCState connectionState)
+    {
+        this(irc, connectionState, ChannelListCache.SHARED);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param irc thread-safe irc api instance
+     * @param connectionState irc connection state
+     * @param cache the cache of complete channel lists
+     */
+    ServerChannelLister(final IRCApi irc, final IIRCState connectionState,
+        final ChannelListCache cache)
     {
         if (irc == null)
         {
@@ -94,6 +111,11 @@ public ServerChannelLister(final IRCApi irc,
                 "connectionState instance cannot be null");
         }
         this.connectionState = connectionState;
+        if (cache == null)
+        {
+            throw new IllegalArgumentException("cache cannot be null");
+        }
+        this.cache = cache;
     }
 
     /**
@@ -103,56 +125,25 @@ public ServerChannelLister(final IRCApi irc,
      */
     public List<String> getList()
     {
-        logger.trace("Start retrieve server chat room list.");
-        if (!connectionState.isConnected())
-        {
-            throw new IllegalStateException("Not connected to an IRC server.");
-        }
+        return getList(null, null);
+    }
 
-        synchronized (this.channellist)
+    /**
+     * Get a list of channels available on the IRC server, while delivering
+     * the channels to a listener as they arrive.
+     *
+     * @param filter the text that channel names must contain, ignoring case,
+     *            or <tt>null</tt> for all channels
+     * @param listener the listener, or <tt>null</tt>
+     * @return List of available channels.
+     */
+    public List<String> getList(final String filter,
+        final ChatRoomListListener listener)
+    {
+        final Future<List<String>> result = list(filter, listener);
+        try
         {
-            List<String> list =
-                this.channellist.get(CHAT_ROOM_LIST_CACHE_EXPIRATION);
-            if (list == null)
-            {
-                logger
-                    .trace("Chat room list null or outdated. Start retrieving "
-                        + "new chat room list.");
-                Result<List<String>, Exception> listSignal =
-                    new Result<List<String>, Exception>(
-                        new LinkedList<String>());
-                synchronized (listSignal)
-                {
-                    try
-                    {
-                        this.irc
-                            .addListener(new ChannelListListener(listSignal));
-                        this.irc.rawMessage("LIST");
-                        while (!listSignal.isDone())
-                        {
-                            logger.trace("Waiting for list ...");
-                            listSignal.wait();
-                        }
-                        logger.trace("Done waiting for list.");
-                    }
-                    catch (InterruptedException e)
-                    {
-                        logger.warn("INTERRUPTED while waiting for list.", e);
-                    }
-                }
-                list = listSignal.getValue();
-                this.channellist.set(list);
-                logger.trace("Finished retrieving server chat room list.");
-
-                // Set timer to clean up the cache after use, since otherwise
-                // this data could stay in memory for a long time.
-                createCleanUpJob(this.channellist);
-            }
-            else
-            {
-                logger.trace("Using cached list of server chat rooms.");
-            }
-
+            final List<String> list = result.get();
             if (logger.isDebugEnabled())
             {
                 // Report on number of channels to give an impression of the
@@ -160,106 +151,316 @@ public List<String> getList()
                 logger.debug("Server channel list contains " + list.size()
                     + " channels.");
             }
+            return list;
+        }
+        catch (InterruptedException e)
+        {
+            logger.warn("INTERRUPTED while waiting for list.", e);
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException(
+                "Failed to retrieve server channel list.", e.getCause());
+        }
+    }
 
-            return Collections.unmodifiableList(list);
+    /**
+     * Request a list of channels available on the IRC server.
+     *
+     * @param filter the text that channel names must contain, ignoring case,
+     *            or <tt>null</tt> for all channels
+     * @param listener the listener that receives batches of channels while
+     *            they arrive, or <tt>null</tt>
+     * @return returns the future unmodifiable list of channels
+     */
+    CompletableFuture<List<String>> list(final String filter,
+        final ChatRoomListListener listener)
+    {
+        final String needle =
+            filter == null || filter.isEmpty() ? null : filter
+                .toLowerCase(Locale.ROOT);
+        final Subscriber subscriber = new Subscriber(needle, listener);
+        final CompletableFuture<List<String>> result =
+            request(filter, subscriber);
+        subscriber.deliver();
+        return result;
+    }
+
+    /**
+     * Request a list of channels for a subscriber. Channels that are already
+     * known are queued for the subscriber, but not delivered.
+     *
+     * @param filter the text that channel names must contain, ignoring case,
+     *            or <tt>null</tt> for all channels
+     * @param subscriber the subscriber
+     * @return returns the future unmodifiable list of channels
+     */
+    private synchronized CompletableFuture<List<String>> request(
+        final String filter, final Subscriber subscriber)
+    {
+        if (!this.connectionState.isConnected())
+        {
+            throw new IllegalStateException("Not connected to an IRC server.");
+        }
+        final String needle = subscriber.needle;
+        final List<String> cached = this.cache.get(server());
+        if (cached != null)
+        {
+            logger.trace("Using cached list of server chat rooms.");
+            for (String channel : cached)
+            {
+                subscriber.offer(channel);
+            }
+            subscriber.finish();
+            return subscriber.result;
         }
+        if (this.current != null)
+        {
+            if (this.current.covers(needle))
+            {
+                logger.trace("Joining outstanding LIST request.");
+                return this.current.subscribe(subscriber);
+            }
+            // Replies of concurrent LIST requests cannot be told apart, so
+            // wait for the outstanding request.
+            logger.trace("Waiting for outstanding LIST request.");
+            return this.current.done.thenCompose(
+                v -> list(filter, subscriber.listener));
+        }
+        final String mask =
+            needle != null && supportsMask() && needle.indexOf(' ') < 0
+                && needle.indexOf(',') < 0 ? "*" + needle + "*" : null;
+        logger.trace("Start retrieving new chat room list.");
+        final Fetch fetch = new Fetch(mask == null ? null : needle);
+        final CompletableFuture<List<String>> result =
+            fetch.subscribe(subscriber);
+        this.current = fetch;
+        this.irc.addListener(fetch);
+        this.irc.rawMessage(mask == null ? "LIST" : "LIST " + mask);
+        return result;
+    }
+
+    /**
+     * Test whether the server supports LIST with a channel name mask.
+     *
+     * @return returns <tt>true</tt> if the ELIST=M extension is advertised
+     */
+    private boolean supportsMask()
+    {
+        final String elist =
+            this.connectionState.getServerOptions().getKey(
+                ISupport.ELIST.name());
+        return elist != null
+            && elist.toUpperCase(Locale.ROOT).indexOf(ELIST_MASK) >= 0;
     }
 
     /**
-     * Create a clean up job that checks the container after the cache has
-     * expired. If the container is still populated, then remove it. This clean
-     * up makes sure that there are no references left to an otherwise useless
-     * outdated list of channels.
+     * Get the name of the server for the cache.
      *
-     * @param channellist the container carrying the list of channel names
+     * @return returns the server name
      */
-    private static void createCleanUpJob(
-        final Container<List<String>> channellist)
+    private String server()
     {
-        final Timer cleanUpJob = new Timer();
-        final long timestamp = channellist.getTimestamp();
-        cleanUpJob.schedule(new ChannelListCacheCleanUpTask(channellist,
-            timestamp), CHAT_ROOM_LIST_CACHE_EXPIRATION
-            / RATIO_MILLISECONDS_TO_NANOSECONDS + CACHE_CLEAN_UP_DELAY);
+        return this.connectionState.getServer().getHostname() + ':'
+            + this.connectionState.getServer().getPort();
     }
 
     /**
-     * Task for cleaning up old channel list caches.
+     * Parse an IRC server response RPL_LIST. Extract the channel name.
      *
-     * @author Danny van Heumen
+     * @param text raw server response
+     * @return returns the channel name
      */
-    private static final class ChannelListCacheCleanUpTask
-        extends TimerTask
+    static String parse(final String text)
     {
+        if (text == null)
+        {
+            return null;
+        }
+        int endOfChannelName = text.indexOf(' ');
+        if (endOfChannelName == -1)
+        {
+            return null;
+        }
+        // Create a new string to make sure that the original (larger)
+        // strings can be GC'ed.
+        return new String(text.substring(0, endOfChannelName));
+    }
+
+    /**
+     * Requester of a channel list. Matches are offered while holding the lock
+     * of the lister and queued in batches. The batches are delivered to the
+     * listener by {@link #deliver()}, which must be called without holding
+     * the lock of the lister.
+     */
+    private static final class Subscriber
+    {
+        /**
+         * The lower case text that channel names must contain, or
+         * <tt>null</tt> for all channels.
+         */
+        private final String needle;
+
+        /**
+         * The listener, or <tt>null</tt>.
+         */
+        private final ChatRoomListListener listener;
+
         /**
-         * Expected timestamp on which the list cache was created. It is used as
-         * an indicator to see whether the cache has been refreshed in the mean
-         * time.
+         * The matching channels received so far.
          */
-        private final long timestamp;
+        private final List<String> matches = new ArrayList<String>();
 
         /**
-         * Container holding the channel list cache.
+         * The number of matches queued for the listener.
          */
-        private final Container<List<String>> container;
+        private int queued = 0;
 
         /**
-         * Construct new clean up job definition.
+         * The batches waiting to be delivered to the listener.
+         */
+        private final Deque<List<String>> pending =
+            new ArrayDeque<List<String>>();
+
+        /**
+         * Whether a thread is delivering batches to the listener.
+         */
+        private boolean delivering = false;
+
+        /**
+         * Whether all matches have been offered.
+         */
+        private boolean finished = false;
+
+        /**
+         * The future list of matching channels.
+         */
+        private final CompletableFuture<List<String>> result =
+            new CompletableFuture<List<String>>();
+
+        /**
+         * Constructor.
          *
-         * @param listContainer container that holds the channel list cache
-         * @param timestamp expected timestamp of list cache creation
+         * @param needle the lower case filter or <tt>null</tt>
+         * @param listener the listener or <tt>null</tt>
          */
-        private ChannelListCacheCleanUpTask(
-            final Container<List<String>> listContainer, final long timestamp)
+        private Subscriber(final String needle,
+            final ChatRoomListListener listener)
         {
-            if (listContainer == null)
+            this.needle = needle;
+            this.listener = listener;
+        }
+
+        /**
+         * Offer a received channel.
+         *
+         * @param channel the channel name
+         * @return returns <tt>true</tt> if a batch was queued for delivery
+         */
+        private boolean offer(final String channel)
+        {
+            if (this.needle != null
+                && !channel.toLowerCase(Locale.ROOT).contains(this.needle))
             {
-                throw new IllegalArgumentException(
-                    "listContainer cannot be null");
+                return false;
             }
-            this.container = listContainer;
-            this.timestamp = timestamp;
+            this.matches.add(channel);
+            if (this.matches.size() - this.queued >= BATCH_SIZE)
+            {
+                queue();
+                return true;
+            }
+            return false;
         }
 
         /**
-         * Remove the list reference from the container. But only if the
-         * timestamp matches. This makes sure that only one clean up job will
-         * clean up a list.
+         * Queue the remaining matches. The result is completed once they are
+         * delivered.
          */
-        @Override
-        public void run()
+        private void finish()
+        {
+            queue();
+            synchronized (this)
+            {
+                this.finished = true;
+            }
+        }
+
+        /**
+         * Queue the matches that have not been queued yet as a batch.
+         */
+        private void queue()
+        {
+            if (this.listener == null || this.matches.size() == this.queued)
+            {
+                return;
+            }
+            final List<String> batch =
+                Collections.unmodifiableList(new ArrayList<String>(
+                    this.matches.subList(this.queued, this.matches.size())));
+            this.queued = this.matches.size();
+            synchronized (this)
+            {
+                this.pending.add(batch);
+            }
+        }
+
+        /**
+         * Deliver the queued batches to the listener, in order, and complete
+         * the result after the last batch. If another thread is delivering,
+         * that thread delivers the queued batches as well.
+         */
+        private void deliver()
         {
-            synchronized (this.container)
+            while (true)
             {
-                // Only clean up old cache if this is the dedicated task for it.
-                // If the timestamp has changed, another job is responsible for
-                // the clean up.
-                if (this.container.getTimestamp() != this.timestamp)
+                final List<String> batch;
+                synchronized (this)
                 {
-                    logger.trace("Not cleaning up channel list cache. The "
-                        + "timestamp does not match.");
-                    return;
+                    if (this.delivering)
+                    {
+                        return;
+                    }
+                    batch = this.pending.poll();
+                    if (batch == null)
+                    {
+                        if (!this.finished)
+                        {
+                            return;
+                        }
+                        break;
+                    }
+                    this.delivering = true;
+                }
+                try
+                {
+                    this.listener.chatRoomsListed(batch);
+                }
+                catch (RuntimeException e)
+                {
+                    logger.warn("Chat room list listener failed.", e);
+                }
+                finally
+                {
+                    synchronized (this)
+                    {
+                        this.delivering = false;
+                    }
                 }
-                this.container.set(null);
             }
-            // We cannot clear the list itself, since the contents might still
-            // be in use by the UI, inside the immutable wrapper.
-            logger.debug("Old channel list cache has been cleared.");
+            this.result.complete(Collections.unmodifiableList(this.matches));
         }
     }
 
     /**
-     * Special listener that processes LIST replies and signals once the list is
-     * completely filled.
+     * An outstanding LIST request. Processes the LIST replies and delivers
+     * them to its subscribers.
      */
-    private final class ChannelListListener
+    private final class Fetch
         extends AbstractIrcMessageListener
     {
-        /**
-         * Start of an IRC server channel listing reply.
-         */
-        private static final int RPL_LISTSTART = 321;
-
         /**
          * Continuation of an IRC server channel listing reply.
          */
@@ -271,163 +472,227 @@ public void run()
         private static final int RPL_LISTEND = 323;
 
         /**
-         * Reference to the provided list instance.
+         * Error reply in case the LIST output is too large and has been
+         * truncated.
+         */
+        private static final int ERR_TOOMANYMATCHES = 416;
+
+        /**
+         * The lower case filter that was sent as a mask, or <tt>null</tt> if
+         * all channels are requested.
          */
-        private final Result<List<String>, Exception> signal;
+        private final String needle;
 
         /**
-         * Constructor for channel list listener.
+         * The channels received so far.
+         */
+        private final List<String> channels = new ArrayList<String>();
+
+        /**
+         * The subscribers to this request.
+         */
+        private final List<Subscriber> subscribers =
+            new ArrayList<Subscriber>();
+
+        /**
+         * Whether the request has finished.
+         */
+        private boolean finished = false;
+
+        /**
+         * Completes when the request has finished, successfully or not.
+         */
+        private final CompletableFuture<Void> done =
+            new CompletableFuture<Void>();
+
+        /**
+         * Constructor.
          *
-         * @param api irc-api library instance
-         * @param signal signal for sync signaling
+         * @param needle the lower case filter that is sent as a mask, or
+         *            <tt>null</tt> if all channels are requested
          */
-        private ChannelListListener(
-            final Result<List<String>, Exception> signal)
+        private Fetch(final String needle)
         {
             super(ServerChannelLister.this.irc,
                 ServerChannelLister.this.connectionState);
-            this.signal = signal;
+            this.needle = needle;
+        }
+
+        /**
+         * Test whether the replies to this request contain all channels for
+         * a filter.
+         *
+         * @param filter the lower case filter or <tt>null</tt>
+         * @return returns <tt>true</tt> if this request answers the filter
+         */
+        private boolean covers(final String filter)
+        {
+            return this.needle == null || this.needle.equals(filter);
+        }
+
+        /**
+         * Subscribe to this request. Channels received so far are queued for
+         * the subscriber. Must be called while holding the lock of the lister.
+         *
+         * @param subscriber the subscriber
+         * @return returns the future list of matching channels
+         */
+        private CompletableFuture<List<String>> subscribe(
+            final Subscriber subscriber)
+        {
+            for (String channel : this.channels)
+            {
+                subscriber.offer(channel);
+            }
+            this.subscribers.add(subscriber);
+            return subscriber.result;
         }
 
         /**
          * Act on LIST messages:
          * <pre>
-         * - 321 RPL_LISTSTART,
          * - 322 RPL_LIST,
-         * - 323 RPL_LISTEND
+         * - 323 RPL_LISTEND,
+         * - 416 ERR_TOOMANYMATCHES
          * </pre>
          *
-         * Clears the list upon starting. All received channels are added to the
-         * list. Upon receiving RPL_LISTEND finalize the list and signal the
-         * waiting thread that it can continue processing the list.
+         * All received channels are delivered to the subscribers. Upon
+         * receiving RPL_LISTEND, cache a complete list and complete the
+         * subscribers.
          *
          * @param msg The numeric server message.
          */
         @Override
         public void onServerNumericMessage(final ServerNumericMessage msg)
         {
-            if (this.signal.isDone())
+            final Integer code = msg.getNumericCode();
+            if (code == null)
             {
                 return;
             }
-
-            switch (msg.getNumericCode())
+            switch (code)
             {
-            case RPL_LISTSTART:
-                synchronized (this.signal)
-                {
-                    this.signal.getValue().clear();
-                }
-                break;
             case RPL_LIST:
-                String channel = parse(msg.getText());
+                final String channel = parse(msg.getText());
                 if (channel != null)
                 {
-                    synchronized (this.signal)
+                    List<Subscriber> ready = null;
+                    synchronized (ServerChannelLister.this)
                     {
-                        this.signal.getValue().add(channel);
+                        this.channels.add(channel);
+                        for (Subscriber subscriber : this.subscribers)
+                        {
+                            if (subscriber.offer(channel))
+                            {
+                                if (ready == null)
+                                {
+                                    ready = new ArrayList<Subscriber>();
+                                }
+                                ready.add(subscriber);
+                            }
+                        }
+                    }
+                    if (ready != null)
+                    {
+                        for (Subscriber subscriber : ready)
+                        {
+                            subscriber.deliver();
+                        }
                     }
                 }
                 break;
             case RPL_LISTEND:
-                synchronized (this.signal)
-                {
-                    // Done collecting channels. Remove listener and then we're
-                    // done.
-                    ServerChannelLister.this.irc.deleteListener(this);
-                    this.signal.setDone();
-                    this.signal.notifyAll();
-                }
+                finish(true, null);
+                break;
+            case ERR_TOOMANYMATCHES:
+                logger.warn("Server channel list was truncated: "
+                    + msg.getText());
+                finish(false, null);
                 break;
-            // TODO Add support for REPLY 416: LIST :output too large, truncated
             default:
                 break;
             }
         }
 
-        /**
-         * Parse an IRC server response RPL_LIST. Extract the channel name.
-         *
-         * @param text raw server response
-         * @return returns the channel name
-         */
-        private String parse(final String text)
+        @Override
+        public void onUserQuit(final QuitMessage msg)
         {
-            int endOfChannelName = text.indexOf(' ');
-            if (endOfChannelName == -1)
+            super.onUserQuit(msg);
+            if (localUser(msg.getSource().getNick()))
             {
-                return null;
+                finish(false, new IllegalStateException(
+                    "Disconnected while retrieving server channel list."));
             }
-            // Create a new string to make sure that the original (larger)
-            // strings can be GC'ed.
-            return new String(text.substring(0, endOfChannelName));
-        }
-    }
-
-    /**
-     * Simplest possible container that we can use for locking while we're
-     * checking/modifying the contents.
-     *
-     * @param <T> The type of instance to store in the container
-     */
-    private static final class Container<T>
-    {
-        /**
-         * The stored instance. (Can be null)
-         */
-        private T instance;
-
-        /**
-         * Time of stored instance.
-         */
-        private long time;
-
-        /**
-         * Constructor that immediately sets the instance.
-         *
-         * @param instance the instance to set
-         */
-        private Container(final T instance)
-        {
-            this.instance = instance;
-            this.time = System.nanoTime();
         }
 
-        /**
-         * Conditionally get the stored instance. Get the instance when time
-         * difference is within specified bound. Otherwise return null.
-         *
-         * @param bound maximum time difference that is allowed.
-         * @return returns set value if within bounds, or null otherwise
-         */
-        public T get(final long bound)
+        @Override
+        public void onError(final ErrorMessage msg)
         {
-            if (System.nanoTime() - this.time > bound)
-            {
-                return null;
-            }
-            return this.instance;
+            super.onError(msg);
+            finish(false, new IllegalStateException(
+                "Connection error while retrieving server channel list."));
         }
 
-        /**
-         * Set an instance.
-         *
-         * @param instance the instance
-         */
-        public void set(final T instance)
+        @Override
+        public void onClientError(final ClientErrorMessage msg)
         {
-            this.instance = instance;
-            this.time = System.nanoTime();
+            super.onClientError(msg);
+            finish(false, new IllegalStateException(
+                "Connection error while retrieving server channel list."));
         }
 
         /**
-         * Get the timestamp from when the instance was set.
+         * Finish this request.
          *
-         * @return returns the timestamp
+         * @param complete whether all channels have been received
+         * @param failure the failure, or <tt>null</tt> to complete the
+         *            subscribers with the channels received
          */
-        public long getTimestamp()
+        private void finish(final boolean complete, final Exception failure)
         {
-            return this.time;
+            final List<Subscriber> finished;
+            synchronized (ServerChannelLister.this)
+            {
+                if (this.finished)
+                {
+                    return;
+                }
+                this.finished = true;
+                ServerChannelLister.this.irc.deleteListener(this);
+                if (ServerChannelLister.this.current == this)
+                {
+                    ServerChannelLister.this.current = null;
+                }
+                if (complete && this.needle == null)
+                {
+                    ServerChannelLister.this.cache.put(server(),
+                        this.channels);
+                }
+                finished = new ArrayList<Subscriber>(this.subscribers);
+                this.subscribers.clear();
+                if (failure == null)
+                {
+                    for (Subscriber subscriber : finished)
+                    {
+                        subscriber.finish();
+                    }
+                }
+            }
+            logger.trace("Finished retrieving server chat room list.");
+            for (Subscriber subscriber : finished)
+            {
+                if (failure == null)
+                {
+                    subscriber.deliver();
+                }
+                else
+                {
+                    subscriber.result.completeExceptionally(failure);
+                }
+            }
+            // Waiting requests continue after the subscribers are served.
+            // This request is no longer current, so they may start a new one.
+            this.done.complete(null);
         }
     }
 }
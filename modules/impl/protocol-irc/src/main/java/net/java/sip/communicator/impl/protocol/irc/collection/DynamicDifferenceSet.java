@@ -17,6 +17,7 @@
  */
 package net.java.sip.communicator.impl.protocol.irc.collection;
 
+import java.lang.ref.*;
 import java.util.*;
 
 /**
@@ -25,8 +26,13 @@
  * A custom implementation that constructs a (dynamic) difference set from 2
  * input instances. The first input instance is the 'source' which is used as
  * the base data set. The second input is the 'removals', which are then removed
- * from the source set. The dynamic set is computed each time a method call is
- * executed.
+ * from the source set.
+ *
+ * If both inputs are {@link ObservableSet}s, the difference is maintained
+ * incrementally from their modification notifications, such that querying the
+ * set does not depend on the size of the inputs. Otherwise the dynamic set is
+ * computed each time a method call is executed. In both cases, elements are
+ * iterated in their natural order.
  *
  * This set is immutable. That is, the modifier methods are unsupported. Changes
  * that do happen are derived from changes in the 'source' set or the 'removals'
@@ -43,6 +49,16 @@
 public class DynamicDifferenceSet<E>
     implements Set<E>
 {
+    /**
+     * Flag for an element that is contained in the source set.
+     */
+    private static final int IN_SOURCE = 1;
+
+    /**
+     * Flag for an element that is contained in the removals set.
+     */
+    private static final int IN_REMOVALS = 2;
+
     /**
      * SYNCHRONIZED The source or base data set. This set is the basis and contains all the
      * elements that can possibly be in the dynamic set.
@@ -55,6 +71,12 @@
      */
     private final Set<E> removals;
 
+    /**
+     * The incrementally maintained membership of the elements of both inputs,
+     * or <tt>null</tt> if the difference is computed on every call.
+     */
+    private final Membership<E> membership;
+
     /**
      * Constructor for creating a difference set instance.
      *
@@ -75,15 +97,30 @@ public DynamicDifferenceSet(final Set<E> source,
             throw new IllegalArgumentException("removals cannot be null");
         }
         this.removals = removals;
+        if (source instanceof ObservableSet
+            && removals instanceof ObservableSet)
+        {
+            this.membership = new Membership<E>();
+            this.membership.observe((ObservableSet<E>) source, IN_SOURCE);
+            this.membership.observe((ObservableSet<E>) removals, IN_REMOVALS);
+        }
+        else
+        {
+            this.membership = null;
+        }
     }
 
     /**
      * Calculate the difference set based on the current state of the data.
      *
-     * @return Returns the current difference set that is calculated on the fly.
+     * @return Returns the current difference set in iteration order.
      */
-    private Set<E> calculate()
+    private Collection<E> calculate()
     {
+        if (this.membership != null)
+        {
+            return this.membership.snapshot();
+        }
         final TreeSet<E> current;
         synchronized (source)
         {
@@ -103,6 +140,10 @@ private Set<E> calculate()
     @Override
     public int size()
     {
+        if (this.membership != null)
+        {
+            return this.membership.size();
+        }
         return calculate().size();
     }
 
@@ -113,7 +154,7 @@ public int size()
     @Override
     public boolean isEmpty()
     {
-        return calculate().isEmpty();
+        return size() == 0;
     }
 
     /**
@@ -122,6 +163,10 @@ public boolean isEmpty()
     @Override
     public boolean contains(Object o)
     {
+        if (this.membership != null)
+        {
+            return this.membership.contains(o);
+        }
         return this.source.contains(o) && !this.removals.contains(o);
     }
 
@@ -177,7 +222,14 @@ public boolean remove(Object o)
     @Override
     public boolean containsAll(Collection<?> c)
     {
-        return calculate().containsAll(c);
+        for (Object o : c)
+        {
+            if (!contains(o))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -215,4 +267,210 @@ public void clear()
     {
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * The membership of the elements of both inputs, maintained from their
+     * modification notifications.
+     *
+     * The listeners registered with the inputs only weakly reference the
+     * membership. Inputs may outlive the difference set (e.g. the persistent
+     * nick watch list), so listeners of a collected difference set remove
+     * themselves on the next notification.
+     *
+     * @param <E> The type of element that is stored in the set.
+     */
+    private static final class Membership<E>
+    {
+        /**
+         * The flags of every element that is in at least one of the inputs.
+         * The map is sorted to preserve the natural iteration order.
+         */
+        private final TreeMap<E, Integer> flags = new TreeMap<E, Integer>();
+
+        /**
+         * The number of elements that are in the source only.
+         */
+        private int size = 0;
+
+        /**
+         * The elements of the difference set, or <tt>null</tt> if it changed
+         * since the last snapshot.
+         */
+        private List<E> snapshot = null;
+
+        /**
+         * Start observing an input and add its current elements.
+         *
+         * The listener is registered before the elements are read, such that
+         * no modification is missed. Updates are idempotent, so an element
+         * that is both notified and read is not counted twice. The input lock
+         * is held while its elements are read, so the state of an element is
+         * the one of its last modification.
+         *
+         * @param input the input set
+         * @param flag the flag of the input
+         */
+        void observe(final ObservableSet<E> input, final int flag)
+        {
+            input.addListener(new InputListener<E>(this, input, flag));
+            synchronized (input)
+            {
+                for (E e : input)
+                {
+                    update(e, flag, true);
+                }
+            }
+        }
+
+        /**
+         * Update the membership of an element.
+         *
+         * @param e the element
+         * @param flag the flag of the input that was modified
+         * @param present whether the element is now in that input
+         */
+        synchronized void update(final E e, final int flag,
+            final boolean present)
+        {
+            final Integer current = this.flags.get(e);
+            final int before = current == null ? 0 : current;
+            final int after = present ? before | flag : before & ~flag;
+            if (before == after)
+            {
+                return;
+            }
+            if (after == 0)
+            {
+                this.flags.remove(e);
+            }
+            else
+            {
+                this.flags.put(e, after);
+            }
+            if (before == IN_SOURCE)
+            {
+                this.size--;
+                this.snapshot = null;
+            }
+            else if (after == IN_SOURCE)
+            {
+                this.size++;
+                this.snapshot = null;
+            }
+        }
+
+        /**
+         * Get the number of elements of the difference set.
+         *
+         * @return the number of elements
+         */
+        synchronized int size()
+        {
+            return this.size;
+        }
+
+        /**
+         * Check if an element is in the difference set.
+         *
+         * @param o the element
+         * @return <tt>true</tt> if the element is in the source only
+         */
+        synchronized boolean contains(final Object o)
+        {
+            final Integer current = this.flags.get(o);
+            return current != null && current == IN_SOURCE;
+        }
+
+        /**
+         * Get the elements of the difference set. The snapshot is reused
+         * until the difference set changes.
+         *
+         * @return an unmodifiable list of the elements in natural order
+         */
+        synchronized List<E> snapshot()
+        {
+            if (this.snapshot == null)
+            {
+                final ArrayList<E> elements = new ArrayList<E>(this.size);
+                for (Map.Entry<E, Integer> entry : this.flags.entrySet())
+                {
+                    if (entry.getValue() == IN_SOURCE)
+                    {
+                        elements.add(entry.getKey());
+                    }
+                }
+                this.snapshot = Collections.unmodifiableList(elements);
+            }
+            return this.snapshot;
+        }
+    }
+
+    /**
+     * Listener that forwards the modifications of an input to the membership.
+     *
+     * @param <E> The type of element that is stored in the set.
+     */
+    private static final class InputListener<E>
+        implements ObservableSet.Listener<E>
+    {
+        /**
+         * The membership to update.
+         */
+        private final WeakReference<Membership<E>> membership;
+
+        /**
+         * The observed input.
+         */
+        private final ObservableSet<E> input;
+
+        /**
+         * The flag of the observed input.
+         */
+        private final int flag;
+
+        /**
+         * Constructor.
+         *
+         * @param membership the membership to update
+         * @param input the observed input
+         * @param flag the flag of the observed input
+         */
+        InputListener(final Membership<E> membership,
+            final ObservableSet<E> input, final int flag)
+        {
+            this.membership = new WeakReference<Membership<E>>(membership);
+            this.input = input;
+            this.flag = flag;
+        }
+
+        @Override
+        public void added(final E e)
+        {
+            update(e, true);
+        }
+
+        @Override
+        public void removed(final E e)
+        {
+            update(e, false);
+        }
+
+        /**
+         * Update the membership, or stop listening if the difference set is
+         * no longer used.
+         *
+         * @param e the element
+         * @param present whether the element is now in the input
+         */
+        private void update(final E e, final boolean present)
+        {
+            final Membership<E> current = this.membership.get();
+            if (current == null)
+            {
+                this.input.removeListener(this);
+                return;
+            }
+            current.update(e, this.flag, present);
+        }
+    }
 }
@@ -0,0 +1,294 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc.collection;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Observable set.
+ *
+ * A synchronized set in natural element order that notifies its listeners of
+ * every element that is added or removed. Like the sets returned by
+ * {@link Collections#synchronizedSortedSet(SortedSet)}, all methods
+ * synchronize on the set instance itself, so the set must be locked manually
+ * while iterating over it.
+ *
+ * Listeners are notified while the lock of the set is held, that is, in the
+ * exact order in which the modifications happen. A listener must therefore not
+ * block and must not acquire locks of other sets.
+ *
+ * @param <E> The type of element that is stored in the set.
+ */
+public class ObservableSet<E>
+    extends AbstractSet<E>
+{
+    /**
+     * The elements of the set.
+     */
+    private final TreeSet<E> elements = new TreeSet<E>();
+
+    /**
+     * The listeners that are notified of modifications.
+     */
+    private final List<Listener<? super E>> listeners =
+        new CopyOnWriteArrayList<Listener<? super E>>();
+
+    /**
+     * Add a listener that is notified of every element that is added to or
+     * removed from the set from now on.
+     *
+     * @param listener the listener
+     */
+    public void addListener(final Listener<? super E> listener)
+    {
+        if (listener == null)
+        {
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(final Listener<? super E> listener)
+    {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Get the size of the set.
+     */
+    @Override
+    public synchronized int size()
+    {
+        return this.elements.size();
+    }
+
+    /**
+     * Check if the set is empty.
+     */
+    @Override
+    public synchronized boolean isEmpty()
+    {
+        return this.elements.isEmpty();
+    }
+
+    /**
+     * Check if an element is contained in the set.
+     */
+    @Override
+    public synchronized boolean contains(final Object o)
+    {
+        return this.elements.contains(o);
+    }
+
+    /**
+     * Check if all provided elements are contained in the set.
+     */
+    @Override
+    public synchronized boolean containsAll(final Collection<?> c)
+    {
+        return this.elements.containsAll(c);
+    }
+
+    /**
+     * Get an iterator over the set in natural element order. The set must be
+     * locked while iterating.
+     */
+    @Override
+    public Iterator<E> iterator()
+    {
+        final Iterator<E> it = this.elements.iterator();
+        return new Iterator<E>()
+        {
+            private E last;
+
+            @Override
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next()
+            {
+                this.last = it.next();
+                return this.last;
+            }
+
+            @Override
+            public void remove()
+            {
+                synchronized (ObservableSet.this)
+                {
+                    it.remove();
+                    fireRemoved(this.last);
+                }
+            }
+        };
+    }
+
+    /**
+     * Get an array of the elements of the set.
+     */
+    @Override
+    public synchronized Object[] toArray()
+    {
+        return this.elements.toArray();
+    }
+
+    /**
+     * Get an array of the elements of the set.
+     */
+    @Override
+    public synchronized <T> T[] toArray(final T[] a)
+    {
+        return this.elements.toArray(a);
+    }
+
+    /**
+     * Add an element to the set.
+     */
+    @Override
+    public synchronized boolean add(final E e)
+    {
+        if (!this.elements.add(e))
+        {
+            return false;
+        }
+        for (Listener<? super E> listener : this.listeners)
+        {
+            listener.added(e);
+        }
+        return true;
+    }
+
+    /**
+     * Remove an element from the set.
+     */
+    @Override
+    public synchronized boolean remove(final Object o)
+    {
+        if (!this.elements.remove(o))
+        {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final E e = (E) o;
+        fireRemoved(e);
+        return true;
+    }
+
+    /**
+     * Add all provided elements to the set.
+     */
+    @Override
+    public synchronized boolean addAll(final Collection<? extends E> c)
+    {
+        return super.addAll(c);
+    }
+
+    /**
+     * Remove all provided elements from the set.
+     */
+    @Override
+    public synchronized boolean removeAll(final Collection<?> c)
+    {
+        boolean modified = false;
+        for (Object o : c)
+        {
+            modified |= remove(o);
+        }
+        return modified;
+    }
+
+    /**
+     * Retain only the provided elements in the set.
+     */
+    @Override
+    public synchronized boolean retainAll(final Collection<?> c)
+    {
+        return super.retainAll(c);
+    }
+
+    /**
+     * Remove all elements from the set.
+     */
+    @Override
+    public synchronized void clear()
+    {
+        super.clear();
+    }
+
+    @Override
+    public synchronized boolean equals(final Object o)
+    {
+        return o == this || this.elements.equals(o);
+    }
+
+    @Override
+    public synchronized int hashCode()
+    {
+        return this.elements.hashCode();
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return this.elements.toString();
+    }
+
+    /**
+     * Notify the listeners of a removed element.
+     *
+     * @param e the removed element
+     */
+    private void fireRemoved(final E e)
+    {
+        for (Listener<? super E> listener : this.listeners)
+        {
+            listener.removed(e);
+        }
+    }
+
+    /**
+     * Listener for modifications of an observable set.
+     *
+     * @param <E> The type of element that is stored in the set.
+     */
+    public interface Listener<E>
+    {
+        /**
+         * An element was added to the set.
+         *
+         * @param e the element
+         */
+        void added(E e);
+
+        /**
+         * An element was removed from the set.
+         *
+         * @param e the element
+         */
+        void removed(E e);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import com.ircclouds.irc.api.domain.*;
+import com.ircclouds.irc.api.domain.messages.*;
+
+public class ChannelNumericRouterTest
+{
+    private static final IRCServer SERVER = new IRCServer("irc.example");
+
+    private final ChannelNumericRouter router = new ChannelNumericRouter();
+
+    @Test
+    public void testFields()
+    {
+        final String text = "#jitsi ~alice host.example irc.example alice H@ "
+            + ":0 Alice Example";
+        assertArrayEquals(new String[] { "alice", "H@" },
+            ChannelNumericRouter.fields(text, 4, 2));
+        assertArrayEquals(new String[] { "#jitsi" },
+            ChannelNumericRouter.fields(text, 0, 1));
+        assertArrayEquals(new String[] { "alice", "H" },
+            ChannelNumericRouter.fields("#a b c d alice H", 4, 2));
+        assertNull(ChannelNumericRouter.fields("#a b c d alice", 4, 2));
+    }
+
+    @Test
+    public void testOtherNumericsAreNotRouted()
+    {
+        final RecordingTarget target = new RecordingTarget();
+        this.router.register("#jitsi", target);
+        assertFalse(this.router.route(numeric(366, "#jitsi :End of /NAMES")));
+        assertTrue(target.received.isEmpty());
+    }
+
+    @Test
+    public void testRoutingIgnoresCase()
+    {
+        final RecordingTarget target = new RecordingTarget();
+        this.router.register("#Jitsi", target);
+        assertTrue(this.router.route(numeric(442,
+            "#jITSI :You're not on that channel")));
+        assertTrue(this.router.route(numeric(404, "#other :Cannot send")));
+        assertEquals(Arrays.asList("442 #jITSI :You're not on that channel"),
+            target.received);
+    }
+
+    @Test
+    public void testUnregister()
+    {
+        final RecordingTarget first = new RecordingTarget();
+        final RecordingTarget second = new RecordingTarget();
+        this.router.register("#jitsi", first);
+        this.router.register("#jitsi", second);
+        // A stale listener does not unregister its successor.
+        this.router.unregister("#jitsi", first);
+        this.router.route(numeric(315, "#jitsi :End of WHO list"));
+        this.router.unregister("#jitsi", second);
+        this.router.route(numeric(315, "#jitsi :End of WHO list"));
+        assertTrue(first.received.isEmpty());
+        assertEquals(1, second.received.size());
+    }
+
+    /**
+     * Script the WHO replies of 20 large channels and check that every reply
+     * line is handled exactly once, by the target of its channel.
+     */
+    @Test
+    public void testWhoBurstOfManyChannels()
+    {
+        final int channels = 20;
+        final int members = 2000;
+        final List<RecordingTarget> targets = new ArrayList<RecordingTarget>();
+        for (int c = 0; c < channels; c++)
+        {
+            final RecordingTarget target = new RecordingTarget();
+            targets.add(target);
+            this.router.register("#channel" + c, target);
+        }
+        for (int c = 0; c < channels; c++)
+        {
+            for (int m = 0; m < members; m++)
+            {
+                this.router.route(numeric(352, "#channel" + c + " ~user" + m
+                    + " host" + m + ".example irc.example user" + m + " H "
+                    + ":0 User " + m));
+            }
+            this.router.route(numeric(315, "#channel" + c
+                + " :End of WHO list"));
+        }
+        int handled = 0;
+        for (int c = 0; c < channels; c++)
+        {
+            final List<String> received = targets.get(c).received;
+            assertEquals(members + 1, received.size());
+            for (String line : received)
+            {
+                assertTrue(line.contains(" #channel" + c + " "));
+            }
+            handled += received.size();
+        }
+        assertEquals(channels * (members + 1), handled);
+    }
+
+    private static ServerNumericMessage numeric(final int code,
+        final String text)
+    {
+        return new ServerNumericMessage(code, "me", text, SERVER);
+    }
+
+    private static final class RecordingTarget
+        implements ChannelNumericRouter.Target
+    {
+        private final List<String> received = new ArrayList<String>();
+
+        @Override
+        public void onChannelNumeric(final int code, final String text)
+        {
+            this.received.add(code + " " + text);
+        }
+    }
+}
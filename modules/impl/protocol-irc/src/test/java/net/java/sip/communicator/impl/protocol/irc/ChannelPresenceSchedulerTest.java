@@ -0,0 +1,194 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import org.junit.*;
+
+import com.ircclouds.irc.api.*;
+
+public class ChannelPresenceSchedulerTest
+{
+    private static final long PERIOD = 400;
+
+    /**
+     * Channels of the WHO requests sent.
+     */
+    private final List<String> requests =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Times in ms of the WHO requests sent.
+     */
+    private final List<Long> times =
+        Collections.synchronizedList(new ArrayList<Long>());
+
+    /**
+     * Whether the stand-in server answers WHO requests.
+     */
+    private volatile boolean answer = true;
+
+    private ChannelPresenceScheduler scheduler;
+
+    /**
+     * Stand-in for the IRC server: records WHO requests and answers them
+     * immediately with an end of WHO list.
+     */
+    private final IRCApi server = (IRCApi) Proxy.newProxyInstance(
+        IRCApi.class.getClassLoader(), new Class<?>[] { IRCApi.class },
+        (proxy, method, args) -> {
+            if (method.getName().equals("rawMessage"))
+            {
+                final String channel = ((String) args[0]).substring(4);
+                this.times.add(System.currentTimeMillis());
+                this.requests.add(channel);
+                if (this.answer)
+                {
+                    this.scheduler.whoCompleted(channel);
+                }
+            }
+            return null;
+        });
+
+    @After
+    public void tearDown()
+    {
+        if (this.scheduler != null)
+        {
+            this.scheduler.stop();
+        }
+    }
+
+    /**
+     * Turns are given manually. The period is long enough for the timer not
+     * to interfere.
+     */
+    private void manual(final long quietTime)
+    {
+        this.scheduler = new ChannelPresenceScheduler(this.server, 600000L,
+            quietTime, new Random(42L));
+    }
+
+    private void add(final String... channels)
+    {
+        for (String channel : channels)
+        {
+            this.scheduler.add(channel);
+            // The WHO request sent when joining is answered.
+            this.scheduler.whoCompleted(channel);
+        }
+    }
+
+    @Test
+    public void testRoundRobin()
+    {
+        manual(0);
+        add("#a", "#b", "#c");
+        for (int i = 0; i < 7; i++)
+        {
+            this.scheduler.nextTurn();
+        }
+        assertEquals(Arrays.asList("#a", "#b", "#c", "#a", "#b", "#c", "#a"),
+            this.requests);
+    }
+
+    @Test
+    public void testSkipsRecentlyChangedChannel()
+    {
+        manual(600000L);
+        add("#a", "#b");
+        this.scheduler.memberListChanged("#a");
+        for (int i = 0; i < 4; i++)
+        {
+            this.scheduler.nextTurn();
+        }
+        assertEquals(Arrays.asList("#b", "#b"), this.requests);
+    }
+
+    @Test
+    public void testUnansweredRequestIsNotRepeated()
+    {
+        manual(0);
+        add("#a", "#b");
+        this.answer = false;
+        for (int i = 0; i < 4; i++)
+        {
+            this.scheduler.nextTurn();
+        }
+        assertEquals(Arrays.asList("#a", "#b"), this.requests);
+        this.scheduler.whoCompleted("#a");
+        this.scheduler.nextTurn();
+        assertEquals(Arrays.asList("#a", "#b", "#a"), this.requests);
+    }
+
+    @Test
+    public void testJoinRequestCountsAsRequest()
+    {
+        manual(0);
+        this.scheduler.add("#a");
+        this.scheduler.nextTurn();
+        assertTrue(this.requests.isEmpty());
+    }
+
+    @Test
+    public void testRemovedChannelIsNotQueried()
+    {
+        manual(0);
+        add("#a", "#b");
+        this.scheduler.remove("#a");
+        this.scheduler.nextTurn();
+        this.scheduler.nextTurn();
+        assertEquals(Arrays.asList("#b", "#b"), this.requests);
+        this.scheduler.remove("#b");
+        this.scheduler.nextTurn();
+        assertEquals(2, this.requests.size());
+    }
+
+    /**
+     * With the timer, the turns of the channels are spread over the period
+     * instead of all channels querying at once.
+     */
+    @Test
+    public void testTurnsAreSpreadOverPeriod() throws Exception
+    {
+        this.scheduler = new ChannelPresenceScheduler(this.server, PERIOD, 0,
+            new Random(42L));
+        add("#a", "#b", "#c", "#d");
+        // The first turn comes after the interval of a single channel, since
+        // the channels were added one by one.
+        Thread.sleep(PERIOD * 12 / 10 + 2 * PERIOD);
+        this.scheduler.stop();
+        final List<String> sent = new ArrayList<String>(this.requests);
+        assertTrue(sent.size() >= 6);
+        for (int i = 0; i < sent.size(); i++)
+        {
+            assertEquals("#" + "abcd".charAt(i % 4), sent.get(i));
+        }
+        for (int i = 1; i < this.times.size(); i++)
+        {
+            final long interval = this.times.get(i) - this.times.get(i - 1);
+            // A quarter of the period, with at most 20% jitter and some
+            // timer inaccuracy.
+            assertTrue("interval " + interval, interval >= PERIOD / 4 * 3 / 4);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.impl.protocol.irc.QueuedIRCApi.Lane;
+
+import org.junit.*;
+
+import com.ircclouds.irc.api.*;
+import com.ircclouds.irc.api.domain.*;
+
+public class QueuedIRCApiTest
+{
+    /**
+     * Stand-in for the IRC client library, recording the lines it sends.
+     */
+    private final List<String> sent =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Virtual times in ms at which the lines were sent.
+     */
+    private final List<Long> times =
+        Collections.synchronizedList(new ArrayList<Long>());
+
+    /**
+     * Clock whose time only advances while the queue waits for a token, so
+     * that pacing does not depend on the scheduling of the test machine.
+     */
+    private final VirtualClock clock = new VirtualClock();
+
+    private final IRCApi server = (IRCApi) Proxy.newProxyInstance(
+        IRCApi.class.getClassLoader(), new Class<?>[] { IRCApi.class },
+        (proxy, method, args) -> {
+            final StringBuilder line = new StringBuilder(method.getName());
+            for (int i = 0; args != null && i < args.length; i++)
+            {
+                if (!(args[i] instanceof Callback))
+                {
+                    line.append(' ').append(args[i]);
+                }
+            }
+            times.add(TimeUnit.NANOSECONDS.toMillis(clock.nanoTime()));
+            sent.add(line.toString());
+            return null;
+        });
+
+    private QueuedIRCApi queue;
+
+    @After
+    public void tearDown()
+    {
+        if (this.queue != null)
+        {
+            this.queue.close();
+        }
+    }
+
+    @Test
+    public void testLanes()
+    {
+        assertEquals(Lane.KEEPALIVE, QueuedIRCApi.lane("PING irc.example"));
+        assertEquals(Lane.KEEPALIVE, QueuedIRCApi.lane("pong :irc.example"));
+        assertEquals(Lane.BULK, QueuedIRCApi.lane("WHO #jitsi"));
+        assertEquals(Lane.BULK, QueuedIRCApi.lane("ISON alice bob"));
+        assertEquals(Lane.BULK, QueuedIRCApi.lane("LIST"));
+        assertEquals(Lane.BULK, QueuedIRCApi.lane("MONITOR + alice"));
+        assertEquals(Lane.USER, QueuedIRCApi.lane("AWAY :lunch"));
+        assertEquals(Lane.USER, QueuedIRCApi.lane("INVITE alice #jitsi"));
+    }
+
+    @Test
+    public void testCommandsAreSentInOrder() throws Exception
+    {
+        this.queue = new QueuedIRCApi(this.server, 100, 0);
+        this.queue.message("#jitsi", "one");
+        this.queue.joinChannel("#other");
+        this.queue.message("#jitsi", "two");
+        this.queue.submitRawMessage("AWAY").get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("message #jitsi one", "joinChannel #other",
+            "message #jitsi two", "rawMessage AWAY"), this.sent);
+    }
+
+    /**
+     * Senders in several threads queue commands while the writer is busy.
+     * Once it is free, keep-alives go first, then user commands, then bulk
+     * queries, and the commands of each sender stay in order.
+     */
+    @Test
+    public void testPriorityUnderConcurrentSenders() throws Exception
+    {
+        this.queue = new QueuedIRCApi(this.server, 1000, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<Void> blocker = block(release);
+
+        final String[] commands = { "ISON", "PRIVMSG", "PING" };
+        final List<Thread> senders = new ArrayList<Thread>();
+        for (final String command : commands)
+        {
+            for (int t = 0; t < 3; t++)
+            {
+                final int sender = t;
+                senders.add(new Thread(() -> {
+                    for (int i = 0; i < 20; i++)
+                    {
+                        QueuedIRCApiTest.this.queue.rawMessage(
+                            command + " " + sender + " " + i);
+                    }
+                }));
+            }
+        }
+        for (Thread sender : senders)
+        {
+            sender.start();
+        }
+        for (Thread sender : senders)
+        {
+            sender.join();
+        }
+        release.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        this.queue.submit(Lane.BULK, irc -> {}).get(5, TimeUnit.SECONDS);
+
+        assertEquals(180, this.sent.size());
+        final Map<String, Integer> next = new HashMap<String, Integer>();
+        for (int i = 0; i < this.sent.size(); i++)
+        {
+            final String[] line = this.sent.get(i).split(" ");
+            assertEquals(commands[2 - i / 60], line[1]);
+            final String sender = line[1] + line[2];
+            final Integer expected = next.get(sender);
+            assertEquals(expected == null ? 0 : expected.intValue(),
+                Integer.parseInt(line[3]));
+            next.put(sender, Integer.parseInt(line[3]) + 1);
+        }
+    }
+
+    @Test
+    public void testPacing() throws Exception
+    {
+        this.queue = new QueuedIRCApi(this.server, 3, 100, this.clock);
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < 7; i++)
+        {
+            last = this.queue.submitRawMessage("WHO #channel" + i);
+        }
+        last.get(5, TimeUnit.SECONDS);
+        // The burst is sent at once, then one command per interval.
+        assertEquals(Arrays.asList(0L, 0L, 0L, 100L, 200L, 300L, 400L),
+            this.times);
+    }
+
+    @Test
+    public void testKeepAliveIsNotPaced() throws Exception
+    {
+        this.queue = new QueuedIRCApi(this.server, 1, 100, this.clock);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<Void> blocker = block(release);
+        final CompletableFuture<Void> list =
+            this.queue.submitRawMessage("LIST");
+        final CompletableFuture<Void> pong =
+            this.queue.submitRawMessage("PONG :irc.example");
+        release.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        pong.get(5, TimeUnit.SECONDS);
+        list.get(5, TimeUnit.SECONDS);
+        // The blocker used up the burst: the PONG is sent without waiting,
+        // the LIST only once the next token is available.
+        assertEquals(Arrays.asList("rawMessage PONG :irc.example",
+            "rawMessage LIST"), this.sent);
+        assertEquals(Arrays.asList(0L, 100L), this.times);
+    }
+
+    @Test
+    public void testDisconnectCancelsPendingCommands() throws Exception
+    {
+        this.queue = new QueuedIRCApi(this.server, 1, 100, this.clock);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<Void> blocker = block(release);
+        final CompletableFuture<Void> pending =
+            this.queue.submitRawMessage("WHO #b");
+        final CompletableFuture<Exception> failure =
+            new CompletableFuture<Exception>();
+        this.queue.joinChannel("#c", new FailureCallback(failure));
+        this.queue.disconnect();
+        release.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        assertTrue(pending.isCancelled());
+        assertTrue(failure.get(5, TimeUnit.SECONDS)
+            instanceof CancellationException);
+        assertEquals(Arrays.asList("disconnect"), this.sent);
+        assertTrue(this.queue.submitRawMessage("WHO #d")
+            .isCompletedExceptionally());
+        try
+        {
+            this.queue.message("#c", "hello");
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+        }
+    }
+
+    /**
+     * Commands with a callback of the IRC client library report a closed
+     * queue to the callback rather than throwing.
+     */
+    @Test
+    public void testClosedQueueFailsCallback() throws Exception
+    {
+        this.queue = new QueuedIRCApi(this.server, 1, 100, this.clock);
+        this.queue.close();
+        final CompletableFuture<Exception> failure =
+            new CompletableFuture<Exception>();
+        this.queue.joinChannel("#c", "key", new FailureCallback(failure));
+        assertTrue(failure.get(5, TimeUnit.SECONDS)
+            instanceof IllegalStateException);
+        assertTrue(this.sent.isEmpty());
+    }
+
+    @Test
+    public void testFailedCommandCompletesExceptionally() throws Exception
+    {
+        this.queue = new QueuedIRCApi(this.server);
+        final CompletableFuture<Void> failed =
+            this.queue.submit(Lane.USER, irc -> {
+                throw new IllegalStateException("channel closed");
+            });
+        try
+        {
+            failed.get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        this.queue.submitRawMessage("AWAY").get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("rawMessage AWAY"), this.sent);
+    }
+
+    /**
+     * Keep the writer busy until the latch is released.
+     *
+     * @param release the latch releasing the writer
+     * @return returns the future of the blocking command
+     */
+    private CompletableFuture<Void> block(final CountDownLatch release)
+        throws InterruptedException
+    {
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CompletableFuture<Void> blocker =
+            this.queue.submit(Lane.USER, irc -> {
+                busy.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+        return blocker;
+    }
+
+    /**
+     * Callback completing a future with the failure it is informed of, or
+     * with null on success.
+     */
+    private static class FailureCallback
+        implements Callback<IRCChannel>
+    {
+        private final CompletableFuture<Exception> failure;
+
+        FailureCallback(final CompletableFuture<Exception> failure)
+        {
+            this.failure = failure;
+        }
+
+        @Override
+        public void onSuccess(final IRCChannel channel)
+        {
+            this.failure.complete(null);
+        }
+
+        @Override
+        public void onFailure(final Exception e)
+        {
+            this.failure.complete(e);
+        }
+    }
+
+    /**
+     * Clock that advances by the full wait instead of sleeping.
+     */
+    private static class VirtualClock
+        implements QueuedIRCApi.Clock
+    {
+        private final AtomicLong now = new AtomicLong();
+
+        @Override
+        public long nanoTime()
+        {
+            return this.now.get();
+        }
+
+        @Override
+        public void await(final Object lock, final long nanos)
+        {
+            this.now.addAndGet(nanos);
+        }
+    }
+}
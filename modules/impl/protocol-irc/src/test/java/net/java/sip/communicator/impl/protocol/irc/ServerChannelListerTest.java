@@ -0,0 +1,271 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.protocol.event.*;
+
+import org.junit.*;
+
+import com.ircclouds.irc.api.*;
+import com.ircclouds.irc.api.domain.*;
+import com.ircclouds.irc.api.domain.messages.*;
+import com.ircclouds.irc.api.listeners.*;
+import com.ircclouds.irc.api.state.*;
+
+public class ServerChannelListerTest
+{
+    private static final IRCServer SERVER = new IRCServer("irc.example");
+
+    /**
+     * Raw messages sent to the server.
+     */
+    private final List<String> sent = new ArrayList<String>();
+
+    /**
+     * Registered listeners.
+     */
+    private final List<IMessageListener> listeners =
+        new ArrayList<IMessageListener>();
+
+    private final Properties options = new Properties();
+
+    private final IRCApi irc = (IRCApi) Proxy.newProxyInstance(
+        IRCApi.class.getClassLoader(), new Class<?>[] { IRCApi.class },
+        (proxy, method, args) -> {
+            switch (method.getName())
+            {
+            case "rawMessage":
+                sent.add((String) args[0]);
+                break;
+            case "addListener":
+                listeners.add((IMessageListener) args[0]);
+                break;
+            case "deleteListener":
+                listeners.remove(args[0]);
+                break;
+            default:
+                break;
+            }
+            return null;
+        });
+
+    private final IIRCState state = (IIRCState) Proxy.newProxyInstance(
+        IIRCState.class.getClassLoader(), new Class<?>[] { IIRCState.class },
+        (proxy, method, args) -> {
+            switch (method.getName())
+            {
+            case "isConnected":
+                return true;
+            case "getServer":
+                return SERVER;
+            case "getServerOptions":
+                return new IRCServerOptions(options);
+            case "getNickname":
+                return "me";
+            default:
+                return null;
+            }
+        });
+
+    private final ChannelListCache cache = new ChannelListCache(60000L);
+
+    @Test
+    public void testChannelsAreStreamedInBatches() throws Exception
+    {
+        final ServerChannelLister lister =
+            new ServerChannelLister(this.irc, this.state, this.cache);
+        final List<List<String>> batches = new ArrayList<List<String>>();
+        final CompletableFuture<List<String>> result =
+            lister.list(null, batches::add);
+        assertEquals(Arrays.asList("LIST"), this.sent);
+        reply(321, "Channel :Users Name");
+        for (int i = 0; i < 250; i++)
+        {
+            reply(322, "#channel" + i + " 5 :topic");
+        }
+        assertEquals(2, batches.size());
+        assertEquals(ServerChannelLister.BATCH_SIZE, batches.get(0).size());
+        assertEquals("#channel0", batches.get(0).get(0));
+        assertFalse(result.isDone());
+        reply(323, ":End of /LIST");
+        assertEquals(3, batches.size());
+        assertEquals(50, batches.get(2).size());
+        assertEquals(250, result.get().size());
+        assertTrue(this.listeners.isEmpty());
+    }
+
+    @Test
+    public void testListenerIsCalledWithoutLock() throws Exception
+    {
+        final ServerChannelLister lister =
+            new ServerChannelLister(this.irc, this.state, this.cache);
+        final List<String> streamed = new ArrayList<String>();
+        final ChatRoomListListener listener = channels -> {
+            assertFalse(Thread.holdsLock(lister));
+            streamed.addAll(channels);
+        };
+        final CompletableFuture<List<String>> first =
+            lister.list(null, listener);
+        for (int i = 0; i < 150; i++)
+        {
+            reply(322, "#channel" + i + " 5 :topic");
+        }
+        // joins the outstanding request with the channels received so far
+        final CompletableFuture<List<String>> second =
+            lister.list(null, listener);
+        reply(323, ":End of /LIST");
+        assertEquals(150, first.get().size());
+        assertEquals(150, second.get().size());
+        // served from the cache
+        assertEquals(150, lister.list(null, listener).get().size());
+        assertEquals(450, streamed.size());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneList() throws Exception
+    {
+        final ServerChannelLister lister =
+            new ServerChannelLister(this.irc, this.state, this.cache);
+        final CompletableFuture<List<String>> first = lister.list(null, null);
+        reply(322, "#jitsi 10 :topic");
+        final List<String> streamed = new ArrayList<String>();
+        final ChatRoomListListener listener = streamed::addAll;
+        final CompletableFuture<List<String>> second =
+            lister.list("JIT", listener);
+        reply(322, "#other 3 :topic");
+        reply(322, "#jitsi-dev 4 :topic");
+        reply(323, ":End of /LIST");
+        assertEquals(Arrays.asList("LIST"), this.sent);
+        assertEquals(Arrays.asList("#jitsi", "#other", "#jitsi-dev"),
+            first.get());
+        assertEquals(Arrays.asList("#jitsi", "#jitsi-dev"), second.get());
+        assertEquals(second.get(), streamed);
+    }
+
+    @Test
+    public void testCacheIsSharedPerServer() throws Exception
+    {
+        final ServerChannelLister lister =
+            new ServerChannelLister(this.irc, this.state, this.cache);
+        final CompletableFuture<List<String>> first = lister.list(null, null);
+        reply(322, "#jitsi 10 :topic");
+        reply(323, ":End of /LIST");
+        assertEquals(Arrays.asList("#jitsi"), first.get());
+
+        final ServerChannelLister other =
+            new ServerChannelLister(this.irc, this.state, this.cache);
+        final CompletableFuture<List<String>> cached = other.list("jit", null);
+        assertTrue(cached.isDone());
+        assertEquals(Arrays.asList("#jitsi"), cached.get());
+        assertEquals(1, this.sent.size());
+    }
+
+    @Test
+    public void testCacheExpires() throws Exception
+    {
+        final ChannelListCache cache = new ChannelListCache(50L);
+        cache.put("irc.example:6667", Arrays.asList("#jitsi"));
+        assertEquals(Arrays.asList("#jitsi"), cache.get("IRC.example:6667"));
+        Thread.sleep(100L);
+        assertNull(cache.get("irc.example:6667"));
+    }
+
+    @Test
+    public void testFilterIsSentAsMaskWithElist() throws Exception
+    {
+        this.options.setProperty(ISupport.ELIST.name(), "CMNTU");
+        final ServerChannelLister lister =
+            new ServerChannelLister(this.irc, this.state, this.cache);
+        final CompletableFuture<List<String>> first = lister.list("Jit", null);
+        final CompletableFuture<List<String>> second =
+            lister.list("dev", null);
+        assertEquals(Arrays.asList("LIST *jit*"), this.sent);
+        reply(322, "#jitsi 10 :topic");
+        reply(323, ":End of /LIST");
+        assertEquals(Arrays.asList("#jitsi"), first.get());
+        // The request for another filter waited for the first one.
+        assertEquals(Arrays.asList("LIST *jit*", "LIST *dev*"), this.sent);
+        reply(322, "#dev 4 :topic");
+        reply(323, ":End of /LIST");
+        assertEquals(Arrays.asList("#dev"), second.get());
+        // Filtered lists are not cached.
+        lister.list(null, null);
+        assertEquals("LIST", this.sent.get(2));
+    }
+
+    @Test
+    public void testFilterIsAppliedLocallyWithoutElist() throws Exception
+    {
+        final ServerChannelLister lister =
+            new ServerChannelLister(this.irc, this.state, this.cache);
+        final CompletableFuture<List<String>> result =
+            lister.list("jit", null);
+        assertEquals(Arrays.asList("LIST"), this.sent);
+        reply(322, "#Jitsi 10 :topic");
+        reply(322, "#other 3 :topic");
+        reply(323, ":End of /LIST");
+        assertEquals(Arrays.asList("#Jitsi"), result.get());
+        assertEquals(2, lister.list(null, null).get().size());
+        assertEquals(1, this.sent.size());
+    }
+
+    @Test
+    public void testConnectionErrorFailsRequest() throws Exception
+    {
+        final ServerChannelLister lister =
+            new ServerChannelLister(this.irc, this.state, this.cache);
+        final CompletableFuture<List<String>> result = lister.list(null, null);
+        reply(322, "#jitsi 10 :topic");
+        for (IMessageListener listener
+            : new ArrayList<IMessageListener>(this.listeners))
+        {
+            ((VariousMessageListenerAdapter) listener)
+                .onError(new ErrorMessage("Closing link"));
+        }
+        assertTrue(result.isCompletedExceptionally());
+        assertTrue(this.listeners.isEmpty());
+        lister.list(null, null);
+        assertEquals(Arrays.asList("LIST", "LIST"), this.sent);
+    }
+
+    @Test
+    public void testParse()
+    {
+        assertEquals("#jitsi", ServerChannelLister.parse("#jitsi 10 :topic"));
+        assertNull(ServerChannelLister.parse("#jitsi"));
+        assertNull(ServerChannelLister.parse(null));
+    }
+
+    private void reply(final int code, final String text)
+    {
+        final ServerNumericMessage msg =
+            new ServerNumericMessage(code, "me", text, SERVER);
+        for (IMessageListener listener
+            : new ArrayList<IMessageListener>(this.listeners))
+        {
+            ((VariousMessageListenerAdapter) listener)
+                .onServerNumericMessage(msg);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc.collection;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class DynamicDifferenceSetTest
+{
+    /**
+     * Number of users in the channel of the JOIN/PART storm.
+     */
+    private static final int USERS = 5000;
+
+    @Test
+    public void testConstructionNullSource()
+    {
+        try
+        {
+            new DynamicDifferenceSet<String>(null, new ObservableSet<String>());
+            fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    @Test
+    public void testConstructionNullRemovals()
+    {
+        try
+        {
+            new DynamicDifferenceSet<String>(new ObservableSet<String>(), null);
+            fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    @Test
+    public void testExistingElements()
+    {
+        final ObservableSet<String> source = new ObservableSet<String>();
+        final ObservableSet<String> removals = new ObservableSet<String>();
+        source.addAll(Arrays.asList("dan", "alice", "carol", "bob"));
+        removals.addAll(Arrays.asList("carol", "eve"));
+        final DynamicDifferenceSet<String> diff =
+            new DynamicDifferenceSet<String>(source, removals);
+        assertEquals(3, diff.size());
+        assertTrue(diff.contains("alice"));
+        assertFalse(diff.contains("carol"));
+        assertFalse(diff.contains("eve"));
+        assertEquals(Arrays.asList("alice", "bob", "dan"), list(diff));
+    }
+
+    @Test
+    public void testFollowsModifications()
+    {
+        final ObservableSet<String> source = new ObservableSet<String>();
+        final ObservableSet<String> removals = new ObservableSet<String>();
+        final DynamicDifferenceSet<String> diff =
+            new DynamicDifferenceSet<String>(source, removals);
+        assertTrue(diff.isEmpty());
+        source.add("bob");
+        source.add("alice");
+        assertEquals(Arrays.asList("alice", "bob"), list(diff));
+        removals.add("alice");
+        assertEquals(Arrays.asList("bob"), list(diff));
+        source.remove("alice");
+        removals.remove("alice");
+        assertEquals(Arrays.asList("bob"), list(diff));
+        removals.add("bob");
+        assertTrue(diff.isEmpty());
+        removals.clear();
+        assertEquals(Arrays.asList("bob"), list(diff));
+        synchronized (source)
+        {
+            final Iterator<String> it = source.iterator();
+            it.next();
+            it.remove();
+        }
+        assertTrue(diff.isEmpty());
+        assertFalse(diff.contains("bob"));
+    }
+
+    @Test
+    public void testIteratorIsSnapshot()
+    {
+        final ObservableSet<String> source = new ObservableSet<String>();
+        final DynamicDifferenceSet<String> diff =
+            new DynamicDifferenceSet<String>(source,
+                new ObservableSet<String>());
+        source.add("alice");
+        final Iterator<String> it = diff.iterator();
+        source.add("bob");
+        assertEquals("alice", it.next());
+        assertFalse(it.hasNext());
+        assertEquals(2, diff.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testIsImmutable()
+    {
+        new DynamicDifferenceSet<String>(new ObservableSet<String>(),
+            new ObservableSet<String>()).add("alice");
+    }
+
+    @Test
+    public void testPlainSetsAreComputed()
+    {
+        final Set<String> source =
+            Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> removals =
+            Collections.synchronizedSet(new HashSet<String>());
+        final DynamicDifferenceSet<String> diff =
+            new DynamicDifferenceSet<String>(source, removals);
+        source.addAll(Arrays.asList("carol", "alice", "bob"));
+        removals.add("bob");
+        assertEquals(Arrays.asList("alice", "carol"), list(diff));
+        assertEquals(2, diff.size());
+        assertFalse(diff.contains("bob"));
+    }
+
+    /**
+     * Reproduce a JOIN/PART storm in a channel of 5,000 users: nicks join and
+     * part the watch list while the monitored list follows with a delay, and
+     * the difference set is queried after every event like the presence
+     * watchers do. The result must be the same as the naively computed
+     * difference at all times.
+     */
+    @Test
+    public void testJoinPartStorm()
+    {
+        final ObservableSet<String> source = new ObservableSet<String>();
+        final ObservableSet<String> removals = new ObservableSet<String>();
+        final DynamicDifferenceSet<String> diff =
+            new DynamicDifferenceSet<String>(source, removals);
+        final Random random = new Random(5000L);
+        for (int i = 0; i < USERS; i++)
+        {
+            source.add(nick(i));
+            if (i % 2 == 0)
+            {
+                removals.add(nick(i));
+            }
+        }
+        for (int event = 0; event < 20000; event++)
+        {
+            final String nick = nick(random.nextInt(USERS * 2));
+            switch (random.nextInt(4))
+            {
+            case 0:
+                source.add(nick);
+                break;
+            case 1:
+                source.remove(nick);
+                break;
+            case 2:
+                removals.add(nick);
+                break;
+            default:
+                removals.remove(nick);
+                break;
+            }
+            assertEquals(source.contains(nick) && !removals.contains(nick),
+                diff.contains(nick));
+            if (event % 1000 == 0)
+            {
+                final List<String> expected = naive(source, removals);
+                assertEquals(expected.size(), diff.size());
+                assertEquals(expected, list(diff));
+            }
+        }
+        assertEquals(naive(source, removals), list(diff));
+    }
+
+    /**
+     * Microbenchmark of the JOIN/PART storm: every event is followed by the
+     * queries the presence watchers do (isEmpty, contains and, every tenth
+     * event, a full iteration). The timings of the incremental set and of the
+     * computed set over the same data are printed. Skipped unless the
+     * <tt>benchmark</tt> system property is set.
+     */
+    @Test
+    public void testJoinPartStormBenchmark()
+    {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+
+        final ObservableSet<String> source = new ObservableSet<String>();
+        final ObservableSet<String> removals = new ObservableSet<String>();
+        final Set<String> plainSource =
+            Collections.synchronizedSet(new TreeSet<String>());
+        final Set<String> plainRemovals =
+            Collections.synchronizedSet(new TreeSet<String>());
+        final DynamicDifferenceSet<String> incremental =
+            new DynamicDifferenceSet<String>(source, removals);
+        final DynamicDifferenceSet<String> computed =
+            new DynamicDifferenceSet<String>(plainSource, plainRemovals);
+        for (int i = 0; i < USERS; i++)
+        {
+            source.add(nick(i));
+            plainSource.add(nick(i));
+        }
+        final long incrementalTime =
+            storm(source, removals, incremental, new Random(1L));
+        final long computedTime =
+            storm(plainSource, plainRemovals, computed, new Random(1L));
+        assertEquals(list(computed), list(incremental));
+        System.out.println("JOIN/PART storm of " + USERS + " users: "
+            + "incremental " + incrementalTime / 1000000 + " ms, computed "
+            + computedTime / 1000000 + " ms");
+    }
+
+    private static long storm(final Set<String> source,
+        final Set<String> removals, final Set<String> diff,
+        final Random random)
+    {
+        final long start = System.nanoTime();
+        long count = 0;
+        for (int event = 0; event < 2000; event++)
+        {
+            final String nick = nick(random.nextInt(USERS));
+            if (event % 2 == 0)
+            {
+                source.remove(nick);
+                removals.add(nick);
+            }
+            else
+            {
+                source.add(nick);
+                removals.remove(nick);
+            }
+            if (!diff.isEmpty() && diff.contains(nick))
+            {
+                count++;
+            }
+            if (event % 10 == 0)
+            {
+                for (String n : diff)
+                {
+                    count += n.length();
+                }
+            }
+        }
+        assertTrue(count > 0);
+        return System.nanoTime() - start;
+    }
+
+    private static String nick(final int i)
+    {
+        return "user" + i;
+    }
+
+    private static List<String> list(final Set<String> set)
+    {
+        return new ArrayList<String>(set);
+    }
+
+    private static List<String> naive(final Set<String> source,
+        final Set<String> removals)
+    {
+        final TreeSet<String> result = new TreeSet<String>(source);
+        result.removeAll(removals);
+        return new ArrayList<String>(result);
+    }
+}
@@ -41,6 +41,7 @@
 import org.jivesoftware.smackx.muc.filter.*;
 import org.jivesoftware.smackx.muc.packet.*;
 import org.jivesoftware.smackx.nick.packet.Nick;
+import org.jivesoftware.smackx.sid.element.*;
 import org.jivesoftware.smackx.xdata.form.*;
 import org.jivesoftware.smackx.xevent.packet.MessageEvent;
 import org.jxmpp.jid.*;
@@ -135,8 +136,14 @@
     /**
      * The list of members of this chat room.
      */
-    private final Hashtable<Resourcepart, ChatRoomMemberJabberImpl> members
-        = new Hashtable<>();
+    private final ChatRoomOccupantStore members = new ChatRoomOccupantStore();
+
+    /**
+     * The members which were already in the room when we joined it, collected
+     * while the join is in progress in order to be announced at once when it
+     * ends; <tt>null</tt> when not joining.
+     */
+    private List<ChatRoomMember> initialMembers = null;
 
     /**
      * The list of banned members of this chat room.
@@ -513,10 +520,7 @@ public Message createMessage(String messageText)
      */
     public List<ChatRoomMember> getMembers()
     {
-        synchronized (members)
-        {
-            return new LinkedList<>(members.values());
-        }
+        return members.getSortedMembers();
     }
 
     /**
@@ -736,10 +740,25 @@ public void joinAs(String nickname, byte[] password)
                     presenceListener,
                     new AndFilter(FromMatchesFilter.create(multiUserChat.getRoom()), StanzaTypeFilter.PRESENCE));
 
+                synchronized (members)
+                {
+                    initialMembers = new ArrayList<>();
+                }
+
                 if(password == null)
                     multiUserChat.join(this.nickname);
                 else
                     multiUserChat.join(this.nickname, new String(password));
+
+                fireInitialMembersLoaded();
+
+                OperationSetMessageArchiveJabberImpl opSetArchive
+                    = (OperationSetMessageArchiveJabberImpl) provider
+                        .getOperationSet(OperationSetMessageArchive.class);
+
+                // back-fill the local history with what we have missed
+                if (opSetArchive != null)
+                    opSetArchive.synchronizeChatRoom(this);
             }
 
             ChatRoomMemberJabberImpl member
@@ -747,10 +766,7 @@ public void joinAs(String nickname, byte[] password)
                     this.nickname,
                     JidCreate.bareFrom(
                             provider.getAccountID().getAccountAddress()));
-            synchronized (members)
-            {
-                members.put(this.nickname, member);
-            }
+            members.put(member);
 
             // We don't specify a reason.
             opSetMuc.fireLocalUserPresenceEvent(this,
@@ -858,6 +874,121 @@ else if(ex.getStanzaError().getCondition() == registration_required)
                 OperationFailedException.GENERAL_ERROR,
                 ex);
         }
+        finally
+        {
+            // the members collected before a failure are in the room as far
+            // as we know, so they are still announced
+            fireInitialMembersLoaded();
+        }
+    }
+
+    /**
+     * Ends the collection of the members which were in the room before we
+     * joined it and announces them. Does nothing if they have already been
+     * announced.
+     */
+    private void fireInitialMembersLoaded()
+    {
+        List<ChatRoomMember> loaded;
+
+        synchronized (members)
+        {
+            loaded = initialMembers;
+            initialMembers = null;
+        }
+
+        if (loaded == null || loaded.isEmpty())
+            return;
+
+        if (logger.isDebugEnabled())
+            logger.debug("Loaded " + loaded.size() + " members of " + getName());
+
+        List<ChatRoomMemberPresenceListener> listeners;
+        synchronized (memberListeners)
+        {
+            listeners = new ArrayList<>(memberListeners);
+        }
+
+        fireMembersLoaded(this, loaded, listeners);
+    }
+
+    /**
+     * Announces the members which were in a room when it was joined. Listeners
+     * which implement <tt>ChatRoomMembersLoadedListener</tt> receive them all
+     * with a single <tt>ChatRoomMembersLoadedEvent</tt>, the others receive one
+     * <tt>MEMBER_JOINED</tt> event per member.
+     *
+     * @param room the room which was joined
+     * @param loaded the members which were in <tt>room</tt>
+     * @param listeners the listeners to notify
+     */
+    static void fireMembersLoaded(
+        ChatRoom room,
+        List<ChatRoomMember> loaded,
+        List<ChatRoomMemberPresenceListener> listeners)
+    {
+        ChatRoomMembersLoadedEvent evt = null;
+        List<ChatRoomMemberPresenceChangeEvent> joined = null;
+
+        for (ChatRoomMemberPresenceListener listener : listeners)
+        {
+            if (listener instanceof ChatRoomMembersLoadedListener)
+            {
+                if (evt == null)
+                    evt = new ChatRoomMembersLoadedEvent(room, loaded);
+                ((ChatRoomMembersLoadedListener) listener).membersLoaded(evt);
+            }
+            else
+            {
+                if (joined == null)
+                {
+                    joined = new ArrayList<>(loaded.size());
+                    for (ChatRoomMember member : loaded)
+                    {
+                        joined.add(new ChatRoomMemberPresenceChangeEvent(
+                            room, member,
+                            ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED,
+                            null));
+                    }
+                }
+                for (ChatRoomMemberPresenceChangeEvent e : joined)
+                    listener.memberPresenceChanged(e);
+            }
+        }
+    }
+
+    /**
+     * Determines whether a member which has just joined is part of the initial
+     * member list being collected while we join the room and if so records it
+     * instead of announcing it on its own.
+     *
+     * @param member the member which has joined
+     * @return <tt>true</tt> if <tt>member</tt> will be announced with the
+     * initial member list
+     */
+    private boolean addInitialMember(ChatRoomMember member)
+    {
+        synchronized (members)
+        {
+            if (initialMembers == null)
+                return false;
+            initialMembers.add(member);
+            return true;
+        }
+    }
+
+    /**
+     * Determines whether the initial member list is still being collected.
+     *
+     * @return <tt>true</tt> if we are joining the room and the members which
+     * were already in it are being collected
+     */
+    private boolean isLoadingInitialMembers()
+    {
+        synchronized (members)
+        {
+            return initialMembers != null;
+        }
     }
 
     /**
@@ -929,18 +1060,13 @@ public ChatRoomMemberJabberImpl smackParticipantToScMember(Jid participant)
         }
 
         Resourcepart participantName = participant.getResourceOrThrow();
-        synchronized (members)
-        {
+        ChatRoomMemberJabberImpl member = members.get(participantName);
 
-            for (ChatRoomMemberJabberImpl member : this.members.values())
-            {
-                if (participantName.toString().equals(member.getName())
-                    || participant.toString().equals(member.getContactAddress())
-                    || participantName.toString().equals(member.getContactAddress()))
-                    return member;
-            }
-        }
-        return null;
+        if (member == null)
+            member = members.getByAddress(participant.toString());
+        if (member == null)
+            member = members.getByAddress(participantName.toString());
+        return member;
     }
 
     /**
@@ -1086,16 +1212,8 @@ public void leave()
         }
 
         // FIXME Do we have to do the following when we leave the room?
-        Hashtable<Resourcepart, ChatRoomMemberJabberImpl> membersCopy;
-        synchronized (members)
-        {
-            membersCopy = new Hashtable<>(members);
-
-            // Delete the list of members
-            members.clear();
-        }
-
-        for (ChatRoomMember member : membersCopy.values())
+        // Delete the list of members
+        for (ChatRoomMember member : members.clear())
             fireMemberPresenceEvent(
                 member,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_LEFT,
@@ -1331,10 +1449,7 @@ public void banned(EntityFullJid participant, Jid actor, String reason)
             if(member == null)
                 return;
 
-            synchronized (members)
-            {
-                members.remove(participant.getResourceOrThrow());
-            }
+            members.remove(participant.getResourceOrThrow());
 
             banList.put(participant.getResourceOrThrow(), member);
 
@@ -1406,14 +1521,11 @@ public void joined(EntityFullJid participant)
             // We try to get the nickname of the participantName in case it's
             // in the form john@servicename.com, because the nickname we keep
             // in the nickname property is just the user name like "john".
-            if (nickname.equals(participantName)
-                || members.containsKey(participantName))
-                return;
-
             // when somebody changes its nickname we first receive
             // event for its nickname changed and after that that has joined
             // we check is this already joined and if so we skip it
-            if(members.contains(participantName))
+            if (nickname.equals(participantName)
+                || members.containsKey(participantName))
                 return;
 
             Occupant occupant = multiUserChat.getOccupant(participant);
@@ -1427,7 +1539,12 @@ public void joined(EntityFullJid participant)
             // let's update the participant last presence
             updateMemberLastPresence(member, multiUserChat.getOccupantPresence(participant));
 
-            members.put(participantName, member);
+            members.put(member);
+
+            // occupants which were in the room before us are announced
+            // all at once when the join completes
+            if (addInitialMember(member))
+                return;
 
             //we don't specify a reason
             fireMemberPresenceEvent(member,
@@ -1454,10 +1571,7 @@ public void left(EntityFullJid participant)
             if(member == null)
                 return;
 
-            synchronized (members)
-            {
-                members.remove(participant.getResourceOrThrow());
-            }
+            members.remove(participant.getResourceOrThrow());
 
             fireMemberPresenceEvent(member,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_LEFT, null);
@@ -1480,13 +1594,11 @@ public void nicknameChanged(EntityFullJid participant, Resourcepart newNickname)
             if(member == null)
                 return;
 
-            member.setName(newNickname);
-
-            synchronized (members)
+            // change the member key
+            if (members.rename(participant.getResourceOrThrow(), newNickname)
+                    == null)
             {
-                // change the member key
-                ChatRoomMemberJabberImpl mem = members.remove(participant.getResourceOrThrow());
-                members.put(newNickname, mem);
+                member.setName(newNickname);
             }
 
             ChatRoomMemberPropertyChangeEvent evt
@@ -1545,10 +1657,7 @@ public void kicked(EntityFullJid participant, Jid actor, String reason)
             if(member == null)
                 return;
 
-            synchronized (members)
-            {
-                members.remove(participant.getResourceOrThrow());
-            }
+            members.remove(participant.getResourceOrThrow());
 
             fireMemberPresenceEvent(member, actorMember,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_KICKED, reason);
@@ -2035,7 +2144,10 @@ private void fireMemberPresenceEvent(ChatRoomMember member,
     private void fireMemberRoleEvent(ChatRoomMember member,
         ChatRoomMemberRole previousRole, ChatRoomMemberRole newRole)
     {
-        member.setRole(newRole);
+        if (member instanceof ChatRoomMemberJabberImpl)
+            members.setRole((ChatRoomMemberJabberImpl) member, newRole);
+        else
+            member.setRole(newRole);
         ChatRoomMemberRoleChangeEvent evt
             = new ChatRoomMemberRoleChangeEvent(
                 this, member, previousRole, newRole);
@@ -2528,7 +2640,12 @@ public void processMessage(org.jivesoftware.smack.packet.Message msg)
                              + msg.toXML());
             }
 
-            Message newMessage = createMessage(msgBody);
+            Message newMessage = new MessageJabberImpl(
+                msgBody,
+                OperationSetBasicInstantMessaging.DEFAULT_MIME_TYPE,
+                OperationSetBasicInstantMessaging.DEFAULT_MIME_ENCODING,
+                null,
+                getArchiveId(msg, roomName));
 
             // if we are sending this message, this either a delivery report
             // or if there is a delay extension this is a history coming from
@@ -2609,6 +2726,28 @@ public void processMessage(org.jivesoftware.smack.packet.Message msg)
 
             fireMessageEvent(msgReceivedEvt);
         }
+
+        /**
+         * Returns the id which identifies <tt>msg</tt> in the archive of the
+         * room: the XEP-0359 stanza id assigned by the room, or the id of the
+         * stanza itself when the room did not assign one.
+         *
+         * @param msg the message received from the room.
+         * @param room the address of the room.
+         * @return the archive id of <tt>msg</tt>.
+         */
+        private String getArchiveId(
+            org.jivesoftware.smack.packet.Message msg, Jid room)
+        {
+            for (StanzaIdElement stanzaId
+                    : msg.getExtensions(StanzaIdElement.class))
+            {
+                if (room.toString().equals(stanzaId.getBy()))
+                    return stanzaId.getId();
+            }
+
+            return msg.getStanzaId();
+        }
     }
 
     /**
@@ -3023,10 +3162,7 @@ public boolean isPersistent()
      */
     public ChatRoomMemberJabberImpl findMemberForNickName(Resourcepart jabberID)
     {
-        synchronized (members)
-        {
-            return members.get(jabberID);
-        }
+        return members.get(jabberID);
     }
 
    /**
@@ -3494,6 +3630,10 @@ private void processOtherPresence(Presence presence)
 
             updateMemberLastPresence(member, presence);
 
+            // the initial member list announces the state of the members
+            // which are still being loaded
+            if (isLoadingInitialMembers())
+                return;
 
             // tell listeners the member was updated (and new information
             // about it is available)
@@ -0,0 +1,281 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.protocol.*;
+
+import org.jxmpp.jid.parts.*;
+
+/**
+ * Keeps the occupants of a <tt>ChatRoomJabberImpl</tt>. Occupants are
+ * indexed by nickname and by contact address so that presence handling does
+ * not have to scan the whole room, and are additionally kept sorted by role
+ * and nickname so that a member list can be produced in display order without
+ * sorting.
+ * <p>
+ * Lookups are lock-free; modifications are serialized so that the indices
+ * stay consistent with each other.
+ */
+class ChatRoomOccupantStore
+{
+    /**
+     * The occupants by nickname.
+     */
+    private final Map<Resourcepart, ChatRoomMemberJabberImpl> byNick
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The occupants by contact address.
+     */
+    private final Map<String, ChatRoomMemberJabberImpl> byAddress
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The occupants sorted by decreasing role and then by nickname.
+     */
+    private final ConcurrentSkipListMap<SortKey, ChatRoomMemberJabberImpl>
+        sorted = new ConcurrentSkipListMap<>();
+
+    /**
+     * The key under which each occupant is currently stored in
+     * {@link #sorted}.
+     */
+    private final Map<ChatRoomMemberJabberImpl, SortKey> sortKeys
+        = new IdentityHashMap<>();
+
+    /**
+     * Adds an occupant, replacing any occupant with the same nickname.
+     *
+     * @param member the occupant to add
+     */
+    synchronized void put(ChatRoomMemberJabberImpl member)
+    {
+        ChatRoomMemberJabberImpl old
+            = byNick.get(member.getNameAsResourcepart());
+
+        if (old != null)
+            unindex(old);
+
+        byNick.put(member.getNameAsResourcepart(), member);
+        index(member);
+    }
+
+    /**
+     * Removes the occupant with a specific nickname.
+     *
+     * @param nick the nickname of the occupant to remove
+     * @return the removed occupant or <tt>null</tt> if there was no occupant
+     * with nickname <tt>nick</tt>
+     */
+    synchronized ChatRoomMemberJabberImpl remove(Resourcepart nick)
+    {
+        ChatRoomMemberJabberImpl member = byNick.remove(nick);
+
+        if (member != null)
+            unindex(member);
+        return member;
+    }
+
+    /**
+     * Changes the nickname of an occupant and re-indexes it.
+     *
+     * @param oldNick the current nickname of the occupant
+     * @param newNick the new nickname of the occupant
+     * @return the renamed occupant or <tt>null</tt> if there was no occupant
+     * with nickname <tt>oldNick</tt>
+     */
+    synchronized ChatRoomMemberJabberImpl rename(
+            Resourcepart oldNick,
+            Resourcepart newNick)
+    {
+        ChatRoomMemberJabberImpl member = remove(oldNick);
+
+        if (member != null)
+        {
+            member.setName(newNick);
+            put(member);
+        }
+        return member;
+    }
+
+    /**
+     * Changes the role of an occupant and re-sorts it.
+     *
+     * @param member the occupant
+     * @param role the new role of <tt>member</tt>
+     */
+    synchronized void setRole(
+            ChatRoomMemberJabberImpl member,
+            ChatRoomMemberRole role)
+    {
+        boolean contained = byNick.get(member.getNameAsResourcepart()) == member;
+
+        if (contained)
+            unindex(member);
+        member.setRole(role);
+        if (contained)
+            index(member);
+    }
+
+    /**
+     * Removes all occupants.
+     *
+     * @return the removed occupants in display order
+     */
+    synchronized List<ChatRoomMemberJabberImpl> clear()
+    {
+        List<ChatRoomMemberJabberImpl> removed
+            = new ArrayList<>(sorted.values());
+
+        byNick.clear();
+        byAddress.clear();
+        sorted.clear();
+        sortKeys.clear();
+        return removed;
+    }
+
+    /**
+     * Returns the occupant with a specific nickname.
+     *
+     * @param nick the nickname
+     * @return the occupant with nickname <tt>nick</tt> or <tt>null</tt>
+     */
+    ChatRoomMemberJabberImpl get(Resourcepart nick)
+    {
+        return nick == null ? null : byNick.get(nick);
+    }
+
+    /**
+     * Determines whether there is an occupant with a specific nickname.
+     *
+     * @param nick the nickname
+     * @return <tt>true</tt> if there is an occupant with nickname <tt>nick</tt>
+     */
+    boolean containsKey(Resourcepart nick)
+    {
+        return nick != null && byNick.containsKey(nick);
+    }
+
+    /**
+     * Returns the occupant with a specific contact address.
+     *
+     * @param address the contact address
+     * @return the occupant with contact address <tt>address</tt> or
+     * <tt>null</tt>
+     */
+    ChatRoomMemberJabberImpl getByAddress(String address)
+    {
+        return address == null ? null : byAddress.get(address);
+    }
+
+    /**
+     * Returns the number of occupants.
+     *
+     * @return the number of occupants
+     */
+    int size()
+    {
+        return byNick.size();
+    }
+
+    /**
+     * Returns the occupants sorted by decreasing role and then by nickname.
+     *
+     * @return a new list of the occupants in display order
+     */
+    List<ChatRoomMember> getSortedMembers()
+    {
+        return new ArrayList<>(sorted.values());
+    }
+
+    /**
+     * Adds an occupant to the address and the sorted indices.
+     *
+     * @param member the occupant
+     */
+    private void index(ChatRoomMemberJabberImpl member)
+    {
+        SortKey key = new SortKey(member);
+
+        sortKeys.put(member, key);
+        sorted.put(key, member);
+        if (member.getJabberID() != null)
+            byAddress.put(member.getContactAddress(), member);
+    }
+
+    /**
+     * Removes an occupant from the address and the sorted indices.
+     *
+     * @param member the occupant
+     */
+    private void unindex(ChatRoomMemberJabberImpl member)
+    {
+        SortKey key = sortKeys.remove(member);
+
+        if (key != null)
+            sorted.remove(key);
+        if (member.getJabberID() != null)
+            byAddress.remove(member.getContactAddress(), member);
+    }
+
+    /**
+     * The position of an occupant in the sorted index: occupants with more
+     * privileges come first, then occupants are ordered by nickname.
+     */
+    private static class SortKey
+        implements Comparable<SortKey>
+    {
+        /**
+         * The role index of the occupant.
+         */
+        private final int roleIndex;
+
+        /**
+         * The nickname of the occupant.
+         */
+        private final String nick;
+
+        /**
+         * Initializes the key of a specific occupant.
+         *
+         * @param member the occupant
+         */
+        SortKey(ChatRoomMemberJabberImpl member)
+        {
+            ChatRoomMemberRole role = member.getCurrentRole();
+
+            this.roleIndex = (role == null ? member.getRole() : role)
+                .getRoleIndex();
+            this.nick = member.getName();
+        }
+
+        @Override
+        public int compareTo(SortKey other)
+        {
+            if (roleIndex != other.roleIndex)
+                return roleIndex > other.roleIndex ? -1 : 1;
+
+            int result = nick.compareToIgnoreCase(other.nick);
+
+            return result != 0 ? result : nick.compareTo(other.nick);
+        }
+    }
+}
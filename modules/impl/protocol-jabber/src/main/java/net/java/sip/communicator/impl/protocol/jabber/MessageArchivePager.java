@@ -0,0 +1,474 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smackx.delay.packet.*;
+import org.jivesoftware.smackx.forward.packet.*;
+import org.jivesoftware.smackx.mam.*;
+import org.jivesoftware.smackx.mam.element.MamElements.*;
+import org.jivesoftware.smackx.sid.element.*;
+
+/**
+ * Retrieves the messages of a XEP-0313 Message Archive Management archive
+ * since a synchronization point. The period to retrieve is split into windows
+ * which are paged through in parallel, the results are deduplicated by their
+ * XEP-0359 stanza id and sorted.
+ * <p>
+ * A window which still is not complete after {@link #MAX_PAGES_PER_WINDOW}
+ * pages ends the synchronization early: the returned {@link Result} points at
+ * the last message retrieved for it, so that the next synchronization resumes
+ * from there instead of skipping the rest of the window.
+ */
+class MessageArchivePager
+{
+    /**
+     * The shortest period worth querying in a separate window.
+     */
+    private static final long MIN_WINDOW_PERIOD = 60 * 60 * 1000;
+
+    /**
+     * The maximum number of windows of one archive queried in parallel.
+     */
+    static final int MAX_PARALLEL_WINDOWS = 4;
+
+    /**
+     * The number of messages requested per page.
+     */
+    static final int PAGE_SIZE = 100;
+
+    /**
+     * The maximum number of pages retrieved for a window in one
+     * synchronization, to stop paging through an archive whose server never
+     * reports the query as complete.
+     */
+    static final int MAX_PAGES_PER_WINDOW = 100;
+
+    /**
+     * Queries the windows of all archives. Bounded so that synchronizing
+     * several accounts and rooms at once does not flood the servers.
+     */
+    private static final ExecutorService windowExecutor
+        = createExecutor(MAX_PARALLEL_WINDOWS, "Jabber archive window");
+
+    /**
+     * The archive to page through.
+     */
+    private final Archive archive;
+
+    /**
+     * Creates a pager for a specific archive.
+     *
+     * @param archive the archive to page through
+     */
+    MessageArchivePager(Archive archive)
+    {
+        this.archive = archive;
+    }
+
+    /**
+     * Creates a pager for the archive of a <tt>MamManager</tt>.
+     *
+     * @param mam the manager of the archive
+     */
+    MessageArchivePager(final MamManager mam)
+    {
+        this((start, end, afterId, pageSize) -> {
+            MamManager.MamQueryArgs.Builder args
+                = MamManager.MamQueryArgs.builder()
+                    .limitResultsSince(start)
+                    .limitResultsBefore(end)
+                    .setResultPageSize(pageSize);
+
+            if (afterId != null)
+                args.afterUid(afterId);
+
+            final MamManager.MamQuery query = mam.queryArchive(args.build());
+
+            return new Page()
+            {
+                private List<MamResultExtension> results
+                    = query.getMamResultExtensions();
+
+                public List<MamResultExtension> getResults()
+                {
+                    return results;
+                }
+
+                public boolean isComplete()
+                {
+                    return query.isComplete();
+                }
+
+                public void pageNext(int count)
+                    throws Exception
+                {
+                    query.pageNext(count);
+                    results = query.getMamResultExtensions();
+                }
+            };
+        });
+    }
+
+    /**
+     * Creates a bounded pool of daemon threads.
+     *
+     * @param threads the maximum number of threads
+     * @param name the name of the threads
+     * @return the new executor
+     */
+    static ExecutorService createExecutor(int threads, final String name)
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Retrieves the messages of the archive between a synchronization point
+     * and a specific time. The period is split into up to
+     * {@link #MAX_PARALLEL_WINDOWS} windows which are paged through in
+     * parallel.
+     *
+     * @param since the time to retrieve the messages after
+     * @param afterId the archive id to resume after, as returned by
+     * {@link Result#getResumeId()} for the same <tt>since</tt>, or
+     * <tt>null</tt>
+     * @param until the time to retrieve the messages before
+     * @return the retrieved messages and the point to synchronize from next
+     * @throws Exception if querying the archive fails
+     */
+    Result query(Date since, String afterId, Date until)
+        throws Exception
+    {
+        long start = since.getTime();
+        long end = until.getTime();
+        int windowCount = (int) Math.max(
+            1,
+            Math.min(MAX_PARALLEL_WINDOWS, (end - start) / MIN_WINDOW_PERIOD));
+        long windowLength = (end - start) / windowCount;
+        List<Date> windowStarts = new ArrayList<>(windowCount);
+        List<Future<Window>> windows = new ArrayList<>(windowCount);
+
+        for (int i = 0; i < windowCount; i++)
+        {
+            final Date windowStart = new Date(start + i * windowLength);
+            final Date windowEnd = i == windowCount - 1
+                ? until
+                : new Date(start + (i + 1) * windowLength);
+            // only the first window continues an interrupted one
+            final String windowAfterId = i == 0 ? afterId : null;
+
+            windowStarts.add(windowStart);
+            windows.add(windowExecutor.submit(
+                () -> queryWindow(windowStart, windowEnd, windowAfterId)));
+        }
+
+        // the windows are contiguous and each one is in chronological order,
+        // the bounds are inclusive though so a message may be in two windows
+        Map<String, MamResultExtension> results = new LinkedHashMap<>();
+        List<MamResultExtension> withoutId = new ArrayList<>();
+        Date syncTime = null;
+        String resumeId = null;
+        boolean complete = true;
+
+        try
+        {
+            for (int i = 0; i < windowCount; i++)
+            {
+                Window window = windows.get(i).get();
+
+                for (MamResultExtension result : window.results)
+                {
+                    // results without an id cannot be deduplicated
+                    String id = getStanzaId(result);
+                    if (id == null)
+                        withoutId.add(result);
+                    else
+                        results.putIfAbsent(id, result);
+                }
+
+                // the next synchronization starts with the first window which
+                // is not complete, the later ones are retrieved again
+                if (complete && !window.complete)
+                {
+                    complete = false;
+                    syncTime = windowStarts.get(i);
+                    resumeId = window.lastId != null
+                        ? window.lastId
+                        : (i == 0 ? afterId : null);
+                }
+            }
+        }
+        catch (ExecutionException e)
+        {
+            for (Future<Window> window : windows)
+                window.cancel(true);
+
+            throw e.getCause() instanceof Exception
+                ? (Exception) e.getCause()
+                : e;
+        }
+
+        List<MamResultExtension> sorted = new ArrayList<>(results.values());
+        sorted.addAll(withoutId);
+
+        sorted.sort(Comparator.comparing(MessageArchivePager::getTimestamp));
+        if (complete && !sorted.isEmpty())
+            syncTime = getTimestamp(sorted.get(sorted.size() - 1));
+        return new Result(sorted, complete, syncTime, resumeId);
+    }
+
+    /**
+     * Pages through the messages of the archive within a specific period, up
+     * to {@link #MAX_PAGES_PER_WINDOW} pages.
+     *
+     * @param start the start of the period
+     * @param end the end of the period
+     * @param afterId the archive id to start after or <tt>null</tt>
+     * @return the messages retrieved within the period
+     * @throws Exception if querying the archive fails
+     */
+    private Window queryWindow(Date start, Date end, String afterId)
+        throws Exception
+    {
+        Page page = archive.query(start, end, afterId, PAGE_SIZE);
+        List<MamResultExtension> results = new ArrayList<>(page.getResults());
+
+        for (int pages = 1;
+                !page.isComplete() && pages < MAX_PAGES_PER_WINDOW;
+                pages++)
+        {
+            page.pageNext(PAGE_SIZE);
+            results.addAll(page.getResults());
+        }
+
+        return new Window(results, page.isComplete());
+    }
+
+    /**
+     * Returns the XEP-0359 stanza id the archive has assigned to a message.
+     * The archive id of a result is that stanza id; the element is only
+     * looked at if the result has no id.
+     *
+     * @param result the archive result
+     * @return the stanza id of the message of <tt>result</tt>
+     */
+    static String getStanzaId(MamResultExtension result)
+    {
+        if (result.getId() != null)
+            return result.getId();
+
+        StanzaIdElement stanzaId = StanzaIdElement.getStanzaId(
+            result.getForwarded().getForwardedStanza());
+
+        return stanzaId != null ? stanzaId.getId() : null;
+    }
+
+    /**
+     * Returns the time an archived message was sent.
+     *
+     * @param result the archive result
+     * @return the time the message of <tt>result</tt> was sent
+     */
+    static Date getTimestamp(MamResultExtension result)
+    {
+        Forwarded<Message> forwarded = result.getForwarded();
+        DelayInformation delay = forwarded.getDelayInformation();
+
+        if (delay == null)
+            delay = forwarded.getForwardedStanza()
+                .getExtension(DelayInformation.class);
+
+        return delay != null ? delay.getStamp() : new Date(0);
+    }
+
+    /**
+     * A message archive which can be queried by period.
+     */
+    interface Archive
+    {
+        /**
+         * Queries the messages of the archive within a specific period.
+         *
+         * @param start the start of the period
+         * @param end the end of the period
+         * @param afterId the archive id to start after or <tt>null</tt>
+         * @param pageSize the number of messages per page
+         * @return the first page of the query
+         * @throws Exception if querying the archive fails
+         */
+        Page query(Date start, Date end, String afterId, int pageSize)
+            throws Exception;
+    }
+
+    /**
+     * The current page of an archive query.
+     */
+    interface Page
+    {
+        /**
+         * Returns the messages of the current page.
+         *
+         * @return the messages of the current page in chronological order
+         */
+        List<MamResultExtension> getResults();
+
+        /**
+         * Determines whether the current page is the last one of the query.
+         *
+         * @return <tt>true</tt> if there are no more pages
+         */
+        boolean isComplete();
+
+        /**
+         * Retrieves the next page.
+         *
+         * @param count the number of messages per page
+         * @throws Exception if querying the archive fails
+         */
+        void pageNext(int count)
+            throws Exception;
+    }
+
+    /**
+     * The messages retrieved for one window.
+     */
+    private static class Window
+    {
+        /**
+         * The messages in chronological order.
+         */
+        final List<MamResultExtension> results;
+
+        /**
+         * Whether all the messages of the window were retrieved.
+         */
+        final boolean complete;
+
+        /**
+         * The archive id of the last message retrieved, i.e. the RSM
+         * <tt>last</tt> of the last page, or <tt>null</tt>.
+         */
+        final String lastId;
+
+        Window(List<MamResultExtension> results, boolean complete)
+        {
+            this.results = results;
+            this.complete = complete;
+            this.lastId = results.isEmpty()
+                ? null
+                : results.get(results.size() - 1).getId();
+        }
+    }
+
+    /**
+     * The messages retrieved by a synchronization and the point to
+     * synchronize from next.
+     */
+    static class Result
+    {
+        /**
+         * The messages without duplicates, in chronological order.
+         */
+        private final List<MamResultExtension> results;
+
+        /**
+         * Whether all the messages since the synchronization point were
+         * retrieved.
+         */
+        private final boolean complete;
+
+        /**
+         * The time to synchronize from next or <tt>null</tt>.
+         */
+        private final Date syncTime;
+
+        /**
+         * The archive id to resume after or <tt>null</tt>.
+         */
+        private final String resumeId;
+
+        Result(List<MamResultExtension> results,
+               boolean complete,
+               Date syncTime,
+               String resumeId)
+        {
+            this.results = results;
+            this.complete = complete;
+            this.syncTime = syncTime;
+            this.resumeId = resumeId;
+        }
+
+        /**
+         * Returns the retrieved messages.
+         *
+         * @return the messages without duplicates, in chronological order
+         */
+        List<MamResultExtension> getResults()
+        {
+            return results;
+        }
+
+        /**
+         * Returns the time the next synchronization starts at.
+         *
+         * @return the time to synchronize from next or <tt>null</tt> if the
+         * previous synchronization point still applies
+         */
+        Date getSyncTime()
+        {
+            return syncTime;
+        }
+
+        /**
+         * Returns the archive id the next synchronization resumes after.
+         *
+         * @return the archive id of the last message retrieved for the first
+         * window which could not be completed or <tt>null</tt> if the next
+         * synchronization starts at {@link #getSyncTime()}
+         */
+        String getResumeId()
+        {
+            return resumeId;
+        }
+
+        /**
+         * Determines whether all the messages since the synchronization point
+         * were retrieved.
+         *
+         * @return <tt>true</tt> if all the windows were completed
+         */
+        boolean isComplete()
+        {
+            return complete;
+        }
+    }
+}
@@ -433,9 +433,6 @@ private MessageDeliveredEvent sendMessage(  Contact to,
             toJID = ((ContactJabberImpl) to).getAddressAsJid();
         }
 
-        //TODO stanza-id is generated automatically. is this ok or is required
-        // somewhere else to have it as the Jitsi-internal message id?
-        //msg.setStanzaId(message.getMessageUID());
         builder.to(toJID);
 
         for (ExtensionElement ext : extensions)
@@ -496,6 +493,13 @@ private MessageDeliveredEvent sendMessage(  Contact to,
                 .from(jabberProvider.getConnection().getUser());
 
             org.jivesoftware.smack.packet.Message msg = builder.build();
+
+            // use the Jitsi-internal message id as stanza id so that the
+            // message can be recognized when it comes back from the server
+            // archive
+            if (transformedEvents.length == 1)
+                msg = msg.asBuilder(message.getMessageUID()).build();
+
             MessageEventManager.addNotificationsRequests(msg, true, false,
                 false, true);
             try
@@ -81,6 +81,13 @@
     private static final Map<Class<? extends OperationSet>, String[]>
         OPERATION_SETS_TO_FEATURES = new HashMap<>();
 
+    /**
+     * The features of {@link #OPERATION_SETS_TO_FEATURES} as indexed by
+     * {@link CapsFeatures} so that they can be checked with bit operations.
+     */
+    private static final Map<Class<? extends OperationSet>, BitSet>
+        OPERATION_SETS_TO_FEATURE_BITS = new HashMap<>();
+
     static
     {
         OFFLINE_OPERATION_SETS.add(OperationSetBasicInstantMessaging.class);
@@ -120,6 +127,17 @@
                 {
                     MessageCorrectExtension.NAMESPACE
                 });
+
+        for (Map.Entry<Class<? extends OperationSet>, String[]> e
+                : OPERATION_SETS_TO_FEATURES.entrySet())
+        {
+            if (e.getValue() != null)
+            {
+                OPERATION_SETS_TO_FEATURE_BITS.put(
+                        e.getKey(),
+                        CapsFeatures.toBitSet(e.getValue()));
+            }
+        }
     }
 
     /**
@@ -404,9 +422,10 @@ private <U extends OperationSet> U getOperationSet(Jid jid,
              */
             if ((features == null)
                     || ((features.length != 0)
-                            && !parentProvider.isFeatureListSupported(
+                            && !parentProvider.isFeatureSetSupported(
                                     jid,
-                                    features)))
+                                    OPERATION_SETS_TO_FEATURE_BITS.get(
+                                            opsetClass))))
             {
                 opset = null;
             }
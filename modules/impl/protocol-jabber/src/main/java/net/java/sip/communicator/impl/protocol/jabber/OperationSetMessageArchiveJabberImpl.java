@@ -0,0 +1,493 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.Message;
+import net.java.sip.communicator.service.protocol.event.*;
+import net.java.sip.communicator.util.*;
+
+import org.jivesoftware.smackx.mam.*;
+import org.jivesoftware.smackx.mam.element.MamElements.*;
+import org.jxmpp.jid.*;
+import org.jxmpp.jid.parts.*;
+
+/**
+ * Synchronizes the local message history with the XEP-0313 Message Archive
+ * Management archive of the server. After every registration the archive of
+ * the account is queried for the messages exchanged since the last
+ * synchronization, and after joining a chat room the same is done for the
+ * archive of the room.
+ * <p>
+ * The archive is paged through by a <tt>MessageArchivePager</tt>, the results
+ * are delivered to the <tt>MessageArchiveListener</tt>s as a single
+ * <tt>MessageArchiveEvent</tt> per account or room. The messages keep the
+ * stanza id of their sender as UID, which is also the UID the live message
+ * handling and message corrections use, so listeners can skip the ones they
+ * have already stored.
+ */
+public class OperationSetMessageArchiveJabberImpl
+    implements OperationSetMessageArchive
+{
+    /**
+     * The logger.
+     */
+    private static final org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(
+            OperationSetMessageArchiveJabberImpl.class);
+
+    /**
+     * The account property which stores the time of the last message
+     * retrieved from the archive of the account.
+     */
+    private static final String LAST_ARCHIVE_SYNC_PROP = "LAST_ARCHIVE_SYNC";
+
+    /**
+     * The account property which stores the archive id to resume the
+     * synchronization of the archive of the account after, when the previous
+     * one could not retrieve all the messages.
+     */
+    private static final String LAST_ARCHIVE_SYNC_ID_PROP
+        = "LAST_ARCHIVE_SYNC_ID";
+
+    /**
+     * The chat room property which stores the time of the last message
+     * retrieved from the archive of the room.
+     */
+    private static final String LAST_ROOM_ARCHIVE_SYNC_PROP
+        = "lastArchiveSync";
+
+    /**
+     * The chat room property which stores the archive id to resume the
+     * synchronization of the archive of the room after.
+     */
+    private static final String LAST_ROOM_ARCHIVE_SYNC_ID_PROP
+        = "lastArchiveSyncId";
+
+    /**
+     * How far back to synchronize when an archive is queried for the first
+     * time.
+     */
+    private static final long INITIAL_SYNC_PERIOD = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * The maximum number of archives synchronized at once.
+     */
+    private static final int MAX_PARALLEL_SYNCS = 2;
+
+    /**
+     * Runs the synchronizations, separately from the windows they wait for.
+     */
+    private static final ExecutorService syncExecutor
+        = MessageArchivePager.createExecutor(
+            MAX_PARALLEL_SYNCS, "Jabber archive sync");
+
+    /**
+     * The provider that created us.
+     */
+    private final ProtocolProviderServiceJabberImpl jabberProvider;
+
+    /**
+     * The listeners for retrieved archive messages.
+     */
+    private final List<MessageArchiveListener> listeners = new ArrayList<>();
+
+    /**
+     * Creates an instance of this operation set.
+     *
+     * @param provider a reference to the
+     * <tt>ProtocolProviderServiceImpl</tt> that created us
+     */
+    OperationSetMessageArchiveJabberImpl(
+        ProtocolProviderServiceJabberImpl provider)
+    {
+        this.jabberProvider = provider;
+
+        provider.addRegistrationStateChangeListener(
+            new RegistrationStateListener());
+    }
+
+    /**
+     * Registers a listener that would be notified every time a batch of
+     * messages has been retrieved from the server archive.
+     *
+     * @param listener the <tt>MessageArchiveListener</tt> to register
+     */
+    public void addMessageArchiveListener(MessageArchiveListener listener)
+    {
+        synchronized (listeners)
+        {
+            if (!listeners.contains(listener))
+                listeners.add(listener);
+        }
+    }
+
+    /**
+     * Unregisters <tt>listener</tt> so that it won't receive any further
+     * notifications for retrieved archive messages.
+     *
+     * @param listener the <tt>MessageArchiveListener</tt> to unregister
+     */
+    public void removeMessageArchiveListener(MessageArchiveListener listener)
+    {
+        synchronized (listeners)
+        {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Determines whether the server of the account supports a message
+     * archive.
+     *
+     * @return <tt>true</tt> if the archive of the account can be queried
+     */
+    public boolean isArchiveSupported()
+    {
+        if (jabberProvider.getConnection() == null)
+            return false;
+
+        try
+        {
+            return MamManager.getInstanceFor(jabberProvider.getConnection())
+                .isSupported();
+        }
+        catch (Exception e)
+        {
+            logger.debug("Could not discover archive support", e);
+            return false;
+        }
+    }
+
+    /**
+     * Starts synchronizing the archive of a chat room which has just been
+     * joined.
+     *
+     * @param chatRoom the joined chat room
+     */
+    void synchronizeChatRoom(final ChatRoomJabberImpl chatRoom)
+    {
+        synchronized (listeners)
+        {
+            if (listeners.isEmpty())
+                return;
+        }
+
+        syncExecutor.execute(() -> {
+            try
+            {
+                syncChatRoom(chatRoom);
+            }
+            catch (Exception e)
+            {
+                logger.warn("Failed to synchronize the archive of "
+                    + chatRoom.getName(), e);
+            }
+        });
+    }
+
+    /**
+     * Retrieves the messages exchanged since the last synchronization from
+     * the archive of the account and delivers them to the listeners.
+     *
+     * @throws Exception if querying the archive fails
+     */
+    private void syncAccount()
+        throws Exception
+    {
+        MamManager mam
+            = MamManager.getInstanceFor(jabberProvider.getConnection());
+
+        if (!mam.isSupported())
+            return;
+
+        AccountID accountID = jabberProvider.getAccountID();
+        Date since = parseSyncTime(
+            accountID.getAccountPropertyString(LAST_ARCHIVE_SYNC_PROP));
+        MessageArchivePager.Result sync = new MessageArchivePager(mam).query(
+            since,
+            accountID.getAccountPropertyString(LAST_ARCHIVE_SYNC_ID_PROP),
+            new Date());
+        List<MamResultExtension> results = sync.getResults();
+
+        OperationSetPersistentPresenceJabberImpl opSetPresence
+            = (OperationSetPersistentPresenceJabberImpl) jabberProvider
+                .getOperationSet(OperationSetPersistentPresence.class);
+        BareJid ourJid = jabberProvider.getConnection().getUser().asBareJid();
+        List<EventObject> events = new ArrayList<>(results.size());
+
+        for (MamResultExtension result : results)
+        {
+            org.jivesoftware.smack.packet.Message msg
+                = result.getForwarded().getForwardedStanza();
+
+            // private messages in chat rooms are not one-to-one conversations
+            if (msg.getBody() == null
+                || msg.getExtensionElement(
+                    "x", "http://jabber.org/protocol/muc#user") != null)
+                continue;
+
+            boolean outgoing = msg.getFrom() != null
+                && ourJid.equals(msg.getFrom().asBareJid());
+            Jid peer = outgoing ? msg.getTo() : msg.getFrom();
+
+            if (peer == null)
+                continue;
+
+            // only conversations with contacts in the list are stored
+            Contact contact = opSetPresence == null
+                ? null
+                : opSetPresence.findContactByID(peer.asBareJid());
+
+            if (contact == null)
+                continue;
+
+            Date timestamp = MessageArchivePager.getTimestamp(result);
+            Message message = createMessage(msg, result);
+
+            events.add(outgoing
+                ? new MessageDeliveredEvent(message, contact, timestamp)
+                : new MessageReceivedEvent(message, contact, timestamp));
+        }
+
+        if (!events.isEmpty())
+        {
+            fireMessagesArchived(
+                new MessageArchiveEvent(jabberProvider, null, events));
+        }
+
+        if (sync.getSyncTime() == null)
+            return;
+
+        accountID.putAccountProperty(
+            LAST_ARCHIVE_SYNC_PROP,
+            String.valueOf(sync.getSyncTime().getTime()));
+        if (sync.getResumeId() != null)
+        {
+            accountID.putAccountProperty(
+                LAST_ARCHIVE_SYNC_ID_PROP, sync.getResumeId());
+        }
+        else
+            accountID.removeAccountProperty(LAST_ARCHIVE_SYNC_ID_PROP);
+        JabberActivator.getProtocolProviderFactory().storeAccount(accountID);
+    }
+
+    /**
+     * Retrieves the messages exchanged since the last synchronization from
+     * the archive of a chat room and delivers them to the listeners.
+     *
+     * @param chatRoom the chat room
+     * @throws Exception if querying the archive fails
+     */
+    private void syncChatRoom(ChatRoomJabberImpl chatRoom)
+        throws Exception
+    {
+        MamManager mam = MamManager.getInstanceFor(chatRoom.getMultiUserChat());
+
+        if (!mam.isSupported())
+            return;
+
+        String accountUID = jabberProvider.getAccountID().getAccountUniqueID();
+        Date since = parseSyncTime(
+            ConfigurationUtils.getChatRoomProperty(
+                accountUID,
+                chatRoom.getIdentifier(),
+                LAST_ROOM_ARCHIVE_SYNC_PROP));
+        MessageArchivePager.Result sync = new MessageArchivePager(mam).query(
+            since,
+            ConfigurationUtils.getChatRoomProperty(
+                accountUID,
+                chatRoom.getIdentifier(),
+                LAST_ROOM_ARCHIVE_SYNC_ID_PROP),
+            new Date());
+        List<MamResultExtension> results = sync.getResults();
+        Resourcepart ourNick = chatRoom.getMultiUserChat().getNickname();
+
+        if (ourNick == null)
+            return;
+        List<EventObject> events = new ArrayList<>(results.size());
+
+        for (MamResultExtension result : results)
+        {
+            org.jivesoftware.smack.packet.Message msg
+                = result.getForwarded().getForwardedStanza();
+            Jid from = msg.getFrom();
+
+            if (msg.getBody() == null
+                || from == null
+                || !from.hasResource())
+                continue;
+
+            Date timestamp = MessageArchivePager.getTimestamp(result);
+            Message message = createMessage(msg, result);
+
+            if (from.getResourceOrThrow().equals(ourNick))
+            {
+                events.add(new ChatRoomMessageDeliveredEvent(
+                    chatRoom,
+                    timestamp,
+                    message,
+                    ChatRoomMessageDeliveredEvent
+                        .CONVERSATION_MESSAGE_DELIVERED));
+            }
+            else
+            {
+                ChatRoomMemberJabberImpl member = new ChatRoomMemberJabberImpl(
+                    chatRoom, from.getResourceOrThrow(), from);
+
+                events.add(new ChatRoomMessageReceivedEvent(
+                    chatRoom,
+                    member,
+                    timestamp,
+                    message,
+                    ChatRoomMessageReceivedEvent
+                        .CONVERSATION_MESSAGE_RECEIVED));
+            }
+        }
+
+        if (!events.isEmpty())
+        {
+            fireMessagesArchived(
+                new MessageArchiveEvent(jabberProvider, chatRoom, events));
+        }
+
+        if (sync.getSyncTime() == null)
+            return;
+
+        ConfigurationUtils.updateChatRoomProperty(
+            accountUID,
+            chatRoom.getIdentifier(),
+            LAST_ROOM_ARCHIVE_SYNC_PROP,
+            String.valueOf(sync.getSyncTime().getTime()));
+        ConfigurationUtils.updateChatRoomProperty(
+            accountUID,
+            chatRoom.getIdentifier(),
+            LAST_ROOM_ARCHIVE_SYNC_ID_PROP,
+            sync.getResumeId());
+    }
+
+    /**
+     * Creates the <tt>Message</tt> for an archived message. The stanza id of
+     * the sender is used as UID, falling back to the XEP-0359 stanza id the
+     * archive has assigned.
+     *
+     * @param msg the archived message
+     * @param result the archive result which contains <tt>msg</tt>
+     * @return the <tt>Message</tt>
+     */
+    private static Message createMessage(
+        org.jivesoftware.smack.packet.Message msg,
+        MamResultExtension result)
+    {
+        String uid = msg.getStanzaId();
+
+        return new MessageJabberImpl(
+            msg.getBody(),
+            OperationSetBasicInstantMessaging.DEFAULT_MIME_TYPE,
+            OperationSetBasicInstantMessaging.DEFAULT_MIME_ENCODING,
+            null,
+            uid != null ? uid : MessageArchivePager.getStanzaId(result));
+    }
+
+    /**
+     * Parses a stored synchronization time.
+     *
+     * @param value the stored value or <tt>null</tt>
+     * @return the time to synchronize from
+     */
+    private static Date parseSyncTime(String value)
+    {
+        if (value != null)
+        {
+            try
+            {
+                return new Date(Long.parseLong(value));
+            }
+            catch (NumberFormatException e)
+            {
+                logger.debug("Ignoring invalid archive sync time " + value);
+            }
+        }
+
+        return new Date(System.currentTimeMillis() - INITIAL_SYNC_PERIOD);
+    }
+
+    /**
+     * Delivers an event to the registered listeners.
+     *
+     * @param evt the event
+     */
+    private void fireMessagesArchived(MessageArchiveEvent evt)
+    {
+        List<MessageArchiveListener> listeners;
+
+        synchronized (this.listeners)
+        {
+            listeners = new ArrayList<>(this.listeners);
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("Dispatching " + evt);
+
+        for (MessageArchiveListener listener : listeners)
+            listener.messagesArchived(evt);
+    }
+
+    /**
+     * Starts the synchronization of the account archive when the provider
+     * registers.
+     */
+    private class RegistrationStateListener
+        implements RegistrationStateChangeListener
+    {
+        /**
+         * The method is called by a ProtocolProvider implementation whenever
+         * a change in the registration state of the corresponding provider had
+         * occurred.
+         *
+         * @param evt ProviderStatusChangeEvent the event describing the status
+         * change.
+         */
+        public void registrationStateChanged(RegistrationStateChangeEvent evt)
+        {
+            if (evt.getNewState() != RegistrationState.REGISTERED)
+                return;
+
+            synchronized (listeners)
+            {
+                if (listeners.isEmpty())
+                    return;
+            }
+
+            syncExecutor.execute(() -> {
+                try
+                {
+                    syncAccount();
+                }
+                catch (Exception e)
+                {
+                    logger.warn("Failed to synchronize the archive of "
+                        + jabberProvider.getAccountID(), e);
+                }
+            });
+        }
+    }
+}
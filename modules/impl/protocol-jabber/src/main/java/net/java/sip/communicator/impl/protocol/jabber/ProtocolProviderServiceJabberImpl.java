@@ -1747,6 +1747,12 @@ protected void initialize(EntityBareJid screenname,
                 OperationSetMultiUserChat.class,
                 new OperationSetMultiUserChatJabberImpl(this));
 
+            // synchronizes the local history with the server archive
+            // (XEP-0313)
+            addSupportedOperationSet(
+                OperationSetMessageArchive.class,
+                new OperationSetMessageArchiveJabberImpl(this));
+
             addSupportedOperationSet(
                 OperationSetJitsiMeetToolsJabber.class,
                 new OperationSetJitsiMeetToolsJabberImpl(this));
@@ -2457,6 +2463,25 @@ public boolean isFeatureSupported(Jid jid, String feature)
         return isFeatureListSupported(jid, feature);
     }
 
+    /**
+     * Determines if the given set of <tt>features</tt> is supported by the
+     * specified jabber id.
+     *
+     * @param jid the jabber id for which to check
+     * @param features the features to check for as indexed by
+     * {@link net.java.sip.communicator.impl.protocol.jabber.caps.CapsFeatures}
+     *
+     * @return <tt>true</tt> if all the features are supported; otherwise,
+     * <tt>false</tt>
+     */
+    public boolean isFeatureSetSupported(Jid jid, BitSet features)
+    {
+        if(discoveryManager == null)
+            return false;
+
+        return discoveryManager.supportsFeaturesNonBlocking(jid, features);
+    }
+
     /**
      * Returns the full jabber id (jid) corresponding to the given contact. If
      * the provider is not connected returns null.
@@ -113,6 +113,11 @@
     private static final UserCapsNodeListener[] NO_USER_CAPS_NODE_LISTENERS
         = new UserCapsNodeListener[0];
 
+    /**
+     * The store of verified entity capabilities shared by all instances.
+     */
+    private static CapsStore capsStore;
+
     /**
      * The node value to advertise.
      */
@@ -200,8 +205,14 @@ public ScServiceDiscoveryManager(
 
         // For every XMPPConnection, add one EntityCapsManager.
         this.capsManager = EntityCapsManager.getInstanceFor(connection);
-        EntityCapsManager.setPersistentCache(
-            new CapsConfigurationPersistence(configService));
+        synchronized (ScServiceDiscoveryManager.class)
+        {
+            if (capsStore == null)
+            {
+                capsStore = new CapsStore(configService);
+                EntityCapsManager.setPersistentCache(capsStore);
+            }
+        }
         connection.addAsyncStanzaListener(
             this, new StanzaTypeFilter(Presence.class));
     }
@@ -386,8 +397,11 @@ public DiscoverInfo discoverInfoNonBlocking(Jid entityID)
         boolean isInfoValid = false;
         if (discoverInfo != null && caps != null)
         {
-            isInfoValid = EntityCapsManager.verifyDiscoverInfoVersion(
-                caps.getVer(), caps.getHash(), discoverInfo);
+            // everything in the caps store has already been verified, spare
+            // recomputing the hash on every feature check
+            isInfoValid = getCapsStore().isVerified(caps.getNodeVer())
+                || EntityCapsManager.verifyDiscoverInfoVersion(
+                    caps.getVer(), caps.getHash(), discoverInfo);
         }
 
         if (discoverInfo != null && isInfoValid)
@@ -409,6 +423,46 @@ public DiscoverInfo discoverInfoNonBlocking(Jid entityID)
         return null;
     }
 
+    /**
+     * Determines whether a given XMPP entity supports all of a set of features
+     * using the locally cached information only. If the information is not
+     * available it is scheduled for retrieval.
+     *
+     * @param entityID the address of the XMPP entity.
+     * @param features the features to check for as indexed by
+     * {@link CapsFeatures}.
+     * @return <tt>true</tt> if the entity is known to support all
+     * <tt>features</tt>, otherwise <tt>false</tt>.
+     */
+    public boolean supportsFeaturesNonBlocking(Jid entityID, BitSet features)
+    {
+        EntityCapsManager.NodeVerHash caps
+            = EntityCapsManager.getNodeVerHashByJid(entityID);
+
+        if (caps != null)
+        {
+            BitSet supported = getCapsStore().getFeatures(caps.getNodeVer());
+            if (supported != null)
+                return CapsFeatures.containsAll(supported, features);
+        }
+
+        DiscoverInfo discoverInfo = discoverInfoNonBlocking(entityID);
+
+        return discoverInfo != null
+            && CapsFeatures.containsAll(
+                    CapsFeatures.toBitSet(discoverInfo), features);
+    }
+
+    /**
+     * Returns the store of verified entity capabilities.
+     *
+     * @return the store of verified entity capabilities.
+     */
+    private static synchronized CapsStore getCapsStore()
+    {
+        return capsStore;
+    }
+
     /**
      * Returns the discovered items of a given XMPP entity addressed by its JID.
      *
@@ -676,6 +730,8 @@ public void stop()
         if(retriever != null)
             retriever.stop();
 
+        getCapsStore().flush();
+
         // we need to clean up our reference
         discoveryManager.removeNodeInformationProvider(
             capsManager.getLocalNodeVer());
@@ -29,6 +29,7 @@
 /**
  * Simple implementation of an EntityCapsPersistentCache that uses a the
  * configuration service to store the Caps information for every known node.
+ * Superseded by {@link CapsStore} which migrates the entries stored here.
  *
  * @author Damian Minkov
  */
@@ -95,57 +96,78 @@ public DiscoverInfo lookup(String nodeVer)
 
         if((xml != null) && (xml.length() != 0))
         {
-            IqProvider<IQ> discoverInfoProvider
-                = ProviderManager.getIQProvider(
-                    "query",
-                    "http://jabber.org/protocol/disco#info");
-
-            if(discoverInfoProvider != null)
+            try
+            {
+                discoverInfo = parseDiscoverInfo(xml);
+            }
+            catch(Exception ex)
             {
-                XmlPullParser parser;
-
-                try
-                {
-                    parser = SmackXmlParser.newXmlParser(new StringReader(xml));
-                    parser.next();
-                }
-                catch(IOException | org.jivesoftware.smack.xml.XmlPullParserException xppex)
-                {
-                    parser = null;
-                }
-
-                if(parser != null)
-                {
-                    try
-                    {
-                        discoverInfo
-                            = (DiscoverInfo)
-                                discoverInfoProvider.parse(parser, null);
-                    }
-                    catch(Exception ex)
-                    {
-                        logger.error(
-                            "Invalid DiscoverInfo for "
-                                + nodeVer
-                                + ": "
-                                + discoverInfo);
-                        /*
-                         * The discoverInfo doesn't seem valid
-                         * according to the caps which means that we
-                         * must have stored invalid information.
-                         * Delete the invalid information in order
-                         * to not try to validate it again.
-                         */
-                        this.configService.removeProperty(
-                            capsPropertyName);
-                    }
-                }
+                logger.error(
+                    "Invalid DiscoverInfo for "
+                        + nodeVer
+                        + ": "
+                        + discoverInfo);
+                /*
+                 * The discoverInfo doesn't seem valid
+                 * according to the caps which means that we
+                 * must have stored invalid information.
+                 * Delete the invalid information in order
+                 * to not try to validate it again.
+                 */
+                remove(nodeVer);
             }
         }
 
         return discoverInfo;
     }
 
+    /**
+     * Removes the stored information for a specific node#ver.
+     *
+     * @param nodeVer the node#ver to remove
+     */
+    public void remove(String nodeVer)
+    {
+        this.configService.removeProperty(CAPS_PROPERTY_NAME_PREFIX + nodeVer);
+    }
+
+    /**
+     * Parses the XML of a disco#info query element.
+     *
+     * @param xml the XML to parse
+     * @return the parsed <tt>DiscoverInfo</tt> or <tt>null</tt> if no
+     * disco#info provider is registered
+     * @throws Exception if <tt>xml</tt> is not a valid disco#info query
+     */
+    static DiscoverInfo parseDiscoverInfo(String xml)
+        throws Exception
+    {
+        IqProvider<IQ> discoverInfoProvider
+            = ProviderManager.getIQProvider(
+                "query",
+                "http://jabber.org/protocol/disco#info");
+
+        if(discoverInfoProvider == null)
+            return null;
+
+        XmlPullParser parser;
+
+        try
+        {
+            parser = SmackXmlParser.newXmlParser(new StringReader(xml));
+            parser.next();
+        }
+        catch(IOException | org.jivesoftware.smack.xml.XmlPullParserException xppex)
+        {
+            return null;
+        }
+
+        // the provider builds the DiscoverInfo on top of the IQ data, which
+        // must not be null
+        return (DiscoverInfo) discoverInfoProvider.parse(
+            parser, StanzaBuilder.buildIqData(null));
+    }
+
     @Override
     public void emptyCache()
     {}
@@ -0,0 +1,122 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.java.sip.communicator.impl.protocol.jabber.caps;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.jivesoftware.smackx.disco.packet.*;
+
+/**
+ * Process-wide registry which interns disco#info feature strings and assigns
+ * each of them a stable bit index. Feature sets are then represented as
+ * <tt>BitSet</tt>s so that checking whether an entity supports a list of
+ * features is a handful of word operations instead of string lookups.
+ */
+public final class CapsFeatures
+{
+    /**
+     * The interned features mapped to their bit index.
+     */
+    private static final Map<String, Integer> INDICES
+        = new ConcurrentHashMap<>();
+
+    /**
+     * Prevents the initialization of new instances.
+     */
+    private CapsFeatures()
+    {
+    }
+
+    /**
+     * Returns the bit index of a specific feature, assigning a new one if the
+     * feature has not been seen so far.
+     *
+     * @param feature the feature (e.g. a namespace URN)
+     * @return the bit index of <tt>feature</tt>
+     */
+    public static int indexOf(String feature)
+    {
+        Integer index = INDICES.get(feature);
+
+        if (index == null)
+        {
+            synchronized (INDICES)
+            {
+                index = INDICES.get(feature);
+                if (index == null)
+                {
+                    index = INDICES.size();
+                    INDICES.put(feature.intern(), index);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Builds the <tt>BitSet</tt> representation of a list of features.
+     *
+     * @param features the features
+     * @return the <tt>BitSet</tt> with the bits of all <tt>features</tt> set
+     */
+    public static BitSet toBitSet(String... features)
+    {
+        BitSet bits = new BitSet();
+
+        for (String feature : features)
+            bits.set(indexOf(feature));
+        return bits;
+    }
+
+    /**
+     * Builds the <tt>BitSet</tt> representation of the features advertised in
+     * a specific <tt>DiscoverInfo</tt>.
+     *
+     * @param info the <tt>DiscoverInfo</tt>
+     * @return the <tt>BitSet</tt> with the bits of all features of
+     * <tt>info</tt> set
+     */
+    public static BitSet toBitSet(DiscoverInfo info)
+    {
+        BitSet bits = new BitSet();
+
+        for (DiscoverInfo.Feature feature : info.getFeatures())
+            bits.set(indexOf(feature.getVar()));
+        return bits;
+    }
+
+    /**
+     * Determines whether all bits set in <tt>required</tt> are also set in
+     * <tt>supported</tt> without allocating.
+     *
+     * @param supported the features supported by an entity
+     * @param required the features to check for
+     * @return <tt>true</tt> if <tt>supported</tt> contains every feature in
+     * <tt>required</tt>
+     */
+    public static boolean containsAll(BitSet supported, BitSet required)
+    {
+        for (int i = required.nextSetBit(0); i >= 0;
+                i = required.nextSetBit(i + 1))
+        {
+            if (!supported.get(i))
+                return false;
+        }
+        return true;
+    }
+}
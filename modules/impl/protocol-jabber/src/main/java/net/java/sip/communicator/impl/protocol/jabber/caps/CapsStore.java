@@ -0,0 +1,637 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.java.sip.communicator.impl.protocol.jabber.caps;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.jitsi.service.configuration.*;
+import org.jivesoftware.smackx.caps.cache.*;
+import org.jivesoftware.smackx.disco.packet.*;
+
+/**
+ * An <tt>EntityCapsPersistentCache</tt> which keeps the verified node#ver
+ * associations in a compact binary file in the user's home directory instead
+ * of one <tt>ConfigurationService</tt> property per hash.
+ * <p>
+ * All known entries are held in an in-memory, access-ordered map bounded by
+ * {@link #MAX_ENTRIES_PNAME}; the least recently used ones are evicted both
+ * from memory and from the file. The features of every entry are interned
+ * into a <tt>BitSet</tt> (see {@link CapsFeatures}) when the entry is loaded,
+ * while the <tt>DiscoverInfo</tt> itself is only parsed on the first
+ * {@link #lookup(String)} for its node#ver.
+ * <p>
+ * Entries still stored by the old {@link CapsConfigurationPersistence} are
+ * migrated to this store on first use.
+ */
+public class CapsStore
+    implements EntityCapsPersistentCache
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>CapsStore</tt> class and its
+     * instances for logging output.
+     */
+    private static final org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(CapsStore.class);
+
+    /**
+     * The name of the property which specifies the maximum number of node#ver
+     * entries kept by the store.
+     */
+    public static final String MAX_ENTRIES_PNAME
+        = "net.java.sip.communicator.impl.protocol.jabber.caps.MAX_ENTRIES";
+
+    /**
+     * The default value of {@link #MAX_ENTRIES_PNAME}.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 5000;
+
+    /**
+     * The name of the file, relative to the user's home directory, in which
+     * the store is persisted.
+     */
+    private static final String STORE_FILE_NAME = "caps.bin";
+
+    /**
+     * The magic number identifying a caps store file.
+     */
+    private static final int FILE_MAGIC = 0x43415053;
+
+    /**
+     * The version of the format of the caps store file.
+     */
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * The delay in milliseconds after the first modification before the store
+     * is written to disk, so that bursts of new entries are saved at once.
+     */
+    private static final long SAVE_DELAY = 10000;
+
+    /**
+     * The timer which writes modified stores to disk.
+     */
+    private static Timer saveTimer;
+
+    /**
+     * The file in which the store is persisted or <tt>null</tt> if the store
+     * is kept in memory only.
+     */
+    private final File file;
+
+    /**
+     * The legacy store from which entries are migrated.
+     */
+    private final CapsConfigurationPersistence legacy;
+
+    /**
+     * The maximum number of entries kept by this store.
+     */
+    private final int maxEntries;
+
+    /**
+     * The entries of this store in least-recently-used order.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Serializes the saves of this store, which may be run by the timer and
+     * by {@link #flush()} at the same time, since they share the temporary
+     * file.
+     */
+    private final Object saveLock = new Object();
+
+    /**
+     * Whether a save of this store has been scheduled and not yet run.
+     */
+    private boolean savePending = false;
+
+    /**
+     * The number of lookups answered from this store.
+     */
+    private long hitCount = 0;
+
+    /**
+     * The number of lookups which could not be answered from this store.
+     */
+    private long missCount = 0;
+
+    /**
+     * The number of entries evicted because the store reached its maximum
+     * size.
+     */
+    private long evictionCount = 0;
+
+    /**
+     * The number of <tt>DiscoverInfo</tt>s parsed from their stored XML.
+     */
+    private long parseCount = 0;
+
+    /**
+     * Initializes a new <tt>CapsStore</tt> persisted in the user's home
+     * directory as specified by a <tt>ConfigurationService</tt> and loads the
+     * entries saved by a previous instance.
+     *
+     * @param configService the current configuration service.
+     */
+    public CapsStore(ConfigurationService configService)
+    {
+        this(getStoreFile(configService),
+            new CapsConfigurationPersistence(configService),
+            configService.getInt(MAX_ENTRIES_PNAME, DEFAULT_MAX_ENTRIES));
+    }
+
+    /**
+     * Initializes a new <tt>CapsStore</tt> and loads the entries saved in a
+     * specific file.
+     *
+     * @param file the file in which the store is persisted or <tt>null</tt> to
+     * keep the store in memory only
+     * @param legacy the legacy store to migrate entries from or <tt>null</tt>
+     * @param maxEntries the maximum number of entries to keep
+     */
+    CapsStore(File file, CapsConfigurationPersistence legacy, int maxEntries)
+    {
+        this.file = file;
+        this.legacy = legacy;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> e)
+            {
+                if (size() > CapsStore.this.maxEntries)
+                {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        if (file != null && file.isFile())
+            load();
+    }
+
+    /**
+     * Returns the file in which the store is to be persisted.
+     *
+     * @param configService the current configuration service.
+     * @return the file in which the store is to be persisted or <tt>null</tt>
+     * if the home directory is not known
+     */
+    private static File getStoreFile(ConfigurationService configService)
+    {
+        String location = configService.getScHomeDirLocation();
+        String name = configService.getScHomeDirName();
+
+        if (location == null || name == null)
+            return null;
+        return new File(new File(location, name), STORE_FILE_NAME);
+    }
+
+    @Override
+    public void addDiscoverInfoByNodePersistent(String nodeVer, DiscoverInfo info)
+    {
+        DiscoverInfo cleanedDiscoverInfo = info.asBuilder(null)
+            .from(null)
+            .to(null)
+            .setNode(nodeVer).build();
+        String xml = cleanedDiscoverInfo.getChildElementXML().toString();
+
+        if (xml.length() == 0)
+            return;
+
+        List<DiscoverInfo.Feature> infoFeatures
+            = cleanedDiscoverInfo.getFeatures();
+        String[] features = new String[infoFeatures.size()];
+
+        for (int i = 0; i < features.length; i++)
+            features[i] = infoFeatures.get(i).getVar();
+
+        Entry entry
+            = new Entry(features, xml.getBytes(StandardCharsets.UTF_8));
+
+        entry.info = cleanedDiscoverInfo;
+        synchronized (entries)
+        {
+            entries.put(nodeVer, entry);
+        }
+        scheduleSave();
+    }
+
+    @Override
+    public DiscoverInfo lookup(String nodeVer)
+    {
+        Entry entry;
+
+        synchronized (entries)
+        {
+            entry = entries.get(nodeVer);
+            if (entry == null)
+                missCount++;
+            else
+                hitCount++;
+        }
+
+        if (entry == null)
+            return migrate(nodeVer);
+
+        DiscoverInfo info = entry.info;
+
+        if (info == null)
+        {
+            String xml = new String(entry.xml, StandardCharsets.UTF_8);
+
+            try
+            {
+                info = CapsConfigurationPersistence.parseDiscoverInfo(xml);
+            }
+            catch (Exception ex)
+            {
+                info = null;
+            }
+
+            synchronized (entries)
+            {
+                parseCount++;
+                if (info == null)
+                {
+                    logger.error("Invalid DiscoverInfo for " + nodeVer);
+                    entries.remove(nodeVer);
+                }
+            }
+
+            if (info == null)
+                scheduleSave();
+            else
+                entry.info = info;
+        }
+        return info;
+    }
+
+    /**
+     * Moves the entry for a specific node#ver from the legacy store to this
+     * one.
+     *
+     * @param nodeVer the node#ver
+     * @return the migrated <tt>DiscoverInfo</tt> or <tt>null</tt> if there was
+     * no legacy entry for <tt>nodeVer</tt>
+     */
+    private DiscoverInfo migrate(String nodeVer)
+    {
+        if (legacy == null)
+            return null;
+
+        DiscoverInfo info = legacy.lookup(nodeVer);
+
+        if (info != null)
+        {
+            addDiscoverInfoByNodePersistent(nodeVer, info);
+            legacy.remove(nodeVer);
+        }
+        return info;
+    }
+
+    /**
+     * Returns the features of a specific node#ver as interned by
+     * {@link CapsFeatures} without parsing its <tt>DiscoverInfo</tt>. The
+     * returned <tt>BitSet</tt> is shared and must not be modified.
+     * <p>
+     * Only answered lookups are counted here. A caller which does not find the
+     * features falls back to {@link #lookup(String)}, which counts the miss.
+     *
+     * @param nodeVer the node#ver
+     * @return the features of <tt>nodeVer</tt> or <tt>null</tt> if the store
+     * has no entry for it
+     */
+    public BitSet getFeatures(String nodeVer)
+    {
+        synchronized (entries)
+        {
+            Entry entry = entries.get(nodeVer);
+
+            if (entry == null)
+                return null;
+            hitCount++;
+            return entry.features;
+        }
+    }
+
+    /**
+     * Determines whether a specific node#ver is known to this store. Only
+     * verified associations are persisted so a known node#ver does not have
+     * to have its hash verified again.
+     *
+     * @param nodeVer the node#ver
+     * @return <tt>true</tt> if this store has an entry for <tt>nodeVer</tt>
+     */
+    public boolean isVerified(String nodeVer)
+    {
+        synchronized (entries)
+        {
+            return entries.containsKey(nodeVer);
+        }
+    }
+
+    @Override
+    public void emptyCache()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Returns the number of entries in this store.
+     *
+     * @return the number of entries in this store
+     */
+    public int size()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of lookups answered from this store.
+     *
+     * @return the number of lookups answered from this store
+     */
+    public long getHitCount()
+    {
+        synchronized (entries)
+        {
+            return hitCount;
+        }
+    }
+
+    /**
+     * Returns the number of lookups which could not be answered from this
+     * store.
+     *
+     * @return the number of lookups which could not be answered from this
+     * store
+     */
+    public long getMissCount()
+    {
+        synchronized (entries)
+        {
+            return missCount;
+        }
+    }
+
+    /**
+     * Returns the number of entries evicted because the store reached its
+     * maximum size.
+     *
+     * @return the number of evicted entries
+     */
+    public long getEvictionCount()
+    {
+        synchronized (entries)
+        {
+            return evictionCount;
+        }
+    }
+
+    /**
+     * Returns the number of <tt>DiscoverInfo</tt>s parsed from their stored
+     * XML.
+     *
+     * @return the number of parsed <tt>DiscoverInfo</tt>s
+     */
+    public long getParseCount()
+    {
+        synchronized (entries)
+        {
+            return parseCount;
+        }
+    }
+
+    /**
+     * Schedules this store to be written to disk unless a save is already
+     * pending.
+     */
+    private void scheduleSave()
+    {
+        if (file == null)
+            return;
+
+        synchronized (entries)
+        {
+            if (savePending)
+                return;
+            savePending = true;
+        }
+
+        synchronized (CapsStore.class)
+        {
+            if (saveTimer == null)
+                saveTimer = new Timer(CapsStore.class.getName(), true);
+            saveTimer.schedule(
+                new TimerTask()
+                {
+                    @Override
+                    public void run()
+                    {
+                        save();
+                    }
+                },
+                SAVE_DELAY);
+        }
+    }
+
+    /**
+     * Writes this store to disk if it has been modified since it was last
+     * saved.
+     */
+    public void flush()
+    {
+        boolean pending;
+
+        synchronized (entries)
+        {
+            pending = savePending;
+        }
+        if (pending)
+            save();
+    }
+
+    /**
+     * Writes the entries of this store to a temporary file which then
+     * atomically replaces the store file.
+     */
+    private void save()
+    {
+        synchronized (saveLock)
+        {
+            write();
+        }
+    }
+
+    /**
+     * Writes the entries of this store. Must be called with the save lock
+     * held, such that a later snapshot is never replaced by an earlier one.
+     */
+    private void write()
+    {
+        List<String> nodeVers;
+        List<Entry> snapshot;
+
+        synchronized (entries)
+        {
+            savePending = false;
+            nodeVers = new ArrayList<>(entries.keySet());
+            snapshot = new ArrayList<>(entries.values());
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Saving " + snapshot.size()
+                    + " caps entries, hits=" + hitCount
+                    + " misses=" + missCount
+                    + " evictions=" + evictionCount
+                    + " parsed=" + parseCount);
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try
+        {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp))))
+            {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(snapshot.size());
+                for (int i = 0; i < snapshot.size(); i++)
+                {
+                    Entry entry = snapshot.get(i);
+
+                    out.writeUTF(nodeVers.get(i));
+                    out.writeInt(entry.featureNames.length);
+                    for (String feature : entry.featureNames)
+                        out.writeUTF(feature);
+                    out.writeInt(entry.xml.length);
+                    out.write(entry.xml);
+                }
+            }
+            Files.move(
+                tmp.toPath(),
+                file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ioe)
+        {
+            logger.warn("Failed to save entity caps to " + file, ioe);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Reads the entries saved in the store file. A corrupt file is discarded
+     * because all of its information can be discovered again.
+     */
+    private void load()
+    {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION)
+            {
+                logger.info("Ignoring entity caps store of unknown format");
+                return;
+            }
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++)
+            {
+                String nodeVer = in.readUTF();
+                String[] features = new String[in.readInt()];
+
+                for (int f = 0; f < features.length; f++)
+                    features[f] = in.readUTF().intern();
+
+                byte[] xml = new byte[in.readInt()];
+
+                in.readFully(xml);
+                synchronized (entries)
+                {
+                    entries.put(nodeVer, new Entry(features, xml));
+                }
+            }
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            logger.warn("Discarding corrupt entity caps store " + file, ex);
+            synchronized (entries)
+            {
+                entries.clear();
+            }
+            file.delete();
+        }
+    }
+
+    /**
+     * A node#ver entry of the store.
+     */
+    private static class Entry
+    {
+        /**
+         * The interned features of the entry.
+         */
+        final String[] featureNames;
+
+        /**
+         * The features of the entry as indexed by {@link CapsFeatures}.
+         */
+        final BitSet features;
+
+        /**
+         * The UTF-8 encoded disco#info XML of the entry.
+         */
+        final byte[] xml;
+
+        /**
+         * The parsed <tt>DiscoverInfo</tt> of the entry or <tt>null</tt> if it
+         * has not been requested yet.
+         */
+        volatile DiscoverInfo info;
+
+        /**
+         * Initializes a new <tt>Entry</tt>.
+         *
+         * @param featureNames the interned features of the entry
+         * @param xml the UTF-8 encoded disco#info XML of the entry
+         */
+        Entry(String[] featureNames, byte[] xml)
+        {
+            this.featureNames = featureNames;
+            this.features = CapsFeatures.toBitSet(featureNames);
+            this.xml = xml;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
+import org.jivesoftware.smackx.muc.*;
+import org.junit.*;
+import org.jxmpp.jid.impl.*;
+import org.jxmpp.jid.parts.*;
+
+public class ChatRoomOccupantStoreTest
+{
+    private ChatRoomJabberImpl room;
+
+    private final ChatRoomOccupantStore store = new ChatRoomOccupantStore();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        OperationSetPersistentPresenceJabberImpl presence
+            = niceMock(OperationSetPersistentPresenceJabberImpl.class);
+        ProtocolProviderService provider
+            = niceMock(ProtocolProviderService.class);
+        expect(provider.getOperationSet(OperationSetPersistentPresence.class))
+            .andStubReturn(presence);
+
+        room = niceMock(ChatRoomJabberImpl.class);
+        expect(room.getParentProvider()).andStubReturn(provider);
+        expect(room.getMultiUserChat())
+            .andStubReturn(niceMock(MultiUserChat.class));
+        expect(room.getIdentifierAsJid()).andStubReturn(
+            JidCreate.entityBareFrom("room@conference.example.org"));
+        replay(presence, provider, room);
+    }
+
+    @Test
+    public void testMembersAreFoundByNicknameAndAddress() throws Exception
+    {
+        ChatRoomMemberJabberImpl alice
+            = member("alice", ChatRoomMemberRole.MEMBER);
+        store.put(alice);
+
+        assertSame(alice, store.get(Resourcepart.from("alice")));
+        assertTrue(store.containsKey(Resourcepart.from("alice")));
+        assertSame(alice, store.getByAddress("alice@example.org"));
+        assertNull(store.get(Resourcepart.from("bob")));
+        assertNull(store.getByAddress("bob@example.org"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testMembersAreSortedByRoleThenName() throws Exception
+    {
+        store.put(member("dave", ChatRoomMemberRole.MEMBER));
+        store.put(member("Carol", ChatRoomMemberRole.MEMBER));
+        store.put(member("erin", ChatRoomMemberRole.MODERATOR));
+        store.put(member("bob", ChatRoomMemberRole.GUEST));
+
+        assertNames("erin", "Carol", "dave", "bob");
+    }
+
+    @Test
+    public void testRenameReindexesMember() throws Exception
+    {
+        ChatRoomMemberJabberImpl alice
+            = member("alice", ChatRoomMemberRole.MEMBER);
+        store.put(alice);
+        store.put(member("bob", ChatRoomMemberRole.MEMBER));
+
+        assertSame(alice,
+            store.rename(Resourcepart.from("alice"), Resourcepart.from("zoe")));
+
+        assertEquals("zoe", alice.getName());
+        assertNull(store.get(Resourcepart.from("alice")));
+        assertSame(alice, store.get(Resourcepart.from("zoe")));
+        assertSame(alice, store.getByAddress("alice@example.org"));
+        assertNames("bob", "zoe");
+        assertNull(
+            store.rename(Resourcepart.from("alice"), Resourcepart.from("x")));
+    }
+
+    @Test
+    public void testRoleChangeResortsMember() throws Exception
+    {
+        ChatRoomMemberJabberImpl dave
+            = member("dave", ChatRoomMemberRole.MEMBER);
+        store.put(member("alice", ChatRoomMemberRole.MEMBER));
+        store.put(dave);
+
+        store.setRole(dave, ChatRoomMemberRole.OWNER);
+
+        assertEquals(ChatRoomMemberRole.OWNER, dave.getRole());
+        assertNames("dave", "alice");
+    }
+
+    @Test
+    public void testRemoveAndClear() throws Exception
+    {
+        store.put(member("alice", ChatRoomMemberRole.MEMBER));
+        store.put(member("bob", ChatRoomMemberRole.MODERATOR));
+
+        assertNotNull(store.remove(Resourcepart.from("alice")));
+        assertNull(store.remove(Resourcepart.from("alice")));
+        assertNull(store.getByAddress("alice@example.org"));
+        assertNames("bob");
+
+        store.put(member("carol", ChatRoomMemberRole.MEMBER));
+        List<ChatRoomMemberJabberImpl> removed = store.clear();
+
+        assertEquals(2, removed.size());
+        assertEquals("bob", removed.get(0).getName());
+        assertEquals(0, store.size());
+        assertTrue(store.getSortedMembers().isEmpty());
+    }
+
+    @Test
+    public void testReplacedMemberIsUnindexed() throws Exception
+    {
+        store.put(member("alice", ChatRoomMemberRole.MEMBER));
+        ChatRoomMemberJabberImpl other = new ChatRoomMemberJabberImpl(room,
+            Resourcepart.from("alice"),
+            JidCreate.from("other@example.org"));
+        other.setRole(ChatRoomMemberRole.MEMBER);
+        store.put(other);
+
+        assertEquals(1, store.size());
+        assertEquals(1, store.getSortedMembers().size());
+        assertNull(store.getByAddress("alice@example.org"));
+        assertSame(other, store.getByAddress("other@example.org"));
+    }
+
+    @Test
+    public void testMembersLoadedIsDeliveredToListenersWhichOptedIn()
+        throws Exception
+    {
+        List<ChatRoomMember> loaded = Arrays.<ChatRoomMember>asList(
+            member("alice", ChatRoomMemberRole.MEMBER),
+            member("bob", ChatRoomMemberRole.MEMBER));
+
+        final List<ChatRoomMembersLoadedEvent> batches = new ArrayList<>();
+        final List<ChatRoomMemberPresenceChangeEvent> batchPresences
+            = new ArrayList<>();
+        ChatRoomMembersLoadedListener batchListener
+            = new ChatRoomMembersLoadedListener()
+            {
+                public void membersLoaded(ChatRoomMembersLoadedEvent evt)
+                {
+                    batches.add(evt);
+                }
+
+                public void memberPresenceChanged(
+                    ChatRoomMemberPresenceChangeEvent evt)
+                {
+                    batchPresences.add(evt);
+                }
+            };
+        final List<ChatRoomMemberPresenceChangeEvent> presences
+            = new ArrayList<>();
+        ChatRoomMemberPresenceListener presenceListener
+            = new ChatRoomMemberPresenceListener()
+            {
+                public void memberPresenceChanged(
+                    ChatRoomMemberPresenceChangeEvent evt)
+                {
+                    presences.add(evt);
+                }
+            };
+
+        ChatRoomJabberImpl.fireMembersLoaded(room, loaded,
+            Arrays.asList(batchListener, presenceListener));
+
+        assertEquals(1, batches.size());
+        assertSame(room, batches.get(0).getChatRoom());
+        assertEquals(loaded, batches.get(0).getChatRoomMembers());
+        assertTrue(batchPresences.isEmpty());
+
+        assertEquals(2, presences.size());
+        for (int i = 0; i < loaded.size(); i++)
+        {
+            ChatRoomMemberPresenceChangeEvent evt = presences.get(i);
+
+            assertSame(loaded.get(i), evt.getChatRoomMember());
+            assertEquals(ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED,
+                evt.getEventType());
+        }
+    }
+
+    private ChatRoomMemberJabberImpl member(
+        String nick, ChatRoomMemberRole role)
+        throws Exception
+    {
+        ChatRoomMemberJabberImpl member = new ChatRoomMemberJabberImpl(room,
+            Resourcepart.from(nick),
+            JidCreate.from(nick.toLowerCase() + "@example.org"));
+
+        member.setRole(role);
+        return member;
+    }
+
+    private void assertNames(String... names)
+    {
+        List<String> actual = new ArrayList<>();
+
+        for (ChatRoomMember member : store.getSortedMembers())
+            actual.add(member.getName());
+        assertEquals(Arrays.asList(names), actual);
+    }
+}
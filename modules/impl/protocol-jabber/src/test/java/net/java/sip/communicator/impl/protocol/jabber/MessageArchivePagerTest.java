@@ -0,0 +1,210 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smackx.delay.packet.*;
+import org.jivesoftware.smackx.forward.packet.*;
+import org.jivesoftware.smackx.mam.element.MamElements.*;
+import org.junit.*;
+
+public class MessageArchivePagerTest
+{
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static final Date START = new Date(1_600_000_000_000L);
+
+    /**
+     * The messages of the fake archive in chronological order.
+     */
+    private final List<MamResultExtension> archive = new ArrayList<>();
+
+    /**
+     * The <tt>afterId</tt> of every query of the fake archive.
+     */
+    private final List<String> afterIds
+        = Collections.synchronizedList(new ArrayList<>());
+
+    private final MessageArchivePager pager
+        = new MessageArchivePager(this::query);
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        SmackConfiguration.getVersion();
+    }
+
+    @Test
+    public void testCompleteSyncAdvancesToLastMessage() throws Exception
+    {
+        addMessages("a", START.getTime() + 1000, 10, 1000);
+
+        MessageArchivePager.Result result
+            = pager.query(START, null, new Date(START.getTime() + HOUR - 1));
+
+        assertTrue(result.isComplete());
+        assertEquals(10, result.getResults().size());
+        assertEquals(new Date(START.getTime() + 10_000), result.getSyncTime());
+        assertNull(result.getResumeId());
+    }
+
+    @Test
+    public void testPagingCapResumesAfterLastMessage() throws Exception
+    {
+        int count = MessageArchivePager.MAX_PAGES_PER_WINDOW + 50;
+        Date end = new Date(START.getTime() + HOUR - 1);
+
+        addMessages("a", START.getTime() + 1, count, 1);
+
+        MessageArchivePager.Result first = pager.query(START, null, end);
+
+        assertFalse(first.isComplete());
+        assertEquals(MessageArchivePager.MAX_PAGES_PER_WINDOW,
+            first.getResults().size());
+        // the sync point is not moved past the messages not retrieved yet
+        assertEquals(START, first.getSyncTime());
+        assertEquals("a" + (MessageArchivePager.MAX_PAGES_PER_WINDOW - 1),
+            first.getResumeId());
+
+        MessageArchivePager.Result second
+            = pager.query(first.getSyncTime(), first.getResumeId(), end);
+
+        assertEquals(first.getResumeId(), afterIds.get(afterIds.size() - 1));
+        assertTrue(second.isComplete());
+        assertEquals(50, second.getResults().size());
+        assertEquals("a" + MessageArchivePager.MAX_PAGES_PER_WINDOW,
+            second.getResults().get(0).getId());
+        assertNull(second.getResumeId());
+        assertEquals(
+            MessageArchivePager.getTimestamp(archive.get(count - 1)),
+            second.getSyncTime());
+    }
+
+    @Test
+    public void testIncompleteWindowStopsLaterWindowsFromAdvancing()
+        throws Exception
+    {
+        Date end = new Date(START.getTime() + 4 * HOUR);
+
+        addMessages("a", START.getTime() + 1000, 5, 1000);
+        addMessages("b", START.getTime() + HOUR + 1000,
+            MessageArchivePager.MAX_PAGES_PER_WINDOW + 1, 1);
+        addMessages("c", START.getTime() + 3 * HOUR + 1000, 5, 1000);
+
+        MessageArchivePager.Result result = pager.query(START, null, end);
+
+        assertFalse(result.isComplete());
+        assertEquals(5 + MessageArchivePager.MAX_PAGES_PER_WINDOW + 5,
+            result.getResults().size());
+        assertEquals(new Date(START.getTime() + HOUR), result.getSyncTime());
+        assertEquals("b" + (MessageArchivePager.MAX_PAGES_PER_WINDOW - 1),
+            result.getResumeId());
+    }
+
+    @Test
+    public void testDuplicatesAreDroppedByStanzaId() throws Exception
+    {
+        Date end = new Date(START.getTime() + 4 * HOUR);
+
+        // on the bound of two windows, so returned by both
+        archive.add(result("x1", "same", START.getTime() + HOUR));
+        // the same sender id, but distinct messages of the archive
+        archive.add(result("x2", "same", START.getTime() + 2 * HOUR + 1));
+        archive.add(result("x3", null, START.getTime() + 3 * HOUR + 1));
+
+        MessageArchivePager.Result result = pager.query(START, null, end);
+
+        List<String> ids = new ArrayList<>();
+        for (MamResultExtension r : result.getResults())
+            ids.add(MessageArchivePager.getStanzaId(r));
+        assertEquals(Arrays.asList("x1", "x2", "x3"), ids);
+        assertTrue(result.isComplete());
+    }
+
+    /**
+     * Adds messages to the fake archive.
+     */
+    private void addMessages(String prefix, long first, int count, long step)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            archive.add(result(prefix + i, "sender" + i, first + i * step));
+        }
+    }
+
+    private static MamResultExtension result(
+        String stanzaId, String senderId, long time)
+    {
+        Message msg = StanzaBuilder.buildMessage(senderId)
+            .setBody("body of " + stanzaId)
+            .build();
+
+        return new MamResultExtension("query", stanzaId,
+            new Forwarded<>(new DelayInformation(new Date(time)), msg));
+    }
+
+    /**
+     * Queries the fake archive, which returns one message per page and
+     * includes the messages on both bounds of the period.
+     */
+    private MessageArchivePager.Page query(
+        Date start, Date end, String afterId, int pageSize)
+    {
+        afterIds.add(afterId);
+
+        final List<MamResultExtension> matching = new ArrayList<>();
+        boolean after = afterId == null;
+
+        for (MamResultExtension r : archive)
+        {
+            Date time = MessageArchivePager.getTimestamp(r);
+
+            if (after && !time.before(start) && !time.after(end))
+                matching.add(r);
+            if (r.getId().equals(afterId))
+                after = true;
+        }
+
+        return new MessageArchivePager.Page()
+        {
+            private int index = 0;
+
+            public List<MamResultExtension> getResults()
+            {
+                return index < matching.size()
+                    ? Collections.singletonList(matching.get(index))
+                    : Collections.emptyList();
+            }
+
+            public boolean isComplete()
+            {
+                return index >= matching.size() - 1;
+            }
+
+            public void pageNext(int count)
+            {
+                index++;
+            }
+        };
+    }
+}
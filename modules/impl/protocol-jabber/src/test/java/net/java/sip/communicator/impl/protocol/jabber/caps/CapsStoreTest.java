@@ -0,0 +1,233 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.java.sip.communicator.impl.protocol.jabber.caps;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import org.jitsi.service.configuration.*;
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smackx.disco.packet.*;
+import org.junit.*;
+import org.junit.rules.*;
+
+public class CapsStoreTest
+{
+    private static final String FEATURE_A = "urn:xmpp:test:a";
+
+    private static final String FEATURE_B = "urn:xmpp:test:b";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The properties of the fake configuration service.
+     */
+    private final Map<String, Object> properties
+        = new HashMap<String, Object>();
+
+    private File file;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        // registers the disco#info provider
+        SmackConfiguration.getVersion();
+    }
+
+    @Before
+    public void setUp()
+    {
+        file = new File(folder.getRoot(), "caps.bin");
+    }
+
+    @Test
+    public void testSavedEntriesAreLoaded() throws Exception
+    {
+        CapsStore store = new CapsStore(file, null, 10);
+        store.addDiscoverInfoByNodePersistent("node#1",
+            info(FEATURE_A, FEATURE_B));
+        store.addDiscoverInfoByNodePersistent("node#2", info(FEATURE_B));
+        store.flush();
+
+        try (DataInputStream in
+            = new DataInputStream(new FileInputStream(file)))
+        {
+            assertEquals(0x43415053, in.readInt());
+            assertEquals(1, in.readInt());
+            assertEquals(2, in.readInt());
+            assertEquals("node#1", in.readUTF());
+            assertEquals(2, in.readInt());
+            assertEquals(FEATURE_A, in.readUTF());
+            assertEquals(FEATURE_B, in.readUTF());
+        }
+
+        CapsStore loaded = new CapsStore(file, null, 10);
+        assertEquals(2, loaded.size());
+        assertTrue(loaded.isVerified("node#1"));
+        assertEquals(CapsFeatures.toBitSet(FEATURE_A, FEATURE_B),
+            loaded.getFeatures("node#1"));
+        assertEquals(0, loaded.getParseCount());
+
+        DiscoverInfo info = loaded.lookup("node#2");
+        assertTrue(info.containsFeature(FEATURE_B));
+        assertFalse(info.containsFeature(FEATURE_A));
+        assertEquals(1, loaded.getParseCount());
+        // parsed once only
+        assertSame(info, loaded.lookup("node#2"));
+        assertEquals(1, loaded.getParseCount());
+    }
+
+    /**
+     * Flushes in several threads at once, as the timer and a flush may do,
+     * leave a complete store and no temporary file.
+     */
+    @Test
+    public void testConcurrentFlushesLeaveCompleteStore() throws Exception
+    {
+        CapsStore store = new CapsStore(file, null, 1000);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++)
+        {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 50; i++)
+                {
+                    store.addDiscoverInfoByNodePersistent(
+                        "node#" + thread + "-" + i, info(FEATURE_A));
+                    store.flush();
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        store.flush();
+
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertEquals(200, new CapsStore(file, null, 1000).size());
+    }
+
+    @Test
+    public void testCorruptFileIsDiscarded() throws Exception
+    {
+        try (DataOutputStream out
+            = new DataOutputStream(new FileOutputStream(file)))
+        {
+            out.writeInt(0x43415053);
+            out.writeInt(1);
+            out.writeInt(5);
+            out.writeUTF("node#1");
+        }
+
+        CapsStore store = new CapsStore(file, null, 10);
+        assertEquals(0, store.size());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws Exception
+    {
+        CapsStore store = new CapsStore(file, null, 2);
+        store.addDiscoverInfoByNodePersistent("node#1", info(FEATURE_A));
+        store.addDiscoverInfoByNodePersistent("node#2", info(FEATURE_B));
+        assertNotNull(store.lookup("node#1"));
+        store.addDiscoverInfoByNodePersistent("node#3", info(FEATURE_A));
+
+        assertEquals(2, store.size());
+        assertEquals(1, store.getEvictionCount());
+        assertTrue(store.isVerified("node#1"));
+        assertFalse(store.isVerified("node#2"));
+        assertTrue(store.isVerified("node#3"));
+
+        // evicted from the file as well
+        store.flush();
+        CapsStore loaded = new CapsStore(file, null, 2);
+        assertEquals(2, loaded.size());
+        assertFalse(loaded.isVerified("node#2"));
+    }
+
+    @Test
+    public void testLegacyEntryIsMigrated() throws Exception
+    {
+        CapsConfigurationPersistence legacy
+            = new CapsConfigurationPersistence(configurationService());
+        legacy.addDiscoverInfoByNodePersistent("node#1", info(FEATURE_A));
+        assertEquals(1, properties.size());
+
+        CapsStore store = new CapsStore(file, legacy, 10);
+        DiscoverInfo info = store.lookup("node#1");
+        assertTrue(info.containsFeature(FEATURE_A));
+        assertTrue(store.isVerified("node#1"));
+        assertTrue(properties.isEmpty());
+        assertNull(store.lookup("node#2"));
+    }
+
+    @Test
+    public void testLookupsAreCountedOnce() throws Exception
+    {
+        CapsStore store = new CapsStore(null, null, 10);
+
+        // a feature check which falls back to the full lookup
+        assertNull(store.getFeatures("node#1"));
+        assertNull(store.lookup("node#1"));
+        assertEquals(0, store.getHitCount());
+        assertEquals(1, store.getMissCount());
+
+        store.addDiscoverInfoByNodePersistent("node#1", info(FEATURE_A));
+        assertNotNull(store.getFeatures("node#1"));
+        assertNotNull(store.lookup("node#1"));
+        assertEquals(2, store.getHitCount());
+        assertEquals(1, store.getMissCount());
+    }
+
+    private static DiscoverInfo info(String... features)
+    {
+        DiscoverInfoBuilder builder = DiscoverInfo.builder("caps")
+            .addIdentity(new DiscoverInfo.Identity("client", "Jitsi", "pc"));
+        for (String feature : features)
+            builder.addFeature(feature);
+        return builder.build();
+    }
+
+    private ConfigurationService configurationService()
+    {
+        return (ConfigurationService) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class<?>[] { ConfigurationService.class },
+            (proxy, method, args) -> {
+                switch (method.getName())
+                {
+                case "setProperty":
+                    properties.put((String) args[0], args[1]);
+                    return null;
+                case "getString":
+                    Object value = properties.get(args[0]);
+                    return value == null ? null : value.toString();
+                case "removeProperty":
+                    properties.remove(args[0]);
+                    return null;
+                default:
+                    return null;
+                }
+            });
+    }
+}
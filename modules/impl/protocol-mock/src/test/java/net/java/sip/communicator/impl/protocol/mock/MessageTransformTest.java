@@ -0,0 +1,418 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.mock;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
+
+import org.junit.*;
+
+public class MessageTransformTest
+{
+    private MockProvider provider;
+
+    private MockBasicInstantMessaging messaging;
+
+    private OperationSetInstantMessageTransformImpl transform;
+
+    private Contact alice;
+
+    /**
+     * The events received by the message listener.
+     */
+    private final List<MessageReceivedEvent> received
+        = new ArrayList<MessageReceivedEvent>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        provider = new MockProvider("user");
+        transform = new OperationSetInstantMessageTransformImpl();
+        provider.getSupportedOperationSets().put(
+            OperationSetInstantMessageTransform.class.getName(), transform);
+        provider.getOperationSet(OperationSetPresence.class)
+            .subscribe("alice");
+        alice = provider.getOperationSet(OperationSetPresence.class)
+            .findContactByID("alice");
+        messaging = (MockBasicInstantMessaging)
+            provider.getOperationSet(OperationSetBasicInstantMessaging.class);
+        messaging.addMessageListener(new MessageListener()
+        {
+            public void messageReceived(MessageReceivedEvent evt)
+            {
+                received.add(evt);
+            }
+
+            public void messageDelivered(MessageDeliveredEvent evt)
+            {
+            }
+
+            public void messageDeliveryFailed(MessageDeliveryFailedEvent evt)
+            {
+            }
+        });
+    }
+
+    @Test
+    public void testLayersRunInPriorityOrder()
+    {
+        transform.addTransformLayer(5, new AppendLayer("c"));
+        transform.addTransformLayer(1, new AppendLayer("a"));
+        transform.addTransformLayer(5, new AppendLayer("d"));
+        transform.addTransformLayer(3, new AppendLayer("b"));
+
+        messaging.deliverMessage("alice", new MockMessage("x"));
+        assertEquals(1, received.size());
+        assertEquals("xabcd", received.get(0).getSourceMessage().getContent());
+    }
+
+    @Test
+    public void testUnchangedEventIsDeliveredAsIs()
+    {
+        transform.addTransformLayer(new OtrLayer());
+        transform.addTransformLayer(new ReplacementLayer());
+
+        Message msg = new MockMessage("hello");
+        messaging.deliverMessage("alice", msg);
+        assertEquals(1, received.size());
+        assertSame(msg, received.get(0).getSourceMessage());
+    }
+
+    @Test
+    public void testDroppedEventIsNotDelivered()
+    {
+        AppendLayer after = new AppendLayer("!");
+        transform.addTransformLayer(1, new AbstractLayer()
+        {
+            @Override
+            public MessageReceivedEvent messageReceived(MessageReceivedEvent e)
+            {
+                return null;
+            }
+        });
+        transform.addTransformLayer(2, after);
+
+        messaging.deliverMessage("alice", new MockMessage("x"));
+        assertTrue(received.isEmpty());
+        assertEquals(0, after.calls);
+    }
+
+    @Test
+    public void testPendingMessagesAreSplit()
+    {
+        transform.addTransformLayer(1, new AbstractLayer()
+        {
+            @Override
+            public MessageDeliveredEvent[] messageDeliveryPending(
+                MessageDeliveredEvent evt)
+            {
+                String content = evt.getSourceMessage().getContent();
+                int half = content.length() / 2;
+                return new MessageDeliveredEvent[] {
+                    delivered(content.substring(0, half)),
+                    null,
+                    delivered(content.substring(half)) };
+            }
+        });
+        transform.addTransformLayer(2, new ReplacementLayer());
+
+        MessageDeliveredEvent evt = delivered("abcd");
+        MessageDeliveredEvent[] events
+            = messaging.messageDeliveryPendingTransform(evt);
+        assertEquals(2, events.length);
+        assertEquals("ab", events[0].getSourceMessage().getContent());
+        assertEquals("cd", events[1].getSourceMessage().getContent());
+    }
+
+    @Test
+    public void testPendingMessageIsKeptAsIs()
+    {
+        transform.addTransformLayer(new OtrLayer());
+        transform.addTransformLayer(new ReplacementLayer());
+
+        MessageDeliveredEvent evt = delivered("hello");
+        MessageDeliveredEvent[] events
+            = messaging.messageDeliveryPendingTransform(evt);
+        assertEquals(1, events.length);
+        assertSame(evt, events[0]);
+    }
+
+    @Test
+    public void testRemoveLayer()
+    {
+        TransformLayer a = new AppendLayer("a");
+        TransformLayer b = new AppendLayer("b");
+        transform.addTransformLayer(a);
+        transform.addTransformLayer(2, b);
+        transform.addTransformLayer(3, a);
+        assertTrue(transform.containsLayer(a));
+
+        transform.removeTransformLayer(a);
+        assertFalse(transform.containsLayer(a));
+        assertTrue(transform.containsLayer(b));
+
+        messaging.deliverMessage("alice", new MockMessage("x"));
+        assertEquals("xb", received.get(0).getSourceMessage().getContent());
+    }
+
+    /**
+     * Receives plain and OTR messages, with and without URLs, through an
+     * OTR-like and a replacement-like layer. Each layer only replaces the
+     * messages it changes.
+     */
+    @Test
+    public void testOtrAndReplacementLayers()
+    {
+        transform.addTransformLayer(new OtrLayer());
+        transform.addTransformLayer(new ReplacementLayer());
+
+        Message plain = new MockMessage("hello");
+        messaging.deliverMessage("alice", plain);
+        messaging.deliverMessage("alice",
+            new MockMessage(OtrLayer.PREFIX + "secret"));
+        messaging.deliverMessage("alice",
+            new MockMessage("see http://jitsi.org"));
+        messaging.deliverMessage("alice",
+            new MockMessage(OtrLayer.PREFIX + "see http://jitsi.org"));
+
+        assertEquals(4, received.size());
+        assertSame(plain, received.get(0).getSourceMessage());
+        assertEquals("secret",
+            received.get(1).getSourceMessage().getContent());
+        assertEquals("see <a>http://jitsi.org",
+            received.get(2).getSourceMessage().getContent());
+        assertEquals("see <a>http://jitsi.org",
+            received.get(3).getSourceMessage().getContent());
+        for (MessageReceivedEvent evt : received)
+            assertSame(alice, evt.getSourceContact());
+    }
+
+    /**
+     * Receives plain and OTR messages through an OTR-like and a
+     * replacement-like layer, once through the compiled layers and once
+     * through the former map of layer lists. The timings are printed.
+     * Skipped unless the <tt>benchmark</tt> system property is set.
+     */
+    @Test
+    public void testOtrAndReplacementBenchmark()
+    {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+
+        TransformLayer otr = new OtrLayer();
+        TransformLayer replacement = new ReplacementLayer();
+        transform.addTransformLayer(otr);
+        transform.addTransformLayer(replacement);
+        Map<Integer, Vector<TransformLayer>> legacyLayers
+            = new Hashtable<Integer, Vector<TransformLayer>>();
+        legacyLayers.put(1, new Vector<TransformLayer>(
+            Arrays.asList(otr, replacement)));
+
+        Message[] messages = new Message[100];
+        for (int i = 0; i < messages.length; i++)
+        {
+            messages[i] = new MockMessage(
+                (i % 4 == 0 ? OtrLayer.PREFIX : "") + "message " + i);
+        }
+
+        int rounds = 2000;
+        long legacyTime = 0;
+        long compiledTime = 0;
+        for (int pass = 0; pass < 2; pass++)
+        {
+            // the first pass warms up
+            received.clear();
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++)
+            {
+                for (Message msg : messages)
+                {
+                    for (EventObject evt : legacyTransform(legacyLayers,
+                        new MessageReceivedEvent(msg, alice, new Date())))
+                    {
+                        received.add((MessageReceivedEvent) evt);
+                    }
+                }
+            }
+            legacyTime = System.nanoTime() - start;
+            assertEquals(rounds * messages.length, received.size());
+
+            received.clear();
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++)
+            {
+                for (Message msg : messages)
+                    messaging.deliverMessage("alice", msg);
+            }
+            compiledTime = System.nanoTime() - start;
+            assertEquals(rounds * messages.length, received.size());
+        }
+
+        int count = rounds * messages.length;
+        System.out.println("Received " + count + " messages through OTR and"
+            + " replacement: legacy " + legacyTime / count + " ns, compiled "
+            + compiledTime / count + " ns per message");
+    }
+
+    private MessageDeliveredEvent delivered(String content)
+    {
+        return new MessageDeliveredEvent(new MockMessage(content), alice);
+    }
+
+    /**
+     * The transformation of received messages before the layers were
+     * compiled, for comparison.
+     */
+    private static EventObject[] legacyTransform(
+        Map<Integer, Vector<TransformLayer>> transformLayers,
+        MessageReceivedEvent evt)
+    {
+        LinkedList<EventObject> current = new LinkedList<EventObject>();
+        current.add(evt);
+        LinkedList<EventObject> next = new LinkedList<EventObject>();
+        for (Map.Entry<Integer, Vector<TransformLayer>> entry
+                : transformLayers.entrySet())
+        {
+            for (TransformLayer transformLayer : entry.getValue())
+            {
+                next.clear();
+                while (!current.isEmpty())
+                {
+                    MessageReceivedEvent transformed
+                        = transformLayer.messageReceived(
+                            (MessageReceivedEvent) current.remove());
+                    if (transformed != null)
+                        next.add(transformed);
+                }
+                current.addAll(next);
+            }
+        }
+        return current.toArray(new EventObject[current.size()]);
+    }
+
+    /**
+     * A layer which passes all events on unchanged.
+     */
+    private static class AbstractLayer
+        implements TransformLayer
+    {
+        public MessageReceivedEvent messageReceived(MessageReceivedEvent evt)
+        {
+            return evt;
+        }
+
+        public MessageDeliveredEvent[] messageDeliveryPending(
+            MessageDeliveredEvent evt)
+        {
+            return new MessageDeliveredEvent[] { evt };
+        }
+
+        public MessageDeliveredEvent messageDelivered(
+            MessageDeliveredEvent evt)
+        {
+            return evt;
+        }
+
+        public MessageDeliveryFailedEvent messageDeliveryFailed(
+            MessageDeliveryFailedEvent evt)
+        {
+            return evt;
+        }
+    }
+
+    /**
+     * A layer which appends a suffix to received messages.
+     */
+    private static class AppendLayer
+        extends AbstractLayer
+    {
+        private final String suffix;
+
+        private int calls;
+
+        AppendLayer(String suffix)
+        {
+            this.suffix = suffix;
+        }
+
+        @Override
+        public MessageReceivedEvent messageReceived(MessageReceivedEvent evt)
+        {
+            calls++;
+            return new MessageReceivedEvent(
+                new MockMessage(evt.getSourceMessage().getContent() + suffix),
+                evt.getSourceContact(), evt.getTimestamp());
+        }
+    }
+
+    /**
+     * Like the OTR layer, decodes the received messages with the OTR prefix
+     * and passes plain messages on unchanged.
+     */
+    private static class OtrLayer
+        extends AbstractLayer
+    {
+        static final String PREFIX = "?OTR:";
+
+        @Override
+        public MessageReceivedEvent messageReceived(MessageReceivedEvent evt)
+        {
+            String content = evt.getSourceMessage().getContent();
+            if (!content.startsWith(PREFIX))
+                return evt;
+            return new MessageReceivedEvent(
+                new MockMessage(content.substring(PREFIX.length())),
+                evt.getSourceContact(), evt.getTimestamp());
+        }
+    }
+
+    /**
+     * Like a replacement layer, links the URLs of messages and passes
+     * messages without URLs on unchanged.
+     */
+    private static class ReplacementLayer
+        extends AbstractLayer
+    {
+        @Override
+        public MessageReceivedEvent messageReceived(MessageReceivedEvent evt)
+        {
+            String content = evt.getSourceMessage().getContent();
+            if (!content.contains("http://"))
+                return evt;
+            return new MessageReceivedEvent(
+                new MockMessage(content.replace("http://", "<a>http://")),
+                evt.getSourceContact(), evt.getTimestamp());
+        }
+
+        @Override
+        public MessageDeliveredEvent[] messageDeliveryPending(
+            MessageDeliveredEvent evt)
+        {
+            String content = evt.getSourceMessage().getContent();
+            if (!content.contains("http://"))
+                return new MessageDeliveredEvent[] { evt };
+            return new MessageDeliveredEvent[] {
+                new MessageDeliveredEvent(
+                    new MockMessage(content.replace("http://", "<a>http://")),
+                    evt.getDestinationContact()) };
+        }
+    }
+}
@@ -40,15 +40,16 @@
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ReplacementServiceSmileyImpl.class);
 
     /**
-     * The <tt>List</tt> of smiley strings which are matched by
-     * {@link #smileyRegex}.
+     * The regex used to match the smilies in the message.
      */
-    private static final List<String> smileyStrings = new ArrayList<String>();
+    public static String smileyRegex;
 
     /**
-     * The regex used to match the smilies in the message.
+     * The matcher and the pattern of the current smileys pack, or
+     * <tt>null</tt> if they have not been built yet. They are rebuilt when
+     * the pack is reloaded.
      */
-    public static String smileyRegex;
+    private static volatile Smilies smilies;
 
     /**
      * Replaces the smiley strings with their corresponding smiley image.
@@ -61,7 +62,8 @@ public String getReplacement(final String sourceString)
     {
         try
         {
-            Smiley smiley = Resources.getSmiley(sourceString.trim());
+            Smiley smiley
+                = getSmilies().matcher.getSmiley(sourceString.trim());
 
             if (smiley != null)
                 return smiley.getImagePath();
@@ -75,6 +77,32 @@ public String getReplacement(final String sourceString)
         return sourceString;
     }
 
+    /**
+     * Gets the matcher and the pattern of the current smileys pack, building
+     * them on first use.
+     *
+     * @return the matcher and the pattern of the current smileys pack
+     */
+    private static Smilies getSmilies()
+    {
+        Smilies smilies = ReplacementServiceSmileyImpl.smilies;
+
+        if (smilies == null)
+        {
+            synchronized (ReplacementServiceSmileyImpl.class)
+            {
+                smilies = ReplacementServiceSmileyImpl.smilies;
+                if (smilies == null)
+                {
+                    smilies = new Smilies(Resources.getDefaultSmileyPack());
+                    smileyRegex = smilies.pattern;
+                    ReplacementServiceSmileyImpl.smilies = smilies;
+                }
+            }
+        }
+        return smilies;
+    }
+
     /**
      * Gets a regex string which matches the smiley strings of the specified
      * <tt>Collection</tt> of <tt>Smiley</tt>s.
@@ -85,60 +113,22 @@ public String getReplacement(final String sourceString)
      * @return a regex string which matches the smiley strings of the specified
      *         <tt>Collection</tt> of <tt>Smiley</tt>s
      */
-    private static String getSmileyPattern(Collection<Smiley> smileys)
+    static String getSmileyPattern(Collection<Smiley> smileys)
     {
-        synchronized (smileyStrings)
-        {
-            boolean smileyStringsIsEqual;
+        StringBuilder regex = new StringBuilder();
 
-            if (smileyRegex == null)
-                smileyStringsIsEqual = false;
-            else
+        regex.append("(?<!(alt='|alt=\"))(");
+        for (Smiley smiley : smileys)
+            for (String smileyString : smiley.getSmileyStrings())
             {
-                smileyStringsIsEqual = true;
-
-                int smileyStringIndex = 0;
-                int smileyStringCount = smileyStrings.size();
-
-                smileyLoop: for (Smiley smiley : smileys)
-                    for (String smileyString : smiley.getSmileyStrings())
-                        if ((smileyStringIndex < smileyStringCount)
-                            && smileyString.equals(smileyStrings
-                                .get(smileyStringIndex)))
-                            smileyStringIndex++;
-                        else
-                        {
-                            smileyStringsIsEqual = false;
-                            break smileyLoop;
-                        }
-                if (smileyStringsIsEqual
-                    && (smileyStringIndex != smileyStringCount))
-                    smileyStringsIsEqual = false;
+                regex.append(
+                    replaceSpecialRegExpChars(smileyString))
+                    .append("|");
             }
+        regex = regex.deleteCharAt(regex.length() - 1);
+        regex.append(')');
 
-            if (!smileyStringsIsEqual)
-            {
-                smileyStrings.clear();
-
-                StringBuffer regex = new StringBuffer();
-
-                regex.append("(?<!(alt='|alt=\"))(");
-                for (Smiley smiley : smileys)
-                    for (String smileyString : smiley.getSmileyStrings())
-                    {
-                        smileyStrings.add(smileyString);
-
-                        regex.append(
-                            replaceSpecialRegExpChars(smileyString))
-                            .append("|");
-                    }
-                regex = regex.deleteCharAt(regex.length() - 1);
-                regex.append(')');
-
-                smileyRegex = regex.toString();
-            }
-            return smileyRegex;
-        }
+        return regex.toString();
     }
 
     /**
@@ -174,8 +164,7 @@ public String getDisplayName()
      */
     public String getPattern()
     {
-        Collection<Smiley> smileys = Resources.getDefaultSmileyPack();
-        return getSmileyPattern(smileys);
+        return getSmilies().pattern;
     }
 
     /**
@@ -188,11 +177,53 @@ public Collection<Smiley> getSmiliesPack()
         return Resources.getDefaultSmileyPack();
     }
 
+    /**
+     * Returns the matcher of the smiley strings of the smileys pack.
+     *
+     * @return the matcher of the smileys pack
+     */
+    public SmileyMatcher getSmileyMatcher()
+    {
+        return getSmilies().matcher;
+    }
+
     /**
      * Reloads all smilies.
      */
     public void reloadSmiliesPack()
     {
-        Resources.reloadResources();
+        synchronized (ReplacementServiceSmileyImpl.class)
+        {
+            Resources.reloadResources();
+            smilies = new Smilies(Resources.getDefaultSmileyPack());
+            smileyRegex = smilies.pattern;
+        }
+    }
+
+    /**
+     * The matcher and the pattern of a smileys pack.
+     */
+    private static class Smilies
+    {
+        /**
+         * The matcher of the smiley strings.
+         */
+        final SmileyMatcher matcher;
+
+        /**
+         * The regex which matches the smiley strings.
+         */
+        final String pattern;
+
+        /**
+         * Builds the matcher and the pattern of a smileys pack.
+         *
+         * @param smileys the smileys pack
+         */
+        Smilies(Collection<Smiley> smileys)
+        {
+            matcher = new SmileyMatcher(smileys);
+            pattern = getSmileyPattern(smileys);
+        }
     }
 }
@@ -0,0 +1,229 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.replacement.smiley;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.regex.*;
+
+import net.java.sip.communicator.service.replacement.smilies.*;
+
+import org.junit.*;
+
+public class SmileyMatcherTest
+{
+    /**
+     * Pieces of chat messages with smileys, prefixes of smileys and the
+     * prefixes which exclude smileys.
+     */
+    private static final String[] TOKENS = {
+        ":", ";", "-", ")", "(", "))", "((", ":-)", ":-))", ":)", ":((",
+        "(n)", "(N)", "(lol", ")", "(y)", "&lt;3", "&lt;", "3", "D", "p",
+        "alt='", "ALT=\"", "alt=", "'", "\"", " ", "hello", "é", "~", "*" };
+
+    private final SmileyMatcher matcher =
+        new SmileyMatcher(Resources.getDefaultSmileyPack());
+
+    @Test
+    public void testPrefixSmileys()
+    {
+        assertEquals(Arrays.asList(":-)@0"), find(":-)"));
+        assertEquals(Arrays.asList(":-))@0"), find(":-))"));
+        assertEquals(Arrays.asList(":-))@0"), find(":-)))"));
+        assertEquals(Arrays.asList(":((@4"), find("oh! :(("));
+        assertEquals(Arrays.asList(":(@0", ":)@3"), find(":( :)"));
+        assertEquals("Laughing",
+            matcher.findAll(":-))").get(0).getSmiley().getDescription());
+        assertEquals("Smile",
+            matcher.findAll(":-)").get(0).getSmiley().getDescription());
+    }
+
+    @Test
+    public void testOverlappingSmileys()
+    {
+        assertEquals(Arrays.asList(":-(@0", ":-)@3"), find(":-(:-)"));
+        assertEquals(Arrays.asList(";-))@0", ":)@4"), find(";-)):)"));
+        assertEquals(Arrays.asList("(n)@0", "(N)@3"), find("(n)(N)"));
+        assertEquals(Arrays.asList(":-)@1"), find("::-)"));
+        assertEquals(Arrays.asList("(y)@4"), find("(lol(y)"));
+        assertEquals(Arrays.asList("&lt;3@1"), find("&&lt;3"));
+    }
+
+    @Test
+    public void testExcludedPrefixes()
+    {
+        assertTrue(find("<img alt=':-)'>").isEmpty());
+        assertTrue(find("alt=\":-)").isEmpty());
+        assertEquals(Arrays.asList(":-)@5"), find("ALT=\":-)"));
+        assertEquals(Arrays.asList(":)@8"), find("alt=':-):)"));
+        assertTrue(find("alt=':-))").isEmpty());
+        assertEquals(Arrays.asList(":-)@5"), find("alt=::-)"));
+    }
+
+    @Test
+    public void testNoSmileys()
+    {
+        assertTrue(find("").isEmpty());
+        assertTrue(find("just some text - (or not)").isEmpty());
+        assertTrue(new SmileyMatcher(Collections.<Smiley>emptyList())
+            .findAll(":-)").isEmpty());
+    }
+
+    @Test
+    public void testSmileyLookup()
+    {
+        assertEquals("Wink", matcher.getSmiley(";)").getDescription());
+        assertNull(matcher.getSmiley(":-|"));
+        assertTrue(matcher.getSmileyStrings().contains("(angel)"));
+    }
+
+    @Test
+    public void testPatternIsCached()
+    {
+        final ReplacementServiceSmileyImpl service =
+            new ReplacementServiceSmileyImpl();
+        final String pattern = service.getPattern();
+        final SmileyMatcher smileyMatcher = service.getSmileyMatcher();
+        assertSame(pattern, service.getPattern());
+        assertSame(smileyMatcher, service.getSmileyMatcher());
+        service.reloadSmiliesPack();
+        assertEquals(pattern, service.getPattern());
+        assertNotSame(smileyMatcher, service.getSmileyMatcher());
+        assertEquals(":-|", service.getReplacement(":-|"));
+    }
+
+    /**
+     * Random messages give the same matches as the pattern of the smiley
+     * replacement service.
+     */
+    @Test
+    public void testSameAsPattern()
+    {
+        final Pattern pattern = Pattern.compile(
+            ReplacementServiceSmileyImpl.getSmileyPattern(
+                Resources.getDefaultSmileyPack()));
+        final Random random = new Random(3L);
+        for (int i = 0; i < 20000; i++)
+        {
+            final StringBuilder message = new StringBuilder();
+            final int length = random.nextInt(16);
+            for (int t = 0; t < length; t++)
+            {
+                message.append(TOKENS[random.nextInt(TOKENS.length)]);
+            }
+            assertEquals(message.toString(), findWithPattern(pattern,
+                message.toString()), find(message.toString()));
+        }
+    }
+
+    /**
+     * A long message gives the same matches as the pattern of the smiley
+     * replacement service.
+     */
+    @Test
+    public void testLongMessageSameAsPattern()
+    {
+        final Pattern pattern = Pattern.compile(
+            ReplacementServiceSmileyImpl.getSmileyPattern(
+                Resources.getDefaultSmileyPack()));
+        final String message = longMessage();
+        final List<String> found = find(message);
+        assertFalse(found.isEmpty());
+        assertEquals(findWithPattern(pattern, message), found);
+    }
+
+    /**
+     * Microbenchmark of smileys in chat messages, found with the pattern and
+     * with the matcher. The timings are printed. Skipped unless the
+     * <tt>benchmark</tt> system property is set.
+     */
+    @Test
+    public void testThroughputBenchmark()
+    {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+
+        final Pattern pattern = Pattern.compile(
+            ReplacementServiceSmileyImpl.getSmileyPattern(
+                Resources.getDefaultSmileyPack()), Pattern.CASE_INSENSITIVE);
+        final String message = longMessage();
+        final int rounds = 20;
+
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+        {
+            final Matcher m = pattern.matcher(message);
+            while (m.find())
+            {
+                found++;
+            }
+        }
+        final long patternTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+        {
+            found += matcher.findAll(message).size();
+        }
+        final long matcherTime = System.nanoTime() - start;
+        assertTrue(found > 0);
+        System.out.println("Smileys in " + message.length() / 1000
+            + "k chars: pattern " + patternTime / rounds / 1000
+            + " us, matcher " + matcherTime / rounds / 1000 + " us");
+    }
+
+    /**
+     * Gets a chat message of 100k chars with some smileys.
+     */
+    private static String longMessage()
+    {
+        final Random random = new Random(11L);
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < 100000)
+        {
+            text.append(random.nextInt(10) == 0
+                ? TOKENS[random.nextInt(TOKENS.length)]
+                : "some words of a chat message (really) ");
+        }
+        return text.toString();
+    }
+
+    private List<String> find(final String text)
+    {
+        final List<String> result = new ArrayList<String>();
+        for (SmileyMatcher.Match match : matcher.findAll(text))
+        {
+            assertEquals(match.getSmileyString(),
+                text.substring(match.getStart(), match.getEnd()));
+            result.add(match.toString());
+        }
+        return result;
+    }
+
+    private static List<String> findWithPattern(final Pattern pattern,
+        final String text)
+    {
+        final List<String> result = new ArrayList<String>();
+        final Matcher m = pattern.matcher(text);
+        while (m.find())
+        {
+            result.add(m.group() + "@" + m.start());
+        }
+        return result;
+    }
+}
@@ -19,8 +19,11 @@
 
 import java.io.*;
 import java.lang.reflect.*;
+import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
 import net.java.sip.communicator.launchutils.*;
+import net.java.sip.communicator.util.osgi.*;
 import org.jitsi.impl.osgi.framework.*;
 import org.jitsi.impl.osgi.framework.launch.*;
 import org.jitsi.osgi.framework.*;
@@ -121,17 +124,9 @@ private static Framework startCustomOsgi() throws BundleException
         Framework fw = new FrameworkImpl(options, Jitsi.class.getClassLoader());
         fw.init();
         var bundleContext = fw.getBundleContext();
-        var reflections = new Reflections(new ConfigurationBuilder()
-            .addClassLoaders(Jitsi.class.getClassLoader())
-            .forPackages("org.jitsi", "net.java.sip"));
-
-        for (final var activator : reflections.getSubTypesOf(BundleActivator.class))
+        for (final var activator
+            : findBundleActivators(Jitsi.class.getClassLoader()))
         {
-            if ((activator.getModifiers() & Modifier.ABSTRACT) == Modifier.ABSTRACT)
-            {
-                continue;
-            }
-
             var url = activator.getProtectionDomain().getCodeSource().getLocation().toString();
             var bundle = bundleContext.installBundle(url);
             var startLevel = bundle.adapt(BundleStartLevel.class);
@@ -141,10 +136,226 @@ private static Framework startCustomOsgi() throws BundleException
         }
 
         new SplashScreenUpdater(bundleContext.getBundles().length, bundleContext);
+        long start = System.nanoTime();
         fw.start();
+        reportBundleStart(start);
         return fw;
     }
 
+    /**
+     * Waits for the bundles which start in parallel and logs the bundles
+     * which failed, sorted by name to get the same report on every run.
+     *
+     * @param start the time in ns at which the framework was started
+     */
+    private static void reportBundleStart(long start)
+    {
+        Logger logger = LoggerFactory.getLogger(Jitsi.class);
+        var executor = BundleStartExecutor.getInstance();
+        try
+        {
+            if (!executor.awaitIdle(1, TimeUnit.MINUTES))
+            {
+                logger.warn("Bundles are still starting after one minute");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        var failures = executor.getFailures();
+        logger.info("Started bundles {} in {} ms, {} failed {}",
+            executor.isParallel() ? "in parallel" : "serially",
+            (System.nanoTime() - start) / 1_000_000,
+            failures.size(), failures.keySet());
+    }
+
+    /**
+     * The packages that are scanned for bundle activators.
+     */
+    private static final String[] ACTIVATOR_PACKAGES
+        = { "org.jitsi", "net.java.sip" };
+
+    /**
+     * Finds the bundle activators in the index written at build time. Jars
+     * and directories of these packages which have no index, for example
+     * third party libraries or bundles compiled without the index processor,
+     * are logged but not scanned. Falls back to scanning the whole class path
+     * if there is no index at all.
+     *
+     * @param classLoader the class loader of the bundles
+     * @return the concrete bundle activators
+     */
+    static Collection<Class<? extends BundleActivator>> findBundleActivators(
+        ClassLoader classLoader)
+    {
+        Logger logger = LoggerFactory.getLogger(Jitsi.class);
+        long start = System.nanoTime();
+        Collection<Class<? extends BundleActivator>> activators = null;
+        try
+        {
+            activators = readBundleActivators(classLoader);
+        }
+        catch (IOException | ReflectiveOperationException | LinkageError e)
+        {
+            logger.warn("Failed to read the bundle activator index", e);
+        }
+
+        String source = "index";
+        if (activators == null)
+        {
+            activators = scanBundleActivators(classLoader);
+            source = "class path scan";
+        }
+        else
+        {
+            try
+            {
+                var unindexed = findUnindexedLocations(classLoader, activators);
+                if (!unindexed.isEmpty())
+                {
+                    logger.info("Not scanning {} for bundle activators,"
+                        + " they have no index", unindexed);
+                }
+            }
+            catch (IOException e)
+            {
+                logger.warn("Failed to list the bundle activator indexes", e);
+            }
+        }
+
+        logger.info("Found {} bundle activators by {} in {} ms",
+            activators.size(), source,
+            (System.nanoTime() - start) / 1_000_000);
+        return activators;
+    }
+
+    /**
+     * Reads the bundle activators from the index written at build time, in
+     * the order of their dependencies such that the providers of services
+     * are installed and started before the bundles waiting for them.
+     *
+     * @param classLoader the class loader of the bundles
+     * @return the bundle activators, or <tt>null</tt> if there is no index
+     * @throws IOException if the index could not be read
+     * @throws ClassNotFoundException if an indexed activator is missing
+     */
+    static Collection<Class<? extends BundleActivator>> readBundleActivators(
+        ClassLoader classLoader)
+        throws IOException, ClassNotFoundException
+    {
+        var entries = ActivatorIndex.read(classLoader);
+        if (entries == null)
+        {
+            return null;
+        }
+
+        var graph = new BundleGraph(entries);
+        Logger logger = LoggerFactory.getLogger(Jitsi.class);
+        for (var cyclic : graph.getCyclicActivators())
+        {
+            logger.warn("Bundle activator {} depends on its own services",
+                cyclic);
+        }
+        if (logger.isDebugEnabled())
+        {
+            graph.getUnprovidedServices().forEach((activator, services) ->
+                logger.debug("No indexed bundle provides {} for {}",
+                    services, activator));
+        }
+
+        var activators = new LinkedHashSet<Class<? extends BundleActivator>>();
+        for (var entry : graph.getStartOrder())
+        {
+            activators.add(classLoader.loadClass(entry.getActivator())
+                .asSubclass(BundleActivator.class));
+        }
+        return activators;
+    }
+
+    /**
+     * Finds the jars and directories with classes of the scanned packages
+     * which have no index and whose activators are not listed as external
+     * activators.
+     *
+     * @param classLoader the class loader of the bundles
+     * @param activators the activators found in the index
+     * @return the locations without index
+     * @throws IOException if the index resources could not be listed
+     */
+    static Collection<URL> findUnindexedLocations(ClassLoader classLoader,
+        Collection<Class<? extends BundleActivator>> activators)
+        throws IOException
+    {
+        var indexed = ActivatorIndex.locations(classLoader);
+        for (var activator : activators)
+        {
+            var codeSource = activator.getProtectionDomain().getCodeSource();
+            if (codeSource != null && codeSource.getLocation() != null)
+            {
+                indexed.add(codeSource.getLocation().toString());
+            }
+        }
+
+        var unindexed = new LinkedHashSet<URL>();
+        for (var activatorPackage : ACTIVATOR_PACKAGES)
+        {
+            for (var url
+                : ClasspathHelper.forPackage(activatorPackage, classLoader))
+            {
+                if (!indexed.contains(location(url)))
+                {
+                    unindexed.add(url);
+                }
+            }
+        }
+        return unindexed;
+    }
+
+    /**
+     * Gets the location of a jar or directory in the form of the code source
+     * location of its classes.
+     *
+     * @param url the URL of the jar or directory
+     * @return the location
+     */
+    private static String location(URL url)
+    {
+        var location = url.toString();
+        if (location.startsWith("jar:") && location.endsWith("!/"))
+        {
+            return location.substring(4, location.length() - 2);
+        }
+        return location;
+    }
+
+    /**
+     * Scans the class path for the bundle activators.
+     *
+     * @param classLoader the class loader of the bundles
+     * @return the concrete bundle activators
+     */
+    static Collection<Class<? extends BundleActivator>> scanBundleActivators(
+        ClassLoader classLoader)
+    {
+        var reflections = new Reflections(new ConfigurationBuilder()
+            .addClassLoaders(classLoader)
+            .forPackages(ACTIVATOR_PACKAGES));
+
+        var activators = new LinkedHashSet<Class<? extends BundleActivator>>();
+        for (final var activator : reflections.getSubTypesOf(BundleActivator.class))
+        {
+            if ((activator.getModifiers() & Modifier.ABSTRACT) == Modifier.ABSTRACT)
+            {
+                continue;
+            }
+
+            activators.add(activator);
+        }
+        return activators;
+    }
+
     private static void init()
     {
         setSystemProperties();
@@ -0,0 +1,94 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.launcher;
+
+import static org.junit.Assert.*;
+
+import java.net.*;
+import java.util.*;
+
+import org.junit.*;
+import org.osgi.framework.*;
+
+public class JitsiTest
+{
+    /**
+     * The index written at build time lists the same bundle activators as the
+     * class path scan it replaces.
+     */
+    @Test
+    public void testIndexFindsTheScannedActivators() throws Exception
+    {
+        final ClassLoader classLoader = Jitsi.class.getClassLoader();
+        final Collection<Class<? extends BundleActivator>> indexed =
+            Jitsi.readBundleActivators(classLoader);
+        final Collection<Class<? extends BundleActivator>> scanned =
+            Jitsi.scanBundleActivators(classLoader);
+
+        assertNotNull("no bundle activator index", indexed);
+        assertFalse(scanned.isEmpty());
+        assertEquals(names(scanned), names(indexed));
+    }
+
+    @Test
+    public void testFindBundleActivatorsUsesIndex()
+    {
+        final Collection<Class<? extends BundleActivator>> activators =
+            Jitsi.findBundleActivators(Jitsi.class.getClassLoader());
+        assertTrue(names(activators).contains(
+            "net.java.sip.communicator.argdelegation.ArgDelegationActivator"));
+    }
+
+    /**
+     * The jars and directories without an index are not scanned, only the
+     * indexed activators are found.
+     */
+    @Test
+    public void testUnindexedLocationsAreNotScanned() throws Exception
+    {
+        final ClassLoader classLoader = Jitsi.class.getClassLoader();
+        final Collection<Class<? extends BundleActivator>> indexed =
+            Jitsi.readBundleActivators(classLoader);
+        final Collection<URL> unindexed =
+            Jitsi.findUnindexedLocations(classLoader, indexed);
+
+        for (Class<? extends BundleActivator> activator : indexed)
+        {
+            final String location = activator.getProtectionDomain()
+                .getCodeSource().getLocation().toString();
+            for (URL url : unindexed)
+            {
+                assertFalse(activator.getName(),
+                    url.toString().contains(location));
+            }
+        }
+        assertEquals(names(indexed),
+            names(Jitsi.findBundleActivators(classLoader)));
+    }
+
+    private static SortedSet<String> names(
+        final Collection<Class<? extends BundleActivator>> activators)
+    {
+        final SortedSet<String> names = new TreeSet<String>();
+        for (Class<? extends BundleActivator> activator : activators)
+        {
+            names.add(activator.getName());
+        }
+        return names;
+    }
+}
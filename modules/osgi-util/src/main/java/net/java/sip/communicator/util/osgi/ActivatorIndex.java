@@ -0,0 +1,298 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util.osgi;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * The index of the <tt>BundleActivator</tt>s of the bundles, which is written
+ * at build time by {@link ActivatorIndexProcessor} into each jar, such that
+ * the launcher does not have to scan the class path on start.
+ *
+ * Each line of an index resource describes an activator of the jar:
+ * <pre>
+ * activator|required services|provided services
+ * </pre>
+ * The services are comma separated class names. The required services are
+ * <tt>?</tt> if they could not be determined at build time.
+ *
+ * Jars which are not built with the index, such as libjitsi, are listed by
+ * the launcher in the {@link #EXTERNAL_RESOURCE} in the same format.
+ */
+public final class ActivatorIndex
+{
+    /**
+     * The name of the index resource in the jars.
+     */
+    public static final String RESOURCE = "META-INF/jitsi/bundle-activators";
+
+    /**
+     * The name of the resource which lists the activators of jars without an
+     * index.
+     */
+    public static final String EXTERNAL_RESOURCE
+        = "META-INF/jitsi/external-bundle-activators";
+
+    /**
+     * Marks required services which could not be determined.
+     */
+    static final String UNKNOWN = "?";
+
+    private ActivatorIndex()
+    {
+    }
+
+    /**
+     * Reads the index resources visible to a class loader.
+     *
+     * @param classLoader the class loader
+     * @return the activators of all jars with an index and the external
+     *         activators, or <tt>null</tt> if there is no index at all
+     * @throws IOException if an index could not be read
+     */
+    public static List<Entry> read(ClassLoader classLoader)
+        throws IOException
+    {
+        Enumeration<URL> resources = classLoader.getResources(RESOURCE);
+
+        if (!resources.hasMoreElements())
+            return null;
+
+        List<Entry> entries = new ArrayList<>();
+        while (resources.hasMoreElements())
+        {
+            URL resource = resources.nextElement();
+
+            try (InputStream in = resource.openStream())
+            {
+                entries.addAll(parse(location(resource), in));
+            }
+        }
+
+        resources = classLoader.getResources(EXTERNAL_RESOURCE);
+        while (resources.hasMoreElements())
+        {
+            try (InputStream in = resources.nextElement().openStream())
+            {
+                entries.addAll(parse(null, in));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Gets the locations of the jars and directories with an index.
+     *
+     * @param classLoader the class loader
+     * @return the locations, in the form of the code source location of the
+     *         classes of the jars
+     * @throws IOException if the index resources could not be listed
+     */
+    public static Set<String> locations(ClassLoader classLoader)
+        throws IOException
+    {
+        Set<String> locations = new LinkedHashSet<>();
+        Enumeration<URL> resources = classLoader.getResources(RESOURCE);
+
+        while (resources.hasMoreElements())
+            locations.add(location(resources.nextElement()));
+        return locations;
+    }
+
+    /**
+     * Parses an index resource.
+     *
+     * @param location the location of the jar of the index, <tt>null</tt>
+     *            for the external activators
+     * @param in the content of the index
+     * @return the activators of the index
+     * @throws IOException if the index could not be read
+     */
+    static List<Entry> parse(String location, InputStream in)
+        throws IOException
+    {
+        List<Entry> entries = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+
+        while ((line = reader.readLine()) != null)
+        {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] fields = line.split("\\|", -1);
+            Set<String> requires = UNKNOWN.equals(field(fields, 1))
+                ? null
+                : split(field(fields, 1));
+
+            entries.add(new Entry(
+                fields[0], location, requires, split(field(fields, 2))));
+        }
+        return entries;
+    }
+
+    /**
+     * Writes an index resource.
+     *
+     * @param entries the activators of the index
+     * @param out receives the content of the index
+     * @throws IOException if the index could not be written
+     */
+    static void write(Collection<Entry> entries, OutputStream out)
+        throws IOException
+    {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+
+        writer.write("# activator|required services|provided services\n");
+        for (Entry entry : entries)
+        {
+            writer.write(entry.getActivator());
+            writer.write('|');
+            writer.write(entry.getRequiredServices() == null
+                ? UNKNOWN
+                : String.join(",", entry.getRequiredServices()));
+            writer.write('|');
+            writer.write(String.join(",", entry.getProvidedServices()));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * Gets the location of the jar or directory of an index resource, in the
+     * form of the code source location of its classes.
+     *
+     * @param resource the index resource
+     * @return the location of the jar or directory
+     */
+    static String location(URL resource)
+    {
+        String url = resource.toString();
+        String location = url.substring(0, url.length() - RESOURCE.length());
+
+        if (location.startsWith("jar:") && location.endsWith("!/"))
+            return location.substring(4, location.length() - 2);
+        return location;
+    }
+
+    private static String field(String[] fields, int index)
+    {
+        return (index < fields.length) ? fields[index].trim() : "";
+    }
+
+    private static Set<String> split(String services)
+    {
+        Set<String> result = new LinkedHashSet<>();
+
+        for (String service : services.split(","))
+        {
+            if (!service.trim().isEmpty())
+                result.add(service.trim());
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * A <tt>BundleActivator</tt> in the index.
+     */
+    public static final class Entry
+    {
+        private final String activator;
+
+        private final String location;
+
+        private final Set<String> requiredServices;
+
+        private final Set<String> providedServices;
+
+        /**
+         * Creates an entry.
+         *
+         * @param activator the class name of the activator
+         * @param location the location of the jar of the activator or
+         *            <tt>null</tt>
+         * @param requiredServices the class names of the services the
+         *            activator waits for, or <tt>null</tt> if unknown
+         * @param providedServices the class names of the services the
+         *            activator registers
+         */
+        Entry(String activator, String location, Set<String> requiredServices,
+            Set<String> providedServices)
+        {
+            this.activator = activator;
+            this.location = location;
+            this.requiredServices = requiredServices;
+            this.providedServices = providedServices;
+        }
+
+        /**
+         * Gets the class name of the activator.
+         *
+         * @return the binary class name of the activator
+         */
+        public String getActivator()
+        {
+            return activator;
+        }
+
+        /**
+         * Gets the location of the jar of the activator, the same as the
+         * code source location of the activator class.
+         *
+         * @return the location of the jar of the activator, <tt>null</tt>
+         *         for external activators
+         */
+        public String getLocation()
+        {
+            return location;
+        }
+
+        /**
+         * Gets the services the activator waits for before it starts, as
+         * declared to {@link DependentActivator}.
+         *
+         * @return the class names of the required services, or <tt>null</tt>
+         *         if they could not be determined at build time
+         */
+        public Set<String> getRequiredServices()
+        {
+            return requiredServices;
+        }
+
+        /**
+         * Gets the services the activator registers under a class literal.
+         *
+         * @return the class names of the provided services
+         */
+        public Set<String> getProvidedServices()
+        {
+            return providedServices;
+        }
+
+        @Override
+        public String toString()
+        {
+            return activator + "@" + location;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util.osgi;
+
+import java.io.*;
+import java.util.*;
+
+import javax.annotation.processing.*;
+import javax.lang.model.*;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.*;
+import javax.tools.*;
+
+import com.sun.source.tree.*;
+import com.sun.source.util.*;
+
+/**
+ * Writes the {@link ActivatorIndex} of a module at build time. It is run by
+ * the compiler for every module, see the <tt>annotationProcessorPaths</tt>
+ * of the root pom, and does not claim any annotations.
+ *
+ * Every concrete, public <tt>BundleActivator</tt> which is compiled is
+ * indexed. The services required by a {@link DependentActivator} are taken
+ * from the class literals passed to its constructor, and the provided
+ * services from the class literals passed to <tt>registerService</tt> in the
+ * activator.
+ */
+@SupportedAnnotationTypes("*")
+public class ActivatorIndexProcessor
+    extends AbstractProcessor
+{
+    private static final String BUNDLE_ACTIVATOR
+        = "org.osgi.framework.BundleActivator";
+
+    private static final String DEPENDENT_ACTIVATOR
+        = "net.java.sip.communicator.util.osgi.DependentActivator";
+
+    /**
+     * The indexed activators by class name.
+     */
+    private final Map<String, ActivatorIndex.Entry> entries = new TreeMap<>();
+
+    private Trees trees;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv)
+    {
+        super.init(processingEnv);
+        try
+        {
+            trees = Trees.instance(processingEnv);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Not javac. The services are not indexed.
+            trees = null;
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+        RoundEnvironment roundEnv)
+    {
+        TypeElement activatorType = processingEnv.getElementUtils()
+            .getTypeElement(BUNDLE_ACTIVATOR);
+
+        if (activatorType != null)
+        {
+            for (TypeElement type
+                : ElementFilter.typesIn(roundEnv.getRootElements()))
+            {
+                index(type, activatorType.asType());
+            }
+        }
+
+        if (roundEnv.processingOver() && !entries.isEmpty())
+        {
+            try (OutputStream out = processingEnv.getFiler().createResource(
+                    StandardLocation.CLASS_OUTPUT, "", ActivatorIndex.RESOURCE)
+                .openOutputStream())
+            {
+                ActivatorIndex.write(entries.values(), out);
+            }
+            catch (IOException e)
+            {
+                processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.ERROR,
+                    "Failed to write " + ActivatorIndex.RESOURCE + ": " + e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indexes a type and its member types if they are activators.
+     *
+     * @param type the type
+     * @param activatorType the <tt>BundleActivator</tt> interface
+     */
+    private void index(TypeElement type, TypeMirror activatorType)
+    {
+        Types types = processingEnv.getTypeUtils();
+
+        for (TypeElement member : ElementFilter.typesIn(
+            type.getEnclosedElements()))
+        {
+            if (member.getModifiers().contains(Modifier.STATIC))
+                index(member, activatorType);
+        }
+
+        Set<Modifier> modifiers = type.getModifiers();
+        if (type.getKind() != ElementKind.CLASS
+            || modifiers.contains(Modifier.ABSTRACT)
+            || !modifiers.contains(Modifier.PUBLIC)
+            || !types.isAssignable(types.erasure(type.asType()), activatorType))
+        {
+            return;
+        }
+
+        String name = processingEnv.getElementUtils().getBinaryName(type)
+            .toString();
+        entries.put(name, new ActivatorIndex.Entry(name, null,
+            requiredServices(type), providedServices(type)));
+    }
+
+    /**
+     * Gets the services a <tt>DependentActivator</tt> waits for.
+     *
+     * @param type the activator
+     * @return the class names of the services, empty if the activator is no
+     *         <tt>DependentActivator</tt>, <tt>null</tt> if they cannot be
+     *         determined
+     */
+    private Set<String> requiredServices(TypeElement type)
+    {
+        TypeMirror superclass = type.getSuperclass();
+
+        if (superclass.getKind() != TypeKind.DECLARED)
+            return Collections.emptySet();
+
+        TypeElement superType = (TypeElement) processingEnv.getTypeUtils()
+            .asElement(superclass);
+        boolean dependent = superType.getQualifiedName().contentEquals(
+            DEPENDENT_ACTIVATOR);
+
+        if (!dependent && !isDependentActivator(superType))
+            return Collections.emptySet();
+        if (trees == null)
+            return null;
+
+        // The framework creates activators with the constructor without
+        // parameters.
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(
+            type.getEnclosedElements()))
+        {
+            if (!constructor.getParameters().isEmpty())
+                continue;
+
+            // The constructor of a class without constructors calls super()
+            // and has no tree.
+            TreePath path = null;
+            List<? extends ExpressionTree> arguments = Collections.emptyList();
+            if (processingEnv.getElementUtils().getOrigin(constructor)
+                != Elements.Origin.MANDATED)
+            {
+                path = trees.getPath(constructor);
+                MethodInvocationTree superCall = (path == null)
+                    ? null
+                    : superCall((MethodTree) path.getLeaf());
+                if (superCall == null)
+                    return null;
+                arguments = superCall.getArguments();
+            }
+
+            if (!dependent)
+            {
+                // Declared by an abstract activator in between.
+                return arguments.isEmpty() ? requiredServices(superType) : null;
+            }
+
+            Set<String> services = new LinkedHashSet<>();
+            for (ExpressionTree argument : arguments)
+            {
+                String service = classLiteral(path, argument);
+                if (service == null)
+                    return null;
+                services.add(service);
+            }
+            return Collections.unmodifiableSet(services);
+        }
+        return null;
+    }
+
+    /**
+     * Determines whether a type extends <tt>DependentActivator</tt>.
+     *
+     * @param type the type
+     * @return <tt>true</tt> if <tt>type</tt> extends
+     *         <tt>DependentActivator</tt>
+     */
+    private boolean isDependentActivator(TypeElement type)
+    {
+        TypeElement dependentActivator = processingEnv.getElementUtils()
+            .getTypeElement(DEPENDENT_ACTIVATOR);
+
+        return dependentActivator != null
+            && processingEnv.getTypeUtils().isSubtype(
+                processingEnv.getTypeUtils().erasure(type.asType()),
+                processingEnv.getTypeUtils().erasure(
+                    dependentActivator.asType()));
+    }
+
+    /**
+     * Gets the <tt>super(...)</tt> call of a constructor.
+     *
+     * @param constructor the constructor
+     * @return the call or <tt>null</tt> if the constructor calls
+     *         <tt>this(...)</tt>
+     */
+    private static MethodInvocationTree superCall(MethodTree constructor)
+    {
+        for (StatementTree statement : constructor.getBody().getStatements())
+        {
+            if (statement instanceof ExpressionStatementTree
+                && ((ExpressionStatementTree) statement).getExpression()
+                    instanceof MethodInvocationTree)
+            {
+                MethodInvocationTree call = (MethodInvocationTree)
+                    ((ExpressionStatementTree) statement).getExpression();
+                String method = call.getMethodSelect().toString();
+
+                if (method.equals("super"))
+                    return call;
+                if (method.equals("this"))
+                    return null;
+            }
+            break;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the services which an activator registers under a class literal,
+     * that is <tt>registerService(Service.class, ...)</tt> or
+     * <tt>registerService(Service.class.getName(), ...)</tt>.
+     *
+     * @param type the activator
+     * @return the class names of the services
+     */
+    private Set<String> providedServices(TypeElement type)
+    {
+        if (trees == null)
+            return Collections.emptySet();
+
+        TreePath path = trees.getPath(type);
+        if (path == null)
+            return Collections.emptySet();
+
+        Set<String> services = new TreeSet<>();
+        new TreePathScanner<Void, Void>()
+        {
+            @Override
+            public Void visitMethodInvocation(MethodInvocationTree node,
+                Void p)
+            {
+                ExpressionTree select = node.getMethodSelect();
+                String method = (select instanceof MemberSelectTree)
+                    ? ((MemberSelectTree) select).getIdentifier().toString()
+                    : select.toString();
+
+                if (method.equals("registerService")
+                    && !node.getArguments().isEmpty())
+                {
+                    ExpressionTree argument = node.getArguments().get(0);
+
+                    // Service.class.getName()
+                    if (argument instanceof MethodInvocationTree
+                        && ((MethodInvocationTree) argument).getArguments()
+                            .isEmpty()
+                        && ((MethodInvocationTree) argument).getMethodSelect()
+                            instanceof MemberSelectTree)
+                    {
+                        MemberSelectTree getName = (MemberSelectTree)
+                            ((MethodInvocationTree) argument).getMethodSelect();
+
+                        if (getName.getIdentifier().contentEquals("getName"))
+                            argument = getName.getExpression();
+                    }
+
+                    String service = classLiteral(getCurrentPath(), argument);
+                    if (service != null)
+                        services.add(service);
+                }
+                return super.visitMethodInvocation(node, p);
+            }
+        }.scan(path, null);
+        return Collections.unmodifiableSet(services);
+    }
+
+    /**
+     * Gets the class named by a class literal.
+     *
+     * @param path a path in the compilation unit of the expression
+     * @param expression the expression
+     * @return the binary name of the class or <tt>null</tt> if
+     *         <tt>expression</tt> is no class literal
+     */
+    private String classLiteral(TreePath path, ExpressionTree expression)
+    {
+        if (!(expression instanceof MemberSelectTree)
+            || !((MemberSelectTree) expression).getIdentifier()
+                .contentEquals("class"))
+        {
+            return null;
+        }
+
+        TreePath literal = TreePath.getPath(path.getCompilationUnit(),
+            ((MemberSelectTree) expression).getExpression());
+        Element element = (literal == null) ? null : trees.getElement(literal);
+
+        return (element instanceof TypeElement)
+            ? processingEnv.getElementUtils()
+                .getBinaryName((TypeElement) element).toString()
+            : null;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util.osgi;
+
+import java.util.*;
+
+/**
+ * The dependencies between the bundle activators of the
+ * {@link ActivatorIndex}: an activator depends on the activators which provide
+ * the services it requires. Installing the bundles in the start order lets the
+ * providers start first, such that a {@link DependentActivator} finds its
+ * services already registered instead of waiting for them.
+ */
+public final class BundleGraph
+{
+    /**
+     * The activators in the order in which they should start.
+     */
+    private final List<ActivatorIndex.Entry> startOrder = new ArrayList<>();
+
+    /**
+     * The required services which no activator provides, by activator.
+     */
+    private final SortedMap<String, SortedSet<String>> unprovidedServices
+        = new TreeMap<>();
+
+    /**
+     * The activators which depend on themselves through other activators.
+     */
+    private final SortedSet<String> cyclicActivators = new TreeSet<>();
+
+    /**
+     * Computes the start order of index entries.
+     *
+     * @param entries the entries in the order of the index
+     */
+    public BundleGraph(Collection<ActivatorIndex.Entry> entries)
+    {
+        List<ActivatorIndex.Entry> nodes = new ArrayList<>(entries);
+        Map<String, List<Integer>> providers = new HashMap<>();
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            for (String service : nodes.get(i).getProvidedServices())
+            {
+                providers.computeIfAbsent(service, s -> new ArrayList<>())
+                    .add(i);
+            }
+        }
+
+        List<Set<Integer>> dependents = new ArrayList<>(nodes.size());
+        int[] dependencies = new int[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            dependents.add(new TreeSet<>());
+        }
+
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            ActivatorIndex.Entry node = nodes.get(i);
+            Set<String> required = node.getRequiredServices();
+            if (required == null)
+            {
+                continue;
+            }
+
+            Set<Integer> from = new TreeSet<>();
+            for (String service : required)
+            {
+                List<Integer> p = providers.get(service);
+                if (p == null)
+                {
+                    unprovidedServices
+                        .computeIfAbsent(node.getActivator(),
+                            a -> new TreeSet<>())
+                        .add(service);
+                    continue;
+                }
+
+                for (int provider : p)
+                {
+                    if (provider != i)
+                    {
+                        from.add(provider);
+                    }
+                }
+            }
+
+            for (int provider : from)
+            {
+                dependents.get(provider).add(i);
+                dependencies[i]++;
+            }
+        }
+
+        // Kahn's algorithm, ties are broken by the order of the index
+        PriorityQueue<Integer> ready = new PriorityQueue<>();
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            if (dependencies[i] == 0)
+            {
+                ready.add(i);
+            }
+        }
+
+        boolean[] ordered = new boolean[nodes.size()];
+        while (!ready.isEmpty())
+        {
+            int i = ready.poll();
+            ordered[i] = true;
+            startOrder.add(nodes.get(i));
+            for (int dependent : dependents.get(i))
+            {
+                if (--dependencies[dependent] == 0)
+                {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        // what is left is in a cycle or depends on one, and starts last
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            if (!ordered[i])
+            {
+                startOrder.add(nodes.get(i));
+                if (reaches(i, i, dependents))
+                {
+                    cyclicActivators.add(nodes.get(i).getActivator());
+                }
+            }
+        }
+    }
+
+    private static boolean reaches(int from, int to,
+        List<Set<Integer>> dependents)
+    {
+        Deque<Integer> stack = new ArrayDeque<>(dependents.get(from));
+        Set<Integer> seen = new HashSet<>();
+        while (!stack.isEmpty())
+        {
+            int i = stack.pop();
+            if (i == to)
+            {
+                return true;
+            }
+            if (seen.add(i))
+            {
+                stack.addAll(dependents.get(i));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the activators in the order in which they should start: every
+     * activator comes after the providers of its required services, and
+     * otherwise in the order of the index. Activators in a cycle come last.
+     *
+     * @return the entries in start order
+     */
+    public List<ActivatorIndex.Entry> getStartOrder()
+    {
+        return Collections.unmodifiableList(startOrder);
+    }
+
+    /**
+     * Gets the required services which no indexed activator provides under a
+     * class literal. Such services may still be registered by a bundle which
+     * is not indexed or under a computed name.
+     *
+     * @return the services by activator, sorted by name
+     */
+    public SortedMap<String, SortedSet<String>> getUnprovidedServices()
+    {
+        return Collections.unmodifiableSortedMap(unprovidedServices);
+    }
+
+    /**
+     * Gets the activators which depend on their own services through other
+     * activators. These never start unless a service comes from elsewhere.
+     *
+     * @return the class names of the activators, sorted
+     */
+    public SortedSet<String> getCyclicActivators()
+    {
+        return Collections.unmodifiableSortedSet(cyclicActivators);
+    }
+}
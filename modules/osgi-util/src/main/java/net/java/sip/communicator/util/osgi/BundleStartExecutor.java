@@ -0,0 +1,270 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util.osgi;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.slf4j.*;
+
+/**
+ * Runs the start of bundles once their dependencies are available, see
+ * {@link DependentActivator}. In parallel mode independent bundles start on a
+ * bounded pool of threads, otherwise each bundle starts in the thread which
+ * made its last dependency available.
+ *
+ * The time each bundle takes to start is logged, and failures are kept by
+ * bundle for a report in a deterministic order.
+ */
+public final class BundleStartExecutor
+{
+    /**
+     * The name of the system property which enables the parallel start. The
+     * bundles start serially unless it is <tt>true</tt>.
+     */
+    public static final String PNAME_PARALLEL_START
+        = "net.java.sip.communicator.util.osgi.PARALLEL_BUNDLE_START";
+
+    /**
+     * The name of the system property which specifies the maximum number of
+     * bundles starting at the same time in parallel mode.
+     */
+    public static final String PNAME_START_THREADS
+        = "net.java.sip.communicator.util.osgi.BUNDLE_START_THREADS";
+
+    private static final Logger logger
+        = LoggerFactory.getLogger(BundleStartExecutor.class);
+
+    /**
+     * The executor of the bundles of the application.
+     */
+    private static volatile BundleStartExecutor instance = fromProperties();
+
+    /**
+     * The threads of the parallel start, or <tt>null</tt> in serial mode.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The failures by bundle name.
+     */
+    private final SortedMap<String, Throwable> failures = new TreeMap<>();
+
+    /**
+     * The number of bundles which are starting or waiting for a thread.
+     */
+    private int pending;
+
+    /**
+     * Creates an executor.
+     *
+     * @param parallel <tt>true</tt> to start bundles on a pool of threads
+     * @param threads the maximum number of bundles starting at the same time
+     *            in parallel mode
+     */
+    BundleStartExecutor(boolean parallel, int threads)
+    {
+        if (parallel)
+        {
+            AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                Math.max(1, threads), Math.max(1, threads),
+                10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r,
+                        "Bundle start-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        else
+        {
+            executor = null;
+        }
+    }
+
+    /**
+     * Creates an executor as configured by the system properties.
+     *
+     * @return the executor
+     */
+    static BundleStartExecutor fromProperties()
+    {
+        return new BundleStartExecutor(
+            Boolean.parseBoolean(
+                System.getProperty(PNAME_PARALLEL_START, "false")),
+            Integer.getInteger(PNAME_START_THREADS,
+                Math.max(2, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * Gets the executor of the bundles of the application.
+     *
+     * @return the executor
+     */
+    public static BundleStartExecutor getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Replaces the executor of the bundles of the application, for tests.
+     *
+     * @param executor the executor
+     */
+    static void setInstance(BundleStartExecutor executor)
+    {
+        instance = executor;
+    }
+
+    /**
+     * Determines whether bundles start in parallel.
+     *
+     * @return <tt>true</tt> in parallel mode
+     */
+    public boolean isParallel()
+    {
+        return executor != null;
+    }
+
+    /**
+     * Starts a bundle whose dependencies are available.
+     *
+     * @param name the name of the bundle
+     * @param since the time in ns at which the framework started the bundle
+     * @param start starts the bundle
+     */
+    public void execute(String name, long since, Start start)
+    {
+        synchronized (this)
+        {
+            pending++;
+        }
+
+        Runnable run = () -> run(name, since, start);
+        if (executor == null)
+        {
+            run.run();
+            return;
+        }
+
+        try
+        {
+            executor.execute(run);
+        }
+        catch (RejectedExecutionException e)
+        {
+            run.run();
+        }
+    }
+
+    private void run(String name, long since, Start start)
+    {
+        long begin = System.nanoTime();
+        try
+        {
+            start.start();
+            logger.info("Started {} in {} ms, {} ms after the bundle start",
+                name,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since));
+        }
+        catch (CancellationException e)
+        {
+            logger.debug("Cancelled the start of {}", name);
+        }
+        catch (Throwable t)
+        {
+            logger.error("Failed to start bundle with services: " + name, t);
+            synchronized (this)
+            {
+                failures.put(name, t);
+            }
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                if (--pending == 0)
+                    notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until no bundle is starting or waiting for a thread. More bundles
+     * may start later when the services they wait for appear.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of <tt>timeout</tt>
+     * @return <tt>true</tt> if no bundle is starting
+     * @throws InterruptedException if the thread was interrupted
+     */
+    public synchronized boolean awaitIdle(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pending > 0)
+        {
+            long left = deadline - System.nanoTime();
+            if (left <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the bundles which failed to start, in the order of their names
+     * rather than the order of the failures.
+     *
+     * @return the failures by bundle name
+     */
+    public synchronized SortedMap<String, Throwable> getFailures()
+    {
+        return new TreeMap<>(failures);
+    }
+
+    /**
+     * Stops the threads of the parallel start.
+     */
+    void shutdown()
+    {
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    /**
+     * Starts a bundle.
+     */
+    public interface Start
+    {
+        /**
+         * Starts the bundle.
+         *
+         * @throws CancellationException if the bundle was stopped before it
+         *             started, which is not a failure
+         * @throws Exception if the bundle failed to start
+         */
+        void start()
+            throws Exception;
+    }
+}
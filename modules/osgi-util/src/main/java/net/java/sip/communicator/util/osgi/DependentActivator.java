@@ -18,6 +18,7 @@
 package net.java.sip.communicator.util.osgi;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.*;
 import org.osgi.framework.*;
 import org.osgi.util.tracker.*;
@@ -25,7 +26,10 @@
 
 /**
  * Bundle activator that will start the bundle when the requested dependent
- * services are available.
+ * services are available. The start runs on the {@link BundleStartExecutor},
+ * in parallel with other bundles if the parallel start is switched on.
+ * Stopping the bundle cancels a start which has not begun yet and waits for
+ * a start which is running.
  */
 public abstract class DependentActivator
     implements BundleActivator, ServiceTrackerCustomizer<Object, Object>
@@ -38,10 +42,37 @@
     private final Map<Class<?>, ServiceTracker<?, ?>>
         dependentServices = new HashMap<>();
 
-    private final Set<Object> runningServices = new HashSet<>();
+    private final Set<Object> runningServices
+        = Collections.synchronizedSet(new HashSet<>());
 
     private BundleContext bundleContext;
 
+    /**
+     * The time in ns at which the framework started the bundle.
+     */
+    private long startTime;
+
+    /**
+     * Whether all services were available and the bundle was started.
+     */
+    private boolean started;
+
+    /**
+     * Guards {@link #stopped} and {@link #startThread}.
+     */
+    private final Object startLock = new Object();
+
+    /**
+     * Whether the bundle was stopped since it was last started.
+     */
+    private boolean stopped;
+
+    /**
+     * The thread running {@link #startWithServices(BundleContext)}, or
+     * <tt>null</tt> if the start is not running.
+     */
+    private Thread startThread;
+
     protected DependentActivator(Iterable<Class<?>> dependentServices)
     {
         dependentServices.forEach(d -> this.dependentServices.put(d, null));
@@ -70,6 +101,17 @@ public final void start(BundleContext bundleContext)
             "Starting, setting up service tracker for {}  dependencies",
                 + dependentServices.size());
         this.bundleContext = bundleContext;
+        this.startTime = System.nanoTime();
+        synchronized (startLock)
+        {
+            stopped = false;
+        }
+        // the services of a previous start are gone, wait for them again
+        synchronized (runningServices)
+        {
+            runningServices.clear();
+            started = false;
+        }
         for (Map.Entry<Class<?>, ServiceTracker<?, ?>> ds
             : dependentServices.entrySet())
         {
@@ -84,6 +126,15 @@ public final void start(BundleContext bundleContext)
     @Override
     public void stop(BundleContext context) throws Exception
     {
+        synchronized (startLock)
+        {
+            stopped = true;
+            while (startThread != null
+                && startThread != Thread.currentThread())
+            {
+                startLock.wait();
+            }
+        }
         dependentServices.values().forEach(ServiceTracker::close);
     }
 
@@ -91,28 +142,34 @@ public void stop(BundleContext context) throws Exception
     public Object addingService(ServiceReference<Object> reference)
     {
         Object service = bundleContext.getService(reference);
-        runningServices.add(service);
-        if (runningServices.size() == dependentServices.size())
+        boolean complete;
+        synchronized (runningServices)
+        {
+            // services may be registered in several threads at the same time
+            runningServices.add(service);
+            complete = !started
+                && runningServices.size() == dependentServices.size();
+            started |= complete;
+        }
+
+        if (complete)
         {
             openTrackers.remove(this);
             logger.debug("Got service {}, starting now",
                 service.getClass().getSimpleName()
             );
-            try
-            {
-                startWithServices(bundleContext);
-            }
-            catch (Exception e)
-            {
-                logger.error("Failed to start bundle with services", e);
-            }
+            BundleStartExecutor.getInstance().execute(getClass().getName(),
+                startTime, this::startUnlessStopped);
         }
         else if (logger.isTraceEnabled())
         {
             Set<Class<?>> missingServices =
                 new HashSet<>(dependentServices.keySet());
-            missingServices.removeIf(s -> runningServices.stream()
-                .anyMatch(rs -> s.isAssignableFrom(rs.getClass())));
+            synchronized (runningServices)
+            {
+                missingServices.removeIf(s -> runningServices.stream()
+                    .anyMatch(rs -> s.isAssignableFrom(rs.getClass())));
+            }
             openTrackers.put(this, missingServices);
             logger.trace(
                 "Got service {}, still waiting for {} services: \n\t{}",
@@ -144,14 +201,51 @@ else if (logger.isTraceEnabled())
         return service;
     }
 
+    /**
+     * Starts the bundle with its services, unless it was stopped in the
+     * meantime.
+     *
+     * @throws CancellationException if the bundle was stopped
+     * @throws Exception if the bundle failed to start
+     */
+    private void startUnlessStopped()
+        throws Exception
+    {
+        synchronized (startLock)
+        {
+            if (stopped)
+            {
+                throw new CancellationException(
+                    "The bundle was stopped before it started");
+            }
+            startThread = Thread.currentThread();
+        }
+
+        try
+        {
+            startWithServices(bundleContext);
+        }
+        finally
+        {
+            synchronized (startLock)
+            {
+                startThread = null;
+                startLock.notifyAll();
+            }
+        }
+    }
+
     @SuppressWarnings("unchecked")
     protected <T> T getService(Class<T> serviceClass)
     {
-        for (Object instance : runningServices)
+        synchronized (runningServices)
         {
-            if (serviceClass.isAssignableFrom(instance.getClass()))
+            for (Object instance : runningServices)
             {
-                return (T) instance;
+                if (serviceClass.isAssignableFrom(instance.getClass()))
+                {
+                    return (T) instance;
+                }
             }
         }
 
@@ -0,0 +1,291 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util.osgi;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import javax.tools.*;
+
+import org.junit.*;
+import org.junit.rules.*;
+import org.osgi.framework.*;
+
+public class ActivatorIndexProcessorTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Sources of a fake bundle by class name.
+     */
+    private static final Map<String, String> SOURCES = new LinkedHashMap<>();
+
+    static
+    {
+        SOURCES.put("test.Service1", "public interface Service1 {}");
+        SOURCES.put("test.Service2", "public interface Service2 {}");
+        SOURCES.put("test.PlainActivator",
+            "import org.osgi.framework.*;\n"
+            + "public class PlainActivator implements BundleActivator {\n"
+            + "  public void start(BundleContext c) {\n"
+            + "    c.registerService(Service1.class.getName(), null, null);\n"
+            + "  }\n"
+            + "  public void stop(BundleContext c) {}\n"
+            + "}");
+        SOURCES.put("test.ChainedActivator",
+            "import org.osgi.framework.*;\n"
+            + "import net.java.sip.communicator.util.osgi.*;\n"
+            + "public class ChainedActivator extends DependentActivator {\n"
+            + "  public ChainedActivator() {\n"
+            + "    super(Service1.class, Service2.class);\n"
+            + "  }\n"
+            + "  protected void startWithServices(BundleContext c) {\n"
+            + "    register(c);\n"
+            + "  }\n"
+            + "  private void register(BundleContext c) {\n"
+            + "    c.registerService(ChainedActivator.class, this, null);\n"
+            + "  }\n"
+            + "}");
+        SOURCES.put("test.AbstractActivator",
+            "import net.java.sip.communicator.util.osgi.*;\n"
+            + "public abstract class AbstractActivator\n"
+            + "    extends DependentActivator {\n"
+            + "  protected AbstractActivator() {\n"
+            + "    super(Service2.class);\n"
+            + "  }\n"
+            + "}");
+        SOURCES.put("test.DerivedActivator",
+            "import org.osgi.framework.*;\n"
+            + "public class DerivedActivator extends AbstractActivator {\n"
+            + "  protected void startWithServices(BundleContext c) {}\n"
+            + "}");
+        SOURCES.put("test.ComputedActivator",
+            "import org.osgi.framework.*;\n"
+            + "import net.java.sip.communicator.util.osgi.*;\n"
+            + "public class ComputedActivator extends DependentActivator {\n"
+            + "  public ComputedActivator() {\n"
+            + "    super(services());\n"
+            + "  }\n"
+            + "  private static Class<?>[] services() {\n"
+            + "    return new Class<?>[] { Service1.class };\n"
+            + "  }\n"
+            + "  protected void startWithServices(BundleContext c) {}\n"
+            + "}");
+        SOURCES.put("test.Outer",
+            "import org.osgi.framework.*;\n"
+            + "public class Outer {\n"
+            + "  public static class NestedActivator implements BundleActivator {\n"
+            + "    public void start(BundleContext c) {}\n"
+            + "    public void stop(BundleContext c) {}\n"
+            + "  }\n"
+            + "}");
+        SOURCES.put("test.HiddenActivator",
+            "import org.osgi.framework.*;\n"
+            + "class HiddenActivator implements BundleActivator {\n"
+            + "  public void start(BundleContext c) {}\n"
+            + "  public void stop(BundleContext c) {}\n"
+            + "}");
+    }
+
+    @Test
+    public void testIndex() throws Exception
+    {
+        final File classes = compile();
+        final Map<String, ActivatorIndex.Entry> entries = read(classes);
+
+        assertEquals(new TreeSet<>(Arrays.asList("test.ChainedActivator",
+            "test.ComputedActivator", "test.DerivedActivator",
+            "test.Outer$NestedActivator", "test.PlainActivator")),
+            entries.keySet());
+
+        final ActivatorIndex.Entry chained =
+            entries.get("test.ChainedActivator");
+        assertEquals(Arrays.asList("test.Service1", "test.Service2"),
+            new ArrayList<>(chained.getRequiredServices()));
+        assertEquals(Collections.singleton("test.ChainedActivator"),
+            chained.getProvidedServices());
+        assertEquals(classes.toURI().toURL().toString(),
+            chained.getLocation());
+
+        assertEquals(Collections.singleton("test.Service2"),
+            entries.get("test.DerivedActivator").getRequiredServices());
+        assertNull(entries.get("test.ComputedActivator").getRequiredServices());
+
+        final ActivatorIndex.Entry plain = entries.get("test.PlainActivator");
+        assertTrue(plain.getRequiredServices().isEmpty());
+        assertEquals(Collections.singleton("test.Service1"),
+            plain.getProvidedServices());
+    }
+
+    /**
+     * The index lists the activators which a scan of the compiled classes
+     * finds, at the code source location of the classes.
+     */
+    @Test
+    public void testIndexMatchesScan() throws Exception
+    {
+        final File classes = compile();
+        try (URLClassLoader loader = new URLClassLoader(
+            new URL[] { classes.toURI().toURL() }, getClass().getClassLoader()))
+        {
+            final SortedSet<String> scanned = new TreeSet<>();
+            for (String name : SOURCES.keySet())
+            {
+                scan(loader.loadClass(name), scanned);
+            }
+
+            final List<ActivatorIndex.Entry> entries =
+                ActivatorIndex.read(loader);
+            final SortedSet<String> indexed = new TreeSet<>();
+            for (ActivatorIndex.Entry entry : entries)
+            {
+                if (entry.getLocation() == null
+                    || !entry.getLocation().startsWith("file:"))
+                {
+                    continue;
+                }
+                indexed.add(entry.getActivator());
+                assertEquals(loader.loadClass(entry.getActivator())
+                        .getProtectionDomain().getCodeSource().getLocation()
+                        .toString(),
+                    entry.getLocation());
+            }
+            assertEquals(scanned, indexed);
+            assertTrue(ActivatorIndex.locations(loader)
+                .contains(classes.toURI().toURL().toString()));
+        }
+    }
+
+    @Test
+    public void testParse() throws Exception
+    {
+        final String index = "# comment\n"
+            + "a.One|x.S1,x.S2|x.S3\n"
+            + "\n"
+            + "a.Two|?|\n"
+            + "a.Three||\n";
+        final List<ActivatorIndex.Entry> entries = ActivatorIndex.parse("loc",
+            new ByteArrayInputStream(index.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(3, entries.size());
+        assertEquals("a.One", entries.get(0).getActivator());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("x.S1", "x.S2")),
+            entries.get(0).getRequiredServices());
+        assertEquals(Collections.singleton("x.S3"),
+            entries.get(0).getProvidedServices());
+        assertNull(entries.get(1).getRequiredServices());
+        assertTrue(entries.get(2).getRequiredServices().isEmpty());
+        assertEquals("loc", entries.get(2).getLocation());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ActivatorIndex.write(entries, out);
+        assertEquals(entries.toString(), ActivatorIndex.parse("loc",
+            new ByteArrayInputStream(out.toByteArray())).toString());
+    }
+
+    @Test
+    public void testLocation() throws Exception
+    {
+        assertEquals("file:/opt/jitsi/lib/x.jar", ActivatorIndex.location(
+            new URL("jar:file:/opt/jitsi/lib/x.jar!/"
+                + ActivatorIndex.RESOURCE)));
+        assertEquals("file:/build/classes/", ActivatorIndex.location(
+            new URL("file:/build/classes/" + ActivatorIndex.RESOURCE)));
+    }
+
+    private static void scan(final Class<?> type, final Set<String> result)
+    {
+        final int modifiers = type.getModifiers();
+        if (BundleActivator.class.isAssignableFrom(type)
+            && !java.lang.reflect.Modifier.isAbstract(modifiers)
+            && java.lang.reflect.Modifier.isPublic(modifiers))
+        {
+            result.add(type.getName());
+        }
+        for (Class<?> member : type.getDeclaredClasses())
+        {
+            scan(member, result);
+        }
+    }
+
+    private static Map<String, ActivatorIndex.Entry> read(final File classes)
+        throws IOException
+    {
+        final Map<String, ActivatorIndex.Entry> entries = new TreeMap<>();
+        try (InputStream in = new FileInputStream(
+            new File(classes, ActivatorIndex.RESOURCE)))
+        {
+            for (ActivatorIndex.Entry entry : ActivatorIndex.parse(
+                classes.toURI().toURL().toString(), in))
+            {
+                entries.put(entry.getActivator(), entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Compiles the fake bundle with the index processor.
+     */
+    private File compile() throws Exception
+    {
+        final File sources = this.folder.newFolder("src");
+        final File classes = this.folder.newFolder("classes");
+        final List<File> files = new ArrayList<>();
+        for (Map.Entry<String, String> source : SOURCES.entrySet())
+        {
+            final File file = new File(sources,
+                source.getKey().replace('.', '/') + ".java");
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), ("package test;\n" + source.getValue())
+                .getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager =
+            compiler.getStandardFileManager(null, null, null))
+        {
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT,
+                Collections.singleton(classes));
+            fileManager.setLocation(StandardLocation.CLASS_PATH,
+                Arrays.asList(location(BundleActivator.class),
+                    location(DependentActivator.class),
+                    location(org.slf4j.Logger.class)));
+            final StringWriter output = new StringWriter();
+            final JavaCompiler.CompilationTask task = compiler.getTask(output,
+                fileManager, null, Collections.singletonList("-Xlint:none"), null,
+                fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(
+                Collections.singleton(new ActivatorIndexProcessor()));
+            assertTrue(output.toString(), task.call());
+        }
+        return classes;
+    }
+
+    private static File location(final Class<?> type) throws Exception
+    {
+        return new File(type.getProtectionDomain().getCodeSource()
+            .getLocation().toURI());
+    }
+}
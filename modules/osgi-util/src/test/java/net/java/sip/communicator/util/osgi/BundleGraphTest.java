@@ -0,0 +1,99 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util.osgi;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class BundleGraphTest
+{
+    @Test
+    public void testProvidersComeFirst()
+    {
+        BundleGraph graph = new BundleGraph(Arrays.asList(
+            entry("Gui", "Config,Codec", "Ui"),
+            entry("Codec", "Config", "Codec"),
+            entry("Plain", null, ""),
+            entry("Config", "", "Config")));
+        assertEquals(Arrays.asList("Plain", "Config", "Codec", "Gui"),
+            names(graph.getStartOrder()));
+        assertTrue(graph.getCyclicActivators().isEmpty());
+        assertTrue(graph.getUnprovidedServices().isEmpty());
+    }
+
+    @Test
+    public void testIndependentBundlesKeepIndexOrder()
+    {
+        BundleGraph graph = new BundleGraph(Arrays.asList(
+            entry("C", "", ""),
+            entry("A", "", ""),
+            entry("B", "", "")));
+        assertEquals(Arrays.asList("C", "A", "B"),
+            names(graph.getStartOrder()));
+    }
+
+    @Test
+    public void testCyclesAndMissingProvidersAreReported()
+    {
+        BundleGraph graph = new BundleGraph(Arrays.asList(
+            entry("Waiting", "Y", ""),
+            entry("Y", "X,Missing2", "Y"),
+            entry("X", "Y,Missing1", "X"),
+            entry("Self", "Self", "Self"),
+            entry("Free", "", "")));
+        assertEquals(Arrays.asList("Self", "Free", "Waiting", "Y", "X"),
+            names(graph.getStartOrder()));
+        assertEquals(new TreeSet<>(Arrays.asList("X", "Y")),
+            graph.getCyclicActivators());
+        assertEquals("{X=[Missing1], Y=[Missing2]}",
+            graph.getUnprovidedServices().toString());
+    }
+
+    private static ActivatorIndex.Entry entry(String activator,
+        String required, String provided)
+    {
+        return new ActivatorIndex.Entry(activator, "file:/" + activator,
+            required == null ? null : set(required), set(provided));
+    }
+
+    private static Set<String> set(String services)
+    {
+        Set<String> set = new LinkedHashSet<>();
+        for (String s : services.split(","))
+        {
+            if (!s.isEmpty())
+            {
+                set.add(s);
+            }
+        }
+        return set;
+    }
+
+    private static List<String> names(List<ActivatorIndex.Entry> entries)
+    {
+        List<String> names = new ArrayList<>();
+        for (ActivatorIndex.Entry e : entries)
+        {
+            names.add(e.getActivator());
+        }
+        return names;
+    }
+}
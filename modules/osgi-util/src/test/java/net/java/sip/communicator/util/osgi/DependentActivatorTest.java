@@ -0,0 +1,454 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util.osgi;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+import org.osgi.framework.*;
+
+public class DependentActivatorTest
+{
+    public interface Core {}
+    public interface Codec1 {}
+    public interface Codec2 {}
+    public interface Codec3 {}
+    public interface Codec4 {}
+    public interface Gui {}
+
+    /**
+     * The time in ms every bundle takes to start.
+     */
+    private static final long START_TIME = 100;
+
+    /**
+     * The services registered with the fake framework.
+     */
+    private final List<Object[]> services = new ArrayList<>();
+
+    /**
+     * The service listeners with their filters.
+     */
+    private final Map<ServiceListener, String> listeners
+        = new LinkedHashMap<>();
+
+    /**
+     * The names of the started bundles, in the order of their start.
+     */
+    private final List<String> started
+        = Collections.synchronizedList(new ArrayList<>());
+
+    private final AtomicInteger starting = new AtomicInteger();
+
+    private final AtomicInteger maxStarting = new AtomicInteger();
+
+    private final BundleContext context = (BundleContext) Proxy
+        .newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { BundleContext.class }, this::invoke);
+
+    private BundleStartExecutor executor;
+
+    @After
+    public void tearDown()
+    {
+        BundleStartExecutor.setInstance(
+            BundleStartExecutor.fromProperties());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testParallelStart() throws Exception
+    {
+        startChain(new BundleStartExecutor(true, 4));
+        assertTrue(maxStarting.get() > 1);
+    }
+
+    @Test
+    public void testSerialStart() throws Exception
+    {
+        startChain(new BundleStartExecutor(false, 4));
+        assertEquals(1, maxStarting.get());
+    }
+
+    /**
+     * Four codec bundles wait for the core service and the GUI waits for all
+     * codecs. Whatever the mode, the GUI starts last with all its services.
+     */
+    private void startChain(BundleStartExecutor executor) throws Exception
+    {
+        this.executor = executor;
+        BundleStartExecutor.setInstance(executor);
+        List<DependentActivator> activators = Arrays.asList(
+            new Bundle("gui", Gui.class,
+                Codec1.class, Codec2.class, Codec3.class, Codec4.class),
+            new Bundle("codec1", Codec1.class, Core.class),
+            new Bundle("codec2", Codec2.class, Core.class),
+            new Bundle("codec3", Codec3.class, Core.class),
+            new Bundle("codec4", Codec4.class, Core.class));
+        for (DependentActivator activator : activators)
+        {
+            activator.start(context);
+        }
+
+        assertTrue(started.isEmpty());
+        register(Core.class);
+        assertTrue(executor.awaitIdle(10, TimeUnit.SECONDS));
+
+        assertEquals(5, started.size());
+        assertEquals("gui", started.get(4));
+        assertEquals(new HashSet<>(Arrays.asList(
+                "codec1", "codec2", "codec3", "codec4")),
+            new HashSet<>(started.subList(0, 4)));
+        assertTrue(executor.getFailures().isEmpty());
+    }
+
+    @Test
+    public void testFailuresAreSorted() throws Exception
+    {
+        executor = new BundleStartExecutor(true, 4);
+        BundleStartExecutor.setInstance(executor);
+        new FailingBundle2().start(context);
+        new Bundle("codec1", Codec1.class, Core.class).start(context);
+        new FailingBundle1().start(context);
+
+        register(Core.class);
+        assertTrue(executor.awaitIdle(10, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("codec1"), started);
+        assertEquals(Arrays.asList(FailingBundle1.class.getName(),
+                FailingBundle2.class.getName()),
+            new ArrayList<>(executor.getFailures().keySet()));
+        assertEquals("fail1",
+            executor.getFailures().values().iterator().next().getMessage());
+    }
+
+    @Test
+    public void testSerialStartIsTheDefault()
+    {
+        assertNull(System.getProperty(BundleStartExecutor.PNAME_PARALLEL_START));
+        executor = BundleStartExecutor.fromProperties();
+        assertFalse(executor.isParallel());
+    }
+
+    /**
+     * Stopping a bundle while it starts returns once the start is done.
+     */
+    @Test
+    public void testStopWaitsForRunningStart() throws Exception
+    {
+        executor = new BundleStartExecutor(true, 4);
+        BundleStartExecutor.setInstance(executor);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingBundle bundle = new BlockingBundle(release);
+        bundle.start(context);
+        register(Core.class);
+        assertTrue(bundle.entered.await(10, TimeUnit.SECONDS));
+
+        final Thread stopper = new Thread(() -> {
+            try
+            {
+                bundle.stop(context);
+                started.add("stopped");
+            }
+            catch (Exception e)
+            {
+                started.add(e.toString());
+            }
+        });
+        stopper.start();
+        while (stopper.getState() != Thread.State.WAITING)
+        {
+            assertTrue(stopper.isAlive());
+            Thread.yield();
+        }
+        assertTrue(started.isEmpty());
+
+        release.countDown();
+        stopper.join(10000);
+        assertEquals(Arrays.asList("blocking", "stopped"), started);
+        assertTrue(executor.awaitIdle(10, TimeUnit.SECONDS));
+        assertTrue(executor.getFailures().isEmpty());
+    }
+
+    /**
+     * A bundle stopped while its start waits for a thread does not start, and
+     * this is not a failure.
+     */
+    @Test
+    public void testStopCancelsQueuedStart() throws Exception
+    {
+        executor = new BundleStartExecutor(true, 1);
+        BundleStartExecutor.setInstance(executor);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingBundle blocking = new BlockingBundle(release);
+        final Bundle queued = new Bundle("codec1", Codec1.class, Core.class);
+        blocking.start(context);
+        queued.start(context);
+        register(Core.class);
+        assertTrue(blocking.entered.await(10, TimeUnit.SECONDS));
+
+        queued.stop(context);
+        release.countDown();
+        assertTrue(executor.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("blocking"), started);
+        assertTrue(executor.getFailures().isEmpty());
+    }
+
+    /**
+     * A bundle which is stopped and started again starts with its services
+     * again.
+     */
+    @Test
+    public void testRestartStartsAgain() throws Exception
+    {
+        executor = new BundleStartExecutor(false, 1);
+        BundleStartExecutor.setInstance(executor);
+        final Bundle bundle = new Bundle("codec1", Codec1.class, Core.class);
+        bundle.start(context);
+        register(Core.class);
+        assertTrue(executor.awaitIdle(10, TimeUnit.SECONDS));
+
+        bundle.stop(context);
+        bundle.start(context);
+        assertTrue(executor.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("codec1", "codec1"), started);
+        assertTrue(executor.getFailures().isEmpty());
+    }
+
+    private void register(Class<?> service)
+    {
+        Object instance = Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { service }, (proxy, method, args) ->
+                method.getName().equals("equals") ? proxy == args[0]
+                    : method.getName().equals("hashCode")
+                        ? System.identityHashCode(proxy)
+                        : service.getSimpleName());
+        Object[] registration = new Object[] { service.getName(), instance,
+            null };
+        ServiceReference<?> reference = (ServiceReference<?>) Proxy
+            .newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { ServiceReference.class },
+                (proxy, method, args) -> {
+                    switch (method.getName())
+                    {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return service.getSimpleName();
+                    case "getProperty":
+                        return Constants.OBJECTCLASS.equals(args[0])
+                            ? new String[] { service.getName() } : null;
+                    case "compareTo":
+                        return 0;
+                    default:
+                        return null;
+                    }
+                });
+        registration[2] = reference;
+
+        List<ServiceListener> matching = new ArrayList<>();
+        synchronized (services)
+        {
+            services.add(registration);
+            listeners.forEach((listener, filter) -> {
+                if (filter.equals("(" + Constants.OBJECTCLASS + "="
+                    + service.getName() + ")"))
+                {
+                    matching.add(listener);
+                }
+            });
+        }
+
+        ServiceEvent event
+            = new ServiceEvent(ServiceEvent.REGISTERED, reference);
+        for (ServiceListener listener : matching)
+        {
+            listener.serviceChanged(event);
+        }
+    }
+
+    private Object invoke(Object proxy, Method method, Object[] args)
+        throws Exception
+    {
+        switch (method.getName())
+        {
+        case "createFilter":
+            return FrameworkUtil.createFilter((String) args[0]);
+        case "addServiceListener":
+            synchronized (services)
+            {
+                listeners.put((ServiceListener) args[0],
+                    args.length > 1 ? (String) args[1] : "");
+            }
+            return null;
+        case "removeServiceListener":
+            synchronized (services)
+            {
+                listeners.remove(args[0]);
+            }
+            return null;
+        case "getServiceReferences":
+        case "getAllServiceReferences":
+            List<ServiceReference<?>> references = new ArrayList<>();
+            synchronized (services)
+            {
+                for (Object[] s : services)
+                {
+                    if (s[0].equals(args[0]))
+                    {
+                        references.add((ServiceReference<?>) s[2]);
+                    }
+                }
+            }
+            return references.isEmpty()
+                ? null : references.toArray(new ServiceReference<?>[0]);
+        case "getService":
+            synchronized (services)
+            {
+                for (Object[] s : services)
+                {
+                    if (s[2] == args[0])
+                    {
+                        return s[1];
+                    }
+                }
+            }
+            return null;
+        case "ungetService":
+            return true;
+        case "registerService":
+            register(Class.forName((String) args[0]));
+            return null;
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * A bundle which provides a service once its dependencies are available.
+     */
+    private class Bundle
+        extends DependentActivator
+    {
+        private final String name;
+
+        private final Class<?> provides;
+
+        private final Class<?>[] requires;
+
+        Bundle(String name, Class<?> provides, Class<?>... requires)
+        {
+            super(requires);
+            this.name = name;
+            this.provides = provides;
+            this.requires = requires;
+        }
+
+        @Override
+        protected void startWithServices(BundleContext bundleContext)
+            throws Exception
+        {
+            int now = starting.incrementAndGet();
+            maxStarting.accumulateAndGet(now, Math::max);
+            try
+            {
+                for (Class<?> service : requires)
+                {
+                    assertNotNull(getService(service));
+                }
+                Thread.sleep(START_TIME);
+                started.add(name);
+            }
+            finally
+            {
+                starting.decrementAndGet();
+            }
+            bundleContext.registerService(provides.getName(), this, null);
+        }
+    }
+
+    /**
+     * A bundle whose start blocks until it is released.
+     */
+    private class BlockingBundle
+        extends DependentActivator
+    {
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private final CountDownLatch release;
+
+        BlockingBundle(CountDownLatch release)
+        {
+            super(Core.class);
+            this.release = release;
+        }
+
+        @Override
+        protected void startWithServices(BundleContext bundleContext)
+            throws Exception
+        {
+            entered.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            started.add("blocking");
+        }
+    }
+
+    private static class FailingBundle1
+        extends DependentActivator
+    {
+        FailingBundle1()
+        {
+            super(Core.class);
+        }
+
+        @Override
+        protected void startWithServices(BundleContext bundleContext)
+            throws Exception
+        {
+            throw new IllegalStateException("fail1");
+        }
+    }
+
+    private static class FailingBundle2
+        extends DependentActivator
+    {
+        FailingBundle2()
+        {
+            super(Core.class);
+        }
+
+        @Override
+        protected void startWithServices(BundleContext bundleContext)
+            throws Exception
+        {
+            Thread.sleep(START_TIME);
+            throw new IllegalStateException("fail2");
+        }
+    }
+}
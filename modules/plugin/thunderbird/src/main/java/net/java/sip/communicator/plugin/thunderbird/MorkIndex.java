@@ -0,0 +1,632 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.plugin.thunderbird;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.text.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.regex.*;
+
+import mork.*;
+
+/**
+ * Index of the cards of a Thunderbird Mork address book by the prefixes of
+ * their normalized names, e-mail addresses and phone numbers.
+ *
+ * Thunderbird commits changes to an address book by appending transaction
+ * groups to the file and only rewrites the whole file now and then. The index
+ * therefore remembers how much of the file it has read and, as long as the
+ * file only grows, parses just the groups appended since.
+ */
+final class MorkIndex
+{
+    /** Class logger */
+    private final static org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MorkIndex.class);
+
+    /**
+     * The properties of a card that are indexed as words.
+     */
+    private static final String[] WORD_PROPERTIES = { "DisplayName",
+        "FirstName", "LastName", "NickName", "PrimaryEmail", "SecondEmail",
+        "DefaultEmail" };
+
+    /**
+     * The properties of a card that are indexed as phone numbers.
+     */
+    private static final String[] PHONE_PROPERTIES = { "HomePhone",
+        "WorkPhone", "CellularNumber" };
+
+    /**
+     * The number of trailing digits of a phone number query which are looked
+     * up in the numbers of the cards, such that for example a number in
+     * international format finds the same number stored in national format.
+     */
+    private static final int PHONE_SUFFIX_LENGTH = 7;
+
+    /**
+     * The number of bytes before the end of the parsed part of the file which
+     * must be unchanged for the file to be considered appended to.
+     */
+    private static final int TAIL_LENGTH = 64;
+
+    private static final String GROUP_START = "@$${";
+
+    private static final String GROUP_END = "@$$}";
+
+    private static final Pattern PHONE_PUNCTUATION
+        = Pattern.compile("[\\s+\\-()./]");
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    /** The charset in which Thunderbird address books are read. */
+    private final Charset charset = Charset.defaultCharset();
+
+    /** The file which is indexed, or <tt>null</tt> before the first update. */
+    private File file;
+
+    /** The number of bytes of {@link #file} which have been parsed. */
+    private long length;
+
+    /** The modification time of {@link #file} when it was last read. */
+    private long lastModified;
+
+    /** The last bytes of the parsed part of {@link #file}. */
+    private byte[] tail = new byte[0];
+
+    /** The dictionaries of the parsed part of {@link #file}. */
+    private final List<Dict> dicts = new ArrayList<Dict>();
+
+    /** Name of the default namespace in the Thunderbird database. */
+    private String defaultScope;
+
+    /** The cards by row id, in the order in which they were added. */
+    private final Map<String, Card> cards = new LinkedHashMap<String, Card>();
+
+    /** The cards by the normalized words of their names and addresses. */
+    private final NavigableMap<String, Set<Card>> words
+        = new TreeMap<String, Set<Card>>();
+
+    /** The cards by the digits of their phone numbers. */
+    private final NavigableMap<String, Set<Card>> phones
+        = new TreeMap<String, Set<Card>>();
+
+    /** The cards by the reversed digits of their phone numbers. */
+    private final NavigableMap<String, Set<Card>> reversedPhones
+        = new TreeMap<String, Set<Card>>();
+
+    /** The number of cards added, used to keep results in file order. */
+    private long sequence;
+
+    /** The number of times the whole file has been parsed. */
+    private int fullParses;
+
+    /**
+     * Brings the index up to date with an address book file. Nothing is read
+     * if the file did not change since the last update, only the appended
+     * transaction groups are parsed if the file was appended to and the whole
+     * file is parsed otherwise.
+     *
+     * @param file the Mork address book file
+     * @throws IOException if the file could not be read
+     */
+    synchronized void update(File file)
+        throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            long fileLength = raf.length();
+            long fileLastModified = file.lastModified();
+            if (file.equals(this.file)
+                && fileLength == this.length
+                && fileLastModified == this.lastModified)
+            {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            String appended = null;
+            if (file.equals(this.file)
+                && fileLength > this.length
+                && Arrays.equals(tail,
+                    read(raf, this.length - tail.length, tail.length)))
+            {
+                appended = new String(
+                    read(raf, this.length, (int) (fileLength - this.length)),
+                    charset);
+                String trimmed = appended.trim();
+                if (!trimmed.isEmpty() && !trimmed.startsWith(GROUP_START))
+                    appended = null;
+            }
+
+            if (appended != null)
+            {
+                String complete
+                    = appended.substring(0, getCompleteLength(appended));
+                parse(complete);
+                this.length += complete.getBytes(charset).length;
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Parsed " + complete.length()
+                        + " appended characters of "
+                        + file + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                }
+            }
+            else
+            {
+                clear();
+                fullParses++;
+                String text = new String(read(raf, 0, (int) fileLength),
+                    charset);
+                String complete = text.substring(0, getCompleteLength(text));
+                parse(complete);
+                this.file = file;
+                this.length = complete.getBytes(charset).length;
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Indexed " + cards.size() + " cards of "
+                        + file + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                }
+            }
+            this.lastModified = fileLastModified;
+            int tailLength = (int) Math.min(TAIL_LENGTH, this.length);
+            this.tail = read(raf, this.length - tailLength, tailLength);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // start over with the next update
+            clear();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the cards in which every word of a text is the prefix of a word
+     * of the names or e-mail addresses. If the text looks like a phone number,
+     * the cards with a phone number starting with its digits are found as
+     * well, and the cards with a number ending in its last digits for which
+     * <tt>phoneMatcher</tt> agrees.
+     *
+     * @param text the text to search for
+     * @param phoneMatcher tells whether a phone number of a card matches the
+     *            phone number query
+     * @return the rows of the matching cards, in the order of the file
+     */
+    synchronized List<Row> find(String text,
+        Predicate<String> phoneMatcher)
+    {
+        if (text.trim().isEmpty())
+            return getRows();
+
+        Set<Card> result = null;
+        for (String token : tokenize(text))
+        {
+            Set<Card> matches = findByPrefix(words, token);
+            if (result == null)
+                result = matches;
+            else
+                result.retainAll(matches);
+            if (result.isEmpty())
+                break;
+        }
+        if (result == null)
+            result = new HashSet<Card>();
+
+        String digits = PHONE_PUNCTUATION.matcher(text).replaceAll("");
+        if (!digits.isEmpty() && isDigits(digits))
+        {
+            result.addAll(findByPrefix(phones, digits));
+            if (digits.length() >= PHONE_SUFFIX_LENGTH)
+            {
+                String suffix = new StringBuilder(digits.substring(
+                        digits.length() - PHONE_SUFFIX_LENGTH))
+                    .reverse().toString();
+                for (Card card : findByPrefix(reversedPhones, suffix))
+                {
+                    if (result.contains(card))
+                        continue;
+                    for (String phone : card.phones)
+                    {
+                        if (phoneMatcher.test(phone))
+                        {
+                            result.add(card);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Card> sorted = new ArrayList<Card>(result);
+        sorted.sort(Comparator.comparingLong(c -> c.sequence));
+        List<Row> rows = new ArrayList<Row>(sorted.size());
+        for (Card card : sorted)
+            rows.add(card.row);
+        return rows;
+    }
+
+    /**
+     * Gets the rows of all cards.
+     *
+     * @return the rows of all cards, in the order of the file
+     */
+    synchronized List<Row> getRows()
+    {
+        List<Card> sorted = new ArrayList<Card>(cards.values());
+        sorted.sort(Comparator.comparingLong(c -> c.sequence));
+        List<Row> rows = new ArrayList<Row>(sorted.size());
+        for (Card card : sorted)
+            rows.add(card.row);
+        return rows;
+    }
+
+    /**
+     * Gets the number of times the whole file has been parsed.
+     *
+     * @return the number of full parses
+     */
+    synchronized int getFullParses()
+    {
+        return fullParses;
+    }
+
+    /**
+     * Gets the text searched for by a query pattern if the pattern is a plain
+     * or quoted text, like the patterns of the contact list search. Since the
+     * index ignores case, the pattern has to be case-insensitive, and it has
+     * to use Unicode case folding if the text is not ASCII.
+     *
+     * @param pattern the query pattern
+     * @return the text, or <tt>null</tt> if the pattern is a regular
+     *         expression or its flags do not allow to search the index
+     */
+    static String getText(Pattern pattern)
+    {
+        int flags = pattern.flags();
+        if ((flags & Pattern.CASE_INSENSITIVE) == 0
+            || (flags & Pattern.COMMENTS) != 0)
+        {
+            return null;
+        }
+
+        String text = getLiteral(pattern.pattern(),
+            (flags & Pattern.LITERAL) != 0);
+        if (text != null && (flags & Pattern.UNICODE_CASE) == 0)
+        {
+            for (int i = 0; i < text.length(); i++)
+            {
+                if (text.charAt(i) >= 0x80)
+                    return null;
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Gets the text of a plain or quoted pattern.
+     *
+     * @param p the pattern
+     * @param literal whether the pattern was compiled as a literal
+     * @return the text, or <tt>null</tt> if the pattern is a regular
+     *         expression
+     */
+    private static String getLiteral(String p, boolean literal)
+    {
+        if (literal)
+            return p;
+        if (p.startsWith("\\Q") && p.endsWith("\\E")
+            && p.indexOf("\\E") == p.length() - 2)
+        {
+            return p.substring(2, p.length() - 2);
+        }
+        for (int i = 0; i < p.length(); i++)
+        {
+            if ("\\^$.|?*+()[]{}".indexOf(p.charAt(i)) >= 0)
+                return null;
+        }
+        return p;
+    }
+
+    /**
+     * Gets the length of the part of a Mork text without an incomplete
+     * transaction group at its end, which Thunderbird may still be writing.
+     *
+     * @param text the text
+     * @return the length of the complete part
+     */
+    static int getCompleteLength(String text)
+    {
+        int start = text.lastIndexOf(GROUP_START);
+        if (start < 0)
+            return text.length();
+        int end = text.indexOf(GROUP_END, start + GROUP_START.length());
+        if (end < 0 || text.indexOf("}@", end + GROUP_END.length()) < 0)
+            return start;
+        return text.length();
+    }
+
+    /**
+     * Parses Mork text, continuing from the dictionaries parsed before.
+     *
+     * @param text the text
+     */
+    private void parse(String text)
+    {
+        if (text.trim().isEmpty())
+            return;
+
+        MorkParser parser = new MorkParser();
+        parser.setIgnoreTransactionFailures(true);
+        parser.addEventListener(new Parser());
+        parser.parse(new StringReader(text));
+    }
+
+    /**
+     * Adds or replaces the card of a row.
+     *
+     * @param row the row
+     * @param scope the scope of the row if it does not name one
+     */
+    private void put(Row row, String scope)
+    {
+        if (row.getScopeName() != null)
+            scope = row.getScopeName();
+        if (scope == null || !scope.equals(getDefaultScope()))
+            return;
+
+        String rowId = row.getRowId();
+        if (rowId.startsWith("-"))
+            rowId = rowId.substring(1);
+
+        Card old = cards.remove(rowId);
+        if (old != null)
+            unindex(old);
+        Card card = new Card(row, sequence++);
+        cards.put(rowId, card);
+        for (String word : card.words)
+            index(words, word, card);
+        for (String digits : card.digits)
+        {
+            index(phones, digits, card);
+            index(reversedPhones,
+                new StringBuilder(digits).reverse().toString(), card);
+        }
+    }
+
+    private void unindex(Card card)
+    {
+        for (String word : card.words)
+            unindex(words, word, card);
+        for (String digits : card.digits)
+        {
+            unindex(phones, digits, card);
+            unindex(reversedPhones,
+                new StringBuilder(digits).reverse().toString(), card);
+        }
+    }
+
+    private String getDefaultScope()
+    {
+        if (defaultScope == null && !dicts.isEmpty())
+            defaultScope = dicts.get(0).dereference("^80");
+        return defaultScope;
+    }
+
+    private void clear()
+    {
+        file = null;
+        length = 0;
+        lastModified = 0;
+        tail = new byte[0];
+        dicts.clear();
+        defaultScope = null;
+        cards.clear();
+        words.clear();
+        phones.clear();
+        reversedPhones.clear();
+    }
+
+    private static void index(Map<String, Set<Card>> map, String key,
+        Card card)
+    {
+        Set<Card> set = map.get(key);
+        if (set == null)
+        {
+            set = new HashSet<Card>(2);
+            map.put(key, set);
+        }
+        set.add(card);
+    }
+
+    private static void unindex(Map<String, Set<Card>> map, String key,
+        Card card)
+    {
+        Set<Card> set = map.get(key);
+        if (set != null && set.remove(card) && set.isEmpty())
+            map.remove(key);
+    }
+
+    private static Set<Card> findByPrefix(NavigableMap<String, Set<Card>> map,
+        String prefix)
+    {
+        Set<Card> result = new HashSet<Card>();
+        for (Set<Card> set : map.subMap(prefix, true,
+            prefix + Character.MAX_VALUE, false).values())
+        {
+            result.addAll(set);
+        }
+        return result;
+    }
+
+    /**
+     * Splits a text into lower case words without diacritical marks.
+     *
+     * @param text the text
+     * @return the words of the text
+     */
+    static String[] tokenize(String text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            if (text.charAt(i) >= 0x80)
+            {
+                text = MARKS.matcher(
+                    Normalizer.normalize(text, Normalizer.Form.NFD))
+                    .replaceAll("");
+                break;
+            }
+        }
+
+        List<String> tokens = new ArrayList<String>(4);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++)
+        {
+            boolean word = i < text.length()
+                && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0)
+            {
+                start = i;
+            }
+            else if (!word && start >= 0)
+            {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * Gets the digits of a phone number.
+     *
+     * @param phone the phone number
+     * @return the digits of the phone number
+     */
+    private static String getDigits(String phone)
+    {
+        StringBuilder digits = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++)
+        {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9')
+                digits.append(c);
+        }
+        return digits.toString();
+    }
+
+    private static boolean isDigits(String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9')
+                return false;
+        }
+        return true;
+    }
+
+    private static byte[] read(RandomAccessFile raf, long position, int length)
+        throws IOException
+    {
+        byte[] bytes = new byte[length];
+        raf.seek(position);
+        raf.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Builds the cards from the events of the Mork parser. The tables and
+     * rows are applied in the order of the file, such that rows in later
+     * transaction groups replace earlier ones.
+     */
+    private class Parser
+        implements mork.EventListener
+    {
+        public void onEvent(mork.Event event)
+        {
+            switch (event.eventType)
+            {
+            case END_DICT:
+                dicts.add(new Dict("<" + event.value + ">", dicts));
+                break;
+            case ROW:
+                // The rows at the root-level update/replace the ones in the
+                // tables. There's usually no scope defined, so use the
+                // default.
+                put(new Row("[" + event.value + "]", dicts),
+                    getDefaultScope());
+                break;
+            case TABLE:
+                Table table = new Table("{" + event.value + "}", dicts);
+                for (Row row : table.getRows())
+                    put(row, table.getScopeName());
+                break;
+            case GROUP_COMMIT:
+                MorkParser parser = new MorkParser();
+                parser.addEventListener(this);
+                parser.parse(new StringReader(event.value));
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * A card of the address book with its normalized words and phone
+     * numbers.
+     */
+    private static final class Card
+    {
+        private final Row row;
+
+        private final long sequence;
+
+        private final Set<String> words = new HashSet<String>();
+
+        private final List<String> phones = new ArrayList<String>(1);
+
+        private final Set<String> digits = new HashSet<String>(2);
+
+        Card(Row row, long sequence)
+        {
+            this.row = row;
+            this.sequence = sequence;
+            for (String property : WORD_PROPERTIES)
+            {
+                String value = row.getValue(property);
+                if (value != null)
+                    words.addAll(Arrays.asList(tokenize(value)));
+            }
+            for (String property : PHONE_PROPERTIES)
+            {
+                String value = row.getValue(property);
+                if (value == null)
+                    continue;
+                String d = getDigits(value);
+                if (!d.isEmpty())
+                {
+                    phones.add(value);
+                    digits.add(d);
+                }
+            }
+        }
+    }
+}
@@ -19,7 +19,6 @@
 
 import java.io.*;
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.regex.*;
 
 import org.apache.commons.lang3.StringUtils;
@@ -31,6 +30,15 @@
 
 /**
  * Queries a Thunderbird address book for contacts matching the given pattern.
+ * <p>
+ * Case-insensitive plain text patterns, like those of the contact list
+ * search, are answered from the {@link MorkIndex}. Unlike the pattern, the
+ * index matches every word of the text against the start of the words of the
+ * names and e-mail addresses, ignoring diacritical marks, and phone numbers
+ * by their digits. Thus "smi jo" finds John Smith and "jose" finds
+ * Jos&eacute;, but "mith" does not find Smith. Any other pattern is matched
+ * against every value of every card.
+ * </p>
  *
  * @author Ingo Bauersachs
  */
@@ -62,86 +70,24 @@ protected void run()
         File file = new File(filename);
         try
         {
-            if (file.lastModified() > getContactSource().lastDatabaseFileChange)
-            {
-                // parse the Thunderbird Mork database
-                InputStreamReader sr =
-                    new InputStreamReader(new FileInputStream(filename));
-                MorkDocument md = new MorkDocument(sr);
-                sr.close();
-
-                // We now have rows in their tables and additional rows at
-                // transaction level. Put the to a better format:
-                // DB -> Tables -> Rows
-                Map<String, Map<String, Row>> db =
-                    new HashMap<String, Map<String, Row>>();
-                for (Table t : md.getTables())
-                {
-                    String tableId = t.getTableId() + "/" + t.getScopeName();
-                    Map<String, Row> table = db.get(tableId);
-                    if (table == null)
-                    {
-                        table = new HashMap<String, Row>();
-                        db.put(tableId, table);
-                    }
-
-                    for (Row r : t.getRows())
-                    {
-                        String scope = r.getScopeName();
-                        if (scope == null)
-                        {
-                            scope = t.getScopeName();
-                        }
-
-                        table.put(r.getRowId() + "/" + scope, r);
-                    }
-                }
+            MorkIndex index = super.getContactSource().morkIndex;
+            index.update(file);
 
-                // The additional rows at the root-level update/replace the ones
-                // in the tables. There's usually neither a table nor a scope
-                // defined, so lets just use the default.
-                String defaultScope = md.getDicts().get(0).dereference("^80");
-                for (Row r : md.getRows())
+            // answer plain text queries from the index by word prefixes,
+            // match other patterns against every value of every card
+            String text = MorkIndex.getText(super.query);
+            if (text != null)
+            {
+                for (Row r : index.find(text, this::phoneNumberMatches))
                 {
-                    String scope = r.getScopeName();
-                    if (scope == null)
-                    {
-                        scope = defaultScope;
-                    }
-
-                    String tableId = "1/" + scope;
-                    Map<String, Row> table = db.get(tableId);
-                    if (table == null)
-                    {
-                        table = new HashMap<String, Row>();
-                        db.put(tableId, table);
-                    }
-
-                    String rowId = r.getRowId() + "/" + scope;
-                    if (rowId.startsWith("-"))
-                    {
-                        rowId = rowId.substring(1);
-                    }
-
-                    table.put(rowId, r);
+                    addEntry(r);
                 }
-
-                super.getContactSource().database = db;
-                super.getContactSource().defaultScope = defaultScope;
-                super.getContactSource().lastDatabaseFileChange =
-                    file.lastModified();
             }
-
-            // okay, "transactions" are applied, now perform the search
-            for (Entry<String, Map<String, Row>> table
-                : super.getContactSource().database.entrySet())
+            else
             {
-                for (Map.Entry<String, Row> e : table.getValue().entrySet())
+                for (Row r : index.getRows())
                 {
-                    if (e.getKey().endsWith(getContactSource().defaultScope))
-                    {
-                        readEntry(e.getValue());
-                    }
+                    readEntry(r);
                 }
             }
 
@@ -184,6 +130,16 @@ private void readEntry(Row r)
             return;
         }
 
+        addEntry(r);
+    }
+
+    /**
+     * Adds a database row to the result set.
+     *
+     * @param r The database row representing a contact.
+     */
+    private void addEntry(Row r)
+    {
         List<ContactDetail> details = new LinkedList<ContactDetail>();
 
         // e-mail(s)
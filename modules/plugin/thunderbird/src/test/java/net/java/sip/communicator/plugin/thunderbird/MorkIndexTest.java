@@ -0,0 +1,342 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.plugin.thunderbird;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.regex.*;
+
+import mork.*;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+public class MorkIndexTest
+{
+    /**
+     * The number of cards of the large address book.
+     */
+    private static final int CARDS = 50000;
+
+    private static final String[] FIRST_NAMES = { "Anna", "Bernd", "Chlo$C3$A9",
+        "David", "Emil", "Fatima", "Georg", "Hanna", "Ivan", "Julia" };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final MorkIndex index = new MorkIndex();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = folder.newFile("abook.mab");
+    }
+
+    @Test
+    public void testGetText()
+    {
+        int flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        assertEquals("a.b", MorkIndex.getText(Pattern.compile(
+            Pattern.quote("a.b"), Pattern.CASE_INSENSITIVE)));
+        assertEquals("john smith",
+            MorkIndex.getText(Pattern.compile("john smith", flags)));
+        assertNull(MorkIndex.getText(Pattern.compile("jo.n", flags)));
+        assertNull(MorkIndex.getText(Pattern.compile(
+            Pattern.quote("a\\Eb"), flags)));
+        assertEquals("a.b (c)", MorkIndex.getText(Pattern.compile("a.b (c)",
+            flags | Pattern.LITERAL)));
+    }
+
+    /**
+     * The index ignores case and diacritical marks, so it only answers
+     * patterns which ignore case, with Unicode case folding for other than
+     * ASCII text. Comments change the meaning of a plain text pattern.
+     */
+    @Test
+    public void testGetTextRespectsFlags()
+    {
+        assertNull(MorkIndex.getText(Pattern.compile("john smith")));
+        assertNull(MorkIndex.getText(Pattern.compile(Pattern.quote("john"))));
+        assertNull(MorkIndex.getText(Pattern.compile("john smith",
+            Pattern.CASE_INSENSITIVE | Pattern.COMMENTS)));
+        assertEquals("john", MorkIndex.getText(Pattern.compile("john",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE)));
+        assertNull(MorkIndex.getText(Pattern.compile("jos\u00e9",
+            Pattern.CASE_INSENSITIVE)));
+        assertEquals("jos\u00e9", MorkIndex.getText(Pattern.compile(
+            Pattern.quote("jos\u00e9"),
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)));
+    }
+
+    @Test
+    public void testGetCompleteLength()
+    {
+        String complete = header() + "@$${2{@[1(^83=a)]@$$}2}@\n";
+        assertEquals(complete.length(),
+            MorkIndex.getCompleteLength(complete));
+        assertEquals(complete.length(), MorkIndex.getCompleteLength(
+            complete + "@$${3{@[2(^83=b)]"));
+        assertEquals(complete.length(), MorkIndex.getCompleteLength(
+            complete + "@$${3{@[2(^83=b)]@$$}3"));
+    }
+
+    @Test
+    public void testFind() throws IOException
+    {
+        StringBuilder mab = new StringBuilder(header());
+        // values with other than ASCII characters are escaped in atoms
+        mab.append("<(90=Smith)(91=john.smith@example.org)(92=Jos$C3$A9)"
+            + "(93=$C3$81lvarez)>\n");
+        mab.append("{1:^80 {(k^BF:c)(s=9)}\n");
+        mab.append(card(1, "John", "^90", "^91", "+49 89 1234567"));
+        mab.append(card(2, "Jane", "Smithers", "jane@example.org", null));
+        mab.append(card(3, "^92", "^93", "jose@example.org",
+            "(089) 555-0100"));
+        mab.append("}\n");
+        // a mailing list, which is not a card
+        mab.append("[1:^81(^83=John)]\n");
+        write(mab.toString(), false);
+        index.update(file);
+
+        assertEquals(Arrays.asList("John", "Jane"), names(find("smi")));
+        assertEquals(Arrays.asList("John"), names(find("John Smith")));
+        assertEquals(Arrays.asList("John"), names(find("smith jo")));
+        assertEquals(Arrays.asList("John"), names(find("example.org john")));
+        assertEquals(Arrays.asList("Jos\u00e9"), names(find("jose alv")));
+        assertEquals(Arrays.asList("Jos\u00e9"),
+            names(find("\u00c1LVAREZ")));
+        assertEquals(Arrays.asList("John", "Jane", "Jos\u00e9"),
+            names(find(" ")));
+        assertEquals(Arrays.asList(), names(find("mith")));
+        assertEquals(Arrays.asList(), names(find("+")));
+
+        // phone numbers by leading digits and by trailing digits in another
+        // format, as long as the phone number matcher agrees
+        assertEquals(Arrays.asList("John"), names(find("+49 89 12")));
+        assertEquals(Arrays.asList("Jos\u00e9"), names(find("089")));
+        assertEquals(Arrays.asList("John"),
+            names(index.find("089 1234567", phone -> true)));
+        assertEquals(Arrays.asList(),
+            names(index.find("089 1234567", phone -> false)));
+        assertEquals(1, index.getFullParses());
+    }
+
+    /**
+     * The index answers the contact list search by word prefixes, ignoring
+     * diacritical marks, where the pattern matches anywhere in any value.
+     */
+    @Test
+    public void testIndexMatchesWordPrefixesUnlikePattern() throws IOException
+    {
+        write(header() + "<(90=Jos$C3$A9)>\n{1:^80 {(k^BF:c)(s=9)}\n"
+            + card(1, "John", "Smith", "js@example.org", null)
+            + card(2, "^90", "Alvarez", "ja@example.org", null)
+            + "}\n", false);
+        index.update(file);
+        int flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+
+        // inside a word: only the pattern matches
+        Pattern inside = Pattern.compile(Pattern.quote("mith"), flags);
+        assertTrue(inside.matcher("Smith").find());
+        assertEquals(Arrays.asList(),
+            names(find(MorkIndex.getText(inside))));
+
+        // without the accent: only the index matches
+        Pattern plain = Pattern.compile(Pattern.quote("jose"), flags);
+        assertFalse(plain.matcher("Jos\u00e9").find());
+        assertEquals(Arrays.asList("Jos\u00e9"),
+            names(find(MorkIndex.getText(plain))));
+
+        // words in another order: only the index matches
+        Pattern words = Pattern.compile(Pattern.quote("smith john"), flags);
+        assertFalse(words.matcher("John Smith").find());
+        assertEquals(Arrays.asList("John"),
+            names(find(MorkIndex.getText(words))));
+    }
+
+    /**
+     * A large address book is parsed once. The transaction groups appended
+     * later add and replace cards without parsing the file again.
+     */
+    @Test
+    public void testAppendedGroups() throws IOException
+    {
+        write(largeAddressBook(), false);
+        index.update(file);
+        assertEquals(CARDS, index.getRows().size());
+        assertEquals(CARDS / FIRST_NAMES.length, find("hanna").size());
+        assertTrue(lastNames(find("hanna last7")).contains("Last7"));
+        assertFalse(lastNames(find("hanna last7")).contains("Last17"));
+        assertEquals(Arrays.asList("Emil"), names(find("5550004")));
+
+        // one group adds a card, another replaces card 7 and its number
+        write("@$${A1{@\n<(A0=Zoe)(A1=Newcomer)>\n"
+            + "[" + Integer.toHexString(CARDS + 1) + ":^80(^83^A0)(^84^A1)"
+            + "(^86=Zoe Newcomer)(^87=zoe@example.org)]\n@$$}A1}@\n"
+            + "@$${A2{@\n[-7:^80(^83=Hanna)(^84=Renamed)"
+            + "(^86=Hanna Renamed)(^88=556 0000)]\n@$$}A2}@\n", true);
+        index.update(file);
+
+        assertEquals(1, index.getFullParses());
+        assertEquals(CARDS + 1, index.getRows().size());
+        assertEquals(Arrays.asList("Zoe"), names(find("newc")));
+        assertEquals(Arrays.asList("Hanna"), names(find("renamed")));
+        assertFalse(lastNames(find("hanna last7")).contains("Last7"));
+        assertEquals(Arrays.asList("Hanna"), names(find("5560000")));
+        assertEquals(Arrays.asList(), find("5550007"));
+        // the changed card is listed last, like a new one
+        assertEquals("Hanna Renamed",
+            index.getRows().get(CARDS).getValue("DisplayName"));
+    }
+
+    @Test
+    public void testIncompleteGroupIsParsedWhenComplete() throws IOException
+    {
+        write(header() + "{1:^80 {(k^BF:c)(s=9)}\n"
+            + card(1, "John", "Smith", "john@example.org", null) + "}\n",
+            false);
+        index.update(file);
+        write("@$${2{@\n[2:^80(^83=Jane)(^84=Doe)]\n", true);
+        index.update(file);
+        assertEquals(Arrays.asList(), find("jane"));
+
+        write("@$$}2}@\n", true);
+        index.update(file);
+        assertEquals(Arrays.asList("Jane"), names(find("jane")));
+        assertEquals(1, index.getFullParses());
+    }
+
+    @Test
+    public void testRewrittenFileIsParsedAgain() throws IOException
+    {
+        write(header() + "{1:^80 {(k^BF:c)(s=9)}\n"
+            + card(1, "John", "Smith", "john@example.org", null) + "}\n",
+            false);
+        index.update(file);
+        index.update(file);
+        assertEquals(1, index.getFullParses());
+
+        write(header() + "{1:^80 {(k^BF:c)(s=9)}\n"
+            + card(1, "Jane", "Smith", "jane@example.org", null)
+            + card(2, "Jim", "Smith", "jim@example.org", null) + "}\n",
+            false);
+        index.update(file);
+        assertEquals(2, index.getFullParses());
+        assertEquals(Arrays.asList("Jane", "Jim"), names(find("smith")));
+    }
+
+    private List<Row> find(String text)
+    {
+        return index.find(text, phone -> false);
+    }
+
+    private void write(String text, boolean append) throws IOException
+    {
+        try (Writer writer = new OutputStreamWriter(
+            new FileOutputStream(file, append), Charset.defaultCharset()))
+        {
+            writer.write(text);
+        }
+        // make the change visible with coarse file time stamps
+        file.setLastModified(file.lastModified() + 1000);
+    }
+
+    private static List<String> names(List<Row> rows)
+    {
+        List<String> names = new ArrayList<String>();
+        for (Row row : rows)
+            names.add(row.getValue("FirstName"));
+        return names;
+    }
+
+    private static List<String> lastNames(List<Row> rows)
+    {
+        List<String> names = new ArrayList<String>();
+        for (Row row : rows)
+            names.add(row.getValue("LastName"));
+        return names;
+    }
+
+    private static String header()
+    {
+        return "// <!-- <mdb:mork:z v=\"1.4\"/> -->\n"
+            + "< <(a=c)> // (f=iso-8859-1)\n"
+            + "  (B8=LastModifiedDate)(B9=RecordKey)(BA=AddrCharSet)\n"
+            + "  (BF=ns:addrbk:db:table:kind:pab)\n"
+            + "  (80=ns:addrbk:db:row:scope:card:all)\n"
+            + "  (81=ns:addrbk:db:row:scope:list:all)\n"
+            + "  (82=ns:addrbk:db:row:scope:data:all)(83=FirstName)\n"
+            + "  (84=LastName)(85=PhoneticFirstName)(86=DisplayName)\n"
+            + "  (87=PrimaryEmail)(88=WorkPhone)(89=CellularNumber)>\n\n";
+    }
+
+    /**
+     * Gets a row of a card. Values starting with <tt>^</tt> refer to atoms.
+     */
+    private static String card(int id, String firstName, String lastName,
+        String email, String phone)
+    {
+        StringBuilder row = new StringBuilder("  [")
+            .append(Integer.toHexString(id));
+        cell(row, "83", firstName);
+        cell(row, "84", lastName);
+        cell(row, "87", email);
+        cell(row, "89", phone);
+        return row.append("]\n").toString();
+    }
+
+    private static void cell(StringBuilder row, String column, String value)
+    {
+        if (value == null)
+            return;
+        row.append("(^").append(column);
+        if (value.startsWith("^"))
+            row.append(value);
+        else
+            row.append('=').append(value.replace(")", "\\)"));
+        row.append(')');
+    }
+
+    /**
+     * Gets an address book of {@link #CARDS} cards whose first names are
+     * stored as atoms and whose other values are stored in the rows.
+     */
+    private static String largeAddressBook()
+    {
+        StringBuilder mab = new StringBuilder(header()).append('<');
+        for (int i = 0; i < FIRST_NAMES.length; i++)
+        {
+            mab.append('(').append(Integer.toHexString(0x90 + i)).append('=')
+                .append(FIRST_NAMES[i]).append(')');
+        }
+        mab.append(">\n{1:^80 {(k^BF:c)(s=9)}\n");
+        for (int i = 1; i <= CARDS; i++)
+        {
+            mab.append(card(i,
+                "^" + Integer.toHexString(0x90 + i % FIRST_NAMES.length),
+                "Last" + i, "user" + i + "@example.org",
+                "555" + String.format("%04d", i)));
+        }
+        return mab.append("}\n").toString();
+    }
+}
@@ -37,8 +37,23 @@
 
     private final Collection<CallRecord> callRecords = new Vector<CallRecord>();
 
+    /**
+     * The underlying <tt>HistoryQuery</tt>, or <tt>null</tt> if the results
+     * of this query are added by <tt>CallHistoryServiceImpl</tt> itself.
+     */
     private final HistoryQuery historyQuery;
 
+    /**
+     * The query string of this query, if it has no underlying
+     * <tt>HistoryQuery</tt>.
+     */
+    private final String queryString;
+
+    /**
+     * Indicates if this query has been canceled.
+     */
+    private volatile boolean isCanceled = false;
+
     /**
      * Creates an instance of <tt>CallHistoryQueryImpl</tt> by specifying the
      * underlying <tt>HistoryQuery</tt>.
@@ -47,6 +62,7 @@
     public CallHistoryQueryImpl(HistoryQuery query)
     {
         this.historyQuery = query;
+        this.queryString = null;
 
         historyQuery.addHistoryRecordsListener(new HistoryQueryListener()
         {
@@ -79,12 +95,62 @@ public void queryStatusChanged(HistoryQueryStatusEvent event)
         }
     }
 
+    /**
+     * Creates an instance of <tt>CallHistoryQueryImpl</tt> without an
+     * underlying <tt>HistoryQuery</tt>. The results are then added through
+     * {@link #addCallRecord(CallRecord)} and the query is finished with
+     * {@link #setStatus(int)}.
+     *
+     * @param queryString the query string of this query
+     */
+    CallHistoryQueryImpl(String queryString)
+    {
+        this.historyQuery = null;
+        this.queryString = queryString;
+    }
+
     /**
      * Cancels this query.
      */
     public void cancel()
     {
-        historyQuery.cancel();
+        isCanceled = true;
+        if (historyQuery != null)
+            historyQuery.cancel();
+    }
+
+    /**
+     * Indicates if this query has been canceled.
+     *
+     * @return <tt>true</tt> if this query has been canceled, otherwise
+     * <tt>false</tt>
+     */
+    boolean isCanceled()
+    {
+        return isCanceled;
+    }
+
+    /**
+     * Adds a result to this query and notifies the registered
+     * <tt>CallHistoryQueryListener</tt>s.
+     *
+     * @param callRecord the <tt>CallRecord</tt> to add
+     */
+    void addCallRecord(CallRecord callRecord)
+    {
+        callRecords.add(callRecord);
+        fireQueryEvent(callRecord);
+    }
+
+    /**
+     * Sets the status of this query and notifies the registered
+     * <tt>CallHistoryQueryListener</tt>s.
+     *
+     * @param status one of the <tt>HistoryQueryStatusEvent</tt> types
+     */
+    void setStatus(int status)
+    {
+        fireQueryStatusEvent(status);
     }
 
     /**
@@ -170,6 +236,8 @@ private void fireQueryStatusEvent(int newStatus)
      */
     public String getQueryString()
     {
-        return historyQuery.getQueryString();
+        return (historyQuery == null)
+            ? queryString
+            : historyQuery.getQueryString();
     }
 }
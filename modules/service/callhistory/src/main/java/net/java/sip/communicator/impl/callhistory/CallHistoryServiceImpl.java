@@ -20,6 +20,7 @@
 import java.io.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.service.callhistory.*;
 import net.java.sip.communicator.service.callhistory.event.*;
@@ -86,9 +87,53 @@
 
     private HistoryReader historyReader;
 
+    /**
+     * The index of the peers in the default call history, built by the first
+     * search by peer.
+     */
+    private CallPeerIndex peerIndex = null;
+
+    /**
+     * The lock for building and updating {@link #peerIndex}.
+     */
+    private final Object peerIndexLock = new Object();
+
+    /**
+     * Runs the searches by peer through {@link #peerIndex}, one at a time.
+     */
+    private final ExecutorService peerSearchExecutor;
+
     private List<CallHistoryPeerRecordListener> callHistoryRecordlisteners
         = new LinkedList<CallHistoryPeerRecordListener>();
 
+    /**
+     * Creates the call history service.
+     */
+    public CallHistoryServiceImpl()
+    {
+        this(Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "CallHistoryPeerSearch");
+
+                t.setDaemon(true);
+                return t;
+            }
+        }));
+    }
+
+    /**
+     * Creates the call history service.
+     *
+     * @param peerSearchExecutor the executor running the searches by peer
+     */
+    CallHistoryServiceImpl(ExecutorService peerSearchExecutor)
+    {
+        this.peerSearchExecutor = peerSearchExecutor;
+    }
+
     /**
      * Returns the underlying history service.
      * @return the underlying history service
@@ -301,6 +346,74 @@ public Collection<CallRecord> findLast(int count) throws RuntimeException
         return result;
     }
 
+    /**
+     * Returns the supplied number of first calls made after the given date
+     *
+     * @param date calls after date
+     * @param count calls count
+     * @return Collection of CallRecords with CallPeerRecord
+     * @throws RuntimeException
+     */
+    public Collection<CallRecord> findFirstRecordsAfter(Date date, int count)
+        throws RuntimeException
+    {
+        TreeSet<CallRecord> result
+            = new TreeSet<CallRecord>(new CallRecordComparator());
+        try
+        {
+            // the default ones
+            History history = this.getHistory(null, null);
+            historyReader = history.getReader();
+            QueryResultSet<HistoryRecord> rs
+                = historyReader.findFirstRecordsAfter(date, count);
+            while (rs.hasNext())
+            {
+                HistoryRecord hr = rs.next();
+                result.add(convertHistoryRecordToCallRecord(hr));
+            }
+        }
+        catch (IOException ex)
+        {
+            logger.error("Could not read history", ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the supplied number of last calls made before the given date
+     *
+     * @param date calls before date
+     * @param count calls count
+     * @return Collection of CallRecords with CallPeerRecord
+     * @throws RuntimeException
+     */
+    public Collection<CallRecord> findLastRecordsBefore(Date date, int count)
+        throws RuntimeException
+    {
+        TreeSet<CallRecord> result
+            = new TreeSet<CallRecord>(new CallRecordComparator());
+        try
+        {
+            // the default ones
+            History history = this.getHistory(null, null);
+            historyReader = history.getReader();
+            QueryResultSet<HistoryRecord> rs
+                = historyReader.findLastRecordsBefore(date, count);
+            while (rs.hasNext())
+            {
+                HistoryRecord hr = rs.next();
+                result.add(convertHistoryRecordToCallRecord(hr));
+            }
+        }
+        catch (IOException ex)
+        {
+            logger.error("Could not read history", ex);
+        }
+
+        return result;
+    }
+
     /**
      * Find the calls made by the supplied peer address
      * @param address String the address of the peer
@@ -308,7 +421,8 @@ public Collection<CallRecord> findLast(int count) throws RuntimeException
      * @return Collection of CallRecords with CallPeerRecord
      * @throws RuntimeException
      */
-    public CallHistoryQuery findByPeer(String address, int recordCount)
+    public CallHistoryQuery findByPeer(final String address,
+                                       final int recordCount)
         throws RuntimeException
     {
         CallHistoryQueryImpl callQuery = null;
@@ -316,7 +430,27 @@ public CallHistoryQuery findByPeer(String address, int recordCount)
         try
         {
             // the default ones
-            History history = this.getHistory(null, null);
+            final History history = this.getHistory(null, null);
+
+            // The index holds single peer addresses, a search for more than
+            // one still has to scan the whole history.
+            if (address.indexOf(DELIM) < 0)
+            {
+                final CallHistoryQueryImpl indexQuery
+                    = new CallHistoryQueryImpl(address);
+
+                peerSearchExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        findByPeer(history, address, recordCount, indexQuery);
+                    }
+                });
+
+                return indexQuery;
+            }
+
             InteractiveHistoryReader historyReader
                 = history.getInteractiveReader();
             HistoryQuery historyQuery
@@ -333,6 +467,107 @@ public CallHistoryQuery findByPeer(String address, int recordCount)
         return callQuery;
     }
 
+    /**
+     * Finds the calls made by the supplied peer address through the peer
+     * index and adds them to <tt>query</tt>, newest first.
+     *
+     * @param history the default call history
+     * @param address the address, or part of it, of the peer
+     * @param recordCount the number of records to return
+     * @param query the query tracking the results
+     */
+    private void findByPeer(History history,
+                            String address,
+                            int recordCount,
+                            CallHistoryQueryImpl query)
+    {
+        HistoryReader reader = history.getReader();
+        long[] timestamps = getPeerIndex(history).find(address, recordCount);
+        int resultCount = recordCount;
+
+        // The timestamp of a record locates it, only the files with records
+        // of that time have to be read.
+        for (int i = 0;
+             i < timestamps.length && resultCount > 0 && !query.isCanceled();
+             i++)
+        {
+            QueryResultSet<HistoryRecord> rs
+                = reader.findByPeriod(
+                    new Date(timestamps[i]), new Date(timestamps[i] + 1));
+            List<HistoryRecord> matching = new ArrayList<HistoryRecord>();
+
+            while (rs.hasNext())
+            {
+                HistoryRecord hr = rs.next();
+
+                if (CallPeerIndex.matches(getPeerIDs(hr), address))
+                    matching.add(hr);
+            }
+
+            // Records written in the same millisecond are read oldest first,
+            // the keyword search returns the newest first.
+            for (int j = matching.size() - 1; j >= 0 && resultCount > 0; j--)
+            {
+                query.addCallRecord(
+                    convertHistoryRecordToCallRecord(matching.get(j)));
+                resultCount--;
+            }
+        }
+
+        if (query.isCanceled())
+            query.setStatus(HistoryQueryStatusEvent.QUERY_CANCELED);
+        else
+            query.setStatus(HistoryQueryStatusEvent.QUERY_COMPLETED);
+    }
+
+    /**
+     * Returns the index of the peers in the default call history, building
+     * it from the history the first time.
+     *
+     * @param history the default call history
+     * @return the index of the peers in <tt>history</tt>
+     */
+    private CallPeerIndex getPeerIndex(History history)
+    {
+        synchronized (peerIndexLock)
+        {
+            if (peerIndex == null)
+            {
+                CallPeerIndex index = new CallPeerIndex();
+                QueryResultSet<HistoryRecord> rs
+                    = history.getReader().findByStartDate(new Date(0));
+
+                while (rs.hasNext())
+                {
+                    HistoryRecord hr = rs.next();
+
+                    index.add(getPeerIDs(hr), hr.getTimestamp().getTime());
+                }
+                peerIndex = index;
+            }
+            return peerIndex;
+        }
+    }
+
+    /**
+     * Returns the addresses of the peers of a call history record.
+     *
+     * @param hr the record
+     * @return the comma separated peer addresses of <tt>hr</tt> or
+     * <tt>null</tt> if it has none
+     */
+    private static String getPeerIDs(HistoryRecord hr)
+    {
+        String[] propertyNames = hr.getPropertyNames();
+
+        for (int i = 0; i < propertyNames.length; i++)
+        {
+            if (propertyNames[i].equals(STRUCTURE_NAMES[4]))
+                return hr.getPropertyValues()[i];
+        }
+        return null;
+    }
+
     /**
      * Returns the history by specified local and remote contact
      * if one of them is null the default is used
@@ -648,6 +883,8 @@ public void stop(BundleContext bc)
     {
         bc.removeServiceListener(this);
 
+        peerSearchExecutor.shutdownNow();
+
         Collection<ServiceReference<ProtocolProviderService>> ppsRefs
             = ServiceUtils.getServiceReferences(
                     bc,
@@ -724,21 +961,32 @@ private void writeCall( CallRecordImpl callRecord,
 
             }
 
-            historyWriter.addRecord(new String[] {
-                    callRecord.getSourceCall().getProtocolProvider()
-                        .getAccountID().getAccountUniqueID(),
-                    sdf.format(callRecord.getStartTime()),
-                    sdf.format(callRecord.getEndTime()),
-                    callRecord.getDirection(),
-                    callPeerIDs.toString(),
-                    callPeerStartTime.toString(),
-                    callPeerEndTime.toString(),
-                    callPeerStates.toString(),
-                    String.valueOf(callRecord.getEndReason()),
-                    callPeerNames.toString(),
-                    callPeerSecondaryIDs.toString()},
-                    new Date());    // this date is when the history
-                                    // record is written
+            // this date is when the history record is written
+            Date timestamp = new Date();
+
+            synchronized (peerIndexLock)
+            {
+                historyWriter.addRecord(new String[] {
+                        callRecord.getSourceCall().getProtocolProvider()
+                            .getAccountID().getAccountUniqueID(),
+                        sdf.format(callRecord.getStartTime()),
+                        sdf.format(callRecord.getEndTime()),
+                        callRecord.getDirection(),
+                        callPeerIDs.toString(),
+                        callPeerStartTime.toString(),
+                        callPeerEndTime.toString(),
+                        callPeerStates.toString(),
+                        String.valueOf(callRecord.getEndReason()),
+                        callPeerNames.toString(),
+                        callPeerSecondaryIDs.toString()},
+                        timestamp);
+
+                if (peerIndex != null && source == null && destination == null)
+                {
+                    peerIndex.add(
+                        callPeerIDs.toString(), timestamp.getTime());
+                }
+            }
         }
         catch (IOException e)
         {
@@ -794,7 +1042,11 @@ public void eraseLocallyStoredHistory()
     {
         HistoryID historyId = HistoryID.createFromRawID(
                     new String[] {  "callhistory" });
-        historyService.purgeLocallyStoredHistory(historyId);
+        synchronized (peerIndexLock)
+        {
+            historyService.purgeLocallyStoredHistory(historyId);
+            peerIndex = null;
+        }
     }
 
     /**
@@ -0,0 +1,209 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.callhistory;
+
+import java.util.*;
+
+/**
+ * Maps the peer addresses found in the call history to the timestamps of the
+ * records of the calls with them. The timestamp of a record is the time it was
+ * written, which the history reader can use to load the record without
+ * parsing the other history files.
+ * <p>
+ * Searches have the same semantics as the keyword search over the
+ * "callParticipantIDs" field used by <tt>findByPeer</tt> so far: a record
+ * matches when the address is contained in one of its peer addresses,
+ * ignoring the case of ASCII letters.
+ */
+class CallPeerIndex
+{
+    /**
+     * The delimiter of the peer addresses of a record.
+     */
+    private static final char DELIM = ',';
+
+    /**
+     * The timestamps of the records by folded peer address, in the order the
+     * records were added.
+     */
+    private final Map<String, Timestamps> byPeer = new HashMap<>();
+
+    /**
+     * Adds a record to the index.
+     *
+     * @param peerIDs the value of the "callParticipantIDs" field of the
+     * record
+     * @param timestamp the timestamp of the record
+     */
+    synchronized void add(String peerIDs, long timestamp)
+    {
+        // Like the keyword search, never match a record without peers.
+        if (peerIDs == null || peerIDs.length() == 0)
+            return;
+
+        int start = 0;
+
+        while (start <= peerIDs.length())
+        {
+            int end = peerIDs.indexOf(DELIM, start);
+
+            if (end < 0)
+                end = peerIDs.length();
+
+            String peer = fold(peerIDs.substring(start, end));
+            Timestamps timestamps = byPeer.get(peer);
+
+            if (timestamps == null)
+            {
+                timestamps = new Timestamps();
+                byPeer.put(peer, timestamps);
+            }
+            timestamps.add(timestamp);
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Returns the timestamps of the newest records with a peer address which
+     * contains <tt>address</tt>.
+     *
+     * @param address the address, or part of it, to look for
+     * @param count the maximum number of timestamps to return
+     * @return the distinct timestamps of the matching records, newest first,
+     * or <tt>null</tt> if the index cannot answer the query (i.e.
+     * <tt>address</tt> spans more than one peer address)
+     */
+    synchronized long[] find(String address, int count)
+    {
+        if (address.indexOf(DELIM) >= 0)
+            return null;
+
+        String query = fold(address);
+        List<Timestamps> matches = new ArrayList<>();
+
+        for (Map.Entry<String, Timestamps> entry : byPeer.entrySet())
+        {
+            if (entry.getKey().contains(query))
+                matches.add(entry.getValue());
+        }
+
+        // Merge the newest timestamps of the matching peers, starting from
+        // the end of each list, until enough have been collected.
+        PriorityQueue<int[]> cursors
+            = new PriorityQueue<>(Math.max(1, matches.size()),
+                (a, b) -> Long.compare(
+                    matches.get(b[0]).values[b[1]],
+                    matches.get(a[0]).values[a[1]]));
+
+        for (int i = 0; i < matches.size(); i++)
+            cursors.add(new int[] { i, matches.get(i).size - 1 });
+
+        long[] result = new long[Math.min(count, 16)];
+        int size = 0;
+
+        while (size < count && !cursors.isEmpty())
+        {
+            int[] cursor = cursors.poll();
+            long timestamp = matches.get(cursor[0]).values[cursor[1]];
+
+            if (size == 0 || result[size - 1] != timestamp)
+            {
+                if (size == result.length)
+                {
+                    result = Arrays.copyOf(result,
+                        (int) Math.min(count, 2L * result.length));
+                }
+                result[size++] = timestamp;
+            }
+            if (--cursor[1] >= 0)
+                cursors.add(cursor);
+        }
+
+        return (size == result.length) ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Determines whether a record matches a search the way the keyword search
+     * of the history reader does.
+     *
+     * @param peerIDs the value of the "callParticipantIDs" field of the
+     * record
+     * @param address the address searched for
+     * @return <tt>true</tt> if <tt>peerIDs</tt> contains <tt>address</tt>
+     */
+    static boolean matches(String peerIDs, String address)
+    {
+        return peerIDs != null && fold(peerIDs).contains(fold(address));
+    }
+
+    /**
+     * Lower cases the ASCII letters of a string, which is how the
+     * case-insensitive keyword search of the history reader compares.
+     *
+     * @param s the string
+     * @return <tt>s</tt> with its ASCII letters in lower case
+     */
+    private static String fold(String s)
+    {
+        char[] chars = null;
+
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+
+            if (c >= 'A' && c <= 'Z')
+            {
+                if (chars == null)
+                    chars = s.toCharArray();
+                chars[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return (chars == null) ? s : new String(chars);
+    }
+
+    /**
+     * A growable array of timestamps.
+     */
+    private static class Timestamps
+    {
+        /**
+         * The timestamps, valid up to <tt>size</tt>.
+         */
+        private long[] values = new long[4];
+
+        /**
+         * The number of timestamps.
+         */
+        private int size = 0;
+
+        /**
+         * Appends a timestamp, unless it is the same as the last one (i.e. the
+         * peer appears twice in the same record).
+         *
+         * @param timestamp the timestamp
+         */
+        void add(long timestamp)
+        {
+            if (size > 0 && values[size - 1] == timestamp)
+                return;
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = timestamp;
+        }
+    }
+}
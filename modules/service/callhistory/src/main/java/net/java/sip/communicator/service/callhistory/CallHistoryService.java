@@ -131,6 +131,28 @@ public Collection<CallRecord> findLast(MetaContact contact, int count)
     public Collection<CallRecord> findLast(int count)
         throws RuntimeException;
 
+    /**
+     * Returns the supplied number of first calls made after the given date.
+     *
+     * @param date calls after date
+     * @param count calls count
+     * @return Collection of CallRecords with CallPeerRecord
+     * @throws RuntimeException if something goes wrong
+     */
+    public Collection<CallRecord> findFirstRecordsAfter(Date date, int count)
+        throws RuntimeException;
+
+    /**
+     * Returns the supplied number of last calls made before the given date.
+     *
+     * @param date calls before date
+     * @param count calls count
+     * @return Collection of CallRecords with CallPeerRecord
+     * @throws RuntimeException if something goes wrong
+     */
+    public Collection<CallRecord> findLastRecordsBefore(Date date, int count)
+        throws RuntimeException;
+
     /**
      * Find the calls made by the supplied peer address
      * @param address String the address of the peer
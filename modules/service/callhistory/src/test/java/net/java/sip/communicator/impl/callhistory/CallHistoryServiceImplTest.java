@@ -0,0 +1,341 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.callhistory;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.callhistory.*;
+import net.java.sip.communicator.service.callhistory.event.*;
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.event.*;
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.service.protocol.*;
+
+import org.jitsi.service.resources.*;
+
+/**
+ * Tests <tt>CallHistoryServiceImpl.findByPeer</tt> against a keyword scan of
+ * an in-memory call history.
+ */
+public class CallHistoryServiceImplTest
+    extends TestCase
+{
+    private static final int RECORD_COUNT = 5000;
+
+    private static final int PEER_COUNT = 300;
+
+    private static final String[] PROPERTY_NAMES = new String[]
+    {
+        "callStart", "callParticipantIDs", "callParticipantStart",
+        "callParticipantEnd"
+    };
+
+    /**
+     * The records of the history, oldest first.
+     */
+    private final List<HistoryRecord> records = new ArrayList<HistoryRecord>();
+
+    private final ExecutorService executor
+        = Executors.newSingleThreadExecutor();
+
+    private final CallHistoryServiceImpl service
+        = new CallHistoryServiceImpl(executor);
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        // the call peer states of the found records are localized
+        setResourceService(proxy(ResourceManagementService.class,
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("getI18NString"))
+                        return args[0];
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            }));
+
+        Random random = new Random(42);
+        long timestamp = 1400000000000L;
+
+        for (int i = 0; i < RECORD_COUNT; i++)
+        {
+            StringBuilder ids = new StringBuilder();
+            StringBuilder times = new StringBuilder();
+            int peers = 1 + random.nextInt(3);
+
+            for (int j = 0; j < peers; j++)
+            {
+                if (j > 0)
+                {
+                    ids.append(',');
+                    times.append(',');
+                }
+                ids.append(peer(random.nextInt(PEER_COUNT)));
+                times.append(timestamp);
+            }
+
+            // a few calls are written in the same millisecond
+            timestamp += random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(60000);
+            add(ids.toString(), timestamp, times.toString());
+        }
+
+        service.setHistoryService(createHistoryService());
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    public void testMatchesKeywordScan()
+        throws Exception
+    {
+        String[] queries = new String[]
+        {
+            peer(7), peer(299).toUpperCase(), "user12", "sip:", "@Example",
+            "555", "", "nobody@example.org"
+        };
+
+        for (String query : queries)
+        {
+            for (int count : new int[] { 1, 10, 50, 500 })
+            {
+                assertEquals(query + "/" + count,
+                    scan(query, count), find(query, count));
+            }
+        }
+    }
+
+    public void testFindsCallsWrittenInTheSameMillisecond()
+        throws Exception
+    {
+        long timestamp = records.get(records.size() - 1)
+            .getTimestamp().getTime() + 1;
+
+        add("sip:same@example.org", timestamp, String.valueOf(timestamp));
+        add("sip:other@example.org", timestamp, String.valueOf(timestamp));
+        add("sip:Same@example.org", timestamp, String.valueOf(timestamp));
+
+        List<String> found = find("same@", 10);
+
+        assertEquals(2, found.size());
+        assertEquals(scan("same@", 10), found);
+    }
+
+    public void testNotifiesQueryListeners()
+        throws Exception
+    {
+        final CountDownLatch listening = new CountDownLatch(1);
+        final List<CallRecord> received = new Vector<CallRecord>();
+        final List<Integer> statuses = new Vector<Integer>();
+
+        // holds the search until the listener is added
+        executor.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    listening.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        CallHistoryQuery query = service.findByPeer(peer(1), 10);
+
+        query.addQueryListener(new CallHistoryQueryListener()
+        {
+            public void callRecordReceived(CallRecordEvent event)
+            {
+                received.add(event.getCallRecord());
+            }
+
+            public void queryStatusChanged(CallHistoryQueryStatusEvent event)
+            {
+                statuses.add(event.getEventType());
+            }
+        });
+        listening.countDown();
+        executor.submit(new Runnable() { public void run() {} }).get();
+
+        assertEquals(scan(peer(1), 10).size(), received.size());
+        assertEquals(
+            Collections.singletonList(
+                HistoryQueryStatusEvent.QUERY_COMPLETED),
+            statuses);
+    }
+
+    private static void setResourceService(ResourceManagementService service)
+        throws Exception
+    {
+        Field field = ProtocolProviderActivator.class
+            .getDeclaredField("resourceService");
+        field.setAccessible(true);
+        field.set(null, service);
+    }
+
+    private static String peer(int i)
+    {
+        return (i % 3 == 0)
+            ? "+1555" + (1000000 + i)
+            : "sip:user" + i + "@example.org";
+    }
+
+    private void add(String peerIDs, long timestamp, String peerTimes)
+    {
+        records.add(new HistoryRecord(PROPERTY_NAMES,
+            new String[]
+            {
+                String.valueOf(timestamp), peerIDs, peerTimes, peerTimes
+            },
+            new Date(timestamp)));
+    }
+
+    /**
+     * Searches through <tt>findByPeer</tt> and waits for the search to end.
+     *
+     * @return the peers of the found calls with their start time
+     */
+    private List<String> find(String query, int count)
+        throws Exception
+    {
+        CallHistoryQuery callQuery = service.findByPeer(query, count);
+
+        // the executor runs one search at a time, so the search has ended
+        // once a task submitted after it has run
+        executor.submit(new Runnable() { public void run() {} }).get();
+
+        List<String> result = new ArrayList<String>();
+
+        for (CallRecord record : callQuery.getCallRecords())
+            result.add(describe(record));
+        return result;
+    }
+
+    /**
+     * Searches all records from the newest like the keyword search of the
+     * history reader.
+     */
+    private List<String> scan(String query, int count)
+    {
+        Pattern pattern = Pattern.compile(
+            "(?si)^.*" + Pattern.quote(query) + ".*$");
+        List<String> result = new ArrayList<String>();
+
+        for (int i = records.size() - 1; i >= 0 && result.size() < count; i--)
+        {
+            HistoryRecord hr = records.get(i);
+
+            if (pattern.matcher(hr.getPropertyValues()[1]).matches())
+            {
+                result.add(describe(
+                    CallHistoryServiceImpl.convertHistoryRecordToCallRecord(
+                        hr)));
+            }
+        }
+        return result;
+    }
+
+    private static String describe(CallRecord record)
+    {
+        StringBuilder s = new StringBuilder();
+
+        s.append(record.getStartTime().getTime());
+        for (CallPeerRecord peer : record.getPeerRecords())
+            s.append(' ').append(peer.getPeerAddress());
+        return s.toString();
+    }
+
+    /**
+     * Creates a history service with a single history holding
+     * {@link #records}.
+     */
+    private HistoryService createHistoryService()
+    {
+        final HistoryReader reader = proxy(HistoryReader.class,
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("findByStartDate"))
+                        return select((Date) args[0], null);
+                    else if (method.getName().equals("findByPeriod")
+                            && args.length == 2)
+                        return select((Date) args[0], (Date) args[1]);
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        final History history = proxy(History.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("getReader"))
+                    return reader;
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        return proxy(HistoryService.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("createHistory"))
+                    return history;
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Returns the records from <tt>start</tt> inclusive to <tt>end</tt>
+     * exclusive.
+     */
+    private QueryResultSet<HistoryRecord> select(Date start, Date end)
+    {
+        Vector<HistoryRecord> result = new Vector<HistoryRecord>();
+
+        for (HistoryRecord hr : records)
+        {
+            if (!hr.getTimestamp().before(start)
+                && (end == null || hr.getTimestamp().before(end)))
+            {
+                result.add(hr);
+            }
+        }
+        return new DefaultQueryResultSet<HistoryRecord>(result);
+    }
+
+    private static <T> T proxy(Class<T> iface, InvocationHandler handler)
+    {
+        return iface.cast(Proxy.newProxyInstance(
+            CallHistoryServiceImplTest.class.getClassLoader(),
+            new Class<?>[] { iface }, handler));
+    }
+}
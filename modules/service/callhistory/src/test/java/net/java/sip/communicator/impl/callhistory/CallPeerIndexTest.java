@@ -0,0 +1,209 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.callhistory;
+
+import java.util.*;
+import java.util.regex.*;
+
+import junit.framework.*;
+
+public class CallPeerIndexTest
+    extends TestCase
+{
+    /**
+     * The system property which enables the benchmark of the index, run with
+     * <tt>mvn test -Dbenchmark=true -Dtest=CallPeerIndexTest</tt>.
+     */
+    private static final String BENCHMARK_PROP = "benchmark";
+
+    private static final int BENCHMARK_RECORD_COUNT = 100000;
+
+    private static final int BENCHMARK_PEER_COUNT = 5000;
+
+    private final CallPeerIndex index = new CallPeerIndex();
+
+    @Override
+    protected void setUp()
+    {
+        index.add("sip:alice@example.org", 1000);
+        index.add("sip:bob@example.org,sip:alice@example.org", 2000);
+        index.add("+15551234", 3000);
+        index.add("sip:Alice@example.org", 3000);
+        index.add("sip:carol@example.net", 4000);
+    }
+
+    public void testFindsNewestFirst()
+    {
+        assertTrue(Arrays.equals(new long[] { 3000, 2000, 1000 },
+            index.find("alice", 10)));
+        assertTrue(Arrays.equals(new long[] { 4000, 3000, 2000, 1000 },
+            index.find("sip:", 10)));
+        assertTrue(Arrays.equals(new long[] { 3000, 2000 },
+            index.find("ALICE@", 2)));
+        assertEquals(0, index.find("dave", 10).length);
+    }
+
+    public void testMatchesSubstringsOfSinglePeers()
+    {
+        assertTrue(Arrays.equals(new long[] { 3000 },
+            index.find("555", 10)));
+        assertTrue(Arrays.equals(new long[] { 4000 },
+            index.find("example.net", 10)));
+        assertTrue(CallPeerIndex.matches(
+            "sip:bob@example.org,sip:alice@example.org", "ALICE"));
+        assertFalse(CallPeerIndex.matches("sip:bob@example.org", "alice"));
+    }
+
+    public void testAddsNewRecords()
+    {
+        index.add("new@example.org,NEW@example.org", 5000);
+
+        assertTrue(Arrays.equals(new long[] { 5000 },
+            index.find("new@", 10)));
+    }
+
+    public void testDoesNotIndexMultiplePeers()
+    {
+        assertNull(index.find(
+            "sip:bob@example.org,sip:alice@example.org", 10));
+    }
+
+    /**
+     * Compares the index with the keyword scan it replaced over 100k
+     * generated calls. Skipped unless the <tt>benchmark</tt> system property
+     * is set.
+     */
+    public void testBenchmarkAgainstKeywordScan()
+    {
+        if (!Boolean.getBoolean(BENCHMARK_PROP))
+            return;
+
+        CallPeerIndex index = new CallPeerIndex();
+        String[] peerIDs = new String[BENCHMARK_RECORD_COUNT];
+        long[] timestamps = new long[BENCHMARK_RECORD_COUNT];
+        Random random = new Random(42);
+        long timestamp = 1400000000000L;
+
+        for (int i = 0; i < BENCHMARK_RECORD_COUNT; i++)
+        {
+            StringBuilder ids = new StringBuilder();
+            int peers = 1 + random.nextInt(3);
+
+            for (int j = 0; j < peers; j++)
+            {
+                if (j > 0)
+                    ids.append(',');
+                ids.append(peer(random.nextInt(BENCHMARK_PEER_COUNT)));
+            }
+
+            // a few calls are written in the same millisecond
+            timestamp += random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(60000);
+            peerIDs[i] = ids.toString();
+            timestamps[i] = timestamp;
+            index.add(peerIDs[i], timestamp);
+        }
+
+        String[] queries = new String[]
+        {
+            peer(7), peer(4999).toUpperCase(), "user12", "sip:", "@Example",
+            "555", "", "nobody@example.org"
+        };
+        for (String query : queries)
+        {
+            long scanTime = 0;
+            long indexTime = 0;
+
+            for (int count : new int[] { 1, 10, 50, 500 })
+            {
+                long start = System.nanoTime();
+                long[] expected = scan(peerIDs, timestamps, query, count);
+
+                scanTime += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                long[] actual = find(index, peerIDs, timestamps, query, count);
+
+                indexTime += System.nanoTime() - start;
+
+                assertTrue(query + "/" + count,
+                    Arrays.equals(expected, actual));
+            }
+
+            System.out.println("CallPeerIndexTest: \"" + query + "\" scan "
+                + scanTime / 1000 + " us, index " + indexTime / 1000
+                + " us over " + BENCHMARK_RECORD_COUNT + " records");
+        }
+    }
+
+    private static String peer(int i)
+    {
+        return (i % 3 == 0)
+            ? "+1555" + (1000000 + i)
+            : "sip:user" + i + "@example.org";
+    }
+
+    /**
+     * Resolves the timestamps returned by the index to the matching records,
+     * the way <tt>CallHistoryServiceImpl.findByPeer</tt> does.
+     */
+    private static long[] find(CallPeerIndex index, String[] peerIDs,
+        long[] timestamps, String query, int count)
+    {
+        long[] found = index.find(query, count);
+        long[] result = new long[count];
+        int size = 0;
+
+        for (int i = 0; i < found.length && size < count; i++)
+        {
+            int first = Arrays.binarySearch(timestamps, found[i]);
+
+            while (first > 0 && timestamps[first - 1] == found[i])
+                first--;
+            for (int j = first;
+                 j < timestamps.length
+                     && timestamps[j] == found[i]
+                     && size < count;
+                 j++)
+            {
+                if (CallPeerIndex.matches(peerIDs[j], query))
+                    result[size++] = timestamps[j];
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Searches all records from the newest like the keyword search of the
+     * history reader.
+     */
+    private static long[] scan(String[] peerIDs, long[] timestamps,
+        String query, int count)
+    {
+        Pattern pattern = Pattern.compile(
+            "(?si)^.*" + Pattern.quote(query) + ".*$");
+        long[] result = new long[count];
+        int size = 0;
+
+        for (int i = peerIDs.length - 1; i >= 0 && size < count; i--)
+        {
+            if (pattern.matcher(peerIDs[i]).matches())
+                result[size++] = timestamps[i];
+        }
+        return Arrays.copyOf(result, size);
+    }
+}
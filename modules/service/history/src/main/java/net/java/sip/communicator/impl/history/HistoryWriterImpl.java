@@ -164,6 +164,68 @@ private void addRecord(String[] propertyNames,
         }
 
         // write changes
+        writeCurrentDoc();
+    }
+
+    /**
+     * Stores a batch of records complying with the historyRecordStructure.
+     * The records are appended in the order of the list, each with its own
+     * timestamp, and every history file touched by the batch is written only
+     * once.
+     *
+     * @param propertyValues the values of the records
+     * @throws IOException
+     */
+    public void addRecords(List<String[]> propertyValues)
+        throws IOException
+    {
+        if (propertyValues.isEmpty())
+            return;
+
+        // keep the records ordered and the names of any new files unique
+        long time = System.currentTimeMillis();
+
+        synchronized (this.docCreateLock)
+        {
+            for (String[] values : propertyValues)
+            {
+                Date date = new Date(time++);
+
+                if (this.currentDoc == null
+                        || this.currentDocElements > MAX_RECORDS_PER_FILE)
+                {
+                    // the current file is full, store it before moving on
+                    if (this.currentDoc != null)
+                        writeCurrentDoc();
+
+                    this.createNewDoc(date, this.currentDoc == null);
+                }
+
+                synchronized (this.currentDoc)
+                {
+                    Node root = this.currentDoc.getFirstChild();
+                    synchronized (root)
+                    {
+                        Element elem = createRecord(
+                            this.currentDoc, structPropertyNames, values, date);
+                        root.appendChild(elem);
+                        this.currentDocElements++;
+                    }
+                }
+            }
+
+            writeCurrentDoc();
+        }
+    }
+
+    /**
+     * Writes the current document to its file.
+     *
+     * @throws IOException
+     */
+    private void writeCurrentDoc()
+        throws IOException
+    {
         synchronized (this.docWriteLock)
         {
             if(historyImpl.getHistoryServiceImpl().isCacheEnabled())
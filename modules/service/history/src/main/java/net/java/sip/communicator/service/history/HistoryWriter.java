@@ -80,6 +80,19 @@ public void addRecord(String[] propertyValues,
     public void addRecord(String[] propertyValues, Date timestamp)
         throws IOException;
 
+    /**
+     * Stores a batch of records complying with the historyRecordStructure.
+     * The records are appended in the order of the list and the history
+     * files are written once for the whole batch rather than once per record.
+     *
+     * @param propertyValues
+     *            The values of the records.
+     *
+     * @throws IOException
+     */
+    public void addRecords(List<String[]> propertyValues)
+        throws IOException;
+
     /**
      * Stores the passed propertyValues complying with the
      * historyRecordStructure.
@@ -0,0 +1,272 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.ldap;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import javax.naming.*;
+import javax.naming.ldap.*;
+
+/**
+ * A pool of connected and bound contexts to one LDAP directory, so that the
+ * searches of a directory do not each pay for a TCP connection, a TLS
+ * handshake and a bind. A context is used by one search at a time and is
+ * closed after it has been idle for {@link #IDLE_TIMEOUT} ms.
+ */
+class LdapContextPool
+{
+    /**
+     * The logger for this class.
+     */
+    private final static org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(LdapContextPool.class);
+
+    /**
+     * The maximum number of idle contexts kept open.
+     */
+    private static final int MAX_IDLE = 4;
+
+    /**
+     * The time in ms after which an idle context is closed.
+     */
+    static final long IDLE_TIMEOUT = 60000;
+
+    /**
+     * The name of the directory, for logging.
+     */
+    private final String name;
+
+    /**
+     * The settings used to create an <tt>InitialLdapContext</tt>.
+     */
+    private final Hashtable<String, String> env;
+
+    /**
+     * The executor which closes the expired idle contexts.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Returns the current time in ms.
+     */
+    private final LongSupplier clock;
+
+    /**
+     * The idle contexts, the most recently used first.
+     */
+    private final Deque<IdleContext> idle = new ArrayDeque<IdleContext>();
+
+    /**
+     * Whether the eviction of the idle contexts is scheduled.
+     */
+    private boolean evictionScheduled = false;
+
+    /**
+     * Creates a pool of contexts.
+     *
+     * @param name the name of the directory, for logging
+     * @param env the settings used to create the contexts
+     * @param scheduler the executor which closes the expired idle contexts
+     */
+    LdapContextPool(String name,
+                    Hashtable<String, String> env,
+                    ScheduledExecutorService scheduler)
+    {
+        this(name, env, scheduler, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates a pool of contexts.
+     *
+     * @param name the name of the directory, for logging
+     * @param env the settings used to create the contexts
+     * @param scheduler the executor which closes the expired idle contexts
+     * @param clock returns the current time in ms
+     */
+    LdapContextPool(String name,
+                    Hashtable<String, String> env,
+                    ScheduledExecutorService scheduler,
+                    LongSupplier clock)
+    {
+        this.name = name;
+        this.env = env;
+        this.scheduler = scheduler;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns an idle context or connects a new one. The context must be
+     * given back with {@link #release(InitialLdapContext)} or, if it failed,
+     * {@link #invalidate(InitialLdapContext)}.
+     *
+     * @return a connected and bound context
+     * @throws NamingException if connecting to the directory fails
+     */
+    InitialLdapContext acquire()
+        throws NamingException
+    {
+        synchronized (this)
+        {
+            IdleContext idleContext = idle.pollFirst();
+
+            if (idleContext != null)
+                return idleContext.context;
+        }
+
+        return connect();
+    }
+
+    /**
+     * Connects a new context to the directory, bypassing the pool.
+     *
+     * @return a connected and bound context
+     * @throws NamingException if connecting to the directory fails
+     */
+    InitialLdapContext connect()
+        throws NamingException
+    {
+        logger.trace("connecting to directory \"" + name + "\"");
+        long time0 = System.currentTimeMillis();
+        InitialLdapContext dirContext = new InitialLdapContext(env, null);
+        long time1 = System.currentTimeMillis();
+        logger.trace("connection to directory \"" + name + "\" took " +
+                (time1-time0)  + " ms");
+        return dirContext;
+    }
+
+    /**
+     * Gives back a context after a successful use, to be reused.
+     *
+     * @param dirContext the context
+     */
+    void release(InitialLdapContext dirContext)
+    {
+        try
+        {
+            dirContext.setRequestControls(null);
+        }
+        catch (NamingException e)
+        {
+            invalidate(dirContext);
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (idle.size() < MAX_IDLE)
+            {
+                idle.addFirst(
+                    new IdleContext(dirContext, clock.getAsLong()));
+                scheduleEviction(IDLE_TIMEOUT);
+                return;
+            }
+        }
+
+        close(dirContext);
+    }
+
+    /**
+     * Closes a context which failed, e.g. because the connection has been
+     * lost.
+     *
+     * @param dirContext the context
+     */
+    void invalidate(InitialLdapContext dirContext)
+    {
+        close(dirContext);
+    }
+
+    /**
+     * Schedules the eviction of the expired idle contexts, unless it is
+     * already scheduled.
+     *
+     * @param delay the delay in ms before the eviction
+     */
+    private synchronized void scheduleEviction(long delay)
+    {
+        if (evictionScheduled)
+            return;
+
+        evictionScheduled = true;
+        scheduler.schedule(
+            this::evictIdle, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the contexts which have been idle for too long and schedules the
+     * next eviction while contexts remain idle.
+     */
+    private void evictIdle()
+    {
+        List<InitialLdapContext> expired = new ArrayList<InitialLdapContext>();
+
+        synchronized (this)
+        {
+            long now = clock.getAsLong();
+
+            evictionScheduled = false;
+            while (!idle.isEmpty()
+                    && now - idle.peekLast().time >= IDLE_TIMEOUT)
+                expired.add(idle.pollLast().context);
+
+            if (!idle.isEmpty())
+                scheduleEviction(idle.peekLast().time + IDLE_TIMEOUT - now);
+        }
+
+        for (InitialLdapContext dirContext : expired)
+            close(dirContext);
+    }
+
+    /**
+     * Closes a context.
+     *
+     * @param dirContext the context
+     */
+    private void close(InitialLdapContext dirContext)
+    {
+        try
+        {
+            dirContext.close();
+        }
+        catch(NamingException e)
+        {
+            logger.trace("disconnection from directory \"" + name +
+                    "\" failed!");
+        }
+
+        logger.trace("disconnection achieved!");
+    }
+
+    /**
+     * An idle context and the time it was given back.
+     */
+    private static class IdleContext
+    {
+        private final InitialLdapContext context;
+
+        private final long time;
+
+        IdleContext(InitialLdapContext context, long time)
+        {
+            this.context = context;
+            this.time = time;
+        }
+    }
+}
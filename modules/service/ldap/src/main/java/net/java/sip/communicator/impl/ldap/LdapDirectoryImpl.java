@@ -17,11 +17,14 @@
  */
 package net.java.sip.communicator.impl.ldap;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.*;
 
 import javax.naming.*;
 import javax.naming.directory.*;
+import javax.naming.ldap.*;
 
 import net.java.sip.communicator.service.ldap.*;
 import net.java.sip.communicator.service.ldap.event.*;
@@ -43,11 +46,60 @@
      */
     private final static org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(LdapDirectoryImpl.class);
 
+    /**
+     * The maximum number of searches run at the same time, by all
+     * directories.
+     */
+    private static final int MAX_PARALLEL_SEARCHES = 4;
+
+    /**
+     * The number of entries requested per page of a search.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Runs the searches of all directories, after their delay, and closes
+     * their idle pooled contexts.
+     */
+    private static final ScheduledExecutorService searchExecutor;
+
+    static
+    {
+        ScheduledThreadPoolExecutor executor
+            = new ScheduledThreadPoolExecutor(
+                MAX_PARALLEL_SEARCHES,
+                r -> {
+                    Thread t = new Thread(r, "LDAP search");
+                    // setting the classloader is necessary so that the
+                    // BundleContext can be accessed from classes instantiated
+                    // from JNDI (specifically from our custom SocketFactory)
+                    t.setContextClassLoader(
+                        LdapDirectoryImpl.class.getClassLoader());
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+        searchExecutor = executor;
+    }
+
     /**
      * The settings for this directory
      */
     private LdapDirectorySettings settings;
 
+    /**
+     * The bound contexts to this directory which are not in use.
+     */
+    private final LdapContextPool contextPool;
+
+    /**
+     * The results of the recent searches of this directory.
+     */
+    private final LdapSearchCache searchCache = new LdapSearchCache();
+
     /**
      * Stores the pending searches
      *
@@ -183,8 +235,8 @@ public LdapDirectoryImpl(LdapDirectorySettings settings)
         this.env.put("com.sun.jndi.ldap.read.timeout", LDAP_READ_TIMEOUT);
         this.env.put(Context.PROVIDER_URL, settings.getEncryption().
                 protocolString() + settings.getHostname() + portText +"/");
-        //connection pooling
-        this.env.put("com.sun.jndi.ldap.connect.pool", "true");
+        // connections are pooled by the contextPool, which unlike the JNDI
+        // connection pool also reuses SSL connections
 
         /* TODO STARTTLS */
         switch(this.settings.getEncryption())
@@ -250,6 +302,9 @@ public LdapDirectoryImpl(LdapDirectorySettings settings)
             retrievableAttributes.add("jpegPhoto");
             retrievableAttributes.add("thumbnailPhoto");
         }
+
+        this.contextPool = new LdapContextPool(
+            this.settings.getName(), this.env, searchExecutor);
     }
 
     /**
@@ -292,43 +347,6 @@ public LdapDirectorySettings getSettings()
         return this.settings.clone();
     }
 
-    /**
-     * Connects to the remote directory
-     */
-    private InitialDirContext connect()
-        throws NamingException
-    {
-        logger.trace("connecting to directory \"" + this + "\"");
-        long time0 = System.currentTimeMillis();
-        InitialDirContext dirContext =
-            new InitialDirContext(this.env);
-        long time1 = System.currentTimeMillis();
-        logger.trace("connection to directory \"" + this + "\" took " +
-                (time1-time0)  + " ms");
-        return dirContext;
-    }
-
-    /**
-     * closes the ldap connection
-     */
-    private void disconnect(InitialDirContext dirContext)
-    {
-        if(dirContext == null)
-            throw new NullPointerException("dirContext is null");
-
-        try
-        {
-            dirContext.close();
-        }
-        catch(NamingException e)
-        {
-            logger.trace("disconnection from directory \"" + this +
-                    "\" failed!");
-        }
-
-        logger.trace("disconnection achieved!");
-    }
-
     /**
      * Searches a person in the directory, based on a search string.
      * Since that method might take time to process, it should be
@@ -385,189 +403,356 @@ private void performSearch(final LdapQuery query,
             final LdapSearchSettings searchSettings,
             final LdapListener caller)
     {
-        Thread searchThread = new Thread()
-        {
-            int cancelState = 0;
+        long delay = searchSettings.isDelaySet() ? searchSettings.getDelay() : 0;
 
-            @Override
-            public void run()
-            {
-                String filter = buildSearchFilter(realQueryString);
-                logger.trace("starting search for " + filter +
-                        " (initial query: \"" + query.toString() +
-                        "\") on directory \"" + LdapDirectoryImpl.this + "\"");
+        searchExecutor.schedule(
+            new SearchTask(query, realQueryString, searchSettings, caller),
+            delay,
+            TimeUnit.MILLISECONDS);
+    }
 
-                Pattern searchPattern = Pattern.compile(query.toString(),
-                    Pattern.CASE_INSENSITIVE | Pattern.LITERAL);
+    /**
+     * Performs the search for one intermediate query string on a pooled
+     * context, or answers it from the cache of recent searches.
+     */
+    private class SearchTask
+        implements Runnable
+    {
+        private final LdapQuery query;
 
-                SearchControls searchControls =
-                    buildSearchControls(searchSettings);
+        private final String realQueryString;
 
-                LdapEvent endEvent = null;
-                InitialDirContext dirContext = null;
+        private final LdapSearchSettings searchSettings;
 
-                try
-                {
-                    if(searchSettings.isDelaySet())
-                        Thread.sleep(searchSettings.getDelay());
+        private final LdapListener caller;
 
-                    checkCancel();
-                    dirContext = connect();
-                    checkCancel();
+        private final Pattern searchPattern;
 
-                    long time0 = System.currentTimeMillis();
+        private int cancelState = 0;
 
-                    NamingEnumeration<?> results = dirContext.search(
-                            LdapDirectoryImpl.this.settings.getBaseDN(),
-                            filter,
-                            searchControls
-                            );
+        SearchTask(LdapQuery query,
+                   String realQueryString,
+                   LdapSearchSettings searchSettings,
+                   LdapListener caller)
+        {
+            this.query = query;
+            this.realQueryString = realQueryString;
+            this.searchSettings = searchSettings;
+            this.caller = caller;
+            this.searchPattern = Pattern.compile(query.toString(),
+                Pattern.CASE_INSENSITIVE | Pattern.LITERAL);
+        }
 
-                    checkCancel();
+        public void run()
+        {
+            String filter = buildSearchFilter(realQueryString);
+            logger.trace("starting search for " + filter +
+                    " (initial query: \"" + query.toString() +
+                    "\") on directory \"" + LdapDirectoryImpl.this + "\"");
+
+            SearchControls searchControls =
+                buildSearchControls(searchSettings);
+            String controlsKey = LdapSearchCache.controlsKey(
+                searchControls,
+                "custom".equals(settings.getQueryMode())
+                    ? null
+                    : searchableAttrs);
+            String substring = getSearchedSubstring(realQueryString);
+
+            LdapEvent endEvent = null;
+            InitialLdapContext dirContext = null;
 
-                    while (results.hasMore())
+            try
+            {
+                checkCancel();
+
+                long time0 = System.currentTimeMillis();
+                List<LdapSearchCache.Entry> entries
+                    = searchCache.get(filter, controlsKey, substring);
+
+                if(entries != null)
+                {
+                    logger.trace("answering real query \"" + filter +
+                            "\" from the recent searches");
+                    for(LdapSearchCache.Entry entry : entries)
                     {
                         checkCancel();
+                        fireSearchResult(entry);
+                    }
+                }
+                else
+                {
+                    dirContext = contextPool.acquire();
+                    checkCancel();
 
-                        SearchResult searchResult =
-                            (SearchResult) results.next();
-                        Map<String, Set<Object>> retrievedAttributes =
-                            retrieveAttributes(searchResult);
+                    entries = new ArrayList<LdapSearchCache.Entry>();
 
-                        if(!checkRetrievedAttributes(
-                                query.toString(),
-                                searchPattern,
-                                retrievedAttributes))
-                            continue;
+                    boolean complete;
 
-                        LdapPersonFound person =
-                            buildPerson(
-                                query,
-                                searchResult.getName(),
-                                retrievedAttributes
-                                );
-                        LdapEvent resultEvent =
-                            new LdapEvent(LdapDirectoryImpl.this,
-                                    LdapEvent.LdapEventCause.NEW_SEARCH_RESULT,
-                                    person);
-                        fireLdapEvent(resultEvent, caller);
+                    try
+                    {
+                        complete = search(
+                            dirContext, filter, searchControls, entries);
+                    }
+                    catch(CommunicationException e)
+                    {
+                        if(!entries.isEmpty())
+                            throw e;
+
+                        // the server may have closed the pooled connection
+                        logger.trace("retrying search on a new connection: "
+                            + e);
+                        contextPool.invalidate(dirContext);
+                        dirContext = null;
+                        dirContext = contextPool.connect();
+                        complete = search(
+                            dirContext, filter, searchControls, entries);
                     }
 
-                    long time1 = System.currentTimeMillis();
-                    logger.trace("search for real query \"" + filter +
-                            "\" (initial query: \"" + query.toString() +
-                            "\") on directory \"" + LdapDirectoryImpl.this +
-                            "\" took " + (time1-time0) + "ms");
-
-                    endEvent = new LdapEvent(LdapDirectoryImpl.this,
-                            LdapEvent.LdapEventCause.SEARCH_ACHIEVED, query);
-                }
-                catch(OperationNotSupportedException e)
-                {
-                    logger.error(
-                            "use bind DN without password during search" +
-                            " for real query \"" +
-                            filter + "\" (initial query: \"" +
-                            query.toString() + "\") on directory \"" +
-                            LdapDirectoryImpl.this + "\": " + e);
-                    endEvent = new LdapEvent(
-                            LdapDirectoryImpl.this,
-                            LdapEvent.LdapEventCause.SEARCH_AUTH_ERROR,
-                            query
-                            );
+                    contextPool.release(dirContext);
+                    dirContext = null;
+                    searchCache.put(
+                        filter, controlsKey, substring, entries, complete);
                 }
-                catch(AuthenticationException e)
+
+                long time1 = System.currentTimeMillis();
+                logger.trace("search for real query \"" + filter +
+                        "\" (initial query: \"" + query.toString() +
+                        "\") on directory \"" + LdapDirectoryImpl.this +
+                        "\" took " + (time1-time0) + "ms");
+
+                endEvent = new LdapEvent(LdapDirectoryImpl.this,
+                        LdapEvent.LdapEventCause.SEARCH_ACHIEVED, query);
+            }
+            catch(OperationNotSupportedException e)
+            {
+                logger.error(
+                        "use bind DN without password during search" +
+                        " for real query \"" +
+                        filter + "\" (initial query: \"" +
+                        query.toString() + "\") on directory \"" +
+                        LdapDirectoryImpl.this + "\": " + e);
+                endEvent = new LdapEvent(
+                        LdapDirectoryImpl.this,
+                        LdapEvent.LdapEventCause.SEARCH_AUTH_ERROR,
+                        query
+                        );
+            }
+            catch(AuthenticationException e)
+            {
+                logger.error(
+                        "authentication failed during search" +
+                        " for real query \"" +
+                        filter + "\" (initial query: \"" +
+                        query.toString() + "\") on directory \"" +
+                        LdapDirectoryImpl.this + "\": " + e);
+                endEvent = new LdapEvent(
+                        LdapDirectoryImpl.this,
+                        LdapEvent.LdapEventCause.SEARCH_AUTH_ERROR,
+                        query
+                        );
+            }
+            catch(NamingException e)
+            {
+                logger.error(
+                        "an external exception was thrown during search" +
+                        " for real query \"" +
+                        filter + "\" (initial query: \"" +
+                        query.toString() + "\") on directory \"" +
+                        LdapDirectoryImpl.this + "\": " + e);
+                endEvent = new LdapEvent(
+                        LdapDirectoryImpl.this,
+                        LdapEvent.LdapEventCause.SEARCH_ERROR,
+                        query
+                        );
+            }
+            catch(LdapQueryCancelledException e)
+            {
+                logger.trace("search for real query \"" + filter +
+                        "\" (initial query: \"" + query.toString() +
+                        "\") on " + LdapDirectoryImpl.this +
+                        " cancelled at state " + cancelState);
+                endEvent = new LdapEvent(
+                        LdapDirectoryImpl.this,
+                        LdapEvent.LdapEventCause.SEARCH_CANCELLED,
+                        query
+                        );
+
+                // the search has been abandoned, the context is still fine
+                if(dirContext != null)
                 {
-                    logger.error(
-                            "authentication failed during search" +
-                            " for real query \"" +
-                            filter + "\" (initial query: \"" +
-                            query.toString() + "\") on directory \"" +
-                            LdapDirectoryImpl.this + "\": " + e);
-                    endEvent = new LdapEvent(
-                            LdapDirectoryImpl.this,
-                            LdapEvent.LdapEventCause.SEARCH_AUTH_ERROR,
-                            query
-                            );
+                    contextPool.release(dirContext);
+                    dirContext = null;
                 }
-                catch(NamingException e)
+            }
+            catch (Exception e)
+            {
+                logger.error("search for real query \"" + filter +
+                        "\" (initial query: \"" + query.toString() +
+                        "\") on " + LdapDirectoryImpl.this +
+                        " cancelled at state " + cancelState, e);
+
+                endEvent = new LdapEvent(
+                        LdapDirectoryImpl.this,
+                        LdapEvent.LdapEventCause.SEARCH_ERROR,
+                        query
+                        );
+            }
+            finally
+            {
+                fireLdapEvent(endEvent, caller);
+                if(dirContext != null)
+                    contextPool.invalidate(dirContext);
+            }
+        }
+
+        /**
+         * Runs a search page by page and fires the matching results.
+         *
+         * @param dirContext the context to search with
+         * @param filter the search filter
+         * @param searchControls the search controls
+         * @param entries the list to add the returned entries to
+         * @return <tt>false</tt> if the server has not returned all matching
+         * entries because of the size limit
+         */
+        private boolean search(InitialLdapContext dirContext,
+                               String filter,
+                               SearchControls searchControls,
+                               List<LdapSearchCache.Entry> entries)
+            throws NamingException,
+                   LdapQueryCancelledException,
+                   IOException
+        {
+            byte[] cookie = null;
+
+            do
+            {
+                dirContext.setRequestControls(new Control[]
                 {
-                    logger.error(
-                            "an external exception was thrown during search" +
-                            " for real query \"" +
-                            filter + "\" (initial query: \"" +
-                            query.toString() + "\") on directory \"" +
-                            LdapDirectoryImpl.this + "\": " + e);
-                    endEvent = new LdapEvent(
-                            LdapDirectoryImpl.this,
-                            LdapEvent.LdapEventCause.SEARCH_ERROR,
-                            query
-                            );
-                }
-                catch(LdapQueryCancelledException e)
+                    new PagedResultsControl(
+                        PAGE_SIZE, cookie, Control.NONCRITICAL)
+                });
+
+                NamingEnumeration<SearchResult> results = dirContext.search(
+                        LdapDirectoryImpl.this.settings.getBaseDN(),
+                        filter,
+                        searchControls
+                        );
+
+                try
                 {
-                    logger.trace("search for real query \"" + filter +
-                            "\" (initial query: \"" + query.toString() +
-                            "\") on " + LdapDirectoryImpl.this +
-                            " cancelled at state " + cancelState);
-                    endEvent = new LdapEvent(
-                            LdapDirectoryImpl.this,
-                            LdapEvent.LdapEventCause.SEARCH_CANCELLED,
-                            query
-                            );
+                    checkCancel();
+
+                    while (results.hasMore())
+                    {
+                        checkCancel();
+
+                        SearchResult searchResult = results.next();
+                        LdapSearchCache.Entry entry
+                            = new LdapSearchCache.Entry(
+                                searchResult.getName(),
+                                retrieveAttributes(searchResult));
 
+                        entries.add(entry);
+                        fireSearchResult(entry);
+                    }
                 }
-                catch(InterruptedException e)
+                catch(SizeLimitExceededException e)
                 {
-                    // whether sleep was interrupted
-                    // is not that important
+                    return false;
                 }
-                catch (Exception e)
+                finally
                 {
-                    logger.error("search for real query \"" + filter +
-                            "\" (initial query: \"" + query.toString() +
-                            "\") on " + LdapDirectoryImpl.this +
-                            " cancelled at state " + cancelState, e);
-
-                    endEvent = new LdapEvent(
-                            LdapDirectoryImpl.this,
-                            LdapEvent.LdapEventCause.SEARCH_ERROR,
-                            query
-                            );
+                    results.close();
                 }
-                finally
+
+                cookie = null;
+
+                Control[] responseControls = dirContext.getResponseControls();
+
+                if(responseControls != null)
                 {
-                    fireLdapEvent(endEvent, caller);
-                    if(dirContext != null)
-                        disconnect(dirContext);
+                    for(Control control : responseControls)
+                    {
+                        if(control instanceof PagedResultsResponseControl)
+                        {
+                            cookie = ((PagedResultsResponseControl) control)
+                                .getCookie();
+                        }
+                    }
                 }
             }
+            while(cookie != null && cookie.length > 0);
+
+            return true;
+        }
 
-            /**
-             * Checks if the query that triggered this search has
-             * been marked as cancelled. If that's the case, the
-             * search thread should be stopped and this method will
-             * send a search cancelled event to the search initiator.
-             * This method should be called by the search thread as
-             * often as possible to quickly interrupt when needed.
-             */
-            private void checkCancel()
-                throws LdapQueryCancelledException
+        /**
+         * Fires an event for an entry if it matches the query.
+         *
+         * @param entry the entry returned by the server
+         */
+        private void fireSearchResult(LdapSearchCache.Entry entry)
+        {
+            if(!checkRetrievedAttributes(
+                    query.toString(),
+                    searchPattern,
+                    entry.getAttributes()))
+                return;
+
+            LdapPersonFound person =
+                buildPerson(
+                    query,
+                    entry.getName(),
+                    entry.getAttributes()
+                    );
+            LdapEvent resultEvent =
+                new LdapEvent(LdapDirectoryImpl.this,
+                        LdapEvent.LdapEventCause.NEW_SEARCH_RESULT,
+                        person);
+            fireLdapEvent(resultEvent, caller);
+        }
+
+        /**
+         * Checks if the query that triggered this search has
+         * been marked as cancelled. If that's the case, the
+         * search thread should be stopped and this method will
+         * send a search cancelled event to the search initiator.
+         * This method should be called by the search thread as
+         * often as possible to quickly interrupt when needed.
+         */
+        private void checkCancel()
+            throws LdapQueryCancelledException
+        {
+            if(query.getState() == LdapQuery.State.CANCELLED)
             {
-                if(query.getState() == LdapQuery.State.CANCELLED)
-                {
-                    throw new LdapQueryCancelledException();
-                }
-                this.cancelState++;
+                throw new LdapQueryCancelledException();
             }
-        };
-
-        // setting the classloader is necessary so that the BundleContext can be
-        // accessed from classes instantiated from JNDI (specifically from our
-        // custom SocketFactory)
-        searchThread.setContextClassLoader(getClass().getClassLoader());
-        searchThread.setDaemon(true);
-        searchThread.start();
+            this.cancelState++;
+        }
+    }
+
+    /**
+     * Returns the substring an intermediate query string searches the
+     * searchable attributes for, i.e. <tt>john</tt> for <tt>*john*</tt>.
+     *
+     * @param realQueryString the intermediate query string
+     * @return the searched substring or <tt>null</tt> if the search is not
+     * a plain substring search
+     */
+    private String getSearchedSubstring(String realQueryString)
+    {
+        if ("custom".equals(settings.getQueryMode())
+                || realQueryString.length() < 2
+                || !realQueryString.startsWith("*")
+                || !realQueryString.endsWith("*"))
+            return null;
+
+        String substring
+            = realQueryString.substring(1, realQueryString.length() - 1);
+
+        return (substring.indexOf('*') >= 0) ? null : substring;
     }
 
     /**
@@ -1013,7 +1198,7 @@ private String buildSearchFilter(String query)
     public Collection<String> searchChildren(final String dn)
     {
         final Vector<String> nodes = new Vector<String>();
-        InitialDirContext dirContext = null;
+        InitialLdapContext dirContext = null;
 
         if(dn.equals(""))
         {
@@ -1027,7 +1212,7 @@ public Collection<String> searchChildren(final String dn)
             logger.trace("starting search...");
             try
             {
-                dirContext = connect();
+                dirContext = contextPool.acquire();
                 NamingEnumeration<?> result = dirContext.search(
                         dn, "(objectClass=*)", searchCtl);
                 while (result.hasMore())
@@ -1041,6 +1226,8 @@ public Collection<String> searchChildren(final String dn)
                         nodes.add((String) values.next());
                     }
                 }
+                contextPool.release(dirContext);
+                dirContext = null;
             }
             catch (NamingException e)
             {
@@ -1049,7 +1236,7 @@ public Collection<String> searchChildren(final String dn)
             finally
             {
                 if(dirContext != null)
-                    disconnect(dirContext);
+                    contextPool.invalidate(dirContext);
             }
         }
         else
@@ -1061,7 +1248,7 @@ public Collection<String> searchChildren(final String dn)
             logger.trace("starting search...");
             try
             {
-                dirContext = connect();
+                dirContext = contextPool.acquire();
                 NamingEnumeration<?> result = dirContext.search(
                         dn, "(objectClass=*)", searchCtl);
                 while (result.hasMore())
@@ -1070,6 +1257,8 @@ public Collection<String> searchChildren(final String dn)
                     nodes.add(sr.getName());
                     logger.trace(sr.getName());
                 }
+                contextPool.release(dirContext);
+                dirContext = null;
             }
             catch (NamingException e)
             {
@@ -1079,7 +1268,7 @@ public Collection<String> searchChildren(final String dn)
             finally
             {
                 if(dirContext != null)
-                    disconnect(dirContext);
+                    contextPool.invalidate(dirContext);
             }
         }
 
@@ -1101,7 +1290,7 @@ byte[] fetchPhotoForPerson(String dn)
         }
 
         byte[] photo = null;
-        InitialDirContext dirContext = null;
+        InitialLdapContext dirContext = null;
 
         /* use our custom search control */
 
@@ -1112,7 +1301,7 @@ byte[] fetchPhotoForPerson(String dn)
         logger.trace("starting photo retrieval...");
         try
         {
-            dirContext = connect();
+            dirContext = contextPool.acquire();
             String newBaseDN;
             if(settings.getBaseDN().equals(""))
                 newBaseDN = dn;
@@ -1137,6 +1326,9 @@ byte[] fetchPhotoForPerson(String dn)
                     }
                 }
             }
+            result.close();
+            contextPool.release(dirContext);
+            dirContext = null;
         }
         catch (NamingException e)
         {
@@ -1146,7 +1338,7 @@ byte[] fetchPhotoForPerson(String dn)
         finally
         {
             if(dirContext != null)
-                disconnect(dirContext);
+                contextPool.invalidate(dirContext);
         }
 
         return photo;
@@ -0,0 +1,301 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.ldap;
+
+import java.util.*;
+import java.util.function.*;
+
+import javax.naming.directory.*;
+
+/**
+ * Keeps the entries returned by the recent searches of a directory for a
+ * short time. Besides a search for the same filter, a cached result also
+ * answers a search for a refined substring: the entries matching
+ * <tt>*john*</tt> are among those matching <tt>*joh*</tt>, so while the user
+ * types, only the first characters cost a search on the server. The caller
+ * filters the returned entries against its query, as it does for the entries
+ * returned by the server. A result is only reused for a search of the same
+ * attributes retrieving the same attributes.
+ */
+class LdapSearchCache
+{
+    /**
+     * The time in ms a result is kept.
+     */
+    private static final long TTL = 30000;
+
+    /**
+     * The maximum number of results kept.
+     */
+    private static final int MAX_RESULTS = 32;
+
+    /**
+     * The maximum number of entries of a result for it to be kept.
+     */
+    private static final int MAX_ENTRIES = 1000;
+
+    /**
+     * The results by normalised filter, the least recently used first.
+     */
+    private final Map<String, Result> results
+        = new LinkedHashMap<String, Result>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> e)
+            {
+                return size() > MAX_RESULTS;
+            }
+        };
+
+    /**
+     * Returns the current time in ms.
+     */
+    private final LongSupplier clock;
+
+    /**
+     * Creates a cache of search results.
+     */
+    LdapSearchCache()
+    {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * Creates a cache of search results.
+     *
+     * @param clock returns the current time in ms
+     */
+    LdapSearchCache(LongSupplier clock)
+    {
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the key identifying the searches whose results can answer each
+     * other: the same scope and limits, searching the same attributes and
+     * retrieving the same attributes.
+     *
+     * @param controls the controls of the search
+     * @param searchedAttributes the attributes the filter searches, or
+     * <tt>null</tt> if the filter is not built from a list of attributes
+     * @return the key of the controls and attributes of the search
+     */
+    static String controlsKey(
+            SearchControls controls,
+            Collection<String> searchedAttributes)
+    {
+        String[] retrieved = controls.getReturningAttributes();
+
+        return controls.getSearchScope()
+            + "/" + controls.getCountLimit()
+            + "/" + sortedFolded(
+                (retrieved == null) ? null : Arrays.asList(retrieved))
+            + "/" + sortedFolded(searchedAttributes);
+    }
+
+    /**
+     * Returns the case folded and sorted names of attributes, attribute names
+     * being case insensitive.
+     *
+     * @param attributes the names of attributes or <tt>null</tt>
+     * @return the sorted folded names or <tt>"*"</tt> if <tt>attributes</tt>
+     * is <tt>null</tt>
+     */
+    private static String sortedFolded(Collection<String> attributes)
+    {
+        if (attributes == null)
+            return "*";
+
+        SortedSet<String> folded = new TreeSet<String>();
+
+        for (String attribute : attributes)
+            folded.add(fold(attribute));
+        return folded.toString();
+    }
+
+    /**
+     * Returns the cached entries for a search.
+     *
+     * @param filter the search filter
+     * @param controlsKey identifies the scope, limits and attributes of the
+     * search, as returned by {@link #controlsKey(SearchControls, Collection)}
+     * @param substring the substring the filter searches the searchable
+     * attributes for, or <tt>null</tt> if the filter is not a plain
+     * substring search
+     * @return the entries of a search with the same filter, or of a complete
+     * search for a substring of <tt>substring</tt>, or <tt>null</tt> if there
+     * is none
+     */
+    synchronized List<Entry> get(
+            String filter,
+            String controlsKey,
+            String substring)
+    {
+        long now = clock.getAsLong();
+
+        for (Iterator<Result> i = results.values().iterator(); i.hasNext();)
+        {
+            if (now - i.next().time > TTL)
+                i.remove();
+        }
+
+        Result result = results.get(key(filter, controlsKey));
+
+        if (result != null)
+            return result.entries;
+
+        if (substring == null)
+            return null;
+
+        String folded = fold(substring);
+        Result best = null;
+
+        for (Result r : results.values())
+        {
+            if (r.complete
+                    && r.substring != null
+                    && r.controlsKey.equals(controlsKey)
+                    && folded.contains(r.substring)
+                    && (best == null || r.entries.size() < best.entries.size()))
+                best = r;
+        }
+
+        return (best == null) ? null : best.entries;
+    }
+
+    /**
+     * Caches the entries returned by a search.
+     *
+     * @param filter the search filter
+     * @param controlsKey identifies the scope, limits and attributes of the
+     * search, as returned by {@link #controlsKey(SearchControls, Collection)}
+     * @param substring the substring the filter searches the searchable
+     * attributes for, or <tt>null</tt> if the filter is not a plain
+     * substring search
+     * @param entries the entries returned by the server
+     * @param complete <tt>false</tt> if the server did not return all the
+     * matching entries (e.g. because of a size limit)
+     */
+    synchronized void put(
+            String filter,
+            String controlsKey,
+            String substring,
+            List<Entry> entries,
+            boolean complete)
+    {
+        if (entries.size() > MAX_ENTRIES)
+            return;
+
+        results.put(
+            key(filter, controlsKey),
+            new Result(
+                clock.getAsLong(),
+                controlsKey,
+                (substring == null) ? null : fold(substring),
+                Collections.unmodifiableList(new ArrayList<Entry>(entries)),
+                complete));
+    }
+
+    /**
+     * Returns the key of the result of a search.
+     *
+     * @param filter the search filter
+     * @param controlsKey identifies the scope, limits and attributes of the
+     * search
+     * @return the key of the result of the search
+     */
+    private static String key(String filter, String controlsKey)
+    {
+        return controlsKey + '\n' + fold(filter);
+    }
+
+    /**
+     * Case folds a string, the searchable attributes being matched ignoring
+     * case.
+     *
+     * @param s the string
+     * @return the folded string
+     */
+    private static String fold(String s)
+    {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * An entry returned by a search.
+     */
+    static class Entry
+    {
+        /**
+         * The name of the entry, relative to the base DN.
+         */
+        private final String name;
+
+        /**
+         * The attributes retrieved for the entry.
+         */
+        private final Map<String, Set<Object>> attributes;
+
+        Entry(String name, Map<String, Set<Object>> attributes)
+        {
+            this.name = name;
+            this.attributes = attributes;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        Map<String, Set<Object>> getAttributes()
+        {
+            return attributes;
+        }
+    }
+
+    /**
+     * The cached result of a search.
+     */
+    private static class Result
+    {
+        private final long time;
+
+        private final String controlsKey;
+
+        private final String substring;
+
+        private final List<Entry> entries;
+
+        private final boolean complete;
+
+        Result(long time,
+               String controlsKey,
+               String substring,
+               List<Entry> entries,
+               boolean complete)
+        {
+            this.time = time;
+            this.controlsKey = controlsKey;
+            this.substring = substring;
+            this.entries = entries;
+            this.complete = complete;
+        }
+    }
+}
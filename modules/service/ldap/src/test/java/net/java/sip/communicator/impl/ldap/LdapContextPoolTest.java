@@ -0,0 +1,220 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.ldap;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.naming.*;
+import javax.naming.ldap.*;
+import javax.naming.spi.*;
+
+import org.junit.*;
+
+/**
+ * Tests the reuse and the eviction of the contexts of the
+ * <tt>LdapContextPool</tt>, with contexts which do not connect to a server
+ * and a scheduler run by the test.
+ */
+public class LdapContextPoolTest
+{
+    /**
+     * The contexts created by the {@link FakeContextFactory}, in order.
+     */
+    private static final List<FakeContext> created
+        = new CopyOnWriteArrayList<FakeContext>();
+
+    /**
+     * The evictions scheduled by the pool, with their delay in ms.
+     */
+    private final List<Runnable> scheduled = new ArrayList<Runnable>();
+
+    private final List<Long> delays = new ArrayList<Long>();
+
+    private long now = 0;
+
+    private LdapContextPool pool;
+
+    @Before
+    public void setUp()
+    {
+        created.clear();
+
+        Hashtable<String, String> env = new Hashtable<String, String>();
+
+        env.put(Context.INITIAL_CONTEXT_FACTORY,
+            FakeContextFactory.class.getName());
+
+        ScheduledExecutorService scheduler = (ScheduledExecutorService)
+            Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { ScheduledExecutorService.class },
+                (proxy, method, args) ->
+                {
+                    if (!method.getName().equals("schedule"))
+                    {
+                        throw new UnsupportedOperationException(
+                            method.getName());
+                    }
+                    scheduled.add((Runnable) args[0]);
+                    delays.add(((TimeUnit) args[2]).toMillis((Long) args[1]));
+                    return null;
+                });
+
+        pool = new LdapContextPool("test", env, scheduler, () -> now);
+    }
+
+    /**
+     * Runs the evictions scheduled so far.
+     */
+    private void runScheduled()
+    {
+        List<Runnable> tasks = new ArrayList<Runnable>(scheduled);
+
+        scheduled.clear();
+        delays.clear();
+        for (Runnable task : tasks)
+            task.run();
+    }
+
+    @Test
+    public void testReleasedContextIsReused()
+        throws NamingException
+    {
+        InitialLdapContext first = pool.acquire();
+
+        pool.release(first);
+
+        assertSame(first, pool.acquire());
+        assertEquals(1, created.size());
+
+        // a context in use is not handed out twice
+        pool.acquire();
+        assertEquals(2, created.size());
+    }
+
+    @Test
+    public void testInvalidatedContextIsClosed()
+        throws NamingException
+    {
+        InitialLdapContext dirContext = pool.acquire();
+
+        pool.invalidate(dirContext);
+
+        assertTrue(created.get(0).closed);
+        pool.acquire();
+        assertEquals(2, created.size());
+    }
+
+    @Test
+    public void testAtMostFourContextsAreKeptIdle()
+        throws NamingException
+    {
+        List<InitialLdapContext> contexts = new ArrayList<InitialLdapContext>();
+
+        for (int i = 0; i < 5; i++)
+            contexts.add(pool.acquire());
+        for (InitialLdapContext dirContext : contexts)
+            pool.release(dirContext);
+
+        for (int i = 0; i < 4; i++)
+            assertFalse(created.get(i).closed);
+        assertTrue(created.get(4).closed);
+    }
+
+    @Test
+    public void testIdleContextsAreEvicted()
+        throws NamingException
+    {
+        InitialLdapContext first = pool.acquire();
+        InitialLdapContext second = pool.acquire();
+
+        pool.release(first);
+        assertEquals(Arrays.asList(LdapContextPool.IDLE_TIMEOUT), delays);
+
+        now = LdapContextPool.IDLE_TIMEOUT / 2;
+        pool.release(second);
+        // the eviction is already scheduled
+        assertEquals(1, scheduled.size());
+
+        now = LdapContextPool.IDLE_TIMEOUT;
+        runScheduled();
+
+        assertTrue(created.get(0).closed);
+        assertFalse(created.get(1).closed);
+        assertEquals(Arrays.asList(LdapContextPool.IDLE_TIMEOUT / 2), delays);
+
+        now = LdapContextPool.IDLE_TIMEOUT * 3 / 2;
+        runScheduled();
+
+        assertTrue(created.get(1).closed);
+        assertTrue(scheduled.isEmpty());
+
+        // the evicted contexts are not handed out again
+        pool.acquire();
+        assertEquals(3, created.size());
+    }
+
+    /**
+     * Creates {@link FakeContext}s.
+     */
+    public static class FakeContextFactory
+        implements InitialContextFactory
+    {
+        @Override
+        public Context getInitialContext(Hashtable<?, ?> environment)
+        {
+            FakeContext context = new FakeContext();
+
+            created.add(context);
+            return context.proxy;
+        }
+    }
+
+    /**
+     * An <tt>LdapContext</tt> which only records whether it is closed.
+     */
+    private static class FakeContext
+        implements InvocationHandler
+    {
+        final LdapContext proxy = (LdapContext) Proxy.newProxyInstance(
+            LdapContextPoolTest.class.getClassLoader(),
+            new Class<?>[] { LdapContext.class },
+            this);
+
+        volatile boolean closed = false;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            switch (method.getName())
+            {
+            case "close":
+                closed = true;
+                return null;
+            case "setRequestControls":
+                return null;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.ldap;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import javax.naming.directory.*;
+
+import org.junit.*;
+
+/**
+ * Tests the reuse and expiry of the results in the <tt>LdapSearchCache</tt>.
+ */
+public class LdapSearchCacheTest
+{
+    private static final List<String> SEARCHED = Arrays.asList("cn", "sn");
+
+    private long now = 0;
+
+    private final LdapSearchCache cache = new LdapSearchCache(() -> now);
+
+    private static String controlsKey(
+            List<String> searched,
+            String... retrieved)
+    {
+        SearchControls controls = new SearchControls();
+
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setCountLimit(40);
+        controls.setReturningAttributes(retrieved);
+        return LdapSearchCache.controlsKey(controls, searched);
+    }
+
+    private static String filter(String query)
+    {
+        return "(|(cn=" + query + ")(sn=" + query + "))";
+    }
+
+    private static List<LdapSearchCache.Entry> entries(String... names)
+    {
+        List<LdapSearchCache.Entry> entries
+            = new ArrayList<LdapSearchCache.Entry>();
+
+        for (String name : names)
+        {
+            entries.add(new LdapSearchCache.Entry(
+                name, Collections.<String, Set<Object>>emptyMap()));
+        }
+        return entries;
+    }
+
+    private static List<String> names(List<LdapSearchCache.Entry> entries)
+    {
+        List<String> names = new ArrayList<String>();
+
+        for (LdapSearchCache.Entry entry : entries)
+            names.add(entry.getName());
+        return names;
+    }
+
+    @Test
+    public void testSameSearchIsAnswered()
+    {
+        String key = controlsKey(SEARCHED, "cn", "mail");
+
+        cache.put(filter("*joh*"), key, "joh", entries("John"), false);
+
+        assertEquals(Arrays.asList("John"),
+            names(cache.get(filter("*JOH*"), key, "JOH")));
+        assertNull(cache.get(filter("*jo*"), key, "jo"));
+    }
+
+    @Test
+    public void testCompleteResultAnswersRefinedSubstring()
+    {
+        String key = controlsKey(SEARCHED, "cn", "mail");
+
+        cache.put(filter("*jo*"), key, "jo", entries("Joe", "John"), true);
+        cache.put(filter("*joh*"), key, "joh", entries("John"), true);
+
+        // the smallest result containing the refined substring is used
+        assertEquals(Arrays.asList("John"),
+            names(cache.get(filter("*john*"), key, "john")));
+        assertEquals(Arrays.asList("Joe", "John"),
+            names(cache.get(filter("*joe*"), key, "joe")));
+        // not a plain substring search
+        assertNull(cache.get(filter("*jo*n*"), key, null));
+    }
+
+    @Test
+    public void testIncompleteResultIsNotReusedForRefinedSubstring()
+    {
+        String key = controlsKey(SEARCHED, "cn");
+
+        cache.put(filter("*jo*"), key, "jo", entries("Joe"), false);
+
+        assertNull(cache.get(filter("*john*"), key, "john"));
+    }
+
+    @Test
+    public void testResultIsReusedOnlyForTheSameAttributes()
+    {
+        String key = controlsKey(SEARCHED, "cn", "mail");
+
+        cache.put(filter("*jo*"), key, "jo", entries("Joe"), true);
+
+        // the order and case of the attributes do not matter
+        assertNotNull(cache.get(filter("*joe*"),
+            controlsKey(Arrays.asList("SN", "cn"), "MAIL", "cn"), "joe"));
+        // other retrieved attributes
+        assertNull(cache.get(filter("*joe*"),
+            controlsKey(SEARCHED, "cn", "mail", "telephoneNumber"), "joe"));
+        assertNull(cache.get(filter("*joe*"),
+            controlsKey(SEARCHED, (String[]) null), "joe"));
+        // other searched attributes
+        assertNull(cache.get(filter("*joe*"),
+            controlsKey(Arrays.asList("cn", "sn", "uid"), "cn", "mail"),
+            "joe"));
+    }
+
+    @Test
+    public void testResultExpires()
+    {
+        String key = controlsKey(SEARCHED, "cn");
+
+        cache.put(filter("*jo*"), key, "jo", entries("Joe"), true);
+
+        now += 30000;
+        assertNotNull(cache.get(filter("*jo*"), key, "jo"));
+
+        now += 1;
+        assertNull(cache.get(filter("*jo*"), key, "jo"));
+        assertNull(cache.get(filter("*joe*"), key, "joe"));
+    }
+}
@@ -18,6 +18,7 @@
 package net.java.sip.communicator.impl.metahistory;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.service.callhistory.*;
 import net.java.sip.communicator.service.callhistory.event.*;
@@ -36,7 +37,9 @@
 /**
  * The Meta History Service is wrapper around the other known
  * history services. Query them all at once, sort the result and return all
- * merged records in one collection.
+ * merged records in one collection. The services are queried concurrently
+ * and a <tt>MetaHistoryProgressEvent</tt> with the records found so far is
+ * fired each time one of them returns.
  *
  * @author Damian Minkov
  */
@@ -49,6 +52,39 @@
      */
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MetaHistoryServiceImpl.class);
 
+    /**
+     * The maximum number of history services queried at the same time, by
+     * all searches.
+     */
+    private static final int MAX_PARALLEL_QUERIES = 4;
+
+    /**
+     * Queries the history services of the searches concurrently.
+     */
+    private static final ExecutorService queryExecutor;
+
+    static
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_PARALLEL_QUERIES, MAX_PARALLEL_QUERIES,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> {
+                Thread t = new Thread(r, "MetaHistoryService query");
+                t.setDaemon(true);
+                return t;
+            });
+
+        executor.allowCoreThreadTimeOut(true);
+        queryExecutor = executor;
+    }
+
+    /**
+     * Orders records by their date.
+     */
+    private static final Comparator<Object> RECORDS_COMPARATOR
+        = new RecordsComparator();
+
     /**
      * The BundleContext that we got from the OSGI bus.
      */
@@ -75,55 +111,40 @@
      */
     @Override
     public Collection<Object> findByStartDate(Class<?>[] services,
-            Object descriptor, Date startDate)
+            final Object descriptor, final Date startDate)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
-        {
-            Class<?> name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+        return query(services, startDate, null, null, Integer.MAX_VALUE, false,
+            serv ->
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
+                if(serv instanceof MessageHistoryService)
+                {
+                    MessageHistoryService mhs = (MessageHistoryService)serv;
 
-                if(descriptor instanceof MetaContact)
+                    if(descriptor instanceof MetaContact)
+                    {
+                        return mhs.findByStartDate(
+                            (MetaContact)descriptor, startDate);
+                    }
+                    else if(descriptor instanceof ChatRoom)
+                    {
+                        return mhs.findByStartDate(
+                            (ChatRoom)descriptor, startDate);
+                    }
+                }
+                else if(serv instanceof FileHistoryService
+                        && descriptor instanceof MetaContact)
                 {
-                    result.addAll(
-                        mhs.findByStartDate((MetaContact)descriptor, startDate));
+                    return ((FileHistoryService)serv).findByStartDate(
+                        (MetaContact)descriptor, startDate);
                 }
-                else if(descriptor instanceof ChatRoom)
+                else if(serv instanceof CallHistoryService)
                 {
-                    result.addAll(
-                        mhs.findByStartDate((ChatRoom)descriptor, startDate));
+                    return ((CallHistoryService)serv).findByStartDate(
+                        startDate);
                 }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
-            {
-                result.addAll(
-                    ((FileHistoryService)serv).findByStartDate(
-                        (MetaContact)descriptor, startDate));
-            }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(chs.findByStartDate(startDate));
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(startDate, null, null);
-
-        return result;
+                return null;
+            });
     }
 
     /**
@@ -139,56 +160,39 @@ else if(serv instanceof CallHistoryService)
      */
     @Override
     public Collection<Object> findByEndDate(Class<?>[] services,
-            Object descriptor, Date endDate)
+            final Object descriptor, final Date endDate)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
-        {
-            Class<?> name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+        return query(services, null, endDate, null, Integer.MAX_VALUE, false,
+            serv ->
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
+                if(serv instanceof MessageHistoryService)
+                {
+                    MessageHistoryService mhs = (MessageHistoryService)serv;
 
-                if(descriptor instanceof MetaContact)
+                    if(descriptor instanceof MetaContact)
+                    {
+                        return mhs.findByEndDate(
+                            (MetaContact)descriptor, endDate);
+                    }
+                    else if(descriptor instanceof ChatRoom)
+                    {
+                        return mhs.findByEndDate(
+                            (ChatRoom)descriptor, endDate);
+                    }
+                }
+                else if(serv instanceof FileHistoryService
+                        && descriptor instanceof MetaContact)
                 {
-                    result.addAll(
-                        mhs.findByEndDate((MetaContact)descriptor, endDate));
+                    return ((FileHistoryService)serv).findByEndDate(
+                        (MetaContact)descriptor, endDate);
                 }
-                else if(descriptor instanceof ChatRoom)
+                else if(serv instanceof CallHistoryService)
                 {
-                    result.addAll(
-                        mhs.findByEndDate((ChatRoom)descriptor, endDate));
+                    return ((CallHistoryService)serv).findByEndDate(endDate);
                 }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
-            {
-                result.addAll(
-                    ((FileHistoryService)serv).findByEndDate(
-                        (MetaContact)descriptor, endDate));
-            }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(
-                    chs.findByEndDate(endDate));
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(null, endDate, null);
-
-        return result;
+                return null;
+            });
     }
 
     /**
@@ -205,59 +209,41 @@ else if(serv instanceof CallHistoryService)
      */
     @Override
     public Collection<Object> findByPeriod(Class<?>[] services,
-            Object descriptor, Date startDate, Date endDate)
+            final Object descriptor, final Date startDate, final Date endDate)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        LinkedList<Object> result = new LinkedList<Object>();
-        for (int i = 0; i < services.length; i++)
-        {
-            Class<?> name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+        return query(services, startDate, endDate, null, Integer.MAX_VALUE,
+            false,
+            serv ->
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
+                if(serv instanceof MessageHistoryService)
+                {
+                    MessageHistoryService mhs = (MessageHistoryService)serv;
 
-                if(descriptor instanceof MetaContact)
+                    if(descriptor instanceof MetaContact)
+                    {
+                        return mhs.findByPeriod(
+                            (MetaContact)descriptor, startDate, endDate);
+                    }
+                    else if(descriptor instanceof ChatRoom)
+                    {
+                        return mhs.findByPeriod(
+                            (ChatRoom)descriptor, startDate, endDate);
+                    }
+                }
+                else if(serv instanceof FileHistoryService
+                        && descriptor instanceof MetaContact)
                 {
-                    result.addAll(
-                        mhs.findByPeriod(
-                            (MetaContact)descriptor, startDate, endDate));
+                    return ((FileHistoryService)serv).findByPeriod(
+                        (MetaContact)descriptor, startDate, endDate);
                 }
-                else if(descriptor instanceof ChatRoom)
+                else if(serv instanceof CallHistoryService)
                 {
-                    result.addAll(
-                        mhs.findByPeriod(
-                            (ChatRoom)descriptor, startDate, endDate));
+                    return ((CallHistoryService)serv).findByPeriod(
+                        startDate, endDate);
                 }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
-            {
-                result.addAll(
-                    ((FileHistoryService)serv).findByPeriod(
-                        (MetaContact)descriptor, startDate, endDate));
-            }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(
-                    chs.findByPeriod(startDate, endDate));
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(startDate, endDate, null);
-
-        Collections.sort(result, new RecordsComparator());
-        return result;
+                return null;
+            });
     }
 
     /**
@@ -299,75 +285,50 @@ public Collection<Object> findByPeriod(Class<?>[] services,
      */
     @Override
     public Collection<Object> findByPeriod(Class<?>[] services,
-            Object descriptor, Date startDate, Date endDate,
-            String[] keywords, boolean caseSensitive)
+            final Object descriptor, final Date startDate, final Date endDate,
+            final String[] keywords, final boolean caseSensitive)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
-        {
-            Class<?> name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+        return query(services, startDate, endDate, keywords, Integer.MAX_VALUE,
+            false,
+            serv ->
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if(descriptor instanceof MetaContact)
+                if(serv instanceof MessageHistoryService)
                 {
-                    result.addAll(
-                        mhs.findByPeriod(
+                    MessageHistoryService mhs = (MessageHistoryService)serv;
+
+                    if(descriptor instanceof MetaContact)
+                    {
+                        return mhs.findByPeriod(
                             (MetaContact)descriptor,
                             startDate, endDate,
-                            keywords, caseSensitive));
-                }
-                else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findByPeriod(
+                            keywords, caseSensitive);
+                    }
+                    else if(descriptor instanceof ChatRoom)
+                    {
+                        return mhs.findByPeriod(
                             (ChatRoom)descriptor,
                             startDate, endDate,
-                            keywords, caseSensitive));
+                            keywords, caseSensitive);
+                    }
                 }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
-            {
-                result.addAll(
-                    ((FileHistoryService)serv).findByPeriod(
+                else if(serv instanceof FileHistoryService
+                        && descriptor instanceof MetaContact)
+                {
+                    return ((FileHistoryService)serv).findByPeriod(
                         (MetaContact)descriptor,
                         startDate, endDate,
-                        keywords, caseSensitive));
-            }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                Collection<CallRecord> cs =
-                    chs.findByPeriod(startDate, endDate);
-
-                Iterator<CallRecord> iter = cs.iterator();
-                while (iter.hasNext())
+                        keywords, caseSensitive);
+                }
+                else if(serv instanceof CallHistoryService)
                 {
-                    CallRecord callRecord = iter.next();
-
-                    if(matchCallPeer(
-                            callRecord.getPeerRecords(), keywords, caseSensitive))
-                        result.add(callRecord);
+                    return filterCalls(
+                        ((CallHistoryService)serv).findByPeriod(
+                            startDate, endDate),
+                        keywords, caseSensitive);
                 }
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(startDate, endDate, keywords);
-
-        return result;
+                return null;
+            });
     }
 
     /**
@@ -443,72 +404,43 @@ public Collection<Object> findByKeywords(Class<?>[] services,
      */
     @Override
     public Collection<Object> findByKeywords(Class<?>[] services,
-            Object descriptor, String[] keywords, boolean caseSensitive)
+            final Object descriptor, final String[] keywords,
+            final boolean caseSensitive)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
-        {
-            Class<?> name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+        return query(services, null, null, keywords, Integer.MAX_VALUE, false,
+            serv ->
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if(descriptor instanceof MetaContact)
+                if(serv instanceof MessageHistoryService)
                 {
-                    result.addAll(
-                        mhs.findByKeywords(
-                            (MetaContact)descriptor, keywords, caseSensitive));
+                    MessageHistoryService mhs = (MessageHistoryService)serv;
+
+                    if(descriptor instanceof MetaContact)
+                    {
+                        return mhs.findByKeywords(
+                            (MetaContact)descriptor, keywords, caseSensitive);
+                    }
+                    else if(descriptor instanceof ChatRoom)
+                    {
+                        return mhs.findByKeywords(
+                            (ChatRoom)descriptor, keywords, caseSensitive);
+                    }
                 }
-                else if(descriptor instanceof ChatRoom)
+                else if(serv instanceof FileHistoryService
+                        && descriptor instanceof MetaContact)
                 {
-                    result.addAll(
-                        mhs.findByKeywords(
-                            (ChatRoom)descriptor,
-                            keywords, caseSensitive));
+                    return ((FileHistoryService)serv).findByKeywords(
+                        (MetaContact)descriptor, keywords, caseSensitive);
                 }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
-            {
-                result.addAll(
-                    ((FileHistoryService)serv).findByKeywords(
-                        (MetaContact)descriptor,
-                        keywords, caseSensitive));
-            }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-
-                // this will get all call records
-                Collection<CallRecord> cs =
-                    chs.findByEndDate(new Date());
-
-                Iterator<CallRecord> iter = cs.iterator();
-                while (iter.hasNext())
+                else if(serv instanceof CallHistoryService)
                 {
-                    CallRecord callRecord = iter.next();
-
-                    if(matchCallPeer(
-                            callRecord.getPeerRecords(), keywords, caseSensitive))
-                        result.add(callRecord);
+                    // this will get all call records
+                    return filterCalls(
+                        ((CallHistoryService)serv).findByEndDate(new Date()),
+                        keywords, caseSensitive);
                 }
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(null, null, keywords);
-
-        return result;
+                return null;
+            });
     }
 
     /**
@@ -524,67 +456,33 @@ else if(serv instanceof CallHistoryService)
      */
     @Override
     public Collection<Object> findLast(Class<?>[] services,
-            Object descriptor, int count)
+            final Object descriptor, final int count)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
-        {
-            Class<?> name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+        return query(services, null, null, null, count, true,
+            serv ->
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
+                if(serv instanceof MessageHistoryService)
+                {
+                    MessageHistoryService mhs = (MessageHistoryService)serv;
 
-                if(descriptor instanceof MetaContact)
+                    if(descriptor instanceof MetaContact)
+                        return mhs.findLast((MetaContact)descriptor, count);
+                    else if(descriptor instanceof ChatRoom)
+                        return mhs.findLast((ChatRoom)descriptor, count);
+                }
+                else if(serv instanceof FileHistoryService
+                        && descriptor instanceof MetaContact)
                 {
-                    result.addAll(
-                        mhs.findLast(
-                            (MetaContact)descriptor,
-                            count));
+                    return ((FileHistoryService)serv).findLast(
+                        (MetaContact)descriptor, count);
                 }
-                else if(descriptor instanceof ChatRoom)
+                else if(serv instanceof CallHistoryService)
                 {
-                    result.addAll(
-                        mhs.findLast(
-                            (ChatRoom)descriptor,
-                            count));
+                    return ((CallHistoryService)serv).findLast(count);
                 }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
-            {
-                result.addAll(
-                    ((FileHistoryService)serv).findLast(
-                        (MetaContact)descriptor,
-                        count));
-            }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(
-                    chs.findLast(count));
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(null, null, null);
-
-        LinkedList<Object> resultAsList = new LinkedList<Object>(result);
-        int startIndex = resultAsList.size() - count;
-
-        if(startIndex < 0)
-            startIndex = 0;
-
-        return resultAsList.subList(startIndex, resultAsList.size());
+                return null;
+            });
     }
 
     /**
@@ -601,79 +499,40 @@ else if(serv instanceof CallHistoryService)
      */
     @Override
     public Collection<Object> findFirstMessagesAfter(Class<?>[] services,
-            Object descriptor, Date date, int count)
+            final Object descriptor, final Date date, final int count)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
-        {
-            Class<?> name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+        return query(services, date, null, null, count, false,
+            serv ->
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if(descriptor instanceof MetaContact)
+                if(serv instanceof MessageHistoryService)
                 {
-                    result.addAll(
-                        mhs.findFirstMessagesAfter(
-                            (MetaContact)descriptor,
-                            date,
-                            count));
+                    MessageHistoryService mhs = (MessageHistoryService)serv;
+
+                    if(descriptor instanceof MetaContact)
+                    {
+                        return mhs.findFirstMessagesAfter(
+                            (MetaContact)descriptor, date, count);
+                    }
+                    else if(descriptor instanceof ChatRoom)
+                    {
+                        return mhs.findFirstMessagesAfter(
+                            (ChatRoom)descriptor, date, count);
+                    }
                 }
-                else if(descriptor instanceof ChatRoom)
+                else if(serv instanceof FileHistoryService
+                        && descriptor instanceof MetaContact)
                 {
-                    result.addAll(
-                        mhs.findFirstMessagesAfter(
-                            (ChatRoom)descriptor,
-                            date,
-                            count));
+                    return ((FileHistoryService)serv).findFirstRecordsAfter(
+                        (MetaContact)descriptor, date, count);
                 }
-                mhs.removeSearchProgressListener(listenWrapper);
-            }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
-            {
-                result.addAll(
-                    ((FileHistoryService)serv).findFirstRecordsAfter(
-                        (MetaContact)descriptor,
-                        date,
-                        count));
-            }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-
-                Collection<CallRecord> col = chs.findByStartDate(date);
-                if(col.size() > count)
+                else if(serv instanceof CallHistoryService)
                 {
-                    // before we make a sublist make sure there are sorted in the
-                    // right order
-                    List<CallRecord> l = new LinkedList<CallRecord>(col);
-                    Collections.sort(l, new RecordsComparator());
-                    result.addAll(l.subList(0, count));
+                    return ((CallHistoryService)serv).findFirstRecordsAfter(
+                        date, count);
                 }
-                else
-                    result.addAll(col);
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(date, null, null);
-        LinkedList<Object> resultAsList = new LinkedList<Object>(result);
-
-        int toIndex = count;
-        if(toIndex > resultAsList.size())
-            toIndex = resultAsList.size();
-
-        return resultAsList.subList(0, toIndex);
+                return null;
+            });
     }
 
     /**
@@ -690,77 +549,239 @@ else if(serv instanceof CallHistoryService)
      */
     @Override
     public Collection<Object> findLastMessagesBefore(Class<?>[] services,
-            Object descriptor, Date date, int count)
+            final Object descriptor, final Date date, final int count)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
+        return query(services, date, null, null, count, true,
+            serv ->
+            {
+                if(serv instanceof MessageHistoryService)
+                {
+                    MessageHistoryService mhs = (MessageHistoryService)serv;
+
+                    if(descriptor instanceof MetaContact)
+                    {
+                        return mhs.findLastMessagesBefore(
+                            (MetaContact)descriptor, date, count);
+                    }
+                    else if(descriptor instanceof ChatRoom)
+                    {
+                        return mhs.findLastMessagesBefore(
+                            (ChatRoom)descriptor, date, count);
+                    }
+                }
+                else if(serv instanceof FileHistoryService
+                        && descriptor instanceof MetaContact)
+                {
+                    return ((FileHistoryService)serv).findLastRecordsBefore(
+                        (MetaContact)descriptor, date, count);
+                }
+                else if(serv instanceof CallHistoryService)
+                {
+                    return ((CallHistoryService)serv).findLastRecordsBefore(
+                        date, count);
+                }
+                return null;
+            });
+    }
+
+    /**
+     * Queries the given history services concurrently and merges their
+     * results.
+     *
+     * @param services the services classnames we will query
+     * @param startDate the start date of the search, for the progress events
+     * @param endDate the end date of the search, for the progress events
+     * @param keywords the keywords of the search, for the progress events
+     * @param count the maximum number of records to return
+     * @param last <tt>true</tt> to return the last <tt>count</tt> records,
+     * <tt>false</tt> to return the first ones
+     * @param serviceQuery the search to run on each service
+     * @return the merged records, sorted by date
+     */
+    private List<Object> query(Class<?>[] services,
+                               Date startDate,
+                               Date endDate,
+                               String[] keywords,
+                               int count,
+                               boolean last,
+                               ServiceQuery serviceQuery)
+    {
+        final SearchProgress progress
+            = new SearchProgress(
+                services.length, startDate, endDate, keywords, count, last);
+        List<Future<List<Object>>> futures
+            = new ArrayList<Future<List<Object>>>(services.length);
 
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
         for (int i = 0; i < services.length; i++)
         {
-            Class<?> name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            final Object serv = getService(services[i]);
+            final MessageProgressWrapper listenWrapper
+                = new MessageProgressWrapper(progress, i);
+
+            futures.add(queryExecutor.submit(() ->
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
+                listenWrapper.searchThread = Thread.currentThread();
 
-                if(descriptor instanceof MetaContact)
+                if(serv instanceof MessageHistoryService)
                 {
-                    result.addAll(
-                        mhs.findLastMessagesBefore(
-                            (MetaContact)descriptor,
-                            date,
-                            count));
+                    ((MessageHistoryService)serv)
+                        .addSearchProgressListener(listenWrapper);
                 }
-                else if(descriptor instanceof ChatRoom)
+                else if(serv instanceof CallHistoryService)
                 {
-                    result.addAll(
-                        mhs.findLastMessagesBefore(
-                            (ChatRoom)descriptor,
-                            date,
-                            count));
+                    ((CallHistoryService)serv)
+                        .addSearchProgressListener(listenWrapper);
+                }
+
+                try
+                {
+                    Collection<?> found = serviceQuery.find(serv);
+                    List<Object> records
+                        = (found == null)
+                            ? new ArrayList<Object>()
+                            : new ArrayList<Object>(found);
+
+                    // most services already return sorted records, for
+                    // which this is a single pass
+                    Collections.sort(records, RECORDS_COMPARATOR);
+                    progress.serviceCompleted(listenWrapper.ix, records);
+                    return records;
                 }
-                mhs.removeSearchProgressListener(listenWrapper);
+                finally
+                {
+                    if(serv instanceof MessageHistoryService)
+                    {
+                        ((MessageHistoryService)serv)
+                            .removeSearchProgressListener(listenWrapper);
+                    }
+                    else if(serv instanceof CallHistoryService)
+                    {
+                        ((CallHistoryService)serv)
+                            .removeSearchProgressListener(listenWrapper);
+                    }
+                }
+            }));
+        }
+
+        List<List<Object>> results
+            = new ArrayList<List<Object>>(services.length);
+
+        for (Future<List<Object>> future : futures)
+        {
+            try
+            {
+                results.add(future.get());
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+            catch (InterruptedException e)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findLastRecordsBefore(
-                        (MetaContact)descriptor,
-                        date,
-                        count));
+                Thread.currentThread().interrupt();
+                for (Future<List<Object>> f : futures)
+                    f.cancel(true);
+                break;
             }
-            else if(serv instanceof CallHistoryService)
+            catch (ExecutionException e)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
+                Throwable cause = e.getCause();
 
-                Collection<CallRecord> col = chs.findByEndDate(date);
-                if(col.size() > count)
-                {
-                    List<CallRecord> l = new LinkedList<CallRecord>(col);
-                    result.addAll(l.subList(l.size() - count, l.size()));
-                }
-                else
-                    result.addAll(col);
-                chs.removeSearchProgressListener(listenWrapper);
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                else if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new RuntimeException(cause);
             }
         }
-        listenWrapper.fireLastProgress(date, null, null);
 
-        LinkedList<Object> resultAsList = new LinkedList<Object>(result);
-        int startIndex = resultAsList.size() - count;
+        progress.completed();
+
+        return merge(results, count, last);
+    }
+
+    /**
+     * Merges lists of records sorted by date, without sorting them all again.
+     * Records with the same date keep the order of the lists they come from.
+     *
+     * @param lists the lists to merge, each sorted by date
+     * @param count the maximum number of records to return
+     * @param last <tt>true</tt> to return the last <tt>count</tt> records,
+     * <tt>false</tt> to return the first ones
+     * @return the first or last <tt>count</tt> records of all lists, sorted by
+     * date
+     */
+    static List<Object> merge(
+            final List<List<Object>> lists, int count, final boolean last)
+    {
+        int total = 0;
+
+        for (List<Object> list : lists)
+            total += list.size();
+
+        List<Object> result = new ArrayList<Object>(Math.min(count, total));
+
+        if(count <= 0)
+            return result;
+
+        // A cursor is the index of a list and the index of its next record.
+        // For the last records, the lists are consumed from their end.
+        PriorityQueue<int[]> cursors
+            = new PriorityQueue<int[]>(Math.max(1, lists.size()),
+                (c1, c2) ->
+                {
+                    int c = RECORDS_COMPARATOR.compare(
+                        lists.get(c1[0]).get(c1[1]),
+                        lists.get(c2[0]).get(c2[1]));
+
+                    if(c == 0)
+                        c = Integer.compare(c1[0], c2[0]);
+                    return last ? -c : c;
+                });
+
+        for (int i = 0; i < lists.size(); i++)
+        {
+            int size = lists.get(i).size();
+
+            if(size > 0)
+                cursors.add(new int[] { i, last ? size - 1 : 0 });
+        }
+
+        while(result.size() < count && !cursors.isEmpty())
+        {
+            int[] cursor = cursors.poll();
+            List<Object> list = lists.get(cursor[0]);
+
+            result.add(list.get(cursor[1]));
+
+            cursor[1] += last ? -1 : 1;
+            if(cursor[1] >= 0 && cursor[1] < list.size())
+                cursors.add(cursor);
+        }
+
+        if(last)
+            Collections.reverse(result);
 
-        if(startIndex < 0)
-            startIndex = 0;
+        return result;
+    }
+
+    /**
+     * Returns the calls with a peer matching the given keywords.
+     *
+     * @param calls the calls to filter
+     * @param keywords array of keywords
+     * @param caseSensitive is keywords search case sensitive
+     * @return the calls with a peer matching <tt>keywords</tt>
+     */
+    private List<CallRecord> filterCalls(
+        Collection<CallRecord> calls, String[] keywords, boolean caseSensitive)
+    {
+        List<CallRecord> result = new ArrayList<CallRecord>();
 
-        return resultAsList.subList(startIndex, resultAsList.size());
+        for (CallRecord callRecord : calls)
+        {
+            if(matchCallPeer(
+                    callRecord.getPeerRecords(), keywords, caseSensitive))
+                result.add(callRecord);
+        }
+        return result;
     }
 
     /**
@@ -939,68 +960,211 @@ public int compare(Object o1, Object o2)
         }
     }
 
-    private class MessageProgressWrapper
-        implements MessageHistorySearchProgressListener,
-        CallHistorySearchProgressListener
+    /**
+     * Runs a search on one of the history services.
+     */
+    private interface ServiceQuery
     {
-        private final int count;
+        /**
+         * Runs the search on a history service.
+         *
+         * @param service the history service
+         * @return the records found or <tt>null</tt> if <tt>service</tt>
+         * cannot be searched for the descriptor
+         */
+        Collection<?> find(Object service);
+    }
+
+    /**
+     * Tracks the progress of the services queried by a search, which run
+     * concurrently, and reports it as a single progress.
+     */
+    private class SearchProgress
+    {
+        private final Date startDate;
 
-        private int ix;
+        private final Date endDate;
 
-        public MessageProgressWrapper(int count)
+        private final String[] keywords;
+
+        private final int count;
+
+        private final boolean last;
+
+        /**
+         * The progress of each service, from <tt>0</tt> to
+         * <tt>HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE</tt>.
+         */
+        private final int[] progress;
+
+        /**
+         * The sorted records of the services which have returned.
+         */
+        private final List<List<Object>> results
+            = new ArrayList<List<Object>>();
+
+        /**
+         * The listeners registered when the search started. Listeners added
+         * for a later search do not get the events of this one.
+         */
+        private final List<HistorySearchProgressListener> listeners;
+
+        public SearchProgress(int serviceCount,
+                              Date startDate,
+                              Date endDate,
+                              String[] keywords,
+                              int count,
+                              boolean last)
         {
+            this.progress = new int[serviceCount];
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.keywords = keywords;
             this.count = count;
+            this.last = last;
+
+            synchronized(progressListeners)
+            {
+                listeners
+                    = new ArrayList<HistorySearchProgressListener>(
+                            progressListeners);
+            }
         }
 
-        public void setIx(int ix)
+        /**
+         * Notifies the listeners of this search which are still registered
+         * of its progress.
+         *
+         * @param ev the event to fire
+         */
+        private void fireProgressEvent(ProgressEvent ev)
         {
-            this.ix = ix;
+            for (HistorySearchProgressListener listener : listeners)
+            {
+                synchronized(progressListeners)
+                {
+                    if(!progressListeners.contains(listener))
+                        continue;
+                }
+                listener.progressChanged(ev);
+            }
         }
 
-        private void fireProgress(int origProgress, int maxVal,
-            Date startDate, Date endDate, String[] keywords)
+        /**
+         * Returns the progress of the whole search. Never reaches
+         * <tt>PROGRESS_MAXIMUM_VALUE</tt> before {@link #completed()}.
+         *
+         * @return the progress of the whole search
+         */
+        private int getProgress()
         {
-            ProgressEvent ev = new ProgressEvent(
-                MetaHistoryServiceImpl.this,
-                startDate,
-                endDate,
-                keywords);
+            long sum = 0;
 
-            double part1 = origProgress/
-                ((double)maxVal*count);
-            double convProgress =
-                part1*HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE +
-                ix*HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE/count;
+            for (int p : progress)
+                sum += p;
 
-            ev.setProgress((int)convProgress);
+            return (int) Math.min(
+                sum / progress.length,
+                HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE - 1);
+        }
+
+        /**
+         * Updates the progress of a service.
+         *
+         * @param ix the index of the service
+         * @param value the progress of the service, from <tt>0</tt> to
+         * <tt>HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE</tt>
+         */
+        public void serviceProgressChanged(int ix, int value)
+        {
+            int p;
 
-            fireEvent(ev);
+            synchronized(this)
+            {
+                progress[ix] = value;
+                p = getProgress();
+            }
+
+            fireProgressEvent(
+                new ProgressEvent(
+                    MetaHistoryServiceImpl.this,
+                    startDate, endDate, keywords, p));
         }
 
-        private void fireEvent(ProgressEvent ev)
+        /**
+         * Records the result of a service and fires a
+         * <tt>MetaHistoryProgressEvent</tt> with the records found so far.
+         *
+         * @param ix the index of the service
+         * @param records the sorted records of the service
+         */
+        public void serviceCompleted(int ix, List<Object> records)
         {
-            Iterable<HistorySearchProgressListener> listeners;
-            synchronized(progressListeners)
+            int p;
+            List<Object> found;
+
+            synchronized(this)
             {
-                listeners
-                    = new ArrayList<HistorySearchProgressListener>(
-                            progressListeners);
+                progress[ix]
+                    = HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE;
+                results.add(records);
+                // the result of the last service is the result of the search
+                if(results.size() == progress.length)
+                    return;
+                p = getProgress();
+                found = merge(results, count, last);
             }
-            for (HistorySearchProgressListener listener : listeners)
-                listener.progressChanged(ev);
+
+            fireProgressEvent(
+                new MetaHistoryProgressEvent(
+                    MetaHistoryServiceImpl.this,
+                    startDate, endDate, keywords, p, found));
+        }
+
+        /**
+         * Fires the final progress of the search.
+         */
+        public void completed()
+        {
+            fireProgressEvent(
+                new ProgressEvent(
+                    MetaHistoryServiceImpl.this,
+                    startDate, endDate, keywords,
+                    HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE));
+        }
+    }
+
+    private class MessageProgressWrapper
+        implements MessageHistorySearchProgressListener,
+        CallHistorySearchProgressListener
+    {
+        private final SearchProgress searchProgress;
+
+        private final int ix;
+
+        /**
+         * The thread querying the service. The services report the progress
+         * of a query on the thread running it, the events fired on other
+         * threads belong to other searches on the same service.
+         */
+        private volatile Thread searchThread;
+
+        public MessageProgressWrapper(SearchProgress searchProgress, int ix)
+        {
+            this.searchProgress = searchProgress;
+            this.ix = ix;
         }
 
-        public void fireLastProgress(
-            Date startDate, Date endDate, String[] keywords)
+        private void fireProgress(int origProgress, int maxVal)
         {
-            ProgressEvent ev = new ProgressEvent(
-                MetaHistoryServiceImpl.this,
-                startDate,
-                endDate,
-                keywords);
-            ev.setProgress(HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
-
-            fireEvent(ev);
+            if(Thread.currentThread() != searchThread)
+                return;
+
+            searchProgress.serviceProgressChanged(
+                ix,
+                (int) ((long) origProgress
+                    * HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE
+                    / maxVal));
         }
 
         public void progressChanged(
@@ -1008,20 +1172,14 @@ public void progressChanged(
         {
             fireProgress(
                 evt.getProgress(),
-                MessageHistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE,
-                evt.getStartDate(),
-                evt.getEndDate(),
-                evt.getKeywords());
+                MessageHistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
         }
 
         public void progressChanged(net.java.sip.communicator.service.callhistory.event.ProgressEvent evt)
         {
             fireProgress(
                 evt.getProgress(),
-                CallHistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE,
-                evt.getStartDate(),
-                evt.getEndDate(),
-                null);
+                CallHistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
         }
     }
 }
@@ -0,0 +1,76 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.metahistory;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.history.event.*;
+
+/**
+ * A <tt>ProgressEvent</tt> fired by the <tt>MetaHistoryService</tt> each time
+ * one of the queried history services has returned its records, before the
+ * whole search is finished. It carries the sorted records of all services
+ * which have returned so far, so that a listener can display a first result
+ * without waiting for the slowest service.
+ */
+public class MetaHistoryProgressEvent
+    extends ProgressEvent
+{
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 0L;
+
+    /**
+     * The records found so far.
+     */
+    private final List<Object> records;
+
+    /**
+     * Constructs a new <tt>MetaHistoryProgressEvent</tt>.
+     *
+     * @param source the <tt>MetaHistoryService</tt> firing this event
+     * @param startDate the start date in the search condition
+     * @param endDate the end date in the search condition
+     * @param keywords the keywords in the search condition
+     * @param progress the current progress
+     * @param records the records found so far, sorted and limited like the
+     * result of the search will be
+     */
+    public MetaHistoryProgressEvent(Object source,
+                                    Date startDate,
+                                    Date endDate,
+                                    String[] keywords,
+                                    int progress,
+                                    List<Object> records)
+    {
+        super(source, startDate, endDate, keywords, progress);
+        this.records = Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Returns the records found so far. Records of the services which have
+     * not returned yet may still be inserted anywhere in this list.
+     *
+     * @return an unmodifiable list of the records found so far
+     */
+    public List<Object> getRecords()
+    {
+        return records;
+    }
+}
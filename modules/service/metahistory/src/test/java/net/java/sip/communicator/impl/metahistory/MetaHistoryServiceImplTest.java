@@ -0,0 +1,286 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.metahistory;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.callhistory.*;
+import net.java.sip.communicator.service.callhistory.event.*;
+import net.java.sip.communicator.service.history.event.*;
+import net.java.sip.communicator.service.history.event.ProgressEvent;
+
+import org.junit.*;
+import org.osgi.framework.*;
+
+/**
+ * Tests the merge of the results, the limits passed to the history services
+ * and the progress events of the <tt>MetaHistoryServiceImpl</tt> with a fake
+ * call history service.
+ */
+public class MetaHistoryServiceImplTest
+{
+    private static final Class<?>[] CALL_HISTORY
+        = new Class<?>[] { CallHistoryService.class };
+
+    private final FakeCallHistory callHistory = new FakeCallHistory();
+
+    private final MetaHistoryServiceImpl metaHistory
+        = new MetaHistoryServiceImpl();
+
+    @Before
+    public void setUp()
+    {
+        metaHistory.start(createBundleContext(callHistory.service));
+    }
+
+    private static CallRecord call(long start)
+    {
+        return new CallRecord("out", new Date(start), new Date(start + 1));
+    }
+
+    private static List<Object> calls(long... starts)
+    {
+        List<Object> res = new ArrayList<Object>();
+
+        for (long start : starts)
+            res.add(call(start));
+        return res;
+    }
+
+    private static List<Long> starts(Collection<Object> records)
+    {
+        List<Long> res = new ArrayList<Long>();
+
+        for (Object record : records)
+            res.add(((CallRecord) record).getStartTime().getTime());
+        return res;
+    }
+
+    @Test
+    public void testMergeKeepsRecordsWithTheSameDate()
+    {
+        List<Object> first = calls(1, 3, 3, 5);
+        List<Object> second = calls(2, 3, 6);
+        List<List<Object>> lists = Arrays.asList(first, second);
+
+        List<Object> merged = MetaHistoryServiceImpl.merge(lists, 10, false);
+
+        assertEquals(Arrays.asList(1L, 2L, 3L, 3L, 3L, 5L, 6L),
+            starts(merged));
+        // records with the same date keep the order of the lists
+        assertSame(first.get(1), merged.get(2));
+        assertSame(first.get(2), merged.get(3));
+        assertSame(second.get(1), merged.get(4));
+
+        assertEquals(Arrays.asList(1L, 2L, 3L),
+            starts(MetaHistoryServiceImpl.merge(lists, 3, false)));
+        assertEquals(Arrays.asList(3L, 5L, 6L),
+            starts(MetaHistoryServiceImpl.merge(lists, 3, true)));
+        assertTrue(MetaHistoryServiceImpl.merge(lists, 0, true).isEmpty());
+    }
+
+    @Test
+    public void testCountIsPassedToTheCallHistory()
+    {
+        Date date = new Date(1000);
+
+        callHistory.records = calls(10, 20);
+
+        Collection<Object> last
+            = metaHistory.findLastMessagesBefore(CALL_HISTORY, null, date, 2);
+
+        assertEquals(Arrays.asList(10L, 20L), starts(last));
+        assertEquals(
+            Arrays.asList("findLastRecordsBefore " + date.getTime() + " 2"),
+            callHistory.queries);
+
+        callHistory.queries.clear();
+        metaHistory.findFirstMessagesAfter(CALL_HISTORY, null, date, 5);
+
+        assertEquals(
+            Arrays.asList("findFirstRecordsAfter " + date.getTime() + " 5"),
+            callHistory.queries);
+    }
+
+    @Test
+    public void testProgressOfOtherSearchesIsIgnored()
+        throws Exception
+    {
+        final List<Integer> progress = new Vector<Integer>();
+        final List<Integer> laterProgress = new Vector<Integer>();
+
+        metaHistory.addSearchProgressListener(
+            new HistorySearchProgressListener()
+            {
+                public void progressChanged(ProgressEvent evt)
+                {
+                    progress.add(evt.getProgress());
+                }
+            });
+
+        callHistory.records = calls(10);
+        callHistory.block = true;
+
+        FutureTask<Collection<Object>> search
+            = new FutureTask<Collection<Object>>(
+                new Callable<Collection<Object>>()
+                {
+                    public Collection<Object> call()
+                    {
+                        return metaHistory.findByPeriod(
+                            CALL_HISTORY, null, new Date(0), new Date(100));
+                    }
+                });
+
+        new Thread(search).start();
+        assertTrue(callHistory.started.await(10, TimeUnit.SECONDS));
+
+        // another search on the call history reports its progress, and a
+        // listener is added for a later search
+        callHistory.fireProgress(
+            CallHistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE * 9 / 10);
+        metaHistory.addSearchProgressListener(
+            new HistorySearchProgressListener()
+            {
+                public void progressChanged(ProgressEvent evt)
+                {
+                    laterProgress.add(evt.getProgress());
+                }
+            });
+
+        callHistory.release.countDown();
+
+        assertEquals(Arrays.asList(10L),
+            starts(search.get(10, TimeUnit.SECONDS)));
+        assertEquals(
+            Arrays.asList(
+                HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE / 2,
+                HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE),
+            progress);
+        assertTrue(laterProgress.isEmpty());
+    }
+
+    private static BundleContext createBundleContext(final Object service)
+    {
+        final ServiceReference<?> ref = proxy(ServiceReference.class,
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+
+        return proxy(BundleContext.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                switch (method.getName())
+                {
+                case "getServiceReference":
+                    return ref;
+                case "getService":
+                    return service;
+                case "addServiceListener":
+                case "removeServiceListener":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> iface, InvocationHandler handler)
+    {
+        return iface.cast(Proxy.newProxyInstance(
+            MetaHistoryServiceImplTest.class.getClassLoader(),
+            new Class<?>[] { iface }, handler));
+    }
+
+    /**
+     * A call history service returning {@link #records} and reporting half
+     * of its progress while it searches.
+     */
+    private static class FakeCallHistory
+        implements InvocationHandler
+    {
+        final CallHistoryService service
+            = proxy(CallHistoryService.class, this);
+
+        final List<CallHistorySearchProgressListener> listeners
+            = new CopyOnWriteArrayList<CallHistorySearchProgressListener>();
+
+        final List<String> queries = new Vector<String>();
+
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        volatile List<Object> records = new ArrayList<Object>();
+
+        volatile boolean block = false;
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+            throws InterruptedException
+        {
+            switch (method.getName())
+            {
+            case "addSearchProgressListener":
+                listeners.add((CallHistorySearchProgressListener) args[0]);
+                return null;
+            case "removeSearchProgressListener":
+                listeners.remove(args[0]);
+                return null;
+            case "findFirstRecordsAfter":
+            case "findLastRecordsBefore":
+                queries.add(method.getName() + " "
+                    + ((Date) args[0]).getTime() + " " + args[1]);
+                return records;
+            case "findByPeriod":
+                fireProgress(
+                    CallHistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE
+                        / 2);
+                started.countDown();
+                if (block)
+                    release.await();
+                return records;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+        }
+
+        void fireProgress(int value)
+        {
+            for (CallHistorySearchProgressListener l : listeners)
+            {
+                l.progressChanged(
+                    new net.java.sip.communicator.service.callhistory.event
+                        .ProgressEvent(
+                            this,
+                            new ProgressEvent(
+                                this, null, null, null, value),
+                            value));
+            }
+        }
+    }
+}
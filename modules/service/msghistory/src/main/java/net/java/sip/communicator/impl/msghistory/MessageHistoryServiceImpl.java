@@ -59,6 +59,7 @@
                 MessageListener,
                 ChatRoomMessageListener,
                 AdHocChatRoomMessageListener,
+                MessageArchiveListener,
                 ServiceListener,
                 LocalUserChatRoomPresenceListener,
                 LocalUserAdHocChatRoomPresenceListener
@@ -80,6 +81,13 @@
      */
     static final String MSG_SUBTYPE_SMS = "sms";
 
+    /**
+     * How far before the oldest archived message of a batch to look for
+     * already stored copies, to allow for clock differences between the
+     * server and the local machine.
+     */
+    private static final long ARCHIVE_DEDUP_MARGIN = 60 * 1000;
+
     /**
      * The BundleContext that we got from the OSGI bus.
      */
@@ -506,23 +514,7 @@ private Object getContactOrRoomByID(String accountID,
                                         boolean isSMSEnabled)
         throws IOException
     {
-        AccountID account = null;
-        for(AccountID acc : AccountUtils.getStoredAccounts())
-        {
-            if( !acc.isHidden()
-                && acc.isEnabled()
-                && accountID.startsWith(acc.getAccountUniqueID()))
-            {
-                account = acc;
-                break;
-            }
-        }
-
-        if(account == null)
-            return null;
-
-        ProtocolProviderService pps =
-            AccountUtils.getRegisteredProviderForAccount(account);
+        ProtocolProviderService pps = getRegisteredProvider(accountID);
 
         if(pps == null)
             return null;
@@ -589,6 +581,98 @@ && hasMessages(
         }
     }
 
+    /**
+     * Returns the registered provider of an enabled and not hidden account.
+     *
+     * @param accountID the account unique id, or a string starting with it
+     * @return the provider or <tt>null</tt> if the account is not found, is
+     * disabled, hidden or not registered
+     */
+    private ProtocolProviderService getRegisteredProvider(String accountID)
+    {
+        for(AccountID acc : AccountUtils.getStoredAccounts())
+        {
+            if( !acc.isHidden()
+                && acc.isEnabled()
+                && accountID.startsWith(acc.getAccountUniqueID()))
+            {
+                return AccountUtils.getRegisteredProviderForAccount(acc);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates the message event for an entry of the recent messages index of
+     * the <tt>MessageSourceService</tt>. Unlike
+     * {@link #findRecentMessagesPerContact(int, String, String, boolean)} this
+     * doesn't read the history of the conversation, as the index stores the
+     * last message itself.
+     *
+     * @param accountID the account unique id of the conversation
+     * @param address the address of the contact or the identifier of the chat
+     * room of the conversation
+     * @param values the last message in the format of the message history
+     * records, as created by {@link #createRecord(EventObject)}
+     * @param timestamp the time of the last message
+     * @param isSMSEnabled whether the index holds sms messages only
+     * @return the message event or <tt>null</tt> if the contact or room is
+     * no longer available
+     */
+    EventObject createRecentMessageEvent(String accountID,
+                                         String address,
+                                         String[] values,
+                                         Date timestamp,
+                                         boolean isSMSEnabled)
+    {
+        ProtocolProviderService pps = getRegisteredProvider(accountID);
+
+        if(pps == null)
+            return null;
+
+        HistoryRecord hr = new HistoryRecord(STRUCTURE_NAMES, values, timestamp);
+
+        OperationSetPersistentPresence opSetPresence =
+            pps.getOperationSet(OperationSetPersistentPresence.class);
+        Contact contact = (opSetPresence == null)
+            ? null : opSetPresence.findContactByID(address);
+
+        // only sms messages are stored in the index when sms are enabled
+        if(contact == null && isSMSEnabled)
+        {
+            OperationSetSmsMessaging opSetSMS =
+                pps.getOperationSet(OperationSetSmsMessaging.class);
+
+            if(opSetSMS != null)
+                contact = opSetSMS.getContact(address);
+        }
+
+        if(contact != null)
+            return convertHistoryRecordToMessageEvent(hr, contact);
+
+        if(isSMSEnabled)
+            return null;
+
+        OperationSetMultiUserChat opSetMuc =
+            pps.getOperationSet(OperationSetMultiUserChat.class);
+
+        if(opSetMuc == null)
+            return null;
+
+        try
+        {
+            ChatRoom room = opSetMuc.findRoom(address);
+
+            return (room == null)
+                ? null : convertHistoryRecordToMessageEvent(hr, room);
+        }
+        catch(Exception e)
+        {
+            return null;
+        }
+    }
+
     /**
      * Returns the supplied number of recent messages after the given date
      * exchanged by all the contacts in the supplied metacontact
@@ -1443,6 +1527,290 @@ private void writeMessage(History history, String direction,
         }
     }
 
+    // //////////////////////////////////////////////////////////////////////////
+    // MessageArchiveListener implementation methods
+
+    /**
+     * Stores the messages retrieved from a server side archive. The messages
+     * are grouped by the history they belong to, messages whose UID is
+     * already stored are skipped and the remaining ones are written with a
+     * single bulk write per history.
+     *
+     * @param evt the <tt>MessageArchiveEvent</tt> with the retrieved messages
+     */
+    public void messagesArchived(MessageArchiveEvent evt)
+    {
+        SimpleDateFormat sdf = new SimpleDateFormat(HistoryService.DATE_FORMAT);
+        Map<History, ArchivedRecords> batches = new LinkedHashMap<>();
+        ChatRoom room = evt.getChatRoom();
+
+        if (room != null && !isHistoryLoggingEnabled(room.getIdentifier()))
+            return;
+
+        try
+        {
+            for (EventObject e : evt.getMessageEvents())
+            {
+                History history;
+                Date timestamp;
+                String[] record;
+
+                if (e instanceof MessageReceivedEvent)
+                {
+                    MessageReceivedEvent mre = (MessageReceivedEvent) e;
+                    Contact contact = mre.getSourceContact();
+
+                    if (!isArchiveLoggingEnabled(contact))
+                        continue;
+
+                    history = getHistory(null, contact);
+                    timestamp = mre.getTimestamp();
+                    record = createRecord("in", mre.getSourceMessage(),
+                        mre.getSourceMessage().getSubject(), timestamp, sdf);
+                }
+                else if (e instanceof MessageDeliveredEvent)
+                {
+                    MessageDeliveredEvent mde = (MessageDeliveredEvent) e;
+                    Contact contact = mde.getDestinationContact();
+
+                    if (!isArchiveLoggingEnabled(contact))
+                        continue;
+
+                    history = getHistory(null, contact);
+                    timestamp = mde.getTimestamp();
+                    record = createRecord("out", mde.getSourceMessage(),
+                        mde.getSourceMessage().getSubject(), timestamp, sdf);
+                }
+                else if (e instanceof ChatRoomMessageReceivedEvent)
+                {
+                    ChatRoomMessageReceivedEvent cre
+                        = (ChatRoomMessageReceivedEvent) e;
+
+                    if (cre.getEventType() != ChatRoomMessageReceivedEvent
+                            .CONVERSATION_MESSAGE_RECEIVED
+                        || cre.getSourceChatRoomMember() == null)
+                        continue;
+
+                    history = getHistoryForMultiChat(cre.getSourceChatRoom());
+                    timestamp = cre.getTimestamp();
+                    record = createRecord("in", cre.getMessage(),
+                        cre.getSourceChatRoomMember().getContactAddress(),
+                        timestamp, sdf);
+                }
+                else if (e instanceof ChatRoomMessageDeliveredEvent)
+                {
+                    ChatRoomMessageDeliveredEvent cde
+                        = (ChatRoomMessageDeliveredEvent) e;
+
+                    history = getHistoryForMultiChat(cde.getSourceChatRoom());
+                    timestamp = cde.getTimestamp();
+                    record = createRecord("out", cde.getMessage(),
+                        cde.getMessage().getSubject(), timestamp, sdf);
+                }
+                else
+                    continue;
+
+                ArchivedRecords batch = batches.get(history);
+
+                if (batch == null)
+                {
+                    batch = new ArchivedRecords();
+                    batches.put(history, batch);
+                }
+                batch.add(record, timestamp);
+            }
+
+            for (Map.Entry<History, ArchivedRecords> entry
+                    : batches.entrySet())
+            {
+                writeArchivedRecords(entry.getKey(), entry.getValue());
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Could not add archived messages to history", e);
+        }
+    }
+
+    /**
+     * Checks whether the history of a specific contact is to be logged.
+     *
+     * @param contact the contact
+     * @return <tt>true</tt> unless logging is switched off for the meta
+     * contact of <tt>contact</tt>
+     */
+    private boolean isArchiveLoggingEnabled(Contact contact)
+    {
+        MetaContact metaContact = MessageHistoryActivator
+            .getContactListService().findMetaContactByContact(contact);
+
+        return metaContact == null
+            || isHistoryLoggingEnabled(metaContact.getMetaUID());
+    }
+
+    /**
+     * Creates the values of a history record for a message.
+     *
+     * @param direction the direction of the message
+     * @param message the message
+     * @param from the value of the sixth field of the record: the subject for
+     * one-to-one messages and the sender address for chat room messages
+     * @param timestamp the time the message was sent
+     * @param sdf the format of the timestamp
+     * @return the values of the record
+     */
+    private static String[] createRecord(String direction,
+                                         Message message,
+                                         String from,
+                                         Date timestamp,
+                                         SimpleDateFormat sdf)
+    {
+        return new String[] { direction,
+            message.getContent(), message.getContentType(),
+            message.getEncoding(), message.getMessageUID(),
+            from, sdf.format(timestamp), null};
+    }
+
+    /**
+     * Creates the values of the history record of a message event, as they
+     * would be stored in the history of its conversation.
+     *
+     * @param evt a <tt>MessageReceivedEvent</tt>,
+     * <tt>MessageDeliveredEvent</tt>, <tt>ChatRoomMessageReceivedEvent</tt> or
+     * <tt>ChatRoomMessageDeliveredEvent</tt>
+     * @return the values of the record or <tt>null</tt> if <tt>evt</tt> is
+     * not a message event or is a chat room message without a sender
+     */
+    static String[] createRecord(EventObject evt)
+    {
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+
+        if(evt instanceof MessageReceivedEvent)
+        {
+            MessageReceivedEvent e = (MessageReceivedEvent) evt;
+            String[] record = createRecord("in", e.getSourceMessage(),
+                e.getSourceMessage().getSubject(), e.getTimestamp(), sdf);
+
+            if(e.getEventType() == MessageReceivedEvent.SMS_MESSAGE_RECEIVED)
+                record[7] = MSG_SUBTYPE_SMS;
+            return record;
+        }
+        else if(evt instanceof MessageDeliveredEvent)
+        {
+            MessageDeliveredEvent e = (MessageDeliveredEvent) evt;
+            String[] record = createRecord("out", e.getSourceMessage(),
+                e.getSourceMessage().getSubject(), e.getTimestamp(), sdf);
+
+            if(e.isSmsMessage())
+                record[7] = MSG_SUBTYPE_SMS;
+            return record;
+        }
+        else if(evt instanceof ChatRoomMessageReceivedEvent)
+        {
+            ChatRoomMessageReceivedEvent e = (ChatRoomMessageReceivedEvent) evt;
+
+            if(e.getSourceChatRoomMember() == null)
+                return null;
+
+            return createRecord("in", e.getMessage(),
+                e.getSourceChatRoomMember().getContactAddress(),
+                e.getTimestamp(), sdf);
+        }
+        else if(evt instanceof ChatRoomMessageDeliveredEvent)
+        {
+            ChatRoomMessageDeliveredEvent e
+                = (ChatRoomMessageDeliveredEvent) evt;
+
+            return createRecord("out", e.getMessage(),
+                e.getMessage().getSubject(), e.getTimestamp(), sdf);
+        }
+
+        return null;
+    }
+
+    /**
+     * Writes the archived records of a history which are not stored yet.
+     * The UIDs of the records stored since the oldest archived message are
+     * read once and used to skip duplicates, then the remaining records are
+     * added with a single write.
+     *
+     * @param history the history
+     * @param batch the archived records of <tt>history</tt>
+     * @throws IOException if the records could not be written
+     */
+    private void writeArchivedRecords(History history, ArchivedRecords batch)
+        throws IOException
+    {
+        // records are stored when a message is received or later, so any
+        // stored copy of the batch has been written after its oldest message
+        QueryResultSet<HistoryRecord> stored = history.getReader()
+            .findByStartDate(
+                new Date(batch.oldest.getTime() - ARCHIVE_DEDUP_MARGIN));
+        Set<String> uids = new HashSet<>();
+
+        while (stored.hasNext())
+        {
+            HistoryRecord hr = stored.next();
+            String[] names = hr.getPropertyNames();
+
+            for (int i = 0; i < names.length; i++)
+            {
+                if (names[i].equals(STRUCTURE_NAMES[4]))
+                {
+                    uids.add(hr.getPropertyValues()[i]);
+                    break;
+                }
+            }
+        }
+
+        List<String[]> records = new ArrayList<>(batch.records.size());
+
+        for (String[] record : batch.records)
+        {
+            String uid = record[4];
+
+            if (uid == null || uids.add(uid))
+                records.add(record);
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Storing " + records.size() + " of "
+                + batch.records.size() + " archived messages");
+        }
+
+        history.getWriter().addRecords(records);
+    }
+
+    /**
+     * The archived records of a single history.
+     */
+    private static class ArchivedRecords
+    {
+        /**
+         * The values of the records in chronological order.
+         */
+        private final List<String[]> records = new ArrayList<>();
+
+        /**
+         * The timestamp of the oldest record.
+         */
+        private Date oldest;
+
+        /**
+         * Adds a record.
+         *
+         * @param record the values of the record
+         * @param timestamp the time the message of the record was sent
+         */
+        void add(String[] record, Date timestamp)
+        {
+            records.add(record);
+            if (oldest == null || timestamp.before(oldest))
+                oldest = timestamp;
+        }
+    }
+
     /**
      * Inserts message to the history. Allows to update the laready saved
      * history.
@@ -1626,6 +1994,12 @@ private void handleProviderAdded(ProtocolProviderService provider)
                 logger.trace("Service did not have a multi im op. set.");
         }
 
+        OperationSetMessageArchive opSetArchive =
+            provider.getOperationSet(OperationSetMessageArchive.class);
+
+        if (opSetArchive != null)
+            opSetArchive.addMessageArchiveListener(this);
+
         if(messageSourceService != null)
         {
             OperationSetPresence opSetPresence =
@@ -1699,6 +2073,12 @@ private void handleProviderRemoved(ProtocolProviderService provider)
                 opSetMultiUChat.removePresenceListener(messageSourceService);
         }
 
+        OperationSetMessageArchive opSetArchive =
+            provider.getOperationSet(OperationSetMessageArchive.class);
+
+        if (opSetArchive != null)
+            opSetArchive.removeMessageArchiveListener(this);
+
         if(messageSourceService != null)
         {
             OperationSetPresence opSetPresence =
@@ -104,16 +104,27 @@
     private int numberOfMessages = 10;
 
     /**
-     * The structure to save recent messages list.
+     * The structure to save recent messages list. The conversation is
+     * followed by its last message in the structure of the message history,
+     * so that the recent messages can be shown without reading the history of
+     * every conversation.
      */
     private static final String[] STRUCTURE_NAMES
-        = new String[] { "provider", "contact", "timestamp", "ver"};
+        = new String[] { "provider", "contact", "timestamp", "ver",
+            "dir", "msg_CDATA", "msgTyp", "enc", "uid", "sub",
+            "receivedTimestamp", "msgSubTyp" };
+
+    /**
+     * The index in <tt>STRUCTURE_NAMES</tt> of the first field of the last
+     * message.
+     */
+    private static final int MESSAGE_FIELDS_OFFSET = 4;
 
     /**
      * The current version of recent messages. When changed the recent messages
      * are recreated.
      */
-    private static String RECENT_MSGS_VER = "2";
+    private static String RECENT_MSGS_VER = "3";
 
     /**
      * The structure.
@@ -132,6 +143,13 @@
      */
     private History history = null;
 
+    /**
+     * The last message of each conversation, stored in the cache history.
+     */
+    private final RecentMessagesIndex recentIndex = new RecentMessagesIndex(
+        new HistoryStorage(), STRUCTURE_NAMES.length, MESSAGE_FIELDS_OFFSET,
+        NUMBER_OF_MSGS_IN_HISTORY);
+
     /**
      * List of recent messages.
      */
@@ -283,25 +301,15 @@ private List<ComparableEvtObj> getCachedRecentMessages(
         ProtocolProviderService provider, boolean isStatusChanged)
     {
         String providerID = provider.getAccountID().getAccountUniqueID();
-        List<String> recentMessagesContactIDs =
-            getRecentContactIDs(providerID,
+        List<EventObject> res =
+            getRecentMessages(providerID,
                 recentMessages.size() < numberOfMessages
                     ? null : oldestRecentMessage );
 
         List<ComparableEvtObj> cachedRecentMessages
             = new ArrayList<ComparableEvtObj>();
 
-        for(String contactID : recentMessagesContactIDs)
-        {
-            Collection<EventObject> res =
-                messageHistoryService.findRecentMessagesPerContact(
-                    numberOfMessages,
-                    providerID,
-                    contactID,
-                    isSMSEnabled);
-
-            processEventObjects(res, cachedRecentMessages, isStatusChanged);
-        }
+        processEventObjects(res, cachedRecentMessages, isStatusChanged);
 
         return cachedRecentMessages;
     }
@@ -389,7 +397,7 @@ private void addNewRecentMessages(
                 duplicates.add(msgToAdd);
 
                 // save update
-                updateRecentMessageToHistory(msgToAdd);
+                saveRecentMessageToHistory(msgToAdd);
             }
         }
         recentMessages.removeAll(duplicates);
@@ -627,74 +635,35 @@ void handleProviderRemoved(ProtocolProviderService provider)
     }
 
     /**
-     * Searches for contact ids in history of recent messages.
-     * @param provider
-     * @param after
-     * @return
+     * Returns the last message of the recent conversations of a provider from
+     * the index of recent messages.
+     *
+     * @param provider the account unique id of the provider
+     * @param after if not <tt>null</tt>, only conversations with messages
+     * after this date are returned
+     * @return the last messages of the recent conversations
      */
-    List<String> getRecentContactIDs(String provider, Date after)
+    private List<EventObject> getRecentMessages(String provider, Date after)
     {
-        List<String> res = new ArrayList<String>();
+        List<EventObject> res = new ArrayList<EventObject>();
 
-        try
+        for(String[] values : recentIndex.getEntries(provider))
         {
-            History history = getHistory();
+            Date timestamp = RecentMessagesIndex.parseTimestamp(values[2]);
 
-            if(history != null)
-            {
-                Iterator<HistoryRecord> recs
-                    = history.getReader().findLast(NUMBER_OF_MSGS_IN_HISTORY);
-                SimpleDateFormat sdf
-                    = new SimpleDateFormat(HistoryService.DATE_FORMAT);
-
-                while(recs.hasNext())
-                {
-                    HistoryRecord hr = recs.next();
-
-                    String contact = null;
-                    String recordProvider = null;
-                    Date timestamp = null;
-
-                    for (int i = 0; i < hr.getPropertyNames().length; i++)
-                    {
-                        String propName = hr.getPropertyNames()[i];
-
-                        if (propName.equals(STRUCTURE_NAMES[0]))
-                            recordProvider = hr.getPropertyValues()[i];
-                        else if (propName.equals(STRUCTURE_NAMES[1]))
-                            contact = hr.getPropertyValues()[i];
-                        else if (propName.equals(STRUCTURE_NAMES[2]))
-                        {
-                            try
-                            {
-                                timestamp
-                                    = sdf.parse(hr.getPropertyValues()[i]);
-                            }
-                            catch (ParseException e)
-                            {
-                                timestamp =
-                                    new Date(Long.parseLong(
-                                            hr.getPropertyValues()[i]));
-                            }
-                        }
-                    }
-
-                    if(recordProvider == null || contact == null)
-                        continue;
+            if(after != null && timestamp.before(after))
+                continue;
 
-                    if(after != null
-                        && timestamp != null
-                        && timestamp.before(after))
-                        continue;
+            EventObject evt = messageHistoryService.createRecentMessageEvent(
+                provider,
+                values[1],
+                Arrays.copyOfRange(
+                    values, MESSAGE_FIELDS_OFFSET, values.length),
+                timestamp,
+                isSMSEnabled);
 
-                    if(recordProvider.equals(provider))
-                        res.add(contact);
-                }
-            }
-        }
-        catch(IOException ex)
-        {
-            logger.error("cannot create recent_messages history", ex);
+            if(evt != null)
+                res.add(evt);
         }
 
         return res;
@@ -900,7 +869,7 @@ private void handle(EventObject obj,
                 {
                     // update
                     msc.update(obj);
-                    updateRecentMessageToHistory(msc);
+                    saveRecentMessageToHistory(msc);
 
                     existingMsc = msc;
                 }
@@ -967,146 +936,45 @@ private void handle(EventObject obj,
     }
 
     /**
-     * Adds recent message in history.
+     * Stores the last message of a conversation in the index of recent
+     * messages. The record is appended to the cache history, which is
+     * compacted once it holds too many superseded records.
      */
     private void saveRecentMessageToHistory(ComparableEvtObj msc)
     {
-        synchronized(historyID)
-        {
-            // and create it
-            try
-            {
-                History history = getHistory();
-                HistoryWriter writer = history.getWriter();
-
-                SimpleDateFormat sdf
-                    = new SimpleDateFormat(HistoryService.DATE_FORMAT);
-
-                writer.addRecord(
-                    new String[]
-                        {
-                            msc.getProtocolProviderService()
-                                .getAccountID().getAccountUniqueID(),
-                            msc.getContactAddress(),
-                            sdf.format(msc.getTimestamp()),
-                            RECENT_MSGS_VER
-                        },
-                    NUMBER_OF_MSGS_IN_HISTORY);
-            }
-            catch(IOException ex)
-            {
-                logger.error("cannot create recent_messages history", ex);
-                return;
-            }
-        }
+        String[] message
+            = MessageHistoryServiceImpl.createRecord(msc.getEventObject());
+
+        if(message == null)
+            return;
+
+        String[] values = new String[STRUCTURE_NAMES.length];
+        SimpleDateFormat sdf
+            = new SimpleDateFormat(HistoryService.DATE_FORMAT);
+
+        values[0] = msc.getProtocolProviderService()
+            .getAccountID().getAccountUniqueID();
+        values[1] = msc.getContactAddress();
+        values[2] = sdf.format(msc.getTimestamp());
+        values[3] = RECENT_MSGS_VER;
+        System.arraycopy(
+            message, 0, values, MESSAGE_FIELDS_OFFSET, message.length);
+
+        recentIndex.put(values);
     }
 
     /**
-     * Updates recent message in history.
+     * Removes conversations from the index of recent messages.
+     *
+     * @param provider the provider of the conversations
+     * @param addresses the addresses of the contacts or the identifiers of the
+     * rooms of the conversations
      */
-    private void updateRecentMessageToHistory(final ComparableEvtObj msg)
+    private void removeFromRecentIndex(ProtocolProviderService provider,
+                                       String... addresses)
     {
-        synchronized(historyID)
-        {
-            // and create it
-            try
-            {
-                History history = getHistory();
-
-                HistoryWriter writer = history.getWriter();
-
-                writer.updateRecord(
-                    new HistoryWriter.HistoryRecordUpdater()
-                    {
-                        HistoryRecord hr;
-
-                        @Override
-                        public void setHistoryRecord(
-                            HistoryRecord historyRecord)
-                        {
-                            this.hr = historyRecord;
-                        }
-
-                        @Override
-                        public boolean isMatching()
-                        {
-                            boolean providerFound = false;
-                            boolean contactFound = false;
-                            for(int i = 0;
-                                i < hr.getPropertyNames().length;
-                                i++)
-                            {
-                                String propName = hr.getPropertyNames()[i];
-
-                                if(propName.equals(STRUCTURE_NAMES[0]))
-                                {
-                                    if(msg.getProtocolProviderService()
-                                        .getAccountID().getAccountUniqueID()
-                                        .equals(hr.getPropertyValues()[i]))
-                                    {
-                                        providerFound = true;
-                                    }
-                                }
-                                else if(propName.equals(STRUCTURE_NAMES[1]))
-                                {
-                                    if(msg.getContactAddress()
-                                        .equals(hr.getPropertyValues()[i]))
-                                    {
-                                        contactFound = true;
-                                    }
-                                }
-                            }
-
-
-                            return contactFound && providerFound;
-                        }
-
-                        @Override
-                        public Map<String, String> getUpdateChanges()
-                        {
-                            HashMap<String, String> map
-                                = new HashMap<String, String>();
-                            SimpleDateFormat sdf
-                                = new SimpleDateFormat(
-                                        HistoryService.DATE_FORMAT);
-
-                            for(int i = 0;
-                                i < hr.getPropertyNames().length;
-                                i++)
-                            {
-                                String propName = hr.getPropertyNames()[i];
-
-                                if(propName.equals(STRUCTURE_NAMES[0]))
-                                {
-                                    map.put(
-                                        propName,
-                                        msg.getProtocolProviderService()
-                                            .getAccountID()
-                                            .getAccountUniqueID());
-                                }
-                                else if(propName.equals(STRUCTURE_NAMES[1]))
-                                {
-                                    map.put(propName, msg.getContactAddress());
-                                }
-                                else if(propName.equals(STRUCTURE_NAMES[2]))
-                                {
-                                    map.put(propName,
-                                        sdf.format(msg.getTimestamp()));
-                                }
-                                else if(propName.equals(STRUCTURE_NAMES[3]))
-                                    map.put(propName, RECENT_MSGS_VER);
-                            }
-
-                            return map;
-                        }
-                    });
-            }
-            catch(IOException ex)
-            {
-                logger.error("cannot create recent_messages history", ex);
-                return;
-            }
-        }
+        recentIndex.remove(
+            provider.getAccountID().getAccountUniqueID(), addresses);
     }
 
     @Override
@@ -1305,6 +1173,8 @@ public void eraseLocallyStoredHistory()
             recentMessages.clear();
         }
 
+        recentIndex.clear();
+
         if(recentQuery != null)
         {
             for(ComparableEvtObj msc : toRemove)
@@ -1344,6 +1214,15 @@ public void eraseLocallyStoredHistory(MetaContact contact)
 
             recentMessages.removeAll(toRemove);
         }
+
+        Iterator<Contact> contacts = contact.getContacts();
+        while(contacts.hasNext())
+        {
+            Contact item = contacts.next();
+
+            removeFromRecentIndex(item.getProtocolProvider(), item.getAddress());
+        }
+
         if(recentQuery != null)
         {
             for(ComparableEvtObj msc : toRemove)
@@ -1359,6 +1238,8 @@ public void eraseLocallyStoredHistory(MetaContact contact)
      */
     public void eraseLocallyStoredHistory(ChatRoom room)
     {
+        removeFromRecentIndex(room.getParentProvider(), room.getIdentifier());
+
         ComparableEvtObj toRemove = null;
         synchronized(recentMessages)
         {
@@ -1382,6 +1263,58 @@ public void eraseLocallyStoredHistory(ChatRoom room)
             recentQuery.fireContactRemoved(toRemove);
     }
 
+    /**
+     * Stores the records of the index of recent messages in the cache history.
+     */
+    private class HistoryStorage
+        implements RecentMessagesIndex.Storage
+    {
+        @Override
+        public Iterator<String[]> read()
+            throws IOException
+        {
+            final Iterator<HistoryRecord> recs
+                = getHistory().getReader().findByStartDate(new Date(0));
+
+            return new Iterator<String[]>()
+            {
+                @Override
+                public boolean hasNext()
+                {
+                    return recs.hasNext();
+                }
+
+                @Override
+                public String[] next()
+                {
+                    return recs.next().getPropertyValues();
+                }
+            };
+        }
+
+        @Override
+        public void append(String[] values)
+            throws IOException
+        {
+            getHistory().getWriter().addRecord(values);
+        }
+
+        @Override
+        public void replace(List<String[]> records)
+            throws IOException
+        {
+            synchronized(historyID)
+            {
+                MessageHistoryActivator.getMessageHistoryService()
+                    .getHistoryService().purgeLocallyStoredHistory(historyID);
+                history = null;
+
+                if(!records.isEmpty())
+                    getHistory().getWriter().addRecords(records);
+            }
+        }
+    }
+
     /**
      * Object used to cache recent messages.
      */
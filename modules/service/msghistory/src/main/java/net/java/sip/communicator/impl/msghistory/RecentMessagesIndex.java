@@ -0,0 +1,356 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.msghistory;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+
+/**
+ * The last message of each recent conversation, kept in memory and backed by
+ * an append-only history. Every new message appends a record, so the history
+ * holds superseded records of the same conversations until it is compacted.
+ * <p>
+ * Records are arrays of the values of the recent messages history structure:
+ * the provider, the contact, the timestamp and the version, followed by the
+ * fields of the last message starting at <tt>messageOffset</tt>.
+ */
+class RecentMessagesIndex
+{
+    /**
+     * The logger.
+     */
+    private static final org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(RecentMessagesIndex.class);
+
+    /**
+     * Where the records of the index are stored.
+     */
+    private final Storage storage;
+
+    /**
+     * The number of values of a record.
+     */
+    private final int recordLength;
+
+    /**
+     * The index of the first field of the last message in a record.
+     */
+    private final int messageOffset;
+
+    /**
+     * The maximum number of conversations kept.
+     */
+    private final int maxEntries;
+
+    /**
+     * The last message of each conversation by provider and contact, loaded
+     * from the storage on first use.
+     */
+    private Map<String, String[]> entries = null;
+
+    /**
+     * The number of records in the storage.
+     */
+    private int recordCount = 0;
+
+    /**
+     * Creates an index of recent messages.
+     *
+     * @param storage where the records of the index are stored
+     * @param recordLength the number of values of a record
+     * @param messageOffset the index of the first field of the last message
+     * in a record
+     * @param maxEntries the maximum number of conversations kept; the storage
+     * is compacted when it holds twice as many records
+     */
+    RecentMessagesIndex(Storage storage,
+                        int recordLength,
+                        int messageOffset,
+                        int maxEntries)
+    {
+        this.storage = storage;
+        this.recordLength = recordLength;
+        this.messageOffset = messageOffset;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the records of the recent conversations of a provider.
+     *
+     * @param provider the account unique id of the provider
+     * @return the records of the conversations of <tt>provider</tt>
+     */
+    synchronized List<String[]> getEntries(String provider)
+    {
+        List<String[]> res = new ArrayList<String[]>();
+
+        for(String[] values : load().values())
+        {
+            if(values[0].equals(provider))
+                res.add(values);
+        }
+        return res;
+    }
+
+    /**
+     * Stores the last message of a conversation, unless the index has a newer
+     * message for it. The record is appended to the storage, which is
+     * compacted once it holds too many superseded records.
+     *
+     * @param values the record of the message
+     */
+    synchronized void put(String[] values)
+    {
+        load();
+        putEntry(values);
+
+        if(recordCount >= 2 * maxEntries)
+        {
+            rewrite();
+            return;
+        }
+
+        try
+        {
+            storage.append(values);
+            recordCount++;
+        }
+        catch(IOException ex)
+        {
+            logger.error("cannot create recent_messages history", ex);
+        }
+    }
+
+    /**
+     * Removes conversations from the index.
+     *
+     * @param provider the account unique id of the provider of the
+     * conversations
+     * @param addresses the addresses of the contacts or the identifiers of the
+     * rooms of the conversations
+     */
+    synchronized void remove(String provider, String... addresses)
+    {
+        Map<String, String[]> index = load();
+        boolean changed = false;
+
+        for(String address : addresses)
+        {
+            if(index.remove(provider + '/' + address) != null)
+                changed = true;
+        }
+
+        if(changed)
+            rewrite();
+    }
+
+    /**
+     * Removes all the conversations from the index.
+     */
+    synchronized void clear()
+    {
+        load().clear();
+        rewrite();
+    }
+
+    /**
+     * Returns the number of records in the storage.
+     *
+     * @return the number of records in the storage
+     */
+    synchronized int getRecordCount()
+    {
+        load();
+        return recordCount;
+    }
+
+    /**
+     * Returns the index, loading it from the storage the first time. When the
+     * storage cannot be read or contains invalid records it is recreated,
+     * conversations with no valid record are then found again in the message
+     * history when their provider is added.
+     *
+     * @return the last message of each conversation by provider and contact
+     */
+    private Map<String, String[]> load()
+    {
+        if(entries != null)
+            return entries;
+
+        entries = new HashMap<String, String[]>();
+        recordCount = 0;
+
+        boolean invalid = false;
+
+        try
+        {
+            Iterator<String[]> records = storage.read();
+
+            while(records.hasNext())
+            {
+                String[] values = records.next();
+
+                recordCount++;
+
+                if(values == null
+                    || values.length != recordLength
+                    || values[0] == null
+                    || values[1] == null
+                    || values[2] == null
+                    || values[messageOffset] == null)
+                {
+                    invalid = true;
+                    continue;
+                }
+
+                putEntry(values);
+            }
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            logger.error("cannot read recent_messages history", ex);
+
+            entries.clear();
+            invalid = true;
+        }
+
+        if(invalid || recordCount > 2 * maxEntries)
+            rewrite();
+
+        return entries;
+    }
+
+    /**
+     * Adds the last message of a conversation to the index, unless the index
+     * has a newer message for the conversation.
+     *
+     * @param values the record of the message
+     */
+    private void putEntry(String[] values)
+    {
+        String key = values[0] + '/' + values[1];
+        String[] old = entries.get(key);
+
+        if(old == null
+            || !parseTimestamp(values[2]).before(parseTimestamp(old[2])))
+        {
+            entries.put(key, values);
+        }
+    }
+
+    /**
+     * Recreates the storage with the newest <tt>maxEntries</tt> entries of the
+     * index, dropping the older entries and all superseded records.
+     */
+    private void rewrite()
+    {
+        List<String[]> newest = new ArrayList<String[]>(entries.values());
+
+        Collections.sort(newest, new Comparator<String[]>()
+        {
+            @Override
+            public int compare(String[] o1, String[] o2)
+            {
+                return parseTimestamp(o1[2]).compareTo(parseTimestamp(o2[2]));
+            }
+        });
+
+        if(newest.size() > maxEntries)
+        {
+            for(String[] values
+                    : newest.subList(0, newest.size() - maxEntries))
+            {
+                entries.remove(values[0] + '/' + values[1]);
+            }
+
+            newest = newest.subList(newest.size() - maxEntries, newest.size());
+        }
+
+        try
+        {
+            storage.replace(newest);
+            recordCount = newest.size();
+        }
+        catch(IOException ex)
+        {
+            logger.error("cannot recreate recent_messages history", ex);
+        }
+    }
+
+    /**
+     * Parses a timestamp of the index.
+     *
+     * @param value the timestamp
+     * @return the parsed date or the epoch if <tt>value</tt> is not valid
+     */
+    static Date parseTimestamp(String value)
+    {
+        try
+        {
+            return new SimpleDateFormat(HistoryService.DATE_FORMAT)
+                .parse(value);
+        }
+        catch (ParseException e)
+        {
+            try
+            {
+                return new Date(Long.parseLong(value));
+            }
+            catch (NumberFormatException nfe)
+            {
+                return new Date(0);
+            }
+        }
+    }
+
+    /**
+     * The records of the index.
+     */
+    interface Storage
+    {
+        /**
+         * Reads all the records.
+         *
+         * @return the records in the order they were written
+         * @throws IOException if the records cannot be read
+         */
+        Iterator<String[]> read()
+            throws IOException;
+
+        /**
+         * Appends a record.
+         *
+         * @param values the record
+         * @throws IOException if the record cannot be written
+         */
+        void append(String[] values)
+            throws IOException;
+
+        /**
+         * Replaces all the records.
+         *
+         * @param records the new records
+         * @throws IOException if the records cannot be written
+         */
+        void replace(List<String[]> records)
+            throws IOException;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.msghistory;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.impl.protocol.mock.*;
+import net.java.sip.communicator.service.protocol.event.*;
+
+import org.junit.*;
+
+/**
+ * Tests the loading, rebuilding and compaction of the
+ * <tt>RecentMessagesIndex</tt> with an in-memory storage.
+ */
+public class RecentMessagesIndexTest
+{
+    private static final int RECORD_LENGTH = 5;
+
+    private static final int MESSAGE_OFFSET = 4;
+
+    private static final int MAX_ENTRIES = 3;
+
+    private final MemoryStorage storage = new MemoryStorage();
+
+    private static String[] record(String contact, long timestamp, String msg)
+    {
+        return new String[] {
+            "provider", contact, String.valueOf(timestamp), "3", msg };
+    }
+
+    private RecentMessagesIndex createIndex()
+    {
+        return new RecentMessagesIndex(
+            storage, RECORD_LENGTH, MESSAGE_OFFSET, MAX_ENTRIES);
+    }
+
+    private static Map<String, String> messages(List<String[]> entries)
+    {
+        Map<String, String> res = new HashMap<String, String>();
+
+        for(String[] values : entries)
+            res.put(values[1], values[MESSAGE_OFFSET]);
+        return res;
+    }
+
+    @Test
+    public void testLoadKeepsNewestRecordOfEachConversation()
+    {
+        storage.records.add(record("alice", 1000, "old"));
+        storage.records.add(record("bob", 2000, "hi"));
+        storage.records.add(record("alice", 3000, "new"));
+        storage.records.add(record("carol", 500, "late"));
+        storage.records.add(record("carol", 400, "early"));
+
+        RecentMessagesIndex index = createIndex();
+        Map<String, String> messages = messages(index.getEntries("provider"));
+
+        assertEquals(3, messages.size());
+        assertEquals("new", messages.get("alice"));
+        assertEquals("hi", messages.get("bob"));
+        assertEquals("late", messages.get("carol"));
+        assertTrue(index.getEntries("other").isEmpty());
+        assertEquals(0, storage.replaceCount);
+        assertEquals(5, index.getRecordCount());
+    }
+
+    @Test
+    public void testCorruptRecordIsDroppedAndStorageRewritten()
+    {
+        storage.records.add(record("alice", 1000, "hello"));
+        storage.records.add(new String[] { "provider", "bob" });
+        storage.records.add(record(null, 2000, "nobody"));
+        storage.records.add(record("carol", 3000, null));
+
+        RecentMessagesIndex index = createIndex();
+        Map<String, String> messages = messages(index.getEntries("provider"));
+
+        assertEquals(Collections.singletonMap("alice", "hello"), messages);
+        assertEquals(1, storage.replaceCount);
+        assertEquals(1, storage.records.size());
+        assertEquals("alice", storage.records.get(0)[1]);
+    }
+
+    @Test
+    public void testUnreadableStorageIsRebuilt()
+    {
+        storage.records.add(record("alice", 1000, "hello"));
+        storage.failRead = true;
+
+        RecentMessagesIndex index = createIndex();
+
+        assertTrue(index.getEntries("provider").isEmpty());
+        assertEquals(1, storage.replaceCount);
+        assertTrue(storage.records.isEmpty());
+
+        index.put(record("bob", 2000, "again"));
+
+        assertEquals(
+            Collections.singletonMap("bob", "again"),
+            messages(index.getEntries("provider")));
+        assertEquals(1, storage.records.size());
+    }
+
+    @Test
+    public void testPutAppendsAndCompacts()
+    {
+        RecentMessagesIndex index = createIndex();
+
+        for(int i = 0; i < 2 * MAX_ENTRIES; i++)
+            index.put(record("contact" + i, 1000 + i, "msg" + i));
+
+        assertEquals(0, storage.replaceCount);
+        assertEquals(2 * MAX_ENTRIES, storage.records.size());
+
+        index.put(record("contact9", 9000, "msg9"));
+
+        assertEquals(1, storage.replaceCount);
+        assertEquals(MAX_ENTRIES, storage.records.size());
+        assertEquals(MAX_ENTRIES, index.getRecordCount());
+
+        Map<String, String> messages = messages(index.getEntries("provider"));
+
+        assertEquals(MAX_ENTRIES, messages.size());
+        assertEquals("msg9", messages.get("contact9"));
+        assertEquals("msg5", messages.get("contact5"));
+        assertEquals("msg4", messages.get("contact4"));
+    }
+
+    @Test
+    public void testOlderMessageDoesNotReplaceNewer()
+    {
+        RecentMessagesIndex index = createIndex();
+
+        index.put(record("alice", 2000, "new"));
+        index.put(record("alice", 1000, "old"));
+
+        assertEquals(
+            Collections.singletonMap("alice", "new"),
+            messages(index.getEntries("provider")));
+
+        // a reloaded index reaches the same result from the stored records
+        assertEquals(
+            Collections.singletonMap("alice", "new"),
+            messages(createIndex().getEntries("provider")));
+    }
+
+    @Test
+    public void testRemoveAndClear()
+    {
+        RecentMessagesIndex index = createIndex();
+
+        index.put(record("alice", 1000, "a"));
+        index.put(record("bob", 2000, "b"));
+
+        index.remove("provider", "nobody");
+        assertEquals(0, storage.replaceCount);
+
+        index.remove("provider", "alice");
+        assertEquals(1, storage.replaceCount);
+        assertEquals(
+            Collections.singletonMap("bob", "b"),
+            messages(createIndex().getEntries("provider")));
+
+        index.clear();
+        assertTrue(index.getEntries("provider").isEmpty());
+        assertTrue(storage.records.isEmpty());
+    }
+
+    @Test
+    public void testChatRoomMessageWithoutMemberHasNoRecord()
+    {
+        MockProvider provider = new MockProvider("user");
+        MockChatRoom room = new MockChatRoom(
+            provider, new MockMultiUserChat(provider), "room");
+        ChatRoomMessageReceivedEvent evt = new ChatRoomMessageReceivedEvent(
+            room, null, new Date(), room.createMessage("hello"),
+            ChatRoomMessageReceivedEvent.CONVERSATION_MESSAGE_RECEIVED);
+
+        assertNull(MessageHistoryServiceImpl.createRecord(evt));
+    }
+
+    /**
+     * Keeps the records in a list.
+     */
+    private static class MemoryStorage
+        implements RecentMessagesIndex.Storage
+    {
+        final List<String[]> records = new ArrayList<String[]>();
+
+        boolean failRead = false;
+
+        int replaceCount = 0;
+
+        @Override
+        public Iterator<String[]> read()
+            throws IOException
+        {
+            if(failRead)
+                throw new IOException("corrupt history");
+            return new ArrayList<String[]>(records).iterator();
+        }
+
+        @Override
+        public void append(String[] values)
+        {
+            records.add(values);
+        }
+
+        @Override
+        public void replace(List<String[]> newRecords)
+        {
+            failRead = false;
+            replaceCount++;
+            records.clear();
+            records.addAll(newRecords);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.notification;
+
+import java.util.*;
+
+import org.jitsi.service.configuration.*;
+
+/**
+ * An immutable snapshot of the names of the configuration properties under
+ * which the event notifications and their actions are saved.
+ *
+ * Finding the property of an event type or an action otherwise requires
+ * walking all notification properties of the configuration. A new snapshot is
+ * created when a notification is saved under a new property.
+ */
+final class NotificationConfigIndex
+{
+    /**
+     * The property names of the event types by event type.
+     */
+    private final Map<String, String> eventNodes;
+
+    /**
+     * The property names of the actions by action type, by the property name
+     * of their event type.
+     */
+    private final Map<String, Map<String, String>> actionNodes;
+
+    /**
+     * The event or action type saved under each indexed property name.
+     */
+    private final Map<String, String> types;
+
+    /**
+     * Initializes a new <tt>NotificationConfigIndex</tt>.
+     *
+     * @param eventNodes the property names of the event types
+     * @param actionNodes the property names of the actions
+     * @param types the types saved under the property names
+     */
+    private NotificationConfigIndex(
+            Map<String, String> eventNodes,
+            Map<String, Map<String, String>> actionNodes,
+            Map<String, String> types)
+    {
+        this.eventNodes = eventNodes;
+        this.actionNodes = actionNodes;
+        this.types = types;
+    }
+
+    /**
+     * Reads the property names of the event notifications from the
+     * configuration.
+     *
+     * @param configService the configuration
+     * @param prefix the prefix of the properties of the event types
+     * @return the index of the event notifications in the configuration
+     */
+    static NotificationConfigIndex read(
+            ConfigurationService configService,
+            String prefix)
+    {
+        Map<String, String> eventNodes = new HashMap<String, String>();
+        Map<String, Map<String, String>> actionNodes
+            = new HashMap<String, Map<String, String>>();
+        Map<String, String> types = new HashMap<String, String>();
+
+        for (String eventNode
+                : configService.getPropertyNamesByPrefix(prefix, true))
+        {
+            String eventType = configService.getString(eventNode);
+
+            if (eventType == null)
+                continue;
+
+            eventNodes.put(eventType, eventNode);
+            types.put(eventNode, eventType);
+
+            Map<String, String> actions = new HashMap<String, String>();
+
+            for (String actionNode
+                    : configService.getPropertyNamesByPrefix(
+                            eventNode + ".actions", true))
+            {
+                String actionType = configService.getString(actionNode);
+
+                if (actionType == null)
+                    continue;
+
+                actions.put(actionType, actionNode);
+                types.put(actionNode, actionType);
+            }
+            actionNodes.put(eventNode, actions);
+        }
+
+        return new NotificationConfigIndex(eventNodes, actionNodes, types);
+    }
+
+    /**
+     * Gets the property name of an event type.
+     *
+     * @param eventType the event type
+     * @return the property name or <tt>null</tt> if the event type is not
+     * saved
+     */
+    String getEventNode(String eventType)
+    {
+        return eventNodes.get(eventType);
+    }
+
+    /**
+     * Gets the property name of an action of an event type.
+     *
+     * @param eventNode the property name of the event type
+     * @param actionType the action type
+     * @return the property name or <tt>null</tt> if the action is not saved
+     */
+    String getActionNode(String eventNode, String actionType)
+    {
+        Map<String, String> actions = actionNodes.get(eventNode);
+
+        return (actions == null) ? null : actions.get(actionType);
+    }
+
+    /**
+     * Creates the name of a new property for an event or action type. The
+     * name is made of the prefix and the current time like before and is
+     * distinct from the names in the index even if several types are saved
+     * within the same millisecond.
+     *
+     * @param prefix the prefix of the name
+     * @return the name of the new property
+     */
+    String newNodeName(String prefix)
+    {
+        long time = System.currentTimeMillis();
+        String name;
+
+        do
+        {
+            name = prefix + Long.toString(time++);
+        }
+        while (types.containsKey(name));
+        return name;
+    }
+
+    /**
+     * Determines whether the index is still valid after a change of a
+     * configuration property.
+     *
+     * @param prefix the prefix of the properties of the event types
+     * @param propertyName the name of the changed property
+     * @param newValue the new value of the property
+     * @return <tt>false</tt> if the property saves an event or action type
+     * which is not in the index
+     */
+    boolean isConsistent(String prefix, String propertyName, Object newValue)
+    {
+        int end = propertyName.lastIndexOf('.');
+
+        if (end < 0)
+            return true;
+
+        String parent = propertyName.substring(0, end);
+        boolean node = parent.equals(prefix);
+
+        if (!node && parent.endsWith(".actions"))
+        {
+            int eventEnd = parent.lastIndexOf('.', parent.length() - 9);
+
+            node = eventEnd > 0
+                && parent.substring(0, eventEnd).equals(prefix);
+        }
+
+        return !node
+            || (newValue != null
+                && newValue.toString().equals(types.get(propertyName)));
+    }
+
+    /**
+     * Creates a copy of this index with an additional event type.
+     *
+     * @param eventType the event type
+     * @param eventNode the property name of the event type
+     * @return the new index
+     */
+    NotificationConfigIndex withEventNode(String eventType, String eventNode)
+    {
+        Map<String, String> eventNodes
+            = new HashMap<String, String>(this.eventNodes);
+        Map<String, Map<String, String>> actionNodes
+            = new HashMap<String, Map<String, String>>(this.actionNodes);
+        Map<String, String> types = new HashMap<String, String>(this.types);
+
+        eventNodes.put(eventType, eventNode);
+        actionNodes.put(eventNode, Collections.<String, String>emptyMap());
+        types.put(eventNode, eventType);
+        return new NotificationConfigIndex(eventNodes, actionNodes, types);
+    }
+
+    /**
+     * Creates a copy of this index with an additional action.
+     *
+     * @param eventNode the property name of the event type of the action
+     * @param actionType the action type
+     * @param actionNode the property name of the action
+     * @return the new index
+     */
+    NotificationConfigIndex withActionNode(
+            String eventNode,
+            String actionType,
+            String actionNode)
+    {
+        Map<String, Map<String, String>> actionNodes
+            = new HashMap<String, Map<String, String>>(this.actionNodes);
+        Map<String, String> actions = actionNodes.get(eventNode);
+        Map<String, String> types = new HashMap<String, String>(this.types);
+
+        actions = (actions == null)
+            ? new HashMap<String, String>()
+            : new HashMap<String, String>(actions);
+        actions.put(actionType, actionNode);
+        actionNodes.put(eventNode, actions);
+        types.put(actionNode, actionType);
+        return new NotificationConfigIndex(eventNodes, actionNodes, types);
+    }
+}
@@ -34,6 +34,8 @@
 
     private ServiceRegistration<NotificationService> notificationService;
 
+    private NotificationServiceImpl notificationServiceImpl;
+
     public NotificationServiceActivator()
     {
         super(ConfigurationService.class);
@@ -46,9 +48,10 @@ public void startWithServices(BundleContext context)
 
         ConfigurationService configService
             = getService(ConfigurationService.class);
+        notificationServiceImpl = new NotificationServiceImpl(configService);
         notificationService = context.registerService(
             NotificationService.class,
-            new NotificationServiceImpl(configService),
+            notificationServiceImpl,
             null);
 
         logger.info("Notification Service ...[REGISTERED]");
@@ -57,6 +60,7 @@ public void startWithServices(BundleContext context)
     public void stop(BundleContext bc)
     {
         notificationService.unregister();
+        notificationServiceImpl.dispose();
         logger.info("Notification Service ...[STOPPED]");
     }
 }
@@ -24,7 +24,9 @@
 import static net.java.sip.communicator.service.notification.event.NotificationEventTypeEvent.EVENT_TYPE_ADDED;
 import static net.java.sip.communicator.service.notification.event.NotificationEventTypeEvent.EVENT_TYPE_REMOVED;
 
+import java.beans.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.service.notification.event.*;
 
@@ -82,7 +84,33 @@
      * A set of all registered event notifications.
      */
     private final Map<String, Notification> notifications
-        = new HashMap<String, Notification>();
+        = new ConcurrentHashMap<String, Notification>();
+
+    /**
+     * The actions of the active event notifications by event type. The map is
+     * immutable and replaced whenever the notifications change, such that
+     * firing a notification neither locks nor reads the configuration.
+     */
+    private volatile Map<String, List<NotificationAction>> activeActions
+        = Collections.emptyMap();
+
+    /**
+     * The index of the saved notifications in the configuration or
+     * <tt>null</tt> if it has to be read again.
+     */
+    private NotificationConfigIndex configIndex = null;
+
+    /**
+     * The lock of {@link #configIndex}.
+     */
+    private final Object configIndexSyncRoot = new Object();
+
+    /**
+     * Drops {@link #configIndex} when notification properties are changed
+     * other than through this service.
+     */
+    private final PropertyChangeListener configListener
+        = this::configurationChanged;
 
     /**
      * Creates an instance of <tt>NotificationServiceImpl</tt> by loading all
@@ -91,10 +119,117 @@
     NotificationServiceImpl(ConfigurationService configService)
     {
         this.configService = configService;
+        configService.addPropertyChangeListener(configListener);
         // Load all previously saved notifications.
         this.loadNotifications();
     }
 
+    /**
+     * Stops listening to changes of the configuration.
+     */
+    void dispose()
+    {
+        configService.removePropertyChangeListener(configListener);
+    }
+
+    /**
+     * Drops the index of the saved notifications if a notification property
+     * has been changed such that the index does not match it anymore.
+     *
+     * @param evt the change of a configuration property
+     */
+    private void configurationChanged(PropertyChangeEvent evt)
+    {
+        String propertyName = evt.getPropertyName();
+
+        if (propertyName == null
+                || !propertyName.startsWith(NOTIFICATIONS_PREFIX))
+            return;
+
+        synchronized (configIndexSyncRoot)
+        {
+            if (configIndex != null
+                    && !configIndex.isConsistent(
+                            NOTIFICATIONS_PREFIX,
+                            propertyName,
+                            evt.getNewValue()))
+            {
+                configIndex = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the index of the saved notifications in the configuration, reading
+     * it if necessary.
+     *
+     * @return the index of the saved notifications
+     */
+    private NotificationConfigIndex getConfigIndex()
+    {
+        synchronized (configIndexSyncRoot)
+        {
+            if (configIndex == null)
+            {
+                configIndex
+                    = NotificationConfigIndex.read(
+                            configService,
+                            NOTIFICATIONS_PREFIX);
+            }
+            return configIndex;
+        }
+    }
+
+    /**
+     * Replaces the index of the saved notifications with an updated copy
+     * unless it has been dropped or replaced in the meantime.
+     *
+     * @param index the index which has been updated
+     * @param updated the updated index
+     * @return the updated index
+     */
+    private NotificationConfigIndex updateConfigIndex(
+            NotificationConfigIndex index,
+            NotificationConfigIndex updated)
+    {
+        synchronized (configIndexSyncRoot)
+        {
+            if (configIndex == index)
+                configIndex = updated;
+        }
+        return updated;
+    }
+
+    /**
+     * Replaces the snapshot of the active notifications used when firing
+     * notifications. Must be called after every change of
+     * {@link #notifications} or of the active state of a notification.
+     */
+    private void updateActiveActions()
+    {
+        synchronized (notifications)
+        {
+            Map<String, List<NotificationAction>> active
+                = new HashMap<String, List<NotificationAction>>();
+
+            for (Map.Entry<String, Notification> entry
+                    : notifications.entrySet())
+            {
+                Notification notification = entry.getValue();
+
+                if (notification.isActive())
+                {
+                    active.put(
+                        entry.getKey(),
+                        Collections.unmodifiableList(
+                            new ArrayList<NotificationAction>(
+                                notification.getActions().values())));
+                }
+            }
+            activeActions = Collections.unmodifiableMap(active);
+        }
+    }
+
     /**
      * Adds an object that executes the actual action of a notification action.
      * If the same action type is added twice, the last added wins.
@@ -225,12 +360,13 @@ public void addNotificationChangeListener(
      */
     private void fireNotification(NotificationData data)
     {
-        Notification notification = notifications.get(data.getEventType());
+        List<NotificationAction> actions
+            = activeActions.get(data.getEventType());
 
-        if((notification == null) || !notification.isActive())
+        if(actions == null)
             return;
 
-        for(NotificationAction action : notification.getActions().values())
+        for(NotificationAction action : actions)
         {
             String actionType = action.getActionType();
 
@@ -368,9 +504,7 @@ public NotificationData fireNotification(
             byte[] icon,
             Map<String,Object> extras)
     {
-        Notification notification = notifications.get(eventType);
-
-        if ((notification == null) || !notification.isActive())
+        if (!activeActions.containsKey(eventType))
             return null;
 
         NotificationData data
@@ -518,18 +652,8 @@ private String getNotificationActionProperty(
         String property)
             throws IllegalArgumentException
     {
-        String eventTypeNodeName = null;
-        String actionTypeNodeName = null;
-
-        List<String> eventTypes = configService
-                .getPropertyNamesByPrefix(NOTIFICATIONS_PREFIX, true);
-
-        for (String eventTypeRootPropName : eventTypes)
-        {
-            String eType = configService.getString(eventTypeRootPropName);
-            if(eType.equals(eventType))
-                eventTypeNodeName = eventTypeRootPropName;
-        }
+        NotificationConfigIndex index = getConfigIndex();
+        String eventTypeNodeName = index.getEventNode(eventType);
 
         // If we didn't find the given event type in the configuration
         // there is not need to further check
@@ -538,18 +662,8 @@ private String getNotificationActionProperty(
             throw new IllegalArgumentException("Missing event type node");
         }
 
-        // Go through contained actions.
-        String actionPrefix = eventTypeNodeName + ".actions";
-
-        List<String> actionTypes = configService
-                .getPropertyNamesByPrefix(actionPrefix, true);
-
-        for (String actionTypeRootPropName : actionTypes)
-        {
-            String aType = configService.getString(actionTypeRootPropName);
-            if(aType.equals(action.getActionType()))
-                actionTypeNodeName = actionTypeRootPropName;
-        }
+        String actionTypeNodeName
+            = index.getActionNode(eventTypeNodeName, action.getActionType());
 
         // If we didn't find the given actionType in the configuration
         // there is no need to further check
@@ -600,41 +714,27 @@ public boolean isActive(String eventType)
 
     private boolean isDefault(String eventType, String actionType)
     {
-        List<String> eventTypes = configService
-                .getPropertyNamesByPrefix(NOTIFICATIONS_PREFIX, true);
-
-        for (String eventTypeRootPropName : eventTypes)
-        {
-            String eType
-                = configService.getString(eventTypeRootPropName);
+        NotificationConfigIndex index = getConfigIndex();
+        String eventTypeNodeName = index.getEventNode(eventType);
 
-            if(!eType.equals(eventType))
-                continue;
-
-            List<String> actions = configService
-                .getPropertyNamesByPrefix(
-                    eventTypeRootPropName + ".actions", true);
+        if(eventTypeNodeName == null)
+            return true;
 
-            for (String actionPropName : actions)
-            {
-                String aType
-                    = configService.getString(actionPropName);
+        String actionPropName
+            = index.getActionNode(eventTypeNodeName, actionType);
 
-                if(!aType.equals(actionType))
-                    continue;
+        if(actionPropName == null)
+            return true;
 
-                Object isDefaultdObj =
-                    configService.getProperty(actionPropName + ".default");
+        Object isDefaultdObj =
+            configService.getProperty(actionPropName + ".default");
 
-                // if setting is missing we accept it is true
-                // this way we override old saved settings
-                if(isDefaultdObj == null)
-                    return true;
-                else
-                    return Boolean.parseBoolean((String)isDefaultdObj);
-            }
-        }
-        return true;
+        // if setting is missing we accept it is true
+        // this way we override old saved settings
+        if(isDefaultdObj == null)
+            return true;
+        else
+            return Boolean.parseBoolean((String)isDefaultdObj);
     }
 
     private boolean isEnabled(String configProperty)
@@ -787,6 +887,7 @@ else if(actionType.equals(ACTION_VIBRATE))
                 notification.addAction(action);
             }
         }
+        updateActiveActions();
     }
 
     /**
@@ -830,6 +931,7 @@ public void registerDefaultNotificationForEvent(
             }
 
             notification.addAction(action);
+            updateActiveActions();
 
             // We fire the appropriate event depending on whether this is an
             // already existing actionType or a new one.
@@ -926,6 +1028,7 @@ else if (actionType.equals(ACTION_COMMAND))
             }
 
             notification.addAction(action);
+            updateActiveActions();
 
             // We fire the appropriate event depending on whether this is an
             // already existing actionType or a new one.
@@ -996,6 +1099,7 @@ public void registerNotificationForEvent(   String eventType,
         }
 
         Object existingAction = notification.addAction(action);
+        updateActiveActions();
 
         // We fire the appropriate event depending on whether this is an
         // already existing actionType or a new one.
@@ -1098,6 +1202,7 @@ public void removeActionHandler(String actionType)
     public void removeEventNotification(String eventType)
     {
         notifications.remove(eventType);
+        updateActiveActions();
 
         this.fireNotificationEventTypeEvent(
             EVENT_TYPE_REMOVED, eventType);
@@ -1127,6 +1232,7 @@ public void removeEventNotificationAction(  String eventType,
             return;
 
         notification.removeAction(actionType);
+        updateActiveActions();
 
         saveNotification(
             eventType,
@@ -1196,27 +1302,18 @@ private void saveNotification(  String eventType,
                                     boolean isActive,
                                     boolean isDefault)
     {
-        String eventTypeNodeName = null;
-        String actionTypeNodeName = null;
-
-        List<String> eventTypes = configService
-                .getPropertyNamesByPrefix(NOTIFICATIONS_PREFIX, true);
-
-        for (String eventTypeRootPropName : eventTypes)
-        {
-            String eType = configService.getString(eventTypeRootPropName);
-            if(eType.equals(eventType))
-                eventTypeNodeName = eventTypeRootPropName;
-        }
+        NotificationConfigIndex index = getConfigIndex();
+        String eventTypeNodeName = index.getEventNode(eventType);
 
         // If we didn't find the given event type in the configuration we save
         // it here.
         if(eventTypeNodeName == null)
         {
-            eventTypeNodeName = NOTIFICATIONS_PREFIX
-                                + ".eventType"
-                                + Long.toString(System.currentTimeMillis());
+            eventTypeNodeName = index.newNodeName(
+                NOTIFICATIONS_PREFIX + ".eventType");
 
+            index = updateConfigIndex(
+                index, index.withEventNode(eventType, eventTypeNodeName));
             configService.setProperty(eventTypeNodeName, eventType);
         }
 
@@ -1229,18 +1326,9 @@ private void saveNotification(  String eventType,
             return;
         }
 
-        // Go through contained actions.
         String actionPrefix = eventTypeNodeName + ".actions";
-
-        List<String> actionTypes = configService
-                .getPropertyNamesByPrefix(actionPrefix, true);
-
-        for (String actionTypeRootPropName : actionTypes)
-        {
-            String aType = configService.getString(actionTypeRootPropName);
-            if(aType.equals(action.getActionType()))
-                actionTypeNodeName = actionTypeRootPropName;
-        }
+        String actionTypeNodeName
+            = index.getActionNode(eventTypeNodeName, action.getActionType());
 
         Map<String, Object> configProperties = new HashMap<String, Object>();
 
@@ -1248,10 +1336,15 @@ private void saveNotification(  String eventType,
         // it here.
         if(actionTypeNodeName == null)
         {
-            actionTypeNodeName = actionPrefix
-                                    + ".actionType"
-                                    + Long.toString(System.currentTimeMillis());
-
+            actionTypeNodeName = index.newNodeName(
+                actionPrefix + ".actionType");
+
+            updateConfigIndex(
+                index,
+                index.withActionNode(
+                    eventTypeNodeName,
+                    action.getActionType(),
+                    actionTypeNodeName));
             configProperties.put(actionTypeNodeName, action.getActionType());
         }
 
@@ -1367,6 +1460,7 @@ public void setActive(String eventType, boolean isActive)
             return;
 
         eventNotification.setActive(isActive);
+        updateActiveActions();
         saveNotification(eventType, null, isActive, false);
     }
 
@@ -0,0 +1,364 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.notification;
+
+import static org.junit.Assert.*;
+
+import java.beans.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import org.jitsi.service.configuration.*;
+import org.junit.*;
+
+public class NotificationServiceImplTest
+{
+    private static final String PREFIX
+        = "net.java.sip.communicator.impl.notifications";
+
+    /**
+     * The properties of the stand-in configuration.
+     */
+    private final Map<String, Object> properties
+        = new TreeMap<String, Object>();
+
+    private final List<PropertyChangeListener> configListeners
+        = new ArrayList<PropertyChangeListener>();
+
+    /**
+     * The number of walks of the stand-in configuration.
+     */
+    private final AtomicInteger walks = new AtomicInteger();
+
+    /**
+     * The number of reads and writes of the stand-in configuration.
+     */
+    private final AtomicInteger accesses = new AtomicInteger();
+
+    /**
+     * The number of notifications received by the stand-in handlers.
+     */
+    private final AtomicInteger handled = new AtomicInteger();
+
+    private final ConfigurationService config = (ConfigurationService)
+        Proxy.newProxyInstance(
+            ConfigurationService.class.getClassLoader(),
+            new Class<?>[] { ConfigurationService.class },
+            (proxy, method, args) -> configCall(method.getName(), args));
+
+    private NotificationServiceImpl service;
+
+    @Before
+    public void setUp()
+    {
+        this.service = new NotificationServiceImpl(this.config);
+        for (String actionType : new String[] {
+            NotificationAction.ACTION_SOUND,
+            NotificationAction.ACTION_POPUP_MESSAGE,
+            NotificationAction.ACTION_LOG_MESSAGE,
+            NotificationAction.ACTION_COMMAND })
+        {
+            this.service.addActionHandler(handler(actionType));
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.service.dispose();
+    }
+
+    @Test
+    public void testRegistrationReadsConfigurationOnce()
+    {
+        this.walks.set(0);
+        registerDefaults(50);
+        // The configuration is walked once, when the first registration
+        // reads the index of the still empty configuration.
+        assertEquals(1, this.walks.get());
+        assertEquals(50, count(this.service.getRegisteredEvents()));
+
+        // Every event type and action has its own property.
+        final NotificationServiceImpl reloaded =
+            new NotificationServiceImpl(this.config);
+        try
+        {
+            assertEquals(50, count(reloaded.getRegisteredEvents()));
+            for (int i = 0; i < 50; i++)
+            {
+                assertNotNull(reloaded.getEventNotificationAction("Event" + i,
+                    NotificationAction.ACTION_SOUND));
+                assertNotNull(reloaded.getEventNotificationAction("Event" + i,
+                    NotificationAction.ACTION_POPUP_MESSAGE));
+            }
+        }
+        finally
+        {
+            reloaded.dispose();
+        }
+    }
+
+    /**
+     * Fire a burst of 1,000 notifications. No configuration is read or
+     * written and every notification reaches its handlers.
+     */
+    @Test
+    public void testFiringDoesNotAccessConfiguration()
+    {
+        registerDefaults(10);
+        this.accesses.set(0);
+        this.handled.set(0);
+        for (int i = 0; i < 1000; i++)
+        {
+            assertNotNull(this.service.fireNotification("Event" + (i % 10),
+                "title", "message " + i, null));
+        }
+        assertEquals(0, this.accesses.get());
+        assertEquals(2000, this.handled.get());
+        assertNull(this.service.fireNotification("Unknown"));
+    }
+
+    /**
+     * Times bursts of 100,000 notifications over 10 registered events. Skipped
+     * unless the <tt>benchmark</tt> system property is set.
+     */
+    @Test
+    public void testNotificationBurstBenchmark()
+    {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+
+        registerDefaults(10);
+        for (int round = 0; round < 5; round++)
+        {
+            this.handled.set(0);
+            final long start = System.nanoTime();
+            for (int i = 0; i < 100000; i++)
+            {
+                this.service.fireNotification("Event" + (i % 10),
+                    "title", "message", null);
+            }
+            final long time = System.nanoTime() - start;
+            assertEquals(200000, this.handled.get());
+            System.out.println("Burst of 100000 notifications: "
+                + time / 1000000 + " ms");
+        }
+    }
+
+    @Test
+    public void testChangesAreVisibleToFiring()
+    {
+        registerDefaults(1);
+        this.service.setActive("Event0", false);
+        assertNull(this.service.fireNotification("Event0"));
+        this.service.setActive("Event0", true);
+        this.handled.set(0);
+        assertNotNull(this.service.fireNotification("Event0"));
+        assertEquals(2, this.handled.get());
+
+        this.service.removeEventNotificationAction("Event0",
+            NotificationAction.ACTION_SOUND);
+        this.handled.set(0);
+        this.service.fireNotification("Event0");
+        assertEquals(1, this.handled.get());
+
+        this.service.removeEventNotification("Event0");
+        assertNull(this.service.fireNotification("Event0"));
+    }
+
+    /**
+     * Notification properties saved by someone else than the service are
+     * seen by the next registration.
+     */
+    @Test
+    public void testExternalChangeIsNoticed()
+    {
+        registerDefaults(1);
+        final String event = PREFIX + ".eventType1";
+        final String action = event + ".actions.actionType1";
+        setProperty(event, "Edited");
+        setProperty(action, NotificationAction.ACTION_SOUND);
+        setProperty(action + ".default", "false");
+        this.walks.set(0);
+
+        // The edited notification is not overridden by the default.
+        this.service.registerDefaultNotificationForEvent("Edited",
+            NotificationAction.ACTION_SOUND, "edited.wav", null);
+        assertNull(this.service.getEventNotificationAction("Edited",
+            NotificationAction.ACTION_SOUND));
+        // The index has been read again: one walk of the event types and one
+        // of the actions of each of the two event types.
+        assertEquals(3, this.walks.get());
+
+        this.service.registerDefaultNotificationForEvent("Other",
+            NotificationAction.ACTION_SOUND, "other.wav", null);
+        assertNotNull(this.service.getEventNotificationAction("Other",
+            NotificationAction.ACTION_SOUND));
+        assertEquals(3, this.walks.get());
+    }
+
+    private void registerDefaults(final int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            this.service.registerDefaultNotificationForEvent("Event" + i,
+                new SoundNotificationAction("sound" + i + ".wav", -1, true,
+                    false, false));
+            this.service.registerDefaultNotificationForEvent("Event" + i,
+                NotificationAction.ACTION_POPUP_MESSAGE, null, "message");
+        }
+    }
+
+    private NotificationHandler handler(final String actionType)
+    {
+        final Class<?> type;
+        if (NotificationAction.ACTION_SOUND.equals(actionType))
+        {
+            type = SoundNotificationHandler.class;
+        }
+        else if (NotificationAction.ACTION_POPUP_MESSAGE.equals(actionType))
+        {
+            type = PopupMessageNotificationHandler.class;
+        }
+        else if (NotificationAction.ACTION_LOG_MESSAGE.equals(actionType))
+        {
+            type = LogMessageNotificationHandler.class;
+        }
+        else
+        {
+            type = CommandNotificationHandler.class;
+        }
+        return (NotificationHandler) Proxy.newProxyInstance(
+            type.getClassLoader(), new Class<?>[] { type },
+            (proxy, method, args) -> {
+                switch (method.getName())
+                {
+                case "getActionType":
+                    return actionType;
+                case "isMute":
+                case "isPlaying":
+                    return false;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    this.handled.incrementAndGet();
+                    return null;
+                }
+            });
+    }
+
+    private void setProperty(final String name, final Object value)
+    {
+        final Object old = this.properties.put(name, value);
+        for (PropertyChangeListener listener
+                : new ArrayList<PropertyChangeListener>(this.configListeners))
+        {
+            listener.propertyChange(
+                new PropertyChangeEvent(this.config, name, old, value));
+        }
+    }
+
+    private Object configCall(final String name, final Object[] args)
+    {
+        switch (name)
+        {
+        case "addPropertyChangeListener":
+            this.configListeners.add((PropertyChangeListener) args[0]);
+            return null;
+        case "removePropertyChangeListener":
+            this.configListeners.remove(args[0]);
+            return null;
+        case "hashCode":
+            return 0;
+        default:
+            break;
+        }
+
+        this.accesses.incrementAndGet();
+        switch (name)
+        {
+        case "getPropertyNamesByPrefix":
+        {
+            this.walks.incrementAndGet();
+            final String prefix = (String) args[0];
+            final List<String> names = new ArrayList<String>();
+            for (String property : this.properties.keySet())
+            {
+                final int end = property.lastIndexOf('.');
+                if (end >= 0 && property.substring(0, end).equals(prefix))
+                {
+                    names.add(property);
+                }
+            }
+            return names;
+        }
+        case "setProperty":
+            setProperty((String) args[0], args[1]);
+            return null;
+        case "setProperties":
+        {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> map = (Map<String, Object>) args[0];
+            for (Map.Entry<String, Object> e : map.entrySet())
+            {
+                setProperty(e.getKey(), e.getValue());
+            }
+            return null;
+        }
+        case "getProperty":
+            return this.properties.get(args[0]);
+        case "getString":
+        {
+            final Object value = this.properties.get(args[0]);
+            return value == null
+                ? (args.length > 1 ? args[1] : null) : value.toString();
+        }
+        case "getBoolean":
+        {
+            final Object value = this.properties.get(args[0]);
+            return value == null
+                ? args[1] : Boolean.valueOf(value.toString());
+        }
+        case "getInt":
+        {
+            final Object value = this.properties.get(args[0]);
+            return value == null
+                ? args[1] : Integer.valueOf(value.toString());
+        }
+        case "getLong":
+        {
+            final Object value = this.properties.get(args[0]);
+            return value == null ? args[1] : Long.valueOf(value.toString());
+        }
+        default:
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    private static int count(final Iterable<?> iterable)
+    {
+        int count = 0;
+        for (Object o : iterable)
+        {
+            count++;
+        }
+        return count;
+    }
+}
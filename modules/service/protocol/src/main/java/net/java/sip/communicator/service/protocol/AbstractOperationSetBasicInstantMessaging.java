@@ -44,8 +44,8 @@
     /**
      * A list of listeners registered for message events.
      */
-    private final List<MessageListener> messageListeners =
-        new LinkedList<MessageListener>();
+    private final EventListenerDispatcher<MessageListener> messageListeners
+        = new EventListenerDispatcher<MessageListener>();
 
     /**
      * Registers a MessageListener with this operation set so that it gets
@@ -56,13 +56,20 @@
      */
     public void addMessageListener(MessageListener listener)
     {
-        synchronized (messageListeners)
-        {
-            if (!messageListeners.contains(listener))
-            {
-                messageListeners.add(listener);
-            }
-        }
+        messageListeners.add(listener);
+    }
+
+    /**
+     * Delivers the message events to every listener in a serial executor of
+     * its own instead of the thread which fires them, such that a slow
+     * listener does not hold up the protocol stack. Disabled by default, see
+     * {@link EventListenerDispatcher#PNAME_ASYNCHRONOUS_DELIVERY}.
+     *
+     * @param asynchronous <tt>true</tt> to deliver the events asynchronously
+     */
+    protected void setAsynchronousEventDelivery(boolean asynchronous)
+    {
+        messageListeners.setAsynchronous(asynchronous);
     }
 
     /**
@@ -176,15 +183,9 @@ protected void fireMessageDeliveryFailed(
      */
     protected void fireMessageEvent(EventObject evt)
     {
-        Collection<MessageListener> listeners = null;
-        synchronized (this.messageListeners)
-        {
-            listeners = new ArrayList<MessageListener>(this.messageListeners);
-        }
-
         if (logger.isDebugEnabled())
-            logger.debug("Dispatching Message Listeners=" + listeners.size()
-            + " evt=" + evt);
+            logger.debug("Dispatching Message Listeners="
+            + messageListeners.size() + " evt=" + evt);
 
         /*
          * TODO Create a super class like this MessageEventObject that would
@@ -215,27 +216,27 @@ else if (evt instanceof MessageDeliveryFailedEvent)
                 if (event == null)
                     return;
 
-                for (MessageListener listener : listeners)
+                switch (eventType)
                 {
-                    switch (eventType)
-                    {
-                    case MessageDelivered:
-                        listener.messageDelivered((MessageDeliveredEvent) event);
-                        break;
-                    case MessageDeliveryFailed:
-                        listener
-                            .messageDeliveryFailed((MessageDeliveryFailedEvent) event);
-                        break;
-                    case MessageReceived:
-                        listener.messageReceived((MessageReceivedEvent) event);
-                        break;
-                    default:
-                        /*
-                         * We either have nothing to do or we do not know what
-                         * to do. Anyway, we'll silence the compiler.
-                         */
-                        break;
-                    }
+                case MessageDelivered:
+                    messageListeners.fire(MessageListener::messageDelivered,
+                        (MessageDeliveredEvent) event);
+                    break;
+                case MessageDeliveryFailed:
+                    messageListeners.fire(
+                        MessageListener::messageDeliveryFailed,
+                        (MessageDeliveryFailedEvent) event);
+                    break;
+                case MessageReceived:
+                    messageListeners.fire(MessageListener::messageReceived,
+                        (MessageReceivedEvent) event);
+                    break;
+                default:
+                    /*
+                     * We either have nothing to do or we do not know what to
+                     * do. Anyway, we'll silence the compiler.
+                     */
+                    break;
                 }
             }
             catch (Throwable e)
@@ -267,10 +268,7 @@ protected void fireMessageReceived(Message message, Contact from)
      */
     public void removeMessageListener(MessageListener listener)
     {
-        synchronized (messageListeners)
-        {
-            messageListeners.remove(listener);
-        }
+        messageListeners.remove(listener);
     }
 
     /**
@@ -342,79 +340,100 @@ private EventObject[] messageTransform(final EventObject evt,
         if (opSetMessageTransform == null)
             return new EventObject[] {evt};
 
+        TransformLayer[] layers = opSetMessageTransform.getTransformLayers();
+        if (layers.length == 0)
+            return new EventObject[] {evt};
+
+        if (eventType != MessageEventType.MessageDeliveryPending)
+        {
+            // Every layer turns one event into at most one event.
+            EventObject event = evt;
+            for (TransformLayer transformLayer : layers)
+            {
+                event = transform(transformLayer, event, eventType);
+                if (event == null)
+                    return new EventObject[0];
+            }
+            return new EventObject[] {event};
+        }
+
         // 'current' contains the events that need to be transformed. It should
         // not contain null values.
-        final LinkedList<EventObject> current = new LinkedList<EventObject>();
-        // Add source event as start of transformation.
-        current.add(evt);
-        // 'next' contains the resulting events after transformation in the
-        // current iteration. It should not contain null values.
-        final LinkedList<EventObject> next = new LinkedList<EventObject>();
-        for (Map.Entry<Integer, Vector<TransformLayer>> entry
-                : opSetMessageTransform.transformLayers.entrySet())
+        MessageDeliveredEvent[] current = {(MessageDeliveredEvent) evt};
+        for (TransformLayer transformLayer : layers)
         {
-            for (TransformLayer transformLayer : entry.getValue())
+            // 'next' contains the resulting events after transformation in the
+            // current iteration, or null as long as the layer returned each
+            // event unchanged.
+            List<MessageDeliveredEvent> next = null;
+            for (int i = 0; i < current.length; i++)
             {
-                next.clear();
-                while (!current.isEmpty())
+                MessageDeliveredEvent[] evts
+                    = transformLayer.messageDeliveryPending(current[i]);
+                if (next == null)
+                {
+                    if (evts != null
+                            && evts.length == 1
+                            && evts[0] == current[i])
+                        continue;
+                    next = new ArrayList<MessageDeliveredEvent>(
+                        current.length);
+                    for (int j = 0; j < i; j++)
+                        next.add(current[j]);
+                }
+                if (evts != null)
                 {
-                    final EventObject event = current.remove();
-                    switch (eventType)
+                    for (MessageDeliveredEvent mde : evts)
                     {
-                    case MessageDelivered:
-                        MessageDeliveredEvent transformedDelivered =
-                            transformLayer.messageDelivered(
-                                (MessageDeliveredEvent) event);
-                        if (transformedDelivered != null)
-                        {
-                            next.add(transformedDelivered);
-                        }
-                        break;
-                    case MessageDeliveryPending:
-                        MessageDeliveredEvent[] evts = transformLayer
-                            .messageDeliveryPending(
-                                (MessageDeliveredEvent) event);
-                        for (MessageDeliveredEvent mde : evts)
-                        {
-                            if (mde != null)
-                            {
-                                next.add(mde);
-                            }
-                        }
-                        break;
-                    case MessageDeliveryFailed:
-                        MessageDeliveryFailedEvent transformedDeliveryFailed =
-                            transformLayer.messageDeliveryFailed(
-                                (MessageDeliveryFailedEvent) event);
-                        if (transformedDeliveryFailed != null)
-                        {
-                            next.add(transformedDeliveryFailed);
-                        }
-                        break;
-                    case MessageReceived:
-                        MessageReceivedEvent transformedReceived =
-                            transformLayer
-                                .messageReceived((MessageReceivedEvent) event);
-                        if (transformedReceived != null)
-                        {
-                            next.add(transformedReceived);
-                        }
-                        break;
-                    default:
-                        next.add(event);
-                        /*
-                         * We either have nothing to do or we do not know
-                         * what to do. Anyway, we'll silence the compiler.
-                         */
-                        break;
+                        if (mde != null)
+                            next.add(mde);
                     }
                 }
-                // Set events for next round of transformations.
-                current.addAll(next);
+            }
+            // Set events for next round of transformations.
+            if (next != null)
+            {
+                if (next.isEmpty())
+                    return new EventObject[0];
+                current = next.toArray(new MessageDeliveredEvent[next.size()]);
             }
         }
 
-        return current.toArray(new EventObject[current.size()]);
+        return current;
+    }
+
+    /**
+     * Transforms an event with a single transform layer.
+     *
+     * @param transformLayer the layer to transform the event with
+     * @param event the event to transform
+     * @param eventType the type of the event, other than
+     * <tt>MessageDeliveryPending</tt>
+     * @return the transformed event, which is <tt>event</tt> itself if the
+     * layer did not change it, or <tt>null</tt> if the layer dropped it
+     */
+    private static EventObject transform(TransformLayer transformLayer,
+                                         EventObject event,
+                                         MessageEventType eventType)
+    {
+        switch (eventType)
+        {
+        case MessageDelivered:
+            return transformLayer.messageDelivered(
+                (MessageDeliveredEvent) event);
+        case MessageDeliveryFailed:
+            return transformLayer.messageDeliveryFailed(
+                (MessageDeliveryFailedEvent) event);
+        case MessageReceived:
+            return transformLayer.messageReceived(
+                (MessageReceivedEvent) event);
+        default:
+            /*
+             * We either have nothing to do or we do not know what to do.
+             * Anyway, we'll silence the compiler.
+             */
+            return event;
+        }
     }
 
     /**
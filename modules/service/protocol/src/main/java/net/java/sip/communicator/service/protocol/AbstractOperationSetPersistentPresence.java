@@ -18,7 +18,6 @@
 package net.java.sip.communicator.service.protocol;
 
 import java.beans.*;
-import java.util.*;
 
 import net.java.sip.communicator.service.protocol.event.*;
 
@@ -44,8 +43,9 @@
      * A list of listeners registered for
      * <tt>ContactPresenceStatusChangeEvent</tt>s.
      */
-    private final List<ContactPresenceStatusListener> contactPresenceStatusListeners
-        = new Vector<ContactPresenceStatusListener>();
+    private final EventListenerDispatcher<ContactPresenceStatusListener>
+        contactPresenceStatusListeners
+        = new EventListenerDispatcher<ContactPresenceStatusListener>();
 
     /**
      * The provider that created us.
@@ -56,20 +56,23 @@
      * A list of listeners registered for
      *  <tt>ProviderPresenceStatusChangeEvent</tt>s.
      */
-    private final List<ProviderPresenceStatusListener> providerPresenceStatusListeners
-        = new Vector<ProviderPresenceStatusListener>();
+    private final EventListenerDispatcher<ProviderPresenceStatusListener>
+        providerPresenceStatusListeners
+        = new EventListenerDispatcher<ProviderPresenceStatusListener>();
 
     /**
      * A list of listeners registered for <tt>ServerStoredGroupChangeEvent</tt>s.
      */
-    private final List<ServerStoredGroupListener> serverStoredGroupListeners
-        = new Vector<ServerStoredGroupListener>();
+    private final EventListenerDispatcher<ServerStoredGroupListener>
+        serverStoredGroupListeners
+        = new EventListenerDispatcher<ServerStoredGroupListener>();
 
     /**
      * The list of listeners interested in <tt>SubscriptionEvent</tt>s.
      */
-    private final List<SubscriptionListener> subscriptionListeners
-        = new Vector<SubscriptionListener>();
+    private final EventListenerDispatcher<SubscriptionListener>
+        subscriptionListeners
+        = new EventListenerDispatcher<SubscriptionListener>();
 
     /**
      * Initializes a new <tt>AbstractOperationSetPersistentPresence</tt>
@@ -83,6 +86,22 @@ protected AbstractOperationSetPersistentPresence(T parentProvider)
         this.parentProvider = parentProvider;
     }
 
+    /**
+     * Delivers the presence events to every listener in a serial executor of
+     * its own instead of the thread which fires them, such that a slow
+     * listener does not hold up the protocol stack. Disabled by default, see
+     * {@link EventListenerDispatcher#PNAME_ASYNCHRONOUS_DELIVERY}.
+     *
+     * @param asynchronous <tt>true</tt> to deliver the events asynchronously
+     */
+    protected void setAsynchronousEventDelivery(boolean asynchronous)
+    {
+        contactPresenceStatusListeners.setAsynchronous(asynchronous);
+        providerPresenceStatusListeners.setAsynchronous(asynchronous);
+        serverStoredGroupListeners.setAsynchronous(asynchronous);
+        subscriptionListeners.setAsynchronous(asynchronous);
+    }
+
     /**
      * Implementation of the corresponding ProtocolProviderService
      * method.
@@ -92,11 +111,7 @@ protected AbstractOperationSetPersistentPresence(T parentProvider)
     public void addContactPresenceStatusListener(
         ContactPresenceStatusListener listener)
     {
-        synchronized (contactPresenceStatusListeners)
-        {
-            if (!contactPresenceStatusListeners.contains(listener))
-                contactPresenceStatusListeners.add(listener);
-        }
+        contactPresenceStatusListeners.add(listener);
     }
 
     /**
@@ -109,11 +124,7 @@ public void addContactPresenceStatusListener(
     public void addProviderPresenceStatusListener(
         ProviderPresenceStatusListener listener)
     {
-        synchronized (providerPresenceStatusListeners)
-        {
-            if (!providerPresenceStatusListeners.contains(listener))
-                providerPresenceStatusListeners.add(listener);
-        }
+        providerPresenceStatusListeners.add(listener);
     }
 
     /**
@@ -127,20 +138,12 @@ public void addProviderPresenceStatusListener(
     public void addServerStoredGroupChangeListener(
         ServerStoredGroupListener listener)
     {
-        synchronized (serverStoredGroupListeners)
-        {
-            if (!serverStoredGroupListeners.contains(listener))
-                serverStoredGroupListeners.add(listener);
-        }
+        serverStoredGroupListeners.add(listener);
     }
 
     public void addSubscriptionListener(SubscriptionListener listener)
     {
-        synchronized (subscriptionListeners)
-        {
-            if (!subscriptionListeners.contains(listener))
-                subscriptionListeners.add(listener);
-        }
+        subscriptionListeners.add(listener);
     }
 
     /**
@@ -195,21 +198,13 @@ public void fireContactPresenceStatusChangeEvent(Contact source,
                     newValue,
                     isResourceChange);
 
-        Collection<ContactPresenceStatusListener> listeners;
-        synchronized (contactPresenceStatusListeners)
-        {
-            listeners =
-                new ArrayList<ContactPresenceStatusListener>(
-                        contactPresenceStatusListeners);
-        }
-
         if (logger.isDebugEnabled())
             logger.debug(
-            "Dispatching Contact Status Change. Listeners=" + listeners.size()
-                + " evt=" + evt);
+            "Dispatching Contact Status Change. Listeners="
+                + contactPresenceStatusListeners.size() + " evt=" + evt);
 
-        for (ContactPresenceStatusListener listener : listeners)
-            listener.contactPresenceStatusChanged(evt);
+        contactPresenceStatusListeners.fire(
+            ContactPresenceStatusListener::contactPresenceStatusChanged, evt);
     }
 
     /**
@@ -234,19 +229,11 @@ public void fireContactPropertyChangeEvent(String eventID, Contact source,
                     oldValue,
                     newValue);
 
-        Collection<SubscriptionListener> listeners;
-        synchronized (subscriptionListeners)
-        {
-            listeners
-                = new ArrayList<SubscriptionListener>(subscriptionListeners);
-        }
-
         if (logger.isDebugEnabled())
             logger.debug("Dispatching a Contact Property Change Event to"
-            + listeners.size() + " listeners. Evt=" + evt);
+            + subscriptionListeners.size() + " listeners. Evt=" + evt);
 
-        for (SubscriptionListener listener : listeners)
-            listener.contactModified(evt);
+        subscriptionListeners.fire(SubscriptionListener::contactModified, evt);
     }
 
     /**
@@ -278,22 +265,14 @@ protected void fireProviderStatusChangeEvent(
                     oldValue,
                     newValue);
 
-        Collection<ProviderPresenceStatusListener> listeners;
-        synchronized (providerPresenceStatusListeners)
-        {
-            listeners
-                = new ArrayList<ProviderPresenceStatusListener>(
-                        providerPresenceStatusListeners);
-        }
-
         if (logger.isDebugEnabled())
             logger.debug(
             "Dispatching Provider Status Change. Listeners="
-                + listeners.size()
+                + providerPresenceStatusListeners.size()
                 + " evt=" + evt);
 
-        for (ProviderPresenceStatusListener listener : listeners)
-            listener.providerStatusChanged(evt);
+        providerPresenceStatusListeners.fire(
+            ProviderPresenceStatusListener::providerStatusChanged, evt);
 
         if (logger.isDebugEnabled())
             logger.debug("status dispatching done.");
@@ -319,22 +298,14 @@ protected void fireProviderStatusMessageChangeEvent(
                     oldStatusMessage,
                     newStatusMessage);
 
-        Collection<ProviderPresenceStatusListener> listeners;
-        synchronized (providerPresenceStatusListeners)
-        {
-            listeners
-                = new ArrayList<ProviderPresenceStatusListener>(
-                        providerPresenceStatusListeners);
-        }
-
         if (logger.isDebugEnabled())
             logger.debug(
             "Dispatching  stat. msg change. Listeners="
-                + listeners.size()
+                + providerPresenceStatusListeners.size()
                 + " evt=" + evt);
 
-        for (ProviderPresenceStatusListener listener : listeners)
-            listener.providerStatusMessageChanged(evt);
+        providerPresenceStatusListeners.fire(
+            ProviderPresenceStatusListener::providerStatusMessageChanged, evt);
     }
 
     /**
@@ -355,27 +326,20 @@ protected void fireServerStoredGroupEvent(
                     parentProvider,
                     this);
 
-        Iterable<ServerStoredGroupListener> listeners;
-        synchronized (serverStoredGroupListeners)
-        {
-            listeners
-                = new ArrayList<ServerStoredGroupListener>(
-                        serverStoredGroupListeners);
-        }
-
-        for (ServerStoredGroupListener listener : listeners)
-            switch (eventID)
+        serverStoredGroupListeners.fire((listener, e) -> {
+            switch (e.getEventID())
             {
             case ServerStoredGroupEvent.GROUP_CREATED_EVENT:
-                listener.groupCreated(evt);
+                listener.groupCreated(e);
                 break;
             case ServerStoredGroupEvent.GROUP_RENAMED_EVENT:
-                listener.groupNameChanged(evt);
+                listener.groupNameChanged(e);
                 break;
             case ServerStoredGroupEvent.GROUP_REMOVED_EVENT:
-                listener.groupRemoved(evt);
+                listener.groupRemoved(e);
                 break;
             }
+        }, evt);
     }
 
     /**
@@ -404,33 +368,27 @@ public void fireSubscriptionEvent(Contact source, ContactGroup parentGroup,
                     errorCode,
                     errorReason);
 
-        Collection<SubscriptionListener> listeners;
-        synchronized (subscriptionListeners)
-        {
-            listeners =
-                new ArrayList<SubscriptionListener>(subscriptionListeners);
-        }
-
         if (logger.isDebugEnabled())
-            logger.debug("Dispatching a Subscription Event to" + listeners.size()
-            + " listeners. Evt=" + evt);
+            logger.debug("Dispatching a Subscription Event to"
+            + subscriptionListeners.size() + " listeners. Evt=" + evt);
 
-        for (SubscriptionListener listener : listeners)
-            switch (eventID)
+        subscriptionListeners.fire((listener, e) -> {
+            switch (e.getEventID())
             {
             case SubscriptionEvent.SUBSCRIPTION_CREATED:
-                listener.subscriptionCreated(evt);
+                listener.subscriptionCreated(e);
                 break;
             case SubscriptionEvent.SUBSCRIPTION_FAILED:
-                listener.subscriptionFailed(evt);
+                listener.subscriptionFailed(e);
                 break;
             case SubscriptionEvent.SUBSCRIPTION_REMOVED:
-                listener.subscriptionRemoved(evt);
+                listener.subscriptionRemoved(e);
                 break;
             case SubscriptionEvent.SUBSCRIPTION_RESOLVED:
-                listener.subscriptionResolved(evt);
+                listener.subscriptionResolved(e);
                 break;
             }
+        }, evt);
     }
 
     /**
@@ -448,19 +406,11 @@ public void fireSubscriptionMovedEvent(Contact source,
             new SubscriptionMovedEvent(source, parentProvider, oldParent,
                 newParent);
 
-        Collection<SubscriptionListener> listeners;
-        synchronized (subscriptionListeners)
-        {
-            listeners
-                = new ArrayList<SubscriptionListener>(subscriptionListeners);
-        }
-
         if (logger.isDebugEnabled())
-            logger.debug("Dispatching a Subscription Event to" + listeners.size()
-            + " listeners. Evt=" + evt);
+            logger.debug("Dispatching a Subscription Event to"
+            + subscriptionListeners.size() + " listeners. Evt=" + evt);
 
-        for (SubscriptionListener listener : listeners)
-            listener.subscriptionMoved(evt);
+        subscriptionListeners.fire(SubscriptionListener::subscriptionMoved, evt);
     }
 
     /**
@@ -472,10 +422,7 @@ public void fireSubscriptionMovedEvent(Contact source,
     public void removeContactPresenceStatusListener(
         ContactPresenceStatusListener listener)
     {
-        synchronized (contactPresenceStatusListeners)
-        {
-            contactPresenceStatusListeners.remove(listener);
-        }
+        contactPresenceStatusListeners.remove(listener);
     }
 
     /**
@@ -488,10 +435,7 @@ public void removeContactPresenceStatusListener(
     public void removeProviderPresenceStatusListener(
         ProviderPresenceStatusListener listener)
     {
-        synchronized (providerPresenceStatusListeners)
-        {
-            providerPresenceStatusListeners.remove(listener);
-        }
+        providerPresenceStatusListeners.remove(listener);
     }
 
     /**
@@ -503,10 +447,7 @@ public void removeProviderPresenceStatusListener(
     public void removeServerStoredGroupChangeListener(
         ServerStoredGroupListener listener)
     {
-        synchronized (serverStoredGroupListeners)
-        {
-            serverStoredGroupListeners.remove(listener);
-        }
+        serverStoredGroupListeners.remove(listener);
     }
 
     /**
@@ -516,10 +457,7 @@ public void removeServerStoredGroupChangeListener(
      */
     public void removeSubscriptionListener(SubscriptionListener listener)
     {
-        synchronized (subscriptionListeners)
-        {
-            subscriptionListeners.remove(listener);
-        }
+        subscriptionListeners.remove(listener);
     }
 
     /**
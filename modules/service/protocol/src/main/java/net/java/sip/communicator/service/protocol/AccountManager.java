@@ -18,6 +18,8 @@
 package net.java.sip.communicator.service.protocol;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import net.java.sip.communicator.service.credentialsstorage.*;
 import net.java.sip.communicator.service.protocol.event.*;
@@ -69,6 +71,19 @@
      */
     private Thread loadStoredAccountsThread;
 
+    /**
+     * The maximum number of <tt>ProtocolProviderFactory</tt> services loading
+     * their stored accounts at the same time.
+     */
+    private static final int LOAD_STORED_ACCOUNTS_THREADS
+        = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The threads loading the stored accounts, one
+     * <tt>ProtocolProviderFactory</tt> per thread.
+     */
+    private final ThreadPoolExecutor loadStoredAccountsExecutor;
+
     /**
      * The <tt>Logger</tt> used by this <tt>AccountManagerImpl</tt> instance for
      * logging output.
@@ -98,6 +113,19 @@ public AccountManager(BundleContext bundleContext)
     {
         this.bundleContext = bundleContext;
 
+        final AtomicInteger threadCount = new AtomicInteger();
+        loadStoredAccountsExecutor = new ThreadPoolExecutor(
+            LOAD_STORED_ACCOUNTS_THREADS, LOAD_STORED_ACCOUNTS_THREADS,
+            LOAD_STORED_ACCOUNTS_TIMEOUT, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            r -> {
+                Thread t = new Thread(r, "AccountManager.loadAccounts-"
+                    + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        loadStoredAccountsExecutor.allowCoreThreadTimeOut(true);
+
         this.bundleContext.addServiceListener(new ServiceListener()
         {
             public void serviceChanged(ServiceEvent serviceEvent)
@@ -121,69 +149,65 @@ public void addListener(AccountManagerListener listener)
     }
 
     /**
-     * Loads the accounts stored for a specific
-     * <tt>ProtocolProviderFactory</tt>.
+     * Creates the accounts stored for a specific
+     * <tt>ProtocolProviderFactory</tt>. The names of the account properties
+     * are read with a single prefix query and grouped by account.
      *
      * @param factory the <tt>ProtocolProviderFactory</tt> to load the
      *            stored accounts of
+     * @return the accounts which are not disabled, in the order in which they
+     *         are stored
      */
-    private void doLoadStoredAccounts(ProtocolProviderFactory factory)
+    private List<AccountID> doLoadStoredAccounts(
+        ProtocolProviderFactory factory)
     {
         ConfigurationService configService
             = ProtocolProviderActivator.getConfigurationService();
         String factoryPackage = getFactoryImplPackageName(factory);
-        List<String> accounts
-            = configService.getPropertyNamesByPrefix(factoryPackage, true);
+        Map<String, List<String>> accounts
+            = groupStoredAccounts(factoryPackage,
+                configService.getPropertyNamesByPrefix(factoryPackage, false));
 
         if (logger.isDebugEnabled())
             logger.debug("Discovered " + accounts.size() + " stored "
                     + factoryPackage + " accounts");
 
-        for (Iterator<String> storedAccountIter = accounts.iterator();
-                storedAccountIter.hasNext();)
+        CredentialsStorageService credentialsStorage = null;
+        List<AccountID> enabledAccounts = new ArrayList<AccountID>();
+        for (Map.Entry<String, List<String>> storedAccountEntry
+                : accounts.entrySet())
         {
-            String storedAccount = storedAccountIter.next();
-
-            // If the property is not related to an account we skip it.
-            int dotIndex = storedAccount.lastIndexOf(".");
-            if (!storedAccount.substring(dotIndex + 1)
-                    .startsWith(ACCOUNT_UID_PREFIX))
-                continue;
+            String storedAccount = storedAccountEntry.getKey();
 
             if (logger.isDebugEnabled())
                 logger.debug("Loading account " + storedAccount);
 
-            List<String> storedAccountProperties =
-                configService.getPropertyNamesByPrefix(storedAccount, false);
             Map<String, String> accountProperties =
                 new Hashtable<String, String>();
             boolean disabled = false;
-            CredentialsStorageService credentialsStorage
-                = ServiceUtils.getService(
-                        bundleContext,
-                        CredentialsStorageService.class);
 
             int prefLen = storedAccount.length() + 1;
-            for (Iterator<String> storedAccountPropertyIter
-                        = storedAccountProperties.iterator();
-                    storedAccountPropertyIter.hasNext();)
+            for (String property : storedAccountEntry.getValue())
             {
-                String property = storedAccountPropertyIter.next();
                 String value = configService.getString(property);
 
                 //strip the package prefix
-                if(prefLen > property.length())
-                    continue;
-
                 property = property.substring(prefLen);
 
                 if (ProtocolProviderFactory.IS_ACCOUNT_DISABLED.equals(property))
                     disabled = Boolean.parseBoolean(value);
                 // Decode passwords.
-                else if (ProtocolProviderFactory.PASSWORD.equals(property)
-                        && !credentialsStorage.isStoredEncrypted(storedAccount))
+                else if (ProtocolProviderFactory.PASSWORD.equals(property))
                 {
-                    if ((value != null) && value.length() != 0)
+                    if (credentialsStorage == null)
+                    {
+                        credentialsStorage = ServiceUtils.getService(
+                            bundleContext,
+                            CredentialsStorageService.class);
+                    }
+
+                    if (!credentialsStorage.isStoredEncrypted(storedAccount)
+                        && (value != null) && value.length() != 0)
                     {
 
                         /*
@@ -212,7 +236,7 @@ else if (ProtocolProviderFactory.PASSWORD.equals(property)
                     storedAccounts.add(accountID);
                 }
                 if (!disabled)
-                    factory.loadAccount(accountID);
+                    enabledAccounts.add(accountID);
             }
             catch (Exception ex)
             {
@@ -223,13 +247,98 @@ else if (ProtocolProviderFactory.PASSWORD.equals(property)
                 logger.error("Failed to load account " + accountProperties, ex);
             }
             catch (ExceptionInInitializerError ex)
+            {
+                logger.error(
+                    "Failed to create account for " + accountProperties, ex);
+            }
+        }
+        return enabledAccounts;
+    }
+
+    /**
+     * Groups the names of the properties of stored accounts by account. The
+     * account nodes are the properties named <tt>acc...</tt> directly below
+     * the package of the factory, and the properties of an account are all
+     * properties below its node.
+     *
+     * @param factoryPackage the package name of the factory
+     * @param propertyNames the names of the properties below
+     *            <tt>factoryPackage</tt>
+     * @return the names of the account properties by account node, in the
+     *         order of <tt>propertyNames</tt>
+     */
+    static Map<String, List<String>> groupStoredAccounts(
+        String factoryPackage, List<String> propertyNames)
+    {
+        int packageLen = factoryPackage.length() + 1;
+        Map<String, List<String>> accounts
+            = new LinkedHashMap<String, List<String>>();
+        for (String name : propertyNames)
+        {
+            // If the property is not related to an account we skip it.
+            if (name.length() > packageLen
+                && name.startsWith(factoryPackage)
+                && name.charAt(packageLen - 1) == '.'
+                && name.indexOf('.', packageLen) < 0
+                && name.startsWith(ACCOUNT_UID_PREFIX, packageLen))
+            {
+                accounts.put(name, new ArrayList<String>());
+            }
+        }
+
+        for (String name : propertyNames)
+        {
+            int dotIndex = name.indexOf('.', packageLen);
+            if (dotIndex > 0 && dotIndex < name.length() - 1)
+            {
+                List<String> properties
+                    = accounts.get(name.substring(0, dotIndex));
+                if (properties != null)
+                    properties.add(name);
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * Loads accounts of a specific <tt>ProtocolProviderFactory</tt> one after
+     * the other. Runs in {@link #loadStoredAccountsExecutor}.
+     *
+     * @param factory the <tt>ProtocolProviderFactory</tt> of the accounts
+     * @param accountIDs the accounts to load
+     */
+    private void loadAccounts(
+        ProtocolProviderFactory factory,
+        List<AccountID> accountIDs)
+    {
+        long start = System.currentTimeMillis();
+        for (AccountID accountID : accountIDs)
+        {
+            try
+            {
+                factory.loadAccount(accountID);
+            }
+            catch (Exception ex)
+            {
+                /*
+                 * Swallow the exception in order to prevent a single account
+                 * from halting the loading of subsequent accounts.
+                 */
+                logger.error("Failed to load account " + accountID, ex);
+            }
+            catch (ExceptionInInitializerError ex)
             {
                 // In case we fail to instantiate the ProtocolProviderService.
                 logger.error(
                     "Failed to create account service instance for account "
-                        + accountProperties, ex);
+                        + accountID, ex);
             }
         }
+
+        if (logger.isDebugEnabled())
+            logger.debug("Loaded " + accountIDs.size() + " "
+                + factory.getProtocolName() + " accounts in "
+                + (System.currentTimeMillis() - start) + " ms");
     }
 
     /**
@@ -450,19 +559,91 @@ public AccountID findAccountID(String uid)
     }
 
     /**
-     * Loads the accounts stored for a specific
-     * <tt>ProtocolProviderFactory</tt> and notifies the registered
-     * {@link #listeners} that the stored accounts of the specified
-     * <tt>factory</tt> have just been loaded
+     * Loads the stored accounts of specific <tt>ProtocolProviderFactory</tt>
+     * services and notifies the registered {@link #listeners} that the stored
+     * accounts of each factory have just been loaded. The accounts are
+     * created in this thread and loaded in
+     * {@link #loadStoredAccountsExecutor}, the accounts of a factory one
+     * after the other. The events are fired in this thread in the order in
+     * which the factories were queued.
+     *
+     * @param factories the <tt>ProtocolProviderFactory</tt> services to load
+     *            the stored accounts of, to which the factories queued while
+     *            loading are added
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *             for the accounts to load
+     */
+    private void loadStoredAccounts(List<ProtocolProviderFactory> factories)
+        throws InterruptedException
+    {
+        List<Future<?>> loads = new ArrayList<Future<?>>(factories.size());
+        for (int i = 0; i < factories.size(); i++)
+        {
+            // Factories registered in the mean time load along with these.
+            synchronized (loadStoredAccountsQueue)
+            {
+                drainLoadStoredAccountsQueue(factories);
+            }
+            while (loads.size() < factories.size())
+            {
+                loads.add(submitLoadStoredAccounts(factories.get(loads.size())));
+                synchronized (loadStoredAccountsQueue)
+                {
+                    drainLoadStoredAccountsQueue(factories);
+                }
+            }
+
+            ProtocolProviderFactory factory = factories.get(i);
+            Future<?> load = loads.get(i);
+            if (load == null)
+                continue;
+
+            try
+            {
+                load.get();
+                fireStoredAccountsLoaded(factory);
+            }
+            catch (ExecutionException ex)
+            {
+                logger.error("Failed to load accounts for " + factory,
+                    ex.getCause());
+            }
+            catch (RuntimeException ex)
+            {
+                logger.error("Failed to notify loaded accounts of " + factory,
+                    ex);
+            }
+        }
+    }
+
+    /**
+     * Creates the stored accounts of a specific
+     * <tt>ProtocolProviderFactory</tt> and submits their loading to
+     * {@link #loadStoredAccountsExecutor}.
      *
      * @param factory the <tt>ProtocolProviderFactory</tt> to load the
      *            stored accounts of
+     * @return the loading of the accounts, or <tt>null</tt> if the accounts
+     *         could not be created
      */
-    private void loadStoredAccounts(ProtocolProviderFactory factory)
+    private Future<?> submitLoadStoredAccounts(
+        final ProtocolProviderFactory factory)
     {
-        doLoadStoredAccounts(factory);
-
-        fireStoredAccountsLoaded(factory);
+        try
+        {
+            final List<AccountID> accountIDs = doLoadStoredAccounts(factory);
+            return loadStoredAccountsExecutor.submit(
+                () -> loadAccounts(factory, accountIDs));
+        }
+        catch (Exception ex)
+        {
+            /*
+             * Swallow the exception in order to prevent a single factory from
+             * halting the loading of subsequent factories.
+             */
+            logger.error("Failed to load accounts for " + factory, ex);
+            return null;
+        }
     }
 
     /**
@@ -536,12 +717,13 @@ private void runInLoadStoredAccountsThread()
         {
             try
             {
-                ProtocolProviderFactory factory;
+                List<ProtocolProviderFactory> factories
+                    = new ArrayList<ProtocolProviderFactory>();
 
                 synchronized (loadStoredAccountsQueue)
                 {
-                    factory = loadStoredAccountsQueue.poll();
-                    if (factory == null)
+                    drainLoadStoredAccountsQueue(factories);
+                    if (factories.isEmpty())
                     {
                         /*
                          * Technically, we should be handing spurious wakeups.
@@ -566,28 +748,25 @@ private void runInLoadStoredAccountsThread()
                             interrupted = true;
                             break;
                         }
-                        factory = loadStoredAccountsQueue.poll();
+                        drainLoadStoredAccountsQueue(factories);
                     }
-                    if (factory != null)
+                    if (!factories.isEmpty())
                         loadStoredAccountsQueue.notifyAll();
                 }
 
-                if (factory != null)
+                if (!factories.isEmpty())
                 {
                     try
                     {
-                        loadStoredAccounts(factory);
+                        loadStoredAccounts(factories);
                     }
-                    catch (Exception ex)
+                    catch (InterruptedException ex)
                     {
-
-                        /*
-                         * Swallow the exception in order to prevent a single
-                         * factory from halting the loading of subsequent
-                         * factories.
-                         */
-                        logger.error("Failed to load accounts for " + factory,
+                        logger.warn(
+                            "The loading of the stored accounts has been"
+                                + " interrupted",
                             ex);
+                        interrupted = true;
                     }
                 }
             }
@@ -609,6 +788,21 @@ private void runInLoadStoredAccountsThread()
         }
     }
 
+    /**
+     * Moves all <tt>ProtocolProviderFactory</tt> services waiting in
+     * {@link #loadStoredAccountsQueue} to a list, such that their stored
+     * accounts load together. Must be called with the queue locked.
+     *
+     * @param factories the list to add the factories to
+     */
+    private void drainLoadStoredAccountsQueue(
+        List<ProtocolProviderFactory> factories)
+    {
+        ProtocolProviderFactory factory;
+        while ((factory = loadStoredAccountsQueue.poll()) != null)
+            factories.add(factory);
+    }
+
     /**
      * Notifies this manager that an OSGi service has changed. The current
      * implementation tracks the registrations of
@@ -0,0 +1,50 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.protocol.event.*;
+
+/**
+ * Provides listing of the chat rooms available on the server that streams the
+ * chat room names while they are being received, for servers on which the
+ * complete list can take a long time to arrive.
+ */
+public interface OperationSetChatRoomListing
+    extends OperationSet
+{
+    /**
+     * Returns the names of the chat rooms currently available on the server
+     * that contain <tt>filter</tt>. While the list is being retrieved, the
+     * names are delivered to <tt>listener</tt> in batches as they arrive. The
+     * method returns once the list is complete.
+     *
+     * @param filter the text the chat room names must contain, ignoring case,
+     * or <tt>null</tt> for all chat rooms
+     * @param listener the listener that receives the names while they arrive,
+     * or <tt>null</tt>
+     * @return the names of the matching chat rooms
+     *
+     * @throws OperationFailedException if we failed retrieving this list from
+     * the server.
+     */
+    public List<String> getExistingChatRooms(String filter,
+        ChatRoomListListener listener)
+        throws OperationFailedException;
+}
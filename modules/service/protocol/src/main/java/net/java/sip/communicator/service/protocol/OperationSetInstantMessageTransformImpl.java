@@ -20,58 +20,99 @@
 import java.util.*;
 
 /**
+ * Keeps the transform layers of a protocol provider. The layers are compiled
+ * into an array sorted by priority which is replaced on every change, such
+ * that messages are transformed without locking.
+ *
  * @author George Politis
  */
 public class OperationSetInstantMessageTransformImpl
     implements OperationSetInstantMessageTransform
 {
-    public final Map<Integer, Vector<TransformLayer>> transformLayers
-        = new Hashtable<Integer, Vector<TransformLayer>>();
-
     private static final int defaultPriority = 1;
 
+    private static final TransformLayer[] NO_LAYERS = new TransformLayer[0];
+
+    /**
+     * The layers with their priorities in the order in which they were added.
+     */
+    private final List<Map.Entry<Integer, TransformLayer>> entries
+        = new ArrayList<Map.Entry<Integer, TransformLayer>>();
+
+    /**
+     * The layers in the order in which they transform messages, never
+     * modified once published.
+     */
+    private volatile TransformLayer[] layers = NO_LAYERS;
+
     public void addTransformLayer(TransformLayer transformLayer)
     {
         this.addTransformLayer(defaultPriority, transformLayer);
     }
 
+    /**
+     * Adds a transform layer. Layers with a lower priority transform messages
+     * first, layers with the same priority in the order in which they were
+     * added.
+     *
+     * @param priority the priority of the layer
+     * @param transformLayer the layer
+     */
     public void addTransformLayer(int priority, TransformLayer transformLayer)
     {
-        synchronized (transformLayers)
+        synchronized (entries)
         {
-            if (!transformLayers.containsKey(defaultPriority))
-                transformLayers.put(defaultPriority,
-                    new Vector<TransformLayer>());
-
-            transformLayers.get(defaultPriority).add(transformLayer);
+            entries.add(
+                new AbstractMap.SimpleImmutableEntry<Integer, TransformLayer>(
+                    priority, transformLayer));
+            compile();
         }
     }
 
     public boolean containsLayer(TransformLayer layer)
     {
-        synchronized (transformLayers)
+        for (TransformLayer l : layers)
         {
-            for (Map.Entry<Integer, Vector<TransformLayer>> entry
-                    : transformLayers.entrySet())
-            {
-                if (entry.getValue().contains(layer))
-                    return true;
-            }
-
+            if (l.equals(layer))
+                return true;
         }
         return false;
     }
 
     public void removeTransformLayer(TransformLayer transformLayer)
     {
-        synchronized (transformLayers)
+        synchronized (entries)
         {
-            for (Map.Entry<Integer, Vector<TransformLayer>> entry
-                    : transformLayers.entrySet())
-            {
-                entry.getValue().remove(transformLayer);
-            }
+            if (entries.removeIf(e -> e.getValue().equals(transformLayer)))
+                compile();
         }
     }
 
+    /**
+     * Gets the layers in the order in which they transform messages. The
+     * array must not be modified.
+     *
+     * @return the layers sorted by priority
+     */
+    TransformLayer[] getTransformLayers()
+    {
+        return layers;
+    }
+
+    /**
+     * Publishes the layers sorted by priority. Must be called with
+     * {@link #entries} locked.
+     */
+    private void compile()
+    {
+        List<Map.Entry<Integer, TransformLayer>> sorted
+            = new ArrayList<Map.Entry<Integer, TransformLayer>>(entries);
+        // stable, such that layers of the same priority keep their order
+        sorted.sort(Map.Entry.comparingByKey());
+
+        TransformLayer[] layers = new TransformLayer[sorted.size()];
+        for (int i = 0; i < layers.length; i++)
+            layers[i] = sorted.get(i).getValue();
+        this.layers = layers;
+    }
 }
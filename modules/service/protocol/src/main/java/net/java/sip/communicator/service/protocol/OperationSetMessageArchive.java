@@ -0,0 +1,55 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol;
+
+import net.java.sip.communicator.service.protocol.event.*;
+
+/**
+ * Provides access to a message archive kept on the server (e.g. XEP-0313
+ * Message Archive Management). Implementations page through the archive after
+ * the provider registers or after a chat room is joined and deliver the
+ * messages which were exchanged while the client was offline as a single
+ * <tt>MessageArchiveEvent</tt>, so that they can be stored locally in bulk.
+ */
+public interface OperationSetMessageArchive
+    extends OperationSet
+{
+    /**
+     * Registers a listener that would be notified every time a batch of
+     * messages has been retrieved from the server archive.
+     *
+     * @param listener the <tt>MessageArchiveListener</tt> to register
+     */
+    public void addMessageArchiveListener(MessageArchiveListener listener);
+
+    /**
+     * Unregisters <tt>listener</tt> so that it won't receive any further
+     * notifications for retrieved archive messages.
+     *
+     * @param listener the <tt>MessageArchiveListener</tt> to unregister
+     */
+    public void removeMessageArchiveListener(MessageArchiveListener listener);
+
+    /**
+     * Determines whether the server of the account supports a message
+     * archive.
+     *
+     * @return <tt>true</tt> if the archive of the account can be queried
+     */
+    public boolean isArchiveSupported();
+}
@@ -0,0 +1,36 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+import java.util.*;
+
+/**
+ * Receives the names of the chat rooms available on a server while they are
+ * being listed.
+ */
+public interface ChatRoomListListener
+    extends EventListener
+{
+    /**
+     * Called when a batch of chat room names has been received.
+     *
+     * @param chatRoomNames the names of the chat rooms received since the
+     * previous call
+     */
+    public void chatRoomsListed(List<String> chatRoomNames);
+}
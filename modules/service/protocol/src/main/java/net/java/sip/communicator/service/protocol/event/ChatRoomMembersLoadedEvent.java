@@ -0,0 +1,95 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Dispatched once after joining a chat room with all the participants which
+ * were already in the room to the <tt>ChatRoomMembersLoadedListener</tt>s of
+ * the room, instead of one
+ * <tt>ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED</tt> per participant.
+ * This allows large rooms to be displayed with a single update of the member
+ * list.
+ */
+public class ChatRoomMembersLoadedEvent
+    extends EventObject
+{
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 0L;
+
+    /**
+     * The participants which were in the room when it was joined.
+     */
+    private final List<ChatRoomMember> members;
+
+    /**
+     * Creates a <tt>ChatRoomMembersLoadedEvent</tt> for the initial list of
+     * participants of a <tt>ChatRoom</tt>.
+     *
+     * @param sourceRoom the <tt>ChatRoom</tt> that produced this event
+     * @param members the participants which were in the room when it was
+     * joined
+     */
+    public ChatRoomMembersLoadedEvent(ChatRoom sourceRoom,
+                                      List<ChatRoomMember> members)
+    {
+        super(sourceRoom);
+        this.members = Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Returns the chat room that produced this event.
+     *
+     * @return the <tt>ChatRoom</tt> that produced this event
+     */
+    public ChatRoom getChatRoom()
+    {
+        return (ChatRoom) getSource();
+    }
+
+    /**
+     * Returns the participants which were in the room when it was joined.
+     *
+     * @return an unmodifiable list of the participants which were in the room
+     * when it was joined
+     */
+    public List<ChatRoomMember> getChatRoomMembers()
+    {
+        return members;
+    }
+
+    /**
+     * Returns a String representation of this event.
+     *
+     * @return String representation of this event
+     */
+    @Override
+    public String toString()
+    {
+        return "ChatRoomMembersLoadedEvent[sourceRoom="
+            + getChatRoom()
+            + " members="
+            + members.size()
+            + "]";
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+/**
+ * A <tt>ChatRoomMemberPresenceListener</tt> which would rather be told about
+ * the participants already in a chat room with a single event when the room is
+ * joined. Presence listeners which do not implement this interface keep
+ * receiving one <tt>ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED</tt> per
+ * participant.
+ */
+public interface ChatRoomMembersLoadedListener
+    extends ChatRoomMemberPresenceListener
+{
+    /**
+     * Called once after joining a chat room with all the participants which
+     * were already in it. No <tt>MEMBER_JOINED</tt> event is delivered to this
+     * listener for these participants.
+     *
+     * @param evt the <tt>ChatRoomMembersLoadedEvent</tt> listing the
+     * participants which were in the room when it was joined
+     */
+    public void membersLoaded(ChatRoomMembersLoadedEvent evt);
+}
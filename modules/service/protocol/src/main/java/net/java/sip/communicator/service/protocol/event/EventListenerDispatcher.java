@@ -0,0 +1,393 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * A list of event listeners of one type and the delivery of events to them.
+ *
+ * The listeners are kept in a copy-on-write array, such that firing an event
+ * neither locks nor copies the list. By default, events are delivered to the
+ * listeners in the firing thread. In asynchronous mode, every listener gets
+ * the events in the order they were fired in a serial executor of its own,
+ * such that a slow listener delays neither the firing thread, which often is
+ * the network reader of a protocol, nor the other listeners.
+ *
+ * The time every listener spends handling events is recorded, and
+ * particularly slow deliveries are logged.
+ *
+ * @param <L> the type of the listeners
+ */
+public class EventListenerDispatcher<L>
+{
+    /**
+     * The name of the system property which enables the asynchronous delivery
+     * by default.
+     */
+    public static final String PNAME_ASYNCHRONOUS_DELIVERY
+        = "net.java.sip.communicator.service.protocol.ASYNCHRONOUS_EVENT_DELIVERY";
+
+    /**
+     * The maximum number of events waiting for a listener in asynchronous
+     * mode.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * The time in ms the firing thread waits for space in the queue of a
+     * listener before the event is dropped for that listener.
+     */
+    private static final long OFFER_TIMEOUT = 1000;
+
+    /**
+     * The time in ms after which the delivery of an event is logged as slow.
+     */
+    private static final long SLOW_DELIVERY = 500;
+
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(EventListenerDispatcher.class);
+
+    /**
+     * The threads of the asynchronous delivery, shared by all dispatchers.
+     * Every listener uses at most one of them at a time.
+     */
+    private static final ExecutorService executor
+        = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r,
+                    "Protocol event delivery-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    /**
+     * The registered listeners, replaced on every change.
+     */
+    private volatile Registration<L>[] registrations = newArray(0);
+
+    /**
+     * Whether events are delivered in serial executors of the listeners.
+     */
+    private volatile boolean asynchronous;
+
+    /**
+     * The maximum number of events waiting for a listener in asynchronous
+     * mode.
+     */
+    private final int queueCapacity;
+
+    /**
+     * Creates a dispatcher whose mode is given by the system property
+     * {@link #PNAME_ASYNCHRONOUS_DELIVERY}.
+     */
+    public EventListenerDispatcher()
+    {
+        this(Boolean.getBoolean(PNAME_ASYNCHRONOUS_DELIVERY),
+            DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param asynchronous <tt>true</tt> to deliver the events in serial
+     *            executors of the listeners
+     * @param queueCapacity the maximum number of events waiting for a
+     *            listener in asynchronous mode
+     */
+    public EventListenerDispatcher(boolean asynchronous, int queueCapacity)
+    {
+        this.asynchronous = asynchronous;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Adds a listener unless it is already registered.
+     *
+     * @param listener the listener to add
+     * @return <tt>true</tt> if the listener was added
+     */
+    public synchronized boolean add(L listener)
+    {
+        Registration<L>[] registrations = this.registrations;
+        if (indexOf(registrations, listener) >= 0)
+            return false;
+
+        Registration<L>[] newRegistrations
+            = Arrays.copyOf(registrations, registrations.length + 1);
+        newRegistrations[registrations.length]
+            = new Registration<L>(listener, queueCapacity);
+        this.registrations = newRegistrations;
+        return true;
+    }
+
+    /**
+     * Removes a listener. Events queued for it in asynchronous mode are
+     * discarded.
+     *
+     * @param listener the listener to remove
+     * @return <tt>true</tt> if the listener was registered
+     */
+    public synchronized boolean remove(L listener)
+    {
+        Registration<L>[] registrations = this.registrations;
+        int index = indexOf(registrations, listener);
+        if (index < 0)
+            return false;
+
+        registrations[index].removed = true;
+        Registration<L>[] newRegistrations = newArray(registrations.length - 1);
+        System.arraycopy(registrations, 0, newRegistrations, 0, index);
+        System.arraycopy(registrations, index + 1, newRegistrations, index,
+            newRegistrations.length - index);
+        this.registrations = newRegistrations;
+        return true;
+    }
+
+    /**
+     * Gets the number of registered listeners.
+     *
+     * @return the number of registered listeners
+     */
+    public int size()
+    {
+        return registrations.length;
+    }
+
+    /**
+     * Determines whether events are delivered in serial executors of the
+     * listeners.
+     *
+     * @return <tt>true</tt> in asynchronous mode
+     */
+    public boolean isAsynchronous()
+    {
+        return asynchronous;
+    }
+
+    /**
+     * Switches between the delivery in the firing thread and the
+     * asynchronous delivery. Events already queued are still delivered.
+     *
+     * @param asynchronous <tt>true</tt> to deliver the events in serial
+     *            executors of the listeners
+     */
+    public void setAsynchronous(boolean asynchronous)
+    {
+        this.asynchronous = asynchronous;
+    }
+
+    /**
+     * Delivers an event to all registered listeners. In synchronous mode an
+     * exception thrown by a listener is passed on to the caller and the
+     * remaining listeners do not get the event, in asynchronous mode it is
+     * logged.
+     *
+     * @param method calls the method of a listener which handles the event
+     * @param event the event
+     * @param <E> the type of the event
+     */
+    public <E> void fire(BiConsumer<? super L, ? super E> method, E event)
+    {
+        boolean asynchronous = this.asynchronous;
+        for (Registration<L> registration : registrations)
+        {
+            if (asynchronous)
+                registration.enqueue(method, event);
+            else
+                registration.deliver(method, event);
+        }
+    }
+
+    /**
+     * Gets the total time a listener has spent handling events.
+     *
+     * @param listener the listener
+     * @return the time in ns, or <tt>0</tt> if the listener is not registered
+     */
+    public long getDispatchTime(L listener)
+    {
+        Registration<L>[] registrations = this.registrations;
+        int index = indexOf(registrations, listener);
+        return index < 0 ? 0 : registrations[index].dispatchTime.get();
+    }
+
+    /**
+     * Gets the number of events a listener has handled.
+     *
+     * @param listener the listener
+     * @return the number of events, or <tt>0</tt> if the listener is not
+     *         registered
+     */
+    public long getDispatchCount(L listener)
+    {
+        Registration<L>[] registrations = this.registrations;
+        int index = indexOf(registrations, listener);
+        return index < 0 ? 0 : registrations[index].dispatchCount.get();
+    }
+
+    private static <L> int indexOf(Registration<L>[] registrations,
+        L listener)
+    {
+        for (int i = 0; i < registrations.length; i++)
+        {
+            if (registrations[i].listener.equals(listener))
+                return i;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <L> Registration<L>[] newArray(int length)
+    {
+        return (Registration<L>[]) new Registration<?>[length];
+    }
+
+    /**
+     * A registered listener with its serial executor and statistics.
+     *
+     * @param <L> the type of the listener
+     */
+    private static class Registration<L>
+        implements Runnable
+    {
+        private final L listener;
+
+        /**
+         * The deliveries waiting in asynchronous mode.
+         */
+        private final BlockingQueue<Runnable> queue;
+
+        /**
+         * Whether {@link #run()} is scheduled or running.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private final AtomicLong dispatchTime = new AtomicLong();
+
+        private final AtomicLong dispatchCount = new AtomicLong();
+
+        /**
+         * Whether the listener was removed.
+         */
+        private volatile boolean removed;
+
+        Registration(L listener, int queueCapacity)
+        {
+            this.listener = listener;
+            this.queue = new ArrayBlockingQueue<Runnable>(queueCapacity);
+        }
+
+        /**
+         * Delivers an event to the listener in the current thread.
+         */
+        <E> void deliver(BiConsumer<? super L, ? super E> method, E event)
+        {
+            long start = System.nanoTime();
+            try
+            {
+                method.accept(listener, event);
+            }
+            finally
+            {
+                long time = System.nanoTime() - start;
+                dispatchTime.addAndGet(time);
+                dispatchCount.incrementAndGet();
+                if (time > TimeUnit.MILLISECONDS.toNanos(SLOW_DELIVERY))
+                {
+                    logger.info("Listener " + listener + " took "
+                        + TimeUnit.NANOSECONDS.toMillis(time)
+                        + " ms to handle " + event);
+                }
+            }
+        }
+
+        /**
+         * Queues an event for the serial executor of the listener. Waits for
+         * space in the queue for a while if the listener is far behind.
+         */
+        <E> void enqueue(BiConsumer<? super L, ? super E> method, E event)
+        {
+            boolean queued;
+            try
+            {
+                queued = queue.offer(() -> deliver(method, event),
+                    OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+
+            if (!queued)
+            {
+                logger.error("Dropped " + event + " for listener " + listener
+                    + " which has " + queue.size() + " events waiting");
+                return;
+            }
+
+            if (scheduled.compareAndSet(false, true))
+                executor.execute(this);
+        }
+
+        /**
+         * Delivers the queued events in order.
+         */
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                Runnable delivery;
+                while ((delivery = queue.poll()) != null)
+                {
+                    if (removed)
+                    {
+                        queue.clear();
+                        break;
+                    }
+
+                    try
+                    {
+                        delivery.run();
+                    }
+                    catch (Throwable t)
+                    {
+                        if (t instanceof ThreadDeath)
+                            throw (ThreadDeath) t;
+                        logger.error("Error delivering event to " + listener,
+                            t);
+                    }
+                }
+
+                scheduled.set(false);
+                if (queue.isEmpty() || !scheduled.compareAndSet(false, true))
+                    return;
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Delivers a batch of messages retrieved from a server side message archive.
+ * Each message is represented by the event which would have been fired had it
+ * been exchanged while the client was online: <tt>MessageReceivedEvent</tt>
+ * and <tt>MessageDeliveredEvent</tt> for one-to-one conversations,
+ * <tt>ChatRoomMessageReceivedEvent</tt> and
+ * <tt>ChatRoomMessageDeliveredEvent</tt> for the conversation in
+ * {@link #getChatRoom()}. The messages are in chronological order and their
+ * UIDs are the stanza ids assigned by the sender, which allows receivers to
+ * skip messages they have already stored.
+ */
+public class MessageArchiveEvent
+    extends EventObject
+{
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 0L;
+
+    /**
+     * The chat room the messages were exchanged in or <tt>null</tt> for
+     * one-to-one conversations.
+     */
+    private final ChatRoom chatRoom;
+
+    /**
+     * The message events in chronological order.
+     */
+    private final List<EventObject> messageEvents;
+
+    /**
+     * Creates a <tt>MessageArchiveEvent</tt>.
+     *
+     * @param source the <tt>ProtocolProviderService</tt> whose archive was
+     * queried
+     * @param chatRoom the chat room the messages were exchanged in or
+     * <tt>null</tt> for one-to-one conversations
+     * @param messageEvents the message events in chronological order
+     */
+    public MessageArchiveEvent(ProtocolProviderService source,
+                               ChatRoom chatRoom,
+                               List<EventObject> messageEvents)
+    {
+        super(source);
+
+        this.chatRoom = chatRoom;
+        this.messageEvents = Collections.unmodifiableList(messageEvents);
+    }
+
+    /**
+     * Returns the <tt>ProtocolProviderService</tt> whose archive was queried.
+     *
+     * @return the <tt>ProtocolProviderService</tt> whose archive was queried
+     */
+    public ProtocolProviderService getProtocolProvider()
+    {
+        return (ProtocolProviderService) getSource();
+    }
+
+    /**
+     * Returns the chat room the messages were exchanged in.
+     *
+     * @return the chat room the messages were exchanged in or <tt>null</tt>
+     * if the messages belong to one-to-one conversations
+     */
+    public ChatRoom getChatRoom()
+    {
+        return chatRoom;
+    }
+
+    /**
+     * Returns the retrieved messages as the events that would have announced
+     * them, in chronological order.
+     *
+     * @return an unmodifiable list of message events
+     */
+    public List<EventObject> getMessageEvents()
+    {
+        return messageEvents;
+    }
+
+    /**
+     * Returns a String representation of this event.
+     *
+     * @return String representation of this event
+     */
+    @Override
+    public String toString()
+    {
+        return "MessageArchiveEvent[provider=" + getSource()
+            + " chatRoom=" + chatRoom
+            + " messages=" + messageEvents.size() + "]";
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+import java.util.*;
+
+/**
+ * A listener that registers for <tt>MessageArchiveEvent</tt>s issued by an
+ * <tt>OperationSetMessageArchive</tt>.
+ */
+public interface MessageArchiveListener
+    extends EventListener
+{
+    /**
+     * Called when a batch of messages has been retrieved from the server
+     * archive.
+     *
+     * @param evt the <tt>MessageArchiveEvent</tt> containing the retrieved
+     * messages
+     */
+    public void messagesArchived(MessageArchiveEvent evt);
+}
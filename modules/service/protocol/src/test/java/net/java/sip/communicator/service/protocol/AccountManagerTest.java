@@ -0,0 +1,360 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.service.protocol.event.*;
+
+import org.jitsi.service.configuration.*;
+import org.junit.*;
+import org.osgi.framework.*;
+
+public class AccountManagerTest
+{
+    /**
+     * The number of stored accounts of each protocol.
+     */
+    private static final int ACCOUNTS = 12;
+
+    /**
+     * The time in ms a fake provider takes to load an account.
+     */
+    private static final long LOAD_TIME = 20;
+
+    /**
+     * The stored configuration.
+     */
+    private final Map<String, String> properties
+        = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+    /**
+     * The prefixes queried from the configuration.
+     */
+    private final List<String> queriedPrefixes
+        = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Released once all factories are registered.
+     */
+    private final CountDownLatch registered = new CountDownLatch(1);
+
+    /**
+     * The accounts registered as providers, in the order of registration.
+     */
+    private final List<String> loadedAccounts
+        = Collections.synchronizedList(new ArrayList<String>());
+
+    private final AtomicInteger loading = new AtomicInteger();
+
+    private final AtomicInteger maxLoading = new AtomicInteger();
+
+    private ServiceListener serviceListener;
+
+    private final BundleContext bundleContext = fake(BundleContext.class,
+        (proxy, method, args) -> {
+            switch (method.getName())
+            {
+            case "addServiceListener":
+                serviceListener = (ServiceListener) args[0];
+                return null;
+            case "getService":
+                return ((ServiceReference<?>) args[0]).getProperty("service");
+            case "registerService":
+                Dictionary<?, ?> properties = (Dictionary<?, ?>) args[2];
+                loadedAccounts.add(
+                    properties.get(ProtocolProviderFactory.PROTOCOL) + ":"
+                        + properties.get(ProtocolProviderFactory.USER_ID));
+                return fake(ServiceRegistration.class, null);
+            default:
+                return null;
+            }
+        });
+
+    @Before
+    public void setUp() throws Exception
+    {
+        setConfigurationService(fake(ConfigurationService.class,
+            (proxy, method, args) -> {
+                switch (method.getName())
+                {
+                case "getPropertyNamesByPrefix":
+                    return getPropertyNamesByPrefix((String) args[0],
+                        (Boolean) args[1]);
+                case "getString":
+                    return properties.get(args[0]);
+                default:
+                    return null;
+                }
+            }));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        setConfigurationService(null);
+    }
+
+    @Test
+    public void testGroupStoredAccounts()
+    {
+        Map<String, List<String>> accounts
+            = AccountManager.groupStoredAccounts("impl.gibberish",
+                Arrays.asList(
+                    "impl.gibberish.acc1",
+                    "impl.gibberish.acc1.USER_ID",
+                    "impl.gibberish.SETTING",
+                    "impl.gibberish.acc10.USER_ID",
+                    "impl.gibberish.acc10",
+                    "impl.gibberish.acc1.ENCRYPTION_PROTOCOL.ZRTP",
+                    "impl.gibberish.acc2.USER_ID",
+                    "impl.gibberish.settings.acc3",
+                    "impl.gibberishx.acc4"));
+        assertEquals("{impl.gibberish.acc1=[impl.gibberish.acc1.USER_ID, "
+                + "impl.gibberish.acc1.ENCRYPTION_PROTOCOL.ZRTP], "
+                + "impl.gibberish.acc10=[impl.gibberish.acc10.USER_ID]}",
+            accounts.toString());
+    }
+
+    /**
+     * Two protocols with many accounts each: the properties of each protocol
+     * are queried once, the accounts of a protocol load one after the other
+     * while the protocols load in parallel, and the events come in the order
+     * of the registration of the factories.
+     */
+    @Test
+    public void testLoadStoredAccounts() throws Exception
+    {
+        store("Gibberish");
+        store("Mock");
+        AccountManager accountManager = new AccountManager(bundleContext)
+        {
+            @Override
+            public String getFactoryImplPackageName(
+                ProtocolProviderFactory factory)
+            {
+                return "impl."
+                    + factory.getProtocolName().toLowerCase(Locale.ROOT);
+            }
+        };
+
+        List<String> events
+            = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch loaded = new CountDownLatch(2);
+        accountManager.addListener(event -> {
+            String protocol = event.getFactory().getProtocolName();
+            int count = 0;
+            synchronized (loadedAccounts)
+            {
+                for (String account : loadedAccounts)
+                {
+                    if (account.startsWith(protocol + ":"))
+                        count++;
+                }
+            }
+            events.add(event.getType() + " " + protocol + " " + count);
+            loaded.countDown();
+        });
+
+        register(new Factory("Gibberish"));
+        register(new Factory("Mock"));
+        registered.countDown();
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+
+        // all but the disabled account of each protocol were loaded
+        int type = AccountManagerEvent.STORED_ACCOUNTS_LOADED;
+        assertEquals(Arrays.asList(
+                type + " Gibberish " + (ACCOUNTS - 1),
+                type + " Mock " + (ACCOUNTS - 1)),
+            events);
+        assertEquals(Arrays.asList("impl.gibberish", "impl.mock"),
+            queriedPrefixes);
+        assertEquals(2, maxLoading.get());
+        assertFalse(loadedAccounts.contains("Gibberish:user3"));
+
+        List<AccountID> stored
+            = new ArrayList<AccountID>(accountManager.getStoredAccounts());
+        assertEquals(2 * ACCOUNTS, stored.size());
+        for (AccountID accountID : stored)
+        {
+            // USER_ID, PROTOCOL and the flag or the nested property
+            assertEquals(3, accountID.getAccountProperties().size());
+        }
+        assertEquals("Gibberish:user1@example.org",
+            stored.get(0).getAccountUniqueID());
+        assertEquals("Mock:user1@example.org",
+            stored.get(ACCOUNTS).getAccountUniqueID());
+        assertEquals("0", stored.get(0)
+            .getAccountPropertyString("ENCRYPTION_PROTOCOL.ZRTP"));
+        assertTrue(accountManager.isAccountLoaded(stored.get(ACCOUNTS + 1)));
+        assertFalse(accountManager.isAccountLoaded(stored.get(2)));
+    }
+
+    private void store(String protocol)
+    {
+        String prefix = "impl." + protocol.toLowerCase(Locale.ROOT);
+        properties.put(prefix + ".SETTING", "true");
+        for (int i = 1; i <= ACCOUNTS; i++)
+        {
+            String account = prefix + ".acc" + i;
+            properties.put(account, "acc" + i);
+            properties.put(account + "." + ProtocolProviderFactory.USER_ID,
+                "user" + i);
+            if (i == 3)
+            {
+                properties.put(account + "."
+                    + ProtocolProviderFactory.IS_ACCOUNT_DISABLED, "true");
+            }
+            else
+            {
+                properties.put(account + ".ENCRYPTION_PROTOCOL.ZRTP", "0");
+            }
+        }
+    }
+
+    private void register(ProtocolProviderFactory factory)
+    {
+        ServiceReference<?> reference = fake(ServiceReference.class,
+            (proxy, method, args) ->
+                method.getName().equals("getProperty")
+                    && "service".equals(args[0]) ? factory : null);
+        serviceListener.serviceChanged(
+            new ServiceEvent(ServiceEvent.REGISTERED, reference));
+    }
+
+    private List<String> getPropertyNamesByPrefix(String prefix,
+        boolean exactPrefixMatch) throws InterruptedException
+    {
+        // let all factories register while the first one loads
+        assertTrue(registered.await(10, TimeUnit.SECONDS));
+        queriedPrefixes.add(prefix);
+        List<String> names = new ArrayList<String>();
+        synchronized (properties)
+        {
+            for (String name : properties.keySet())
+            {
+                int dot = name.lastIndexOf('.');
+                if (exactPrefixMatch
+                    ? dot > 0 && name.substring(0, dot).equals(prefix)
+                    : name.startsWith(prefix))
+                {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static void setConfigurationService(ConfigurationService service)
+        throws Exception
+    {
+        Field field = ProtocolProviderActivator.class
+            .getDeclaredField("configurationService");
+        field.setAccessible(true);
+        field.set(null, service);
+    }
+
+    private static <T> T fake(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(
+            AccountManagerTest.class.getClassLoader(), new Class<?>[] { type },
+            (proxy, method, args) -> {
+                if (method.getName().equals("hashCode"))
+                    return System.identityHashCode(proxy);
+                if (method.getName().equals("equals"))
+                    return proxy == args[0];
+                return handler == null
+                    ? null : handler.invoke(proxy, method, args);
+            }));
+    }
+
+    /**
+     * A factory of fake providers which take some time to load.
+     */
+    private class Factory
+        extends ProtocolProviderFactory
+    {
+        /**
+         * The number of accounts of this factory loading at the moment.
+         */
+        private final AtomicInteger factoryLoading = new AtomicInteger();
+
+        Factory(String protocolName)
+        {
+            super(bundleContext, protocolName);
+        }
+
+        @Override
+        public boolean loadAccount(AccountID accountID)
+        {
+            assertEquals(1, factoryLoading.incrementAndGet());
+            maxLoading.accumulateAndGet(loading.incrementAndGet(), Math::max);
+            try
+            {
+                Thread.sleep(LOAD_TIME);
+                return super.loadAccount(accountID);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            finally
+            {
+                loading.decrementAndGet();
+                factoryLoading.decrementAndGet();
+            }
+        }
+
+        @Override
+        public AccountID installAccount(String userID,
+            Map<String, String> accountProperties)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void modifyAccount(ProtocolProviderService protocolProvider,
+            Map<String, String> accountProperties)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected AccountID createAccountID(String userID,
+            Map<String, String> accountProperties)
+        {
+            return new AccountID(userID, accountProperties, getProtocolName(),
+                "example.org")
+            {
+            };
+        }
+
+        @Override
+        protected ProtocolProviderService createService(String userID,
+            AccountID accountID)
+        {
+            return fake(ProtocolProviderService.class, null);
+        }
+    }
+}
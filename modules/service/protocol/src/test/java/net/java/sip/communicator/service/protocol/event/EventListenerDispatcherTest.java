@@ -0,0 +1,275 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+public class EventListenerDispatcherTest
+{
+    /**
+     * A listener which records the events it gets.
+     */
+    private static class Recorder
+    {
+        final List<Integer> events
+            = Collections.synchronizedList(new ArrayList<Integer>());
+
+        final List<Thread> threads
+            = Collections.synchronizedList(new ArrayList<Thread>());
+
+        /**
+         * Counted down for every event.
+         */
+        final CountDownLatch received;
+
+        /**
+         * Counted down when the first event arrives.
+         */
+        final CountDownLatch entered = new CountDownLatch(1);
+
+        /**
+         * Awaited before every event, or <tt>null</tt>.
+         */
+        final CountDownLatch release;
+
+        Recorder(int count, CountDownLatch release)
+        {
+            this.received = new CountDownLatch(count);
+            this.release = release;
+        }
+
+        void handle(Integer event)
+        {
+            entered.countDown();
+            if (release != null)
+            {
+                try
+                {
+                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            events.add(event);
+            threads.add(Thread.currentThread());
+            received.countDown();
+        }
+    }
+
+    private static List<Integer> range(int from, int to)
+    {
+        List<Integer> range = new ArrayList<Integer>();
+        for (int i = from; i < to; i++)
+            range.add(i);
+        return range;
+    }
+
+    @Test
+    public void testAddRemove()
+    {
+        EventListenerDispatcher<Recorder> dispatcher
+            = new EventListenerDispatcher<Recorder>(false, 16);
+        Recorder a = new Recorder(1, null);
+        Recorder b = new Recorder(1, null);
+        assertTrue(dispatcher.add(a));
+        assertFalse(dispatcher.add(a));
+        assertTrue(dispatcher.add(b));
+        assertEquals(2, dispatcher.size());
+        assertTrue(dispatcher.remove(a));
+        assertFalse(dispatcher.remove(a));
+        dispatcher.fire(Recorder::handle, 1);
+        assertEquals(Collections.emptyList(), a.events);
+        assertEquals(Arrays.asList(1), b.events);
+        assertEquals(1, dispatcher.size());
+    }
+
+    @Test
+    public void testSynchronousDelivery()
+    {
+        EventListenerDispatcher<Recorder> dispatcher
+            = new EventListenerDispatcher<Recorder>(false, 16);
+        List<String> order = new ArrayList<String>();
+        Recorder a = new Recorder(3, null);
+        dispatcher.add(a);
+        for (int i = 0; i < 3; i++)
+            dispatcher.fire((listener, e) -> {
+                order.add("a" + e);
+                listener.handle(e);
+            }, i);
+
+        assertEquals(Arrays.asList("a0", "a1", "a2"), order);
+        assertEquals(Collections.nCopies(3, Thread.currentThread()),
+            a.threads);
+        assertEquals(3, dispatcher.getDispatchCount(a));
+        assertTrue(dispatcher.getDispatchTime(a) > 0);
+
+        try
+        {
+            dispatcher.fire((listener, e) -> {
+                throw new IllegalStateException();
+            }, 3);
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+        }
+    }
+
+    /**
+     * Several threads fire events while listeners get them asynchronously.
+     * Every listener gets the events of a thread in the order they were
+     * fired, and never in the firing thread.
+     */
+    @Test
+    public void testAsynchronousOrderPerListener() throws Exception
+    {
+        EventListenerDispatcher<Recorder> dispatcher
+            = new EventListenerDispatcher<Recorder>(true, 4096);
+        List<Recorder> recorders = new ArrayList<Recorder>();
+        for (int i = 0; i < 4; i++)
+        {
+            Recorder recorder = new Recorder(3000, null);
+            recorders.add(recorder);
+            dispatcher.add(recorder);
+        }
+
+        List<Thread> firing = new ArrayList<Thread>();
+        for (int t = 0; t < 3; t++)
+        {
+            int base = t * 1000;
+            firing.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++)
+                    dispatcher.fire(Recorder::handle, base + i);
+            }));
+        }
+        for (Thread thread : firing)
+            thread.start();
+        for (Thread thread : firing)
+            thread.join();
+
+        for (Recorder recorder : recorders)
+        {
+            assertTrue(recorder.received.await(10, TimeUnit.SECONDS));
+            for (int t = 0; t < 3; t++)
+            {
+                List<Integer> events = new ArrayList<Integer>();
+                for (Integer e : recorder.events)
+                {
+                    if (e / 1000 == t)
+                        events.add(e);
+                }
+                assertEquals(range(t * 1000, t * 1000 + 1000), events);
+            }
+            assertFalse(recorder.threads.contains(Thread.currentThread()));
+            assertFalse(recorder.threads.containsAll(firing));
+            assertEquals(3000, dispatcher.getDispatchCount(recorder));
+        }
+    }
+
+    /**
+     * A hanging listener holds up neither the firing thread nor the
+     * other listeners, and gets all its events once it continues.
+     */
+    @Test
+    public void testSlowListenerIsIsolated() throws Exception
+    {
+        EventListenerDispatcher<Recorder> dispatcher
+            = new EventListenerDispatcher<Recorder>(true, 64);
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder slow = new Recorder(20, release);
+        Recorder fast = new Recorder(20, null);
+        dispatcher.add(slow);
+        dispatcher.add(fast);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++)
+            dispatcher.fire(Recorder::handle, i);
+        assertTrue(System.nanoTime() - start
+            < TimeUnit.MILLISECONDS.toNanos(500));
+
+        assertTrue(fast.received.await(5, TimeUnit.SECONDS));
+        assertEquals(range(0, 20), fast.events);
+        assertTrue(slow.events.isEmpty());
+
+        release.countDown();
+        assertTrue(slow.received.await(5, TimeUnit.SECONDS));
+        assertEquals(range(0, 20), slow.events);
+        assertTrue(dispatcher.getDispatchTime(slow)
+            > dispatcher.getDispatchTime(fast));
+    }
+
+    /**
+     * The queue of a hanging listener is bounded: once full, the firing
+     * thread waits a while and then drops the event for that listener only.
+     */
+    @Test
+    public void testQueueIsBounded() throws Exception
+    {
+        EventListenerDispatcher<Recorder> dispatcher
+            = new EventListenerDispatcher<Recorder>(true, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder slow = new Recorder(3, release);
+        Recorder fast = new Recorder(4, null);
+        dispatcher.add(slow);
+        dispatcher.add(fast);
+
+        dispatcher.fire(Recorder::handle, 0);
+        assertTrue(slow.entered.await(5, TimeUnit.SECONDS));
+
+        dispatcher.fire(Recorder::handle, 1);
+        dispatcher.fire(Recorder::handle, 2);
+        long start = System.nanoTime();
+        dispatcher.fire(Recorder::handle, 3);
+        assertTrue(System.nanoTime() - start
+            >= TimeUnit.MILLISECONDS.toNanos(900));
+
+        assertTrue(fast.received.await(5, TimeUnit.SECONDS));
+        assertEquals(range(0, 4), fast.events);
+        release.countDown();
+        assertTrue(slow.received.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(range(0, 3), slow.events);
+    }
+
+    @Test
+    public void testRemovedListenerGetsNoQueuedEvents() throws Exception
+    {
+        EventListenerDispatcher<Recorder> dispatcher
+            = new EventListenerDispatcher<Recorder>(true, 16);
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder slow = new Recorder(1, release);
+        dispatcher.add(slow);
+        dispatcher.fire(Recorder::handle, 0);
+        assertTrue(slow.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 5; i++)
+            dispatcher.fire(Recorder::handle, i);
+
+        dispatcher.remove(slow);
+        release.countDown();
+        assertTrue(slow.received.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(Arrays.asList(0), slow.events);
+    }
+}
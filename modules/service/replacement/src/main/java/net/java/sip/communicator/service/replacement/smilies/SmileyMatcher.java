@@ -0,0 +1,440 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.replacement.smilies;
+
+import java.util.*;
+
+/**
+ * Finds the smiley strings of a pack of <tt>Smiley</tt>s in a text in a
+ * single pass, with an Aho-Corasick automaton instead of a regular expression
+ * alternation.
+ *
+ * Matches do not overlap. Of the smiley strings starting at the leftmost
+ * position, the longest one is matched, so <tt>:-))</tt> is preferred to
+ * <tt>:-)</tt>. As with the pattern of the smiley replacement service, smiley
+ * strings directly following <tt>alt='</tt> or <tt>alt="</tt> are not
+ * matched.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public final class SmileyMatcher
+{
+    /**
+     * The prefixes which prevent a smiley string from being matched.
+     */
+    private static final String[] EXCLUDED_PREFIXES = { "alt='", "alt=\"" };
+
+    /**
+     * The characters of the smiley strings, sorted.
+     */
+    private final char[] alphabet;
+
+    /**
+     * The symbols of the ASCII characters, such that the alphabet is only
+     * searched for other characters.
+     */
+    private final int[] asciiSymbols = new int[128];
+
+    /**
+     * The transitions of the automaton, <tt>alphabet.length + 1</tt> per
+     * state. The first transition of a state is taken on characters which are
+     * not in the alphabet.
+     */
+    private final int[] transitions;
+
+    /**
+     * The length of the text matched by each state, which is the length of
+     * the longest smiley string prefix ending at the current position.
+     */
+    private final int[] depths;
+
+    /**
+     * The length of the longest smiley string ending in each state, or 0 if
+     * there is none.
+     */
+    private final int[] matches;
+
+    /**
+     * The <tt>Smiley</tt>s by smiley string. The first <tt>Smiley</tt> of
+     * the pack wins if a smiley string is used more than once.
+     */
+    private final Map<String, Smiley> smileys;
+
+    /**
+     * Builds the automaton for the smiley strings of a pack of
+     * <tt>Smiley</tt>s.
+     *
+     * @param pack the <tt>Smiley</tt>s to match
+     */
+    public SmileyMatcher(Collection<? extends Smiley> pack)
+    {
+        Map<String, Smiley> smileys = new LinkedHashMap<String, Smiley>();
+        SortedSet<Character> chars = new TreeSet<Character>();
+
+        for (Smiley smiley : pack)
+        {
+            for (String smileyString : smiley.getSmileyStrings())
+            {
+                if (smileyString.length() == 0
+                        || smileys.containsKey(smileyString))
+                    continue;
+                smileys.put(smileyString, smiley);
+                for (int i = 0; i < smileyString.length(); i++)
+                    chars.add(smileyString.charAt(i));
+            }
+        }
+        this.smileys = Collections.unmodifiableMap(smileys);
+
+        alphabet = new char[chars.size()];
+        int c = 0;
+        for (Character ch : chars)
+            alphabet[c++] = ch;
+        for (char ch = 0; ch < asciiSymbols.length; ch++)
+        {
+            int i = Arrays.binarySearch(alphabet, ch);
+
+            asciiSymbols[ch] = (i < 0) ? 0 : (i + 1);
+        }
+
+        // Build the trie. A transition of -1 is undefined.
+        int width = alphabet.length + 1;
+        List<int[]> trie = new ArrayList<int[]>();
+        List<Integer> trieDepths = new ArrayList<Integer>();
+        List<Integer> trieMatches = new ArrayList<Integer>();
+
+        trie.add(newRow(width));
+        trieDepths.add(0);
+        trieMatches.add(0);
+        for (String smileyString : smileys.keySet())
+        {
+            int state = 0;
+
+            for (int i = 0; i < smileyString.length(); i++)
+            {
+                int symbol = symbol(smileyString.charAt(i));
+                int next = trie.get(state)[symbol];
+
+                if (next < 0)
+                {
+                    next = trie.size();
+                    trie.get(state)[symbol] = next;
+                    trie.add(newRow(width));
+                    trieDepths.add(i + 1);
+                    trieMatches.add(0);
+                }
+                state = next;
+            }
+            trieMatches.set(state, smileyString.length());
+        }
+
+        // Turn the trie into a deterministic automaton, breadth first, such
+        // that the failure state of each state is complete before it is used.
+        int stateCount = trie.size();
+
+        transitions = new int[stateCount * width];
+        depths = new int[stateCount];
+        matches = new int[stateCount];
+
+        int[] failures = new int[stateCount];
+        Deque<Integer> queue = new ArrayDeque<Integer>();
+
+        for (int symbol = 0; symbol < width; symbol++)
+        {
+            int next = trie.get(0)[symbol];
+
+            if (next < 0)
+                next = 0;
+            else
+                queue.add(next);
+            transitions[symbol] = next;
+        }
+        while (!queue.isEmpty())
+        {
+            int state = queue.remove();
+            int failure = failures[state];
+
+            depths[state] = trieDepths.get(state);
+            matches[state] = Math.max(trieMatches.get(state), matches[failure]);
+            for (int symbol = 0; symbol < width; symbol++)
+            {
+                int next = trie.get(state)[symbol];
+
+                if (next < 0)
+                {
+                    transitions[state * width + symbol]
+                        = transitions[failure * width + symbol];
+                }
+                else
+                {
+                    failures[next] = transitions[failure * width + symbol];
+                    transitions[state * width + symbol] = next;
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a row of undefined trie transitions.
+     *
+     * @param width the number of transitions
+     * @return the row
+     */
+    private static int[] newRow(int width)
+    {
+        int[] row = new int[width];
+
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    /**
+     * Gets the symbol of a character in the alphabet of the automaton.
+     *
+     * @param ch the character
+     * @return the index of the transitions on <tt>ch</tt>
+     */
+    private int symbol(char ch)
+    {
+        if (ch < asciiSymbols.length)
+            return asciiSymbols[ch];
+
+        int i = Arrays.binarySearch(alphabet, ch);
+
+        return (i < 0) ? 0 : (i + 1);
+    }
+
+    /**
+     * Finds the smiley strings in a text.
+     *
+     * @param text the text
+     * @return the matches in the order of their positions, an empty list if
+     *         there are none
+     */
+    public List<Match> findAll(CharSequence text)
+    {
+        List<Match> result = null;
+        int width = alphabet.length + 1;
+        int length = text.length();
+        int state = 0;
+        int bestStart = -1;
+        int bestEnd = -1;
+        int i = 0;
+
+        while (i < length)
+        {
+            state = transitions[state * width + symbol(text.charAt(i))];
+            i++;
+
+            int start = leftmostMatch(text, state, i);
+
+            // Of the smiley strings with the same start, the one ending last
+            // is the longest.
+            if (start >= 0 && (bestStart < 0 || start <= bestStart))
+            {
+                bestStart = start;
+                bestEnd = i;
+            }
+
+            // No smiley string starting at or before the best match can end
+            // later, so the best match is final.
+            if (bestStart >= 0
+                    && (i - depths[state] > bestStart || i == length))
+            {
+                if (result == null)
+                    result = new ArrayList<Match>();
+                String smileyString
+                    = text.subSequence(bestStart, bestEnd).toString();
+
+                result.add(
+                    new Match(
+                            bestStart,
+                            bestEnd,
+                            smileyString,
+                            smileys.get(smileyString)));
+                i = bestEnd;
+                state = 0;
+                bestStart = -1;
+                bestEnd = -1;
+            }
+        }
+        return (result == null) ? Collections.<Match>emptyList() : result;
+    }
+
+    /**
+     * Finds the longest smiley string ending at a position which is not
+     * excluded.
+     *
+     * @param text the text
+     * @param state the state of the automaton at <tt>end</tt>
+     * @param end the end of the smiley string
+     * @return the start of the smiley string or -1 if there is none
+     */
+    private int leftmostMatch(CharSequence text, int state, int end)
+    {
+        int longest = matches[state];
+
+        if (longest == 0)
+            return -1;
+        if (!isExcluded(text, end - longest))
+            return end - longest;
+
+        // The longest smiley string is excluded, which is rare. Look for
+        // shorter ones.
+        for (int length = longest - 1; length > 0; length--)
+        {
+            int start = end - length;
+
+            if (smileys.containsKey(text.subSequence(start, end).toString())
+                    && !isExcluded(text, start))
+                return start;
+        }
+        return -1;
+    }
+
+    /**
+     * Determines whether a smiley string must not be matched at a position
+     * because it directly follows one of {@link #EXCLUDED_PREFIXES}.
+     *
+     * @param text the text
+     * @param start the start of the smiley string
+     * @return <tt>true</tt> if the smiley string must not be matched
+     */
+    private static boolean isExcluded(CharSequence text, int start)
+    {
+        for (String prefix : EXCLUDED_PREFIXES)
+        {
+            int from = start - prefix.length();
+
+            if (from >= 0
+                    && prefix.contentEquals(text.subSequence(from, start)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the <tt>Smiley</tt> of a smiley string.
+     *
+     * @param smileyString the smiley string, for example <tt>:-)</tt>
+     * @return the <tt>Smiley</tt> or <tt>null</tt> if <tt>smileyString</tt>
+     *         is not in the pack
+     */
+    public Smiley getSmiley(String smileyString)
+    {
+        return smileys.get(smileyString);
+    }
+
+    /**
+     * Gets the smiley strings of the pack, in the order of the pack.
+     *
+     * @return the smiley strings
+     */
+    public Set<String> getSmileyStrings()
+    {
+        return smileys.keySet();
+    }
+
+    /**
+     * A smiley string found in a text.
+     */
+    public static final class Match
+    {
+        /**
+         * The position of the first character of the smiley string.
+         */
+        private final int start;
+
+        /**
+         * The position after the last character of the smiley string.
+         */
+        private final int end;
+
+        /**
+         * The matched smiley string.
+         */
+        private final String smileyString;
+
+        /**
+         * The <tt>Smiley</tt> of the smiley string.
+         */
+        private final Smiley smiley;
+
+        /**
+         * Creates a match.
+         *
+         * @param start the position of the first character
+         * @param end the position after the last character
+         * @param smileyString the matched smiley string
+         * @param smiley the <tt>Smiley</tt> of the smiley string
+         */
+        Match(int start, int end, String smileyString, Smiley smiley)
+        {
+            this.start = start;
+            this.end = end;
+            this.smileyString = smileyString;
+            this.smiley = smiley;
+        }
+
+        /**
+         * Gets the position of the first character of the smiley string.
+         *
+         * @return the start of the match
+         */
+        public int getStart()
+        {
+            return start;
+        }
+
+        /**
+         * Gets the position after the last character of the smiley string.
+         *
+         * @return the end of the match
+         */
+        public int getEnd()
+        {
+            return end;
+        }
+
+        /**
+         * Gets the matched smiley string.
+         *
+         * @return the smiley string
+         */
+        public String getSmileyString()
+        {
+            return smileyString;
+        }
+
+        /**
+         * Gets the <tt>Smiley</tt> of the matched smiley string.
+         *
+         * @return the <tt>Smiley</tt>
+         */
+        public Smiley getSmiley()
+        {
+            return smiley;
+        }
+
+        @Override
+        public String toString()
+        {
+            return smileyString + "@" + start;
+        }
+    }
+}
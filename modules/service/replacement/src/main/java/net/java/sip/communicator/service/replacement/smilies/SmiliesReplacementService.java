@@ -40,6 +40,15 @@
      */
     public Collection<Smiley> getSmiliesPack();
 
+    /**
+     * Returns the matcher of the smiley strings of the smileys pack. It finds
+     * the same smiley strings as the pattern of this service, without the
+     * backtracking of a regular expression.
+     *
+     * @return the matcher of the smileys pack
+     */
+    public SmileyMatcher getSmileyMatcher();
+
     /**
      * Reloads all smilies.
      */
@@ -0,0 +1,437 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.io.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+/**
+ * Process-wide cache of DNS answers.
+ *
+ * Answers are kept for the TTL of their records. Negative answers (NXDOMAIN
+ * and NODATA) are kept for the TTL derived from the SOA record of the
+ * response as described in RFC 2308, and not at all if the response has no
+ * SOA record. Entries that are looked up often are refreshed in the background
+ * shortly before they expire, so that connecting and reconnecting does not
+ * have to wait for the DNS. The cache is flushed when the network
+ * configuration changes.
+ */
+public class DnsCache
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>DnsCache</tt> class for logging
+     * output.
+     */
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(DnsCache.class);
+
+    /**
+     * The maximum time in seconds for which an answer is cached.
+     */
+    static final long MAX_TTL = 86400;
+
+    /**
+     * The maximum time in seconds for which a negative answer is cached, as
+     * recommended by RFC 2308.
+     */
+    static final long MAX_NEGATIVE_TTL = 10800;
+
+    /**
+     * The maximum number of cached answers.
+     */
+    static final int MAX_ENTRIES = 1000;
+
+    /**
+     * The number of hits after which an entry is refreshed before it expires.
+     */
+    static final int PREFETCH_HITS = 3;
+
+    /**
+     * The remaining fraction of the TTL of an entry below which a hit
+     * refreshes the entry.
+     */
+    static final double PREFETCH_WINDOW = 0.1;
+
+    /**
+     * Refreshes popular entries in the background.
+     */
+    private static final ExecutorService prefetchExecutor;
+
+    static
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            1, 1,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> {
+                Thread t = new Thread(r, "DNS cache prefetch");
+                t.setDaemon(true);
+                return t;
+            });
+
+        executor.allowCoreThreadTimeOut(true);
+        prefetchExecutor = executor;
+    }
+
+    /**
+     * The process-wide instance, resolving with the default resolver of
+     * dnsjava.
+     */
+    private static final DnsCache instance = new DnsCache(
+        Lookup::getDefaultResolver, System::currentTimeMillis,
+        prefetchExecutor);
+
+    /**
+     * Supplies the resolver that answers the queries.
+     */
+    private final Supplier<Resolver> resolver;
+
+    /**
+     * The clock in milliseconds.
+     */
+    private final LongSupplier clock;
+
+    /**
+     * Executes the refreshes of popular entries.
+     */
+    private final Executor prefetcher;
+
+    /**
+     * The cached answers by type and name.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on each flush, so that lookups that started before a flush
+     * do not cache their answers afterwards.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     *
+     * @param resolver supplies the resolver that answers the queries
+     * @param clock the clock in milliseconds
+     * @param prefetcher executes the refreshes of popular entries
+     */
+    DnsCache(Supplier<Resolver> resolver, LongSupplier clock,
+        Executor prefetcher)
+    {
+        this.resolver = resolver;
+        this.clock = clock;
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * Returns the process-wide DNS cache.
+     *
+     * @return the process-wide DNS cache
+     */
+    public static DnsCache getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Looks up the records of type <tt>type</tt> for <tt>name</tt>, from the
+     * cache if possible.
+     *
+     * @param name the name to resolve
+     * @param type the type of the records, e.g. {@link Type#SRV}
+     * @return the records, or <tt>null</tt> if there are none or the lookup
+     * failed
+     * @throws TextParseException if <tt>name</tt> is not a valid domain name.
+     */
+    public Record[] lookup(String name, int type)
+        throws TextParseException
+    {
+        String key = type + " " + name.toLowerCase(Locale.ROOT);
+        long now = clock.getAsLong();
+        Entry entry = entries.get(key);
+        if (entry != null)
+        {
+            if (now < entry.expires)
+            {
+                int hits = entry.hits.incrementAndGet();
+                if (hits >= PREFETCH_HITS
+                    && entry.records != null
+                    && now >= entry.refresh
+                    && entry.prefetching.compareAndSet(false, true))
+                {
+                    prefetch(key, name, type, hits);
+                }
+
+                if (logger.isTraceEnabled())
+                    logger.trace("DNS cache hit for " + Type.string(type)
+                        + " " + name);
+                return entry.records == null ? null : entry.records.clone();
+            }
+            entries.remove(key, entry);
+        }
+
+        entry = resolve(key, name, type, 0);
+        return entry.records == null ? null : entry.records.clone();
+    }
+
+    /**
+     * Removes all cached answers.
+     */
+    public void flush()
+    {
+        generation.incrementAndGet();
+        entries.clear();
+        logger.debug("DNS cache flushed");
+    }
+
+    /**
+     * Refreshes a popular entry in the background.
+     *
+     * @param key the key of the entry
+     * @param name the name to resolve
+     * @param type the type of the records
+     * @param hits the number of hits of the entry
+     */
+    private void prefetch(String key, String name, int type, int hits)
+    {
+        if (logger.isTraceEnabled())
+            logger.trace("Prefetching " + Type.string(type) + " " + name);
+        prefetcher.execute(() -> {
+            try
+            {
+                resolve(key, name, type, hits);
+            }
+            catch (TextParseException | RuntimeException e)
+            {
+                logger.debug("Failed to prefetch " + Type.string(type) + " "
+                    + name, e);
+            }
+        });
+    }
+
+    /**
+     * Resolves <tt>name</tt> and caches the answer.
+     *
+     * @param key the key of the entry
+     * @param name the name to resolve
+     * @param type the type of the records
+     * @param hits the number of hits carried over to the new entry
+     * @return the new entry
+     * @throws TextParseException if <tt>name</tt> is not a valid domain name.
+     */
+    private Entry resolve(String key, String name, int type, int hits)
+        throws TextParseException
+    {
+        long gen = generation.get();
+        RecordingResolver recorder = new RecordingResolver(resolver.get());
+        Lookup lookup = new Lookup(name, type);
+        lookup.setResolver(recorder);
+        // the answer is cached here, not in the cache of dnsjava
+        lookup.setCache(new Cache());
+        Record[] records = lookup.run();
+
+        long ttl;
+        switch (lookup.getResult())
+        {
+        case Lookup.SUCCESSFUL:
+            ttl = MAX_TTL;
+            for (Record r : records)
+                ttl = Math.min(ttl, r.getTTL());
+            break;
+        case Lookup.HOST_NOT_FOUND:
+        case Lookup.TYPE_NOT_FOUND:
+            ttl = Math.min(MAX_NEGATIVE_TTL,
+                Math.max(0, recorder.negativeTtl));
+            break;
+        default:
+            // temporary failures are not cached
+            ttl = 0;
+            break;
+        }
+
+        long now = clock.getAsLong();
+        Entry entry = new Entry(records, now, ttl, hits);
+        if (ttl > 0)
+        {
+            if (entries.size() >= MAX_ENTRIES)
+                entries.values().removeIf(e -> now >= e.expires);
+            if (entries.size() < MAX_ENTRIES)
+            {
+                entries.put(key, entry);
+                if (generation.get() != gen)
+                    entries.remove(key, entry);
+            }
+        }
+
+        if (logger.isTraceEnabled())
+            logger.trace("DNS lookup of " + Type.string(type) + " " + name
+                + ": " + lookup.getErrorString() + ", cached for " + ttl
+                + "s");
+        return entry;
+    }
+
+    /**
+     * A cached answer.
+     */
+    private static class Entry
+    {
+        /**
+         * The records, or <tt>null</tt> for a negative answer.
+         */
+        private final Record[] records;
+
+        /**
+         * The time in milliseconds at which the entry expires.
+         */
+        private final long expires;
+
+        /**
+         * The time in milliseconds after which a hit refreshes the entry.
+         */
+        private final long refresh;
+
+        /**
+         * The number of hits.
+         */
+        private final AtomicInteger hits;
+
+        /**
+         * Whether a refresh has been started.
+         */
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+
+        /**
+         * Creates an entry.
+         *
+         * @param records the records, or <tt>null</tt>
+         * @param now the current time in milliseconds
+         * @param ttl the TTL in seconds
+         * @param hits the initial number of hits
+         */
+        private Entry(Record[] records, long now, long ttl, int hits)
+        {
+            this.records = records;
+            this.expires = now + ttl * 1000;
+            this.refresh = expires - (long) (ttl * 1000 * PREFETCH_WINDOW);
+            this.hits = new AtomicInteger(hits);
+        }
+    }
+
+    /**
+     * Passes queries to another resolver and records the negative caching
+     * TTL of the responses.
+     */
+    private static class RecordingResolver
+        implements Resolver
+    {
+        /**
+         * The resolver that answers the queries.
+         */
+        private final Resolver delegate;
+
+        /**
+         * The smallest negative caching TTL of the responses in seconds, 0
+         * if a negative response had no SOA record or -1 if there were no
+         * negative responses.
+         */
+        private long negativeTtl = -1;
+
+        /**
+         * Creates a recording resolver.
+         *
+         * @param delegate the resolver that answers the queries
+         */
+        private RecordingResolver(Resolver delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Message send(Message query)
+            throws IOException
+        {
+            Message response = delegate.send(query);
+            int qtype = query.getQuestion().getType();
+            boolean negative = response.getRcode() == Rcode.NXDOMAIN
+                || (response.getRcode() == Rcode.NOERROR
+                    && response.getSection(Section.ANSWER).stream()
+                        .noneMatch(r -> r.getType() == qtype
+                            || r.getType() == Type.CNAME));
+            if (negative)
+            {
+                // RFC 2308 section 5: the TTL of a negative answer is the
+                // minimum of the SOA TTL and the SOA MINIMUM field
+                long ttl = 0;
+                for (Record r : response.getSection(Section.AUTHORITY))
+                {
+                    if (r instanceof SOARecord)
+                    {
+                        ttl = Math.min(r.getTTL(),
+                            ((SOARecord) r).getMinimum());
+                        break;
+                    }
+                }
+                negativeTtl
+                    = negativeTtl < 0 ? ttl : Math.min(negativeTtl, ttl);
+            }
+            return response;
+        }
+
+        @Override
+        public void setPort(int port)
+        {
+            delegate.setPort(port);
+        }
+
+        @Override
+        public void setTCP(boolean flag)
+        {
+            delegate.setTCP(flag);
+        }
+
+        @Override
+        public void setIgnoreTruncation(boolean flag)
+        {
+            delegate.setIgnoreTruncation(flag);
+        }
+
+        @Override
+        public void setEDNS(int version, int payloadSize, int flags,
+            List<EDNSOption> options)
+        {
+            delegate.setEDNS(version, payloadSize, flags, options);
+        }
+
+        @Override
+        public void setTSIGKey(TSIG key)
+        {
+            delegate.setTSIGKey(key);
+        }
+
+        @Override
+        public void setTimeout(Duration timeout)
+        {
+            delegate.setTimeout(timeout);
+        }
+    }
+}
@@ -539,14 +539,7 @@ public static SRVRecord[] getSRVRecords(
         Record[] records;
         try
         {
-            Lookup lookup = createLookup(domain, Type.SRV);
-            // Disables the DNS cache: i.e. useful when testing DNS
-            // connectivity.
-            if(!useDNSCache)
-            {
-                lookup.setCache(new Cache());
-            }
-            records = lookup.run();
+            records = lookup(domain, Type.SRV, useDNSCache);
         }
         catch (TextParseException tpe)
         {
@@ -691,8 +684,7 @@ public static String[][] getNAPTRRecords(String domain)
         Record[] records;
         try
         {
-            Lookup lookup = createLookup(domain, Type.NAPTR);
-            records = lookup.run();
+            records = lookup(domain, Type.NAPTR, true);
         }
         catch (TextParseException tpe)
         {
@@ -917,21 +909,17 @@ public static InetSocketAddress[] getAandAAAARecords(String domain, int port)
 
         for(int i = 0; i < 2; i++)
         {
-            Lookup lookup;
+            Record[] records;
             try
             {
-                lookup = createLookup(domain, v6lookup ? Type.AAAA : Type.A);
+                records
+                    = lookup(domain, v6lookup ? Type.AAAA : Type.A, true);
             }
             catch (TextParseException tpe)
             {
                 logger.error("Failed to parse domain <" + domain + ">", tpe);
                 throw new ParseException(tpe.getMessage(), 0);
             }
-            Record[] records;
-            try
-            {
-                records = lookup.run();
-            }
             catch(DnssecRuntimeException e)
             {
                 throw new DnssecException(e);
@@ -1006,8 +994,7 @@ public static InetSocketAddress getARecord(String domain, int port)
             //for starters we'd like to make sure that it works well enough
             //with SRV and NAPTR queries. We may then also adopt it for As
             //and AAAAs once it proves to be reliable (posted on: 2010-11-24)
-            Lookup lookup = createLookup(domain, Type.A);
-            records = lookup.run();
+            records = lookup(domain, Type.A, true);
         }
         catch (TextParseException tpe)
         {
@@ -1079,8 +1066,7 @@ public static InetSocketAddress getAAAARecord(String domain, int port)
             //for starters we'd like to make sure that it works well enough
             //with SRV and NAPTR queries. We may then also adopt it for As
             //and AAAAs once it proves to be reliable (posted on: 2010-11-24)
-            Lookup lookup = createLookup(domain, Type.AAAA);
-            records = lookup.run();
+            records = lookup(domain, Type.AAAA, true);
         }
         catch (TextParseException tpe)
         {
@@ -1220,16 +1206,42 @@ private static boolean isMappedIPv4Addr(byte[] address)
     }
 
     /**
-     * Creates a new {@link Lookup} instance.
+     * Looks up the records of the specified type for <tt>domain</tt>.
      *
      * @param domain the domain we will be resolving
      * @param type the type of the record we will be trying to obtain.
+     * @param useDNSCache whether the answer may come from (and is stored in)
+     * the process-wide {@link DnsCache}.
      *
-     * @return the newly created {@link Lookup} instance.
+     * @return the records or <tt>null</tt> if none were found.
      *
      * @throws TextParseException if <tt>domain</tt> is not a valid domain name.
      */
-    private static Lookup createLookup(String domain, int type)
+    private static Record[] lookup(String domain, int type,
+        boolean useDNSCache)
+        throws TextParseException
+    {
+        if (useDNSCache)
+            return DnsCache.getInstance().lookup(toQueryName(domain), type);
+
+        Lookup lookup = createLookup(domain, type);
+        // Disables the DNS cache: i.e. useful when testing DNS
+        // connectivity.
+        lookup.setCache(new Cache());
+        return lookup.run();
+    }
+
+    /**
+     * Returns the name to query for <tt>domain</tt>, made absolute if
+     * requested by the configuration.
+     *
+     * @param domain the domain we will be resolving
+     *
+     * @return the name to query.
+     *
+     * @throws TextParseException if <tt>domain</tt> is not a valid domain name.
+     */
+    private static String toQueryName(String domain)
         throws TextParseException
     {
         // make domain name absolute if requested
@@ -1240,8 +1252,23 @@ private static Lookup createLookup(String domain, int type)
             if(!Name.fromString(domain).isAbsolute())
                 domain = domain + ".";
         }
+        return domain;
+    }
 
-        Lookup lookup = new Lookup(domain, type);
+    /**
+     * Creates a new {@link Lookup} instance.
+     *
+     * @param domain the domain we will be resolving
+     * @param type the type of the record we will be trying to obtain.
+     *
+     * @return the newly created {@link Lookup} instance.
+     *
+     * @throws TextParseException if <tt>domain</tt> is not a valid domain name.
+     */
+    private static Lookup createLookup(String domain, int type)
+        throws TextParseException
+    {
+        Lookup lookup = new Lookup(toQueryName(domain), type);
 
         if(logger.isTraceEnabled())
         {
@@ -1423,10 +1450,12 @@ private static void moveSelectedSRVRecord(
     }
 
     /**
-     * Clears the default DNS cache.
+     * Clears the default DNS cache and the process-wide {@link DnsCache}.
      */
     public static void clearDefaultDNSCache()
     {
+        DnsCache.getInstance().flush();
+
         Cache defaultCache = Lookup.getDefaultCache(DClass.IN);
         defaultCache.clearCache();
     }
@@ -0,0 +1,274 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+import org.xbill.DNS.*;
+import org.xbill.DNS.Record;
+
+/**
+ * Tests the <tt>DnsCache</tt> against a local stand-in resolver.
+ */
+public class DnsCacheTest
+{
+    private static final String SRV = "_sip._udp.example.test.";
+
+    private final AtomicLong now = new AtomicLong(1000000);
+
+    private final StandInResolver resolver = new StandInResolver();
+
+    private final DnsCache cache
+        = new DnsCache(() -> resolver, now::get, Runnable::run);
+
+    private static Name name(String name)
+    {
+        try
+        {
+            return Name.fromString(name);
+        }
+        catch (TextParseException e)
+        {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static Record srv(int port, long ttl)
+    {
+        return new org.xbill.DNS.SRVRecord(name(SRV), DClass.IN, ttl, 0, 0,
+            port, name("sip.example.test."));
+    }
+
+    private static SOARecord soa(long ttl, long minimum)
+    {
+        return new SOARecord(name("example.test."), DClass.IN, ttl,
+            name("ns.example.test."), name("admin.example.test."), 1, 3600,
+            600, 86400, minimum);
+    }
+
+    private void advance(long seconds)
+    {
+        now.addAndGet(seconds * 1000);
+    }
+
+    @Test
+    public void testAnswerIsCachedForItsTtl() throws Exception
+    {
+        resolver.answers.put(SRV, srv(5060, 60));
+        assertEquals(5060,
+            ((org.xbill.DNS.SRVRecord) cache.lookup(SRV, Type.SRV)[0])
+                .getPort());
+        advance(59);
+        assertNotNull(cache.lookup(SRV, Type.SRV));
+        assertEquals(1, resolver.queries);
+        advance(2);
+        assertNotNull(cache.lookup(SRV, Type.SRV));
+        assertEquals(2, resolver.queries);
+    }
+
+    @Test
+    public void testNxdomainIsCachedForSoaMinimum() throws Exception
+    {
+        resolver.soa = soa(3600, 300);
+        assertNull(cache.lookup("missing.example.test.", Type.A));
+        advance(299);
+        assertNull(cache.lookup("missing.example.test.", Type.A));
+        assertEquals(1, resolver.queries);
+        advance(2);
+        assertNull(cache.lookup("missing.example.test.", Type.A));
+        assertEquals(2, resolver.queries);
+    }
+
+    @Test
+    public void testNodataIsCachedForSoaTtl() throws Exception
+    {
+        resolver.answers.put(SRV, srv(5060, 60));
+        resolver.soa = soa(120, 3600);
+        assertNull(cache.lookup(SRV, Type.NAPTR));
+        advance(119);
+        assertNull(cache.lookup(SRV, Type.NAPTR));
+        assertEquals(1, resolver.queries);
+        advance(2);
+        assertNull(cache.lookup(SRV, Type.NAPTR));
+        assertEquals(2, resolver.queries);
+    }
+
+    @Test
+    public void testNegativeAnswerWithoutSoaIsNotCached() throws Exception
+    {
+        assertNull(cache.lookup("missing.example.test.", Type.A));
+        assertNull(cache.lookup("missing.example.test.", Type.A));
+        assertEquals(2, resolver.queries);
+    }
+
+    @Test
+    public void testServerFailureIsNotCached() throws Exception
+    {
+        resolver.rcode = Rcode.SERVFAIL;
+        assertNull(cache.lookup(SRV, Type.SRV));
+        resolver.rcode = Rcode.NOERROR;
+        resolver.answers.put(SRV, srv(5060, 60));
+        assertNotNull(cache.lookup(SRV, Type.SRV));
+        assertEquals(2, resolver.queries);
+    }
+
+    @Test
+    public void testPopularEntryIsRefreshedBeforeExpiry() throws Exception
+    {
+        resolver.answers.put(SRV, srv(5060, 100));
+        for (int i = 0; i < DnsCache.PREFETCH_HITS; i++)
+            cache.lookup(SRV, Type.SRV);
+        assertEquals(1, resolver.queries);
+
+        resolver.answers.put(SRV, srv(5061, 100));
+        advance(95);
+        // served from the cache while the refresh runs
+        assertEquals(5060,
+            ((org.xbill.DNS.SRVRecord) cache.lookup(SRV, Type.SRV)[0])
+                .getPort());
+        assertEquals(2, resolver.queries);
+
+        advance(50);
+        assertEquals(5061,
+            ((org.xbill.DNS.SRVRecord) cache.lookup(SRV, Type.SRV)[0])
+                .getPort());
+        assertEquals(2, resolver.queries);
+    }
+
+    @Test
+    public void testUnpopularEntryIsNotRefreshed() throws Exception
+    {
+        resolver.answers.put(SRV, srv(5060, 100));
+        cache.lookup(SRV, Type.SRV);
+        advance(95);
+        cache.lookup(SRV, Type.SRV);
+        assertEquals(1, resolver.queries);
+    }
+
+    @Test
+    public void testFlush() throws Exception
+    {
+        resolver.answers.put(SRV, srv(5060, 60));
+        cache.lookup(SRV, Type.SRV);
+        cache.flush();
+        cache.lookup(SRV, Type.SRV);
+        assertEquals(2, resolver.queries);
+    }
+
+    @Test
+    public void testNamesAreCaseInsensitive() throws Exception
+    {
+        resolver.answers.put(SRV, srv(5060, 60));
+        cache.lookup(SRV, Type.SRV);
+        cache.lookup(SRV.toUpperCase(), Type.SRV);
+        assertEquals(1, resolver.queries);
+    }
+
+    @Test
+    public void testReturnedRecordsAreCopies() throws Exception
+    {
+        resolver.answers.put(SRV, srv(5060, 60));
+        cache.lookup(SRV, Type.SRV)[0] = null;
+        assertNotNull(cache.lookup(SRV, Type.SRV)[0]);
+    }
+
+    /**
+     * Answers queries from a single zone and counts them.
+     */
+    private static class StandInResolver
+        implements Resolver
+    {
+        private final Map<String, Record> answers = new HashMap<>();
+
+        private SOARecord soa;
+
+        private int rcode = Rcode.NOERROR;
+
+        private int queries;
+
+        @Override
+        public Message send(Message query)
+            throws IOException
+        {
+            queries++;
+            Record question = query.getQuestion();
+            Message response = new Message(query.getHeader().getID());
+            response.getHeader().setFlag(Flags.QR);
+            response.getHeader().setFlag(Flags.AA);
+            response.addRecord(question, Section.QUESTION);
+
+            Record answer
+                = answers.get(question.getName().toString().toLowerCase());
+            if (rcode != Rcode.NOERROR)
+            {
+                response.getHeader().setRcode(rcode);
+            }
+            else if (answer == null)
+            {
+                response.getHeader().setRcode(Rcode.NXDOMAIN);
+            }
+            else if (answer.getType() == question.getType())
+            {
+                response.addRecord(answer, Section.ANSWER);
+            }
+            if (answer == null || answer.getType() != question.getType())
+            {
+                if (soa != null)
+                    response.addRecord(soa, Section.AUTHORITY);
+            }
+            return response;
+        }
+
+        @Override
+        public void setPort(int port)
+        {
+        }
+
+        @Override
+        public void setTCP(boolean flag)
+        {
+        }
+
+        @Override
+        public void setIgnoreTruncation(boolean flag)
+        {
+        }
+
+        @Override
+        public void setEDNS(int version, int payloadSize, int flags,
+            List<EDNSOption> options)
+        {
+        }
+
+        @Override
+        public void setTSIGKey(TSIG key)
+        {
+        }
+
+        @Override
+        public void setTimeout(Duration timeout)
+        {
+        }
+    }
+}